@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso.packer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packs every file under a directory into a bundle for {@code Picasso.Builder.addAssetBundle}.
+ * The format must be kept in sync with {@code AssetBundle} in the library.
+ */
+public final class AssetPacker {
+  static final int MAGIC = 0x50494342; // "PICB"
+  static final int VERSION = 1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  public static void main(String... args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: AssetPacker <input directory> <output file>");
+      System.exit(1);
+    }
+    File input = new File(args[0]);
+    if (!input.isDirectory()) {
+      System.err.println("Not a directory: " + input);
+      System.exit(1);
+    }
+    int count = pack(input, new File(args[1]));
+    System.out.println("Packed " + count + " images into " + args[1]);
+  }
+
+  /** Packs the files under {@code directory} into {@code output}, returning how many there are. */
+  public static int pack(File directory, File output) throws IOException {
+    List<String> paths = new ArrayList<>();
+    collect(directory, "", paths);
+    File parent = output.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent);
+    }
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+    try {
+      write(directory, paths, out);
+    } finally {
+      out.close();
+    }
+    return paths.size();
+  }
+
+  private static void collect(File directory, String prefix, List<String> paths)
+      throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      throw new IOException("Unable to list " + directory);
+    }
+    // Sorted so that the same images always produce the same bundle.
+    Arrays.sort(files);
+    for (File file : files) {
+      if (file.isHidden()) {
+        continue;
+      }
+      String path = prefix + file.getName();
+      if (file.isDirectory()) {
+        collect(file, path + '/', paths);
+      } else {
+        paths.add(path);
+      }
+    }
+  }
+
+  static void write(File directory, List<String> paths, OutputStream stream) throws IOException {
+    List<byte[]> names = new ArrayList<>(paths.size());
+    long indexSize = 12;
+    for (String path : paths) {
+      byte[] name = path.getBytes(UTF_8);
+      if (name.length > 0xFFFF) {
+        throw new IOException("Path too long: " + path);
+      }
+      names.add(name);
+      indexSize += 2 + name.length + 8;
+    }
+
+    DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(paths.size());
+    long offset = indexSize;
+    for (int i = 0; i < paths.size(); i++) {
+      long length = new File(directory, paths.get(i)).length();
+      if (offset + length > Integer.MAX_VALUE) {
+        throw new IOException("Bundle larger than 2 GB.");
+      }
+      byte[] name = names.get(i);
+      out.writeShort(name.length);
+      out.write(name);
+      out.writeInt((int) offset);
+      out.writeInt((int) length);
+      offset += length;
+    }
+
+    byte[] buffer = new byte[8192];
+    for (String path : paths) {
+      File file = new File(directory, path);
+      long remaining = file.length();
+      InputStream in = new FileInputStream(file);
+      try {
+        // Exactly the length written to the index, in case the file changed since.
+        while (remaining > 0) {
+          int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+          if (read == -1) {
+            throw new IOException("File changed while packing: " + path);
+          }
+          out.write(buffer, 0, read);
+          remaining -= read;
+        }
+      } finally {
+        in.close();
+      }
+    }
+    out.flush();
+  }
+
+  private AssetPacker() {
+    throw new AssertionError("No instances.");
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso.packer;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class AssetPackerTest {
+  private File root;
+
+  @Before public void setUp() throws IOException {
+    root = File.createTempFile("packer", "");
+    assertThat(root.delete()).isTrue();
+    assertThat(root.mkdir()).isTrue();
+  }
+
+  @After public void tearDown() {
+    delete(root);
+  }
+
+  @Test public void packsFilesInPathOrder() throws IOException {
+    File images = new File(root, "images");
+    write(new File(images, "onboarding/step1.png"), "one");
+    write(new File(images, "logo.png"), "logo");
+    File bundle = new File(root, "out/images.picb");
+
+    assertThat(AssetPacker.pack(images, bundle)).isEqualTo(2);
+
+    DataInputStream in = new DataInputStream(new FileInputStream(bundle));
+    try {
+      assertThat(in.readInt()).isEqualTo(AssetPacker.MAGIC);
+      assertThat(in.readInt()).isEqualTo(AssetPacker.VERSION);
+      assertThat(in.readInt()).isEqualTo(2);
+      int indexSize = 12 + (2 + 8 + 8) + (2 + 20 + 8);
+
+      assertThat(in.readUTF()).isEqualTo("logo.png");
+      assertThat(in.readInt()).isEqualTo(indexSize);
+      assertThat(in.readInt()).isEqualTo(4);
+
+      assertThat(in.readUTF()).isEqualTo("onboarding/step1.png");
+      assertThat(in.readInt()).isEqualTo(indexSize + 4);
+      assertThat(in.readInt()).isEqualTo(3);
+
+      byte[] data = new byte[7];
+      in.readFully(data);
+      assertThat(new String(data, "UTF-8")).isEqualTo("logoone");
+      assertThat(in.read()).isEqualTo(-1);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test public void skipsHiddenFiles() throws IOException {
+    File images = new File(root, "images");
+    write(new File(images, ".DS_Store"), "hidden");
+    write(new File(images, "logo.png"), "logo");
+
+    assertThat(AssetPacker.pack(images, new File(root, "images.picb"))).isEqualTo(1);
+  }
+
+  private static void write(File file, String contents) throws IOException {
+    assertThat(file.getParentFile().isDirectory() || file.getParentFile().mkdirs()).isTrue();
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(contents.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+}
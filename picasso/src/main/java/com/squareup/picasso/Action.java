@@ -44,6 +44,7 @@ abstract class Action<T> {
   final Object tag;
 
   boolean willReplay;
+  boolean willRevalidate;
   boolean cancelled;
 
   Action(Picasso picasso, T target, Request request, int memoryPolicy, int networkPolicy,
@@ -89,6 +90,20 @@ abstract class Action<T> {
     return willReplay;
   }
 
+  boolean willRevalidate() {
+    return willRevalidate;
+  }
+
+  /** True if the target keeps showing the bitmap delivered to it. */
+  boolean showsResult() {
+    return false;
+  }
+
+  /** True if the target can no longer show an image, so replaying this action is pointless. */
+  boolean isTargetGone() {
+    return false;
+  }
+
   int getMemoryPolicy() {
     return memoryPolicy;
   }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The bitmaps targets are currently showing, so that one the memory cache has evicted is still
+ * found while it is on screen instead of being loaded again. Bitmaps are only weakly referenced
+ * and do not count against the size of the memory cache.
+ * <p>
+ * A target references the bitmap delivered to it until it is given another request, its request
+ * is cancelled, or it is garbage collected. A bitmap is forgotten once no target references it.
+ * Safe for use from any thread.
+ */
+final class ActiveResources {
+  private final Map<CacheKey, Resource> resources = new HashMap<>();
+  private final Map<Object, TargetReference> targets = new WeakHashMap<>();
+  /** Keeps references reachable until their target is collected and they are enqueued. */
+  private final Set<TargetReference> references = new HashSet<>();
+  private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+  /** Returns the bitmap shown for {@code key}, or null. The key is not retained. */
+  synchronized Bitmap get(CacheKey key) {
+    expungeCollectedTargets();
+    Resource resource = resources.get(key);
+    if (resource == null) {
+      return null;
+    }
+    Bitmap bitmap = resource.bitmap.get();
+    return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+  }
+
+  /** Returns the key of the bitmap {@code target} shows, or null. */
+  synchronized CacheKey getKey(Object target) {
+    TargetReference reference = targets.get(target);
+    return reference != null ? reference.resource.key : null;
+  }
+
+  /** Records that {@code target} shows {@code bitmap}, instead of what it showed before. */
+  synchronized void activate(Object target, CacheKey key, Bitmap bitmap) {
+    expungeCollectedTargets();
+    Resource resource = resources.get(key);
+    TargetReference existing = targets.get(target);
+    if (existing != null && existing.resource == resource) {
+      // Shown again, e.g. a recycled view bound to the same image. Nothing is allocated.
+      if (resource.bitmap.get() != bitmap) {
+        resource.bitmap = new WeakReference<>(bitmap);
+      }
+      return;
+    }
+    releaseTarget(target);
+    resource = resources.get(key);
+    if (resource == null) {
+      resource = new Resource(key, bitmap);
+      resources.put(resource.key, resource);
+    } else if (resource.bitmap.get() != bitmap) {
+      resource.bitmap = new WeakReference<>(bitmap);
+    }
+    resource.references++;
+    TargetReference reference = new TargetReference(target, resource, queue);
+    targets.put(target, reference);
+    references.add(reference);
+  }
+
+  /** Records that {@code target} no longer shows the bitmap delivered to it. */
+  synchronized void release(Object target) {
+    expungeCollectedTargets();
+    releaseTarget(target);
+  }
+
+  /** Forgets the bitmaps for {@code uri}, like {@link Cache#clearKeyUri(String)}. */
+  synchronized void clearKeyUri(String uri) {
+    for (Iterator<Resource> i = resources.values().iterator(); i.hasNext();) {
+      if (i.next().key.uri.equals(uri)) {
+        i.remove();
+      }
+    }
+  }
+
+  synchronized void clear() {
+    for (TargetReference reference : references) {
+      reference.clear();
+    }
+    references.clear();
+    targets.clear();
+    resources.clear();
+  }
+
+  synchronized int size() {
+    expungeCollectedTargets();
+    return resources.size();
+  }
+
+  private void releaseTarget(Object target) {
+    TargetReference reference = targets.remove(target);
+    if (reference != null) {
+      // Cleared so that it is not enqueued and released again when the target is collected.
+      reference.clear();
+      release(reference);
+    }
+  }
+
+  private void expungeCollectedTargets() {
+    Reference<?> reference;
+    while ((reference = queue.poll()) != null) {
+      release((TargetReference) reference);
+    }
+  }
+
+  private void release(TargetReference reference) {
+    references.remove(reference);
+    Resource resource = reference.resource;
+    // The resource may already have been replaced or cleared.
+    if (--resource.references == 0 && resources.get(resource.key) == resource) {
+      resources.remove(resource.key);
+    }
+  }
+
+  private static final class Resource {
+    final CacheKey key;
+    WeakReference<Bitmap> bitmap;
+    int references;
+
+    Resource(CacheKey key, Bitmap bitmap) {
+      this.key = key;
+      this.bitmap = new WeakReference<>(bitmap);
+    }
+  }
+
+  private static final class TargetReference extends WeakReference<Object> {
+    final Resource resource;
+
+    TargetReference(Object target, Resource resource, ReferenceQueue<Object> queue) {
+      super(target, queue);
+      this.resource = resource;
+    }
+  }
+}
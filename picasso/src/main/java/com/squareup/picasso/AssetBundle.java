@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.res.AssetFileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import okio.Buffer;
+import okio.Source;
+import okio.Timeout;
+
+/**
+ * Images packed into a single uncompressed asset by the Picasso asset packer. The asset is mapped
+ * into memory once, after which its images are read from the mapping without being opened.
+ * <p>
+ * The format is big-endian: the magic number {@code PICB}, the format version and the number of
+ * images are followed by the path, offset and length of each image, and then by their data.
+ * Paths are relative to the assets directory, UTF-8 encoded and preceded by their length in bytes
+ * as an unsigned short. Offsets are from the start of the bundle.
+ */
+final class AssetBundle {
+  static final int MAGIC = 0x50494342; // "PICB"
+  static final int VERSION = 1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final ByteBuffer data;
+  private final Map<String, Entry> entries;
+
+  AssetBundle(ByteBuffer data) throws IOException {
+    this.data = data;
+    ByteBuffer index = data.duplicate();
+    try {
+      if (index.getInt() != MAGIC) {
+        throw new IOException("Not an asset bundle.");
+      }
+      int version = index.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported asset bundle version " + version + ".");
+      }
+      int count = index.getInt();
+      entries = new HashMap<>(count);
+      for (int i = 0; i < count; i++) {
+        byte[] path = new byte[index.getShort() & 0xFFFF];
+        index.get(path);
+        int offset = index.getInt();
+        int length = index.getInt();
+        if (offset < 0 || length < 0 || offset > data.capacity() - length) {
+          throw new IOException("Corrupt asset bundle.");
+        }
+        entries.put(new String(path, UTF_8), new Entry(offset, length));
+      }
+    } catch (RuntimeException e) {
+      // Reading past the end of a truncated index.
+      throw new IOException("Corrupt asset bundle.", e);
+    }
+  }
+
+  /** Maps the bundle in {@code fd} into memory. The descriptor is closed afterwards. */
+  static AssetBundle open(AssetFileDescriptor fd) throws IOException {
+    FileInputStream stream = fd.createInputStream();
+    try {
+      long length = fd.getLength();
+      if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+        length = stream.getChannel().size() - fd.getStartOffset();
+      }
+      // The mapping remains valid once the file is closed.
+      return new AssetBundle(stream.getChannel()
+          .map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), length));
+    } finally {
+      stream.close();
+    }
+  }
+
+  /** Returns the image at {@code path}, or null if it is not in this bundle. */
+  Source source(String path) {
+    Entry entry = entries.get(path);
+    if (entry == null) {
+      return null;
+    }
+    ByteBuffer image = data.duplicate();
+    image.limit(entry.offset + entry.length);
+    image.position(entry.offset);
+    return new ByteBufferSource(image);
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  private static final class Entry {
+    final int offset;
+    final int length;
+
+    Entry(int offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /** Reads the remaining bytes of a buffer, such as a slice of the mapping. */
+  private static final class ByteBufferSource implements Source {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final ByteBuffer buffer;
+    private byte[] chunk;
+
+    ByteBufferSource(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override public long read(Buffer sink, long byteCount) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      if (chunk == null) {
+        chunk = new byte[Math.min(CHUNK_SIZE, buffer.remaining())];
+      }
+      int count = (int) Math.min(byteCount, Math.min(chunk.length, buffer.remaining()));
+      buffer.get(chunk, 0, count);
+      sink.write(chunk, 0, count);
+      return count;
+    }
+
+    @Override public Timeout timeout() {
+      return Timeout.NONE;
+    }
+
+    @Override public void close() {
+    }
+  }
+}
@@ -18,12 +18,17 @@ package com.squareup.picasso;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.net.Uri;
+import android.util.Log;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import okio.Okio;
 import okio.Source;
 
 import static android.content.ContentResolver.SCHEME_FILE;
 import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
+import static com.squareup.picasso.Picasso.TAG;
 
 class AssetRequestHandler extends RequestHandler {
   protected static final String ANDROID_ASSET = "android_asset";
@@ -31,11 +36,22 @@ class AssetRequestHandler extends RequestHandler {
       (SCHEME_FILE + ":///" + ANDROID_ASSET + "/").length();
 
   private final Context context;
+  private final List<String> bundleNames;
   private final Object lock = new Object();
   private AssetManager assetManager;
+  private List<AssetBundle> bundles;
 
   public AssetRequestHandler(Context context) {
+    this(context, Collections.<String>emptyList());
+  }
+
+  /**
+   * Serves the images packed into the assets named {@code bundleNames} from them, and any other
+   * asset on its own.
+   */
+  AssetRequestHandler(Context context, List<String> bundleNames) {
     this.context = context;
+    this.bundleNames = bundleNames;
   }
 
   @Override public boolean canHandleRequest(Request data) {
@@ -48,14 +64,43 @@ class AssetRequestHandler extends RequestHandler {
     if (assetManager == null) {
       synchronized (lock) {
         if (assetManager == null) {
-          assetManager = context.getAssets();
+          AssetManager assets = context.getAssets();
+          bundles = openBundles(assets, bundleNames);
+          assetManager = assets;
         }
       }
     }
-    Source source = Okio.source(assetManager.open(getFilePath(request)));
+    String path = getFilePath(request);
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0, n = bundles.size(); i < n; i++) {
+      Source source = bundles.get(i).source(path);
+      if (source != null) {
+        return new Result(source, DISK);
+      }
+    }
+    Source source = Okio.source(assetManager.open(path));
     return new Result(source, DISK);
   }
 
+  /**
+   * Opens the bundles named {@code names}. A bundle which cannot be opened is skipped, so that its
+   * images are loaded from their own assets rather than failing every asset request.
+   */
+  private static List<AssetBundle> openBundles(AssetManager assets, List<String> names) {
+    List<AssetBundle> bundles = new ArrayList<>(names.size());
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0, n = names.size(); i < n; i++) {
+      String name = names.get(i);
+      try {
+        // Fails unless the bundle is stored uncompressed.
+        bundles.add(AssetBundle.open(assets.openFd(name)));
+      } catch (IOException e) {
+        Log.w(TAG, "Asset bundle " + name + " could not be opened.", e);
+      }
+    }
+    return bundles;
+  }
+
   static String getFilePath(Request request) {
     return request.uri.toString().substring(ASSET_PREFIX_LENGTH);
   }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import okhttp3.Call;
+import okhttp3.Response;
+
+/**
+ * A {@link Downloader} which can also download without blocking the calling thread. When
+ * {@link Picasso.Builder#asyncDownloads(boolean) enabled}, network images are downloaded this way
+ * and only handed to Picasso's executor for decoding so the number of concurrent downloads is not
+ * limited by its threads.
+ */
+public interface AsyncDownloader extends Downloader {
+  /**
+   * Start downloading the specified image {@code url} from the internet. Exactly one of the
+   * methods of {@code callback} is called once done, on any thread. The returned call is canceled
+   * if the image is no longer needed.
+   */
+  @NonNull Call load(@NonNull okhttp3.Request request, @NonNull ResponseCallback callback);
+
+  /** Receives the outcome of {@link #load(okhttp3.Request, ResponseCallback)}. */
+  interface ResponseCallback {
+    /** The response, which must be closed, has been received. Its body may still be streaming. */
+    void onResponse(@NonNull Response response);
+
+    /** The request could not be executed. */
+    void onFailure(@NonNull IOException e);
+  }
+}
@@ -17,18 +17,32 @@ package com.squareup.picasso;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
 import android.net.NetworkInfo;
 import android.os.Build;
 import android.view.Gravity;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import okio.Buffer;
 import okio.BufferedSource;
 import okio.Okio;
 import okio.Source;
@@ -41,17 +55,23 @@ import static android.media.ExifInterface.ORIENTATION_ROTATE_90;
 import static android.media.ExifInterface.ORIENTATION_TRANSPOSE;
 import static android.media.ExifInterface.ORIENTATION_TRANSVERSE;
 import static com.squareup.picasso.MemoryPolicy.shouldReadFromMemoryCache;
+import static com.squareup.picasso.MemoryPolicy.shouldWriteToMemoryCache;
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
 import static com.squareup.picasso.Picasso.Priority;
 import static com.squareup.picasso.Picasso.Priority.LOW;
 import static com.squareup.picasso.Utils.OWNER_HUNTER;
 import static com.squareup.picasso.Utils.VERB_DECODED;
 import static com.squareup.picasso.Utils.VERB_EXECUTING;
 import static com.squareup.picasso.Utils.VERB_JOINED;
+import static com.squareup.picasso.Utils.VERB_PREFETCHED;
 import static com.squareup.picasso.Utils.VERB_REMOVED;
 import static com.squareup.picasso.Utils.VERB_TRANSFORMED;
+import static com.squareup.picasso.Utils.getFromCache;
 import static com.squareup.picasso.Utils.getLogIdsForHunter;
 import static com.squareup.picasso.Utils.log;
+import static com.squareup.picasso.Utils.setInCache;
 
 class BitmapHunter implements Runnable {
   /**
@@ -67,8 +87,12 @@ class BitmapHunter implements Runnable {
     }
   };
 
+  private static final long PREFETCH_READ_SIZE = 8192;
+
   private static final AtomicInteger SEQUENCE_GENERATOR = new AtomicInteger();
 
+  private static final float[] IDENTITY_COLORS = new ColorMatrix().getArray();
+
   private static final RequestHandler ERRORING_HANDLER = new RequestHandler() {
     @Override public boolean canHandleRequest(Request data) {
       return true;
@@ -85,8 +109,9 @@ class BitmapHunter implements Runnable {
   final Cache cache;
   final Stats stats;
   final String key;
+  final CacheKey cacheKey;
   final Request data;
-  final int memoryPolicy;
+  int memoryPolicy;
   int networkPolicy;
   final RequestHandler requestHandler;
 
@@ -94,11 +119,23 @@ class BitmapHunter implements Runnable {
   List<Action> actions;
   Bitmap result;
   Future<?> future;
+  RequestHandler.Result downloaded; // Set when downloaded ahead of hunting, see downloadAsync().
+  NetworkRequestHandler.AsyncLoad asyncLoad; // Set while downloading, see downloadAsync().
+  boolean memoryCacheChecked; // Set when checked ahead of hunting, see checkMemoryCache().
+  Bitmap memoryCacheResult;
   Picasso.LoadedFrom loadedFrom;
+  long loadNanos; // Time spent loading, decoding and transforming the result, see hunt().
   Exception exception;
   int exifOrientation; // Determined during decoding of original resource.
   int retryCount;
   Priority priority;
+  boolean revalidation; // Set when checking a stale image with the server, see revalidate().
+  final boolean diskOnly; // Set for prefetches, which are never decoded, see prefetch().
+  /**
+   * Set while {@link #run()} runs, or for good once {@link #preventRun()} stops it from starting.
+   * A canceled hunter still running keeps its concurrency slot until it finishes.
+   */
+  final AtomicBoolean running = new AtomicBoolean();
 
   BitmapHunter(Picasso picasso, Dispatcher dispatcher, Cache cache, Stats stats, Action action,
       RequestHandler requestHandler) {
@@ -110,11 +147,13 @@ class BitmapHunter implements Runnable {
     this.action = action;
     this.key = action.getKey();
     this.data = action.getRequest();
+    this.cacheKey = CacheKey.create(data);
     this.priority = action.getPriority();
     this.memoryPolicy = action.getMemoryPolicy();
     this.networkPolicy = action.getNetworkPolicy();
     this.requestHandler = requestHandler;
     this.retryCount = requestHandler.getRetryCount();
+    this.diskOnly = action instanceof PrefetchAction;
   }
 
   /**
@@ -123,7 +162,8 @@ class BitmapHunter implements Runnable {
    * {@code inSampleSize}).
    */
   static Bitmap decodeStream(Source source, Request request) throws IOException {
-    BufferedSource bufferedSource = Okio.buffer(source);
+    BufferedSource bufferedSource =
+        source instanceof BufferedSource ? (BufferedSource) source : Okio.buffer(source);
 
     boolean isWebPFile = Utils.isWebPFile(bufferedSource);
     boolean isPurgeable = request.purgeable && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP;
@@ -164,7 +204,31 @@ class BitmapHunter implements Runnable {
     }
   }
 
+  /**
+   * Decode an image straight from {@code file}, without copying its bytes through a stream. The
+   * bounds are read in a first pass when needed, after which the file is read again from its start.
+   */
+  static Bitmap decodeFile(FileInputStream file, Request request) throws IOException {
+    FileDescriptor fd = file.getFD();
+    BitmapFactory.Options options = RequestHandler.createBitmapOptions(request);
+    if (RequestHandler.requiresInSampleSize(options)) {
+      BitmapFactory.decodeFileDescriptor(fd, null, options);
+      RequestHandler.calculateInSampleSize(request.targetWidth, request.targetHeight, options,
+          request);
+      file.getChannel().position(0);
+    }
+    Bitmap bitmap = BitmapFactory.decodeFileDescriptor(fd, null, options);
+    if (bitmap == null) {
+      // Treat null as an IO exception, we will eventually retry.
+      throw new IOException("Failed to decode file.");
+    }
+    return bitmap;
+  }
+
   @Override public void run() {
+    if (!running.compareAndSet(false, true)) {
+      return; // Canceled before it started, see preventRun().
+    }
     try {
       updateThreadName(data);
 
@@ -174,7 +238,7 @@ class BitmapHunter implements Runnable {
 
       result = hunt();
 
-      if (result == null) {
+      if (result == null && !diskOnly) {
         dispatcher.dispatchFailed(this);
       } else {
         dispatcher.dispatchComplete(this);
@@ -197,15 +261,154 @@ class BitmapHunter implements Runnable {
       dispatcher.dispatchFailed(this);
     } finally {
       Thread.currentThread().setName(Utils.THREAD_IDLE_NAME);
+      running.set(false);
+    }
+  }
+
+  /**
+   * Hunts on the calling thread for a hunter registered by {@link RequestCreator#get()}. The
+   * result is dispatched like that of {@link #run()} so it is cached and delivered to any actions
+   * which joined in the meantime. Failures are not retried as the caller is waiting on them.
+   */
+  Bitmap huntSynchronously() throws IOException {
+    try {
+      result = hunt();
+      return result;
+    } catch (IOException e) {
+      exception = e;
+      throw e;
+    } catch (RuntimeException e) {
+      exception = e;
+      throw e;
+    } finally {
+      if (result != null) {
+        dispatcher.dispatchComplete(this);
+      } else {
+        dispatcher.dispatchFailed(this);
+      }
+    }
+  }
+
+  /** True if this hunter can download its image using {@link #downloadAsync()}. */
+  boolean canDownloadAsync() {
+    return !diskOnly
+        && requestHandler instanceof NetworkRequestHandler
+        && ((NetworkRequestHandler) requestHandler).supportsAsyncLoad()
+        && !NetworkPolicy.shouldServeStale(networkPolicy)
+        && !NetworkPolicy.isRevalidation(networkPolicy);
+  }
+
+  /** True if the result is a possibly stale image which should be checked with the server. */
+  boolean shouldRevalidate() {
+    return !revalidation && !diskOnly && loadedFrom == DISK
+        && NetworkPolicy.shouldServeStale(networkPolicy);
+  }
+
+  /**
+   * Turns this new hunter into one which checks the stale image served for its actions with the
+   * server. It runs at low priority, bypasses the memory cache and only produces a result if the
+   * image changed.
+   */
+  void revalidate() {
+    revalidation = true;
+    memoryPolicy |= MemoryPolicy.NO_CACHE.index;
+    networkPolicy &= ~NetworkPolicy.STALE_WHILE_REVALIDATE.index;
+    networkPolicy |= NetworkPolicy.REVALIDATE;
+    priority = Priority.LOW;
+  }
+
+  /**
+   * Downloads the image without occupying a thread. Once downloaded the hunter is handed back to
+   * the dispatcher to be run for decoding, or to be retried or failed like {@link #run()}.
+   */
+  void downloadAsync() {
+    if (picasso.loggingEnabled) {
+      log(OWNER_HUNTER, VERB_EXECUTING, getLogIdsForHunter(this), "download");
+    }
+    networkPolicy = retryCount == 0 ? NetworkPolicy.OFFLINE.index : networkPolicy;
+    final long startNanos = System.nanoTime();
+    // The hunter is submitted again once downloaded, unless the download is canceled before.
+    future = null;
+    asyncLoad = ((NetworkRequestHandler) requestHandler).loadAsync(data, networkPolicy,
+        new NetworkRequestHandler.LoadCallback() {
+          @Override public void onLoaded(RequestHandler.Result result) {
+            loadNanos = System.nanoTime() - startNanos;
+            downloaded = result;
+            dispatcher.dispatchDownloaded(BitmapHunter.this);
+          }
+
+          @Override public void onFailure(IOException e) {
+            if (e instanceof NetworkRequestHandler.ResponseException) {
+              NetworkRequestHandler.ResponseException re =
+                  (NetworkRequestHandler.ResponseException) e;
+              if (!NetworkPolicy.isOfflineOnly(re.networkPolicy) || re.code != 504) {
+                exception = e;
+              }
+              dispatcher.dispatchFailed(BitmapHunter.this);
+            } else {
+              exception = e;
+              dispatcher.dispatchRetry(BitmapHunter.this);
+            }
+          }
+        });
+  }
+
+  /**
+   * Closes the result downloaded ahead of hunting when it is not going to be decoded, since it may
+   * hold an open file of the disk cache. A bitmap loaded ahead is only ever held by this hunter,
+   * so it is recycled.
+   */
+  void discardDownloaded() {
+    RequestHandler.Result result = downloaded;
+    downloaded = null;
+    if (result == null) {
+      return;
+    }
+    if (result.getSource() != null) {
+      try {
+        result.getSource().close();
+      } catch (IOException ignored) {
+      }
+    } else if (result.getBitmap() != null) {
+      result.getBitmap().recycle();
     }
   }
 
+  /**
+   * Looks the image up in the memory cache ahead of {@link #hunt()}, which then does not look
+   * again. Returns true if it was found, in which case there is nothing to load.
+   */
+  boolean checkMemoryCache() {
+    if (!shouldReadFromMemoryCache(memoryPolicy)) {
+      return false;
+    }
+    memoryCacheResult = getFromMemoryCache();
+    memoryCacheChecked = true;
+    return memoryCacheResult != null;
+  }
+
+  private Bitmap getFromMemoryCache() {
+    return cache instanceof KeyedCache ? ((KeyedCache) cache).get(cacheKey) : cache.get(key);
+  }
+
   Bitmap hunt() throws IOException {
+    if (diskOnly) {
+      prefetch();
+      return null;
+    }
+
+    long startNanos = System.nanoTime();
+    if (downloaded == null) {
+      loadNanos = 0; // Otherwise the time of the asynchronous download counts too.
+    }
     Bitmap bitmap = null;
 
     if (shouldReadFromMemoryCache(memoryPolicy)) {
-      bitmap = cache.get(key);
+      bitmap = memoryCacheChecked ? memoryCacheResult : getFromMemoryCache();
+      memoryCacheChecked = false;
+      memoryCacheResult = null;
       if (bitmap != null) {
+        discardDownloaded();
         stats.dispatchCacheHit();
         loadedFrom = MEMORY;
         if (picasso.loggingEnabled) {
@@ -215,43 +418,98 @@ class BitmapHunter implements Runnable {
       }
     }
 
-    networkPolicy = retryCount == 0 ? NetworkPolicy.OFFLINE.index : networkPolicy;
-    RequestHandler.Result result = requestHandler.load(data, networkPolicy);
-    if (result != null) {
-      loadedFrom = result.getLoadedFrom();
-      exifOrientation = result.getExifOrientation();
-      bitmap = result.getBitmap();
+    // Number of custom transformations already applied to the bitmap.
+    int transformed = 0;
+    boolean resumed = false;
+    if (shouldReadFromMemoryCache(memoryPolicy) && cachesTransformations()) {
+      for (int i = data.transformations.size() - 1; i >= 0 && bitmap == null; i--) {
+        Bitmap cached = getFromCache(picasso.transformationCache, CacheKey.create(data, i));
+        if (cached != null) {
+          // Transformations may recycle their input so never hand them the cached instance.
+          bitmap = cached.copy(getConfig(cached), true);
+          transformed = i;
+        }
+      }
+      if (bitmap != null) {
+        discardDownloaded();
+        stats.dispatchTransformationCacheHit();
+        loadedFrom = MEMORY;
+        resumed = true;
+        if (picasso.loggingEnabled) {
+          log(OWNER_HUNTER, VERB_DECODED, data.logId(), "from transformation cache");
+        }
+      } else {
+        stats.dispatchTransformationCacheMiss();
+      }
+    }
 
-      // If there was no Bitmap then we need to decode it from the stream.
-      if (bitmap == null) {
-        Source source = result.getSource();
-        try {
-          bitmap = decodeStream(source, data);
-        } finally {
+    if (!resumed) {
+      RequestHandler.Result result = downloaded;
+      if (result != null) {
+        downloaded = null;
+      } else {
+        networkPolicy = retryCount == 0 ? NetworkPolicy.OFFLINE.index : networkPolicy;
+        result = requestHandler.load(data, networkPolicy);
+      }
+      if (result != null) {
+        loadedFrom = result.getLoadedFrom();
+        exifOrientation = result.getExifOrientation();
+        bitmap = result.getBitmap();
+
+        // If there was no Bitmap then we need to decode it from the stream.
+        if (bitmap == null) {
+          Source source = result.getSource();
+          FileInputStream file = result.getFile();
           try {
-            //noinspection ConstantConditions If bitmap is null then source is guranteed non-null.
-            source.close();
-          } catch (IOException ignored) {
+            if (file != null) {
+              if (exifOrientation == 0) {
+                exifOrientation = ExifReader.readOrientation(Okio.buffer(Okio.source(file)));
+                file.getChannel().position(0);
+              }
+              bitmap = decodeFile(file, data);
+            } else {
+              BufferedSource bufferedSource = Okio.buffer(source);
+              if (exifOrientation == 0) {
+                // Only peeks at the header, which is then decoded from the same buffer.
+                exifOrientation = ExifReader.readOrientation(bufferedSource);
+              }
+              bitmap = decodeStream(bufferedSource, data);
+            }
+          } finally {
+            try {
+              //noinspection ConstantConditions If bitmap is null then source is guranteed non-null.
+              source.close();
+            } catch (IOException ignored) {
+            }
           }
         }
       }
     }
 
     if (bitmap != null) {
-      if (picasso.loggingEnabled) {
-        log(OWNER_HUNTER, VERB_DECODED, data.logId());
+      if (!resumed) {
+        if (picasso.loggingEnabled) {
+          log(OWNER_HUNTER, VERB_DECODED, data.logId());
+        }
+        stats.dispatchBitmapDecoded(bitmap);
       }
-      stats.dispatchBitmapDecoded(bitmap);
       if (data.needsTransformation() || exifOrientation != 0) {
         synchronized (DECODE_LOCK) {
-          if (data.needsMatrixTransform() || exifOrientation != 0) {
-            bitmap = transformResult(data, bitmap, exifOrientation);
-            if (picasso.loggingEnabled) {
-              log(OWNER_HUNTER, VERB_TRANSFORMED, data.logId());
+          if (!resumed) {
+            // Leading canvas transformations are drawn together with the matrix transform.
+            transformed = data.hasCustomTransformations()
+                ? canvasTransformationsEnd(data.transformations, 0) : 0;
+            if (data.needsMatrixTransform() || exifOrientation != 0 || transformed > 0) {
+              bitmap = transformResult(data, bitmap, exifOrientation, transformed > 0
+                  ? canvasTransformations(data.transformations, 0, transformed) : null);
+              if (picasso.loggingEnabled) {
+                log(OWNER_HUNTER, VERB_TRANSFORMED, data.logId());
+              }
             }
           }
-          if (data.hasCustomTransformations()) {
-            bitmap = applyCustomTransformations(data.transformations, bitmap);
+          if (bitmap != null && data.hasCustomTransformations()
+              && transformed < data.transformations.size()) {
+            bitmap = applyCustomTransformations(transformed, bitmap, !resumed);
             if (picasso.loggingEnabled) {
               log(OWNER_HUNTER, VERB_TRANSFORMED, data.logId(), "from custom transformations");
             }
@@ -263,9 +521,53 @@ class BitmapHunter implements Runnable {
       }
     }
 
+    loadNanos += System.nanoTime() - startNanos;
     return bitmap;
   }
 
+  /**
+   * Applies the request's custom transformations from {@code start} onwards, saving the result
+   * of each step but the last to the transformation cache. The result before the first step is
+   * only saved when {@code cacheStart} is true.
+   */
+  private Bitmap applyCustomTransformations(int start, Bitmap bitmap, boolean cacheStart) {
+    List<Transformation> transformations = data.transformations;
+    int count = transformations.size();
+    if (!cachesTransformations() || !shouldWriteToMemoryCache(memoryPolicy)) {
+      return applyCustomTransformations(transformations, start, count, bitmap);
+    }
+    if (cacheStart) {
+      cacheTransformed(start, bitmap);
+    }
+    int i = start;
+    while (i < count && bitmap != null) {
+      int end = transformations.get(i) instanceof CanvasTransformation
+          ? canvasTransformationsEnd(transformations, i) : i + 1;
+      bitmap = applyCustomTransformations(transformations, i, end, bitmap);
+      if (bitmap != null && end < count) {
+        cacheTransformed(end, bitmap);
+      }
+      i = end;
+    }
+    return bitmap;
+  }
+
+  private void cacheTransformed(int transformationCount, Bitmap bitmap) {
+    Bitmap copy = bitmap.copy(getConfig(bitmap), false);
+    if (copy != null) {
+      setInCache(picasso.transformationCache, CacheKey.create(data, transformationCount), copy);
+    }
+  }
+
+  private boolean cachesTransformations() {
+    return data.hasCustomTransformations() && picasso.transformationCache.maxSize() > 0;
+  }
+
+  private static Bitmap.Config getConfig(Bitmap bitmap) {
+    Bitmap.Config config = bitmap.getConfig();
+    return config != null ? config : Bitmap.Config.ARGB_8888;
+  }
+
   void attach(Action action) {
     boolean loggingEnabled = picasso.loggingEnabled;
     Request request = action.request;
@@ -347,14 +649,34 @@ class BitmapHunter implements Runnable {
   }
 
   boolean cancel() {
-    return action == null
-        && (actions == null || actions.isEmpty())
-        && future != null
-        && future.cancel(false);
+    if (action != null || (actions != null && !actions.isEmpty())) {
+      return false;
+    }
+    if (future != null) {
+      return future.cancel(false);
+    }
+    if (asyncLoad != null) {
+      asyncLoad.cancel();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if this canceled hunter is not running and now never will. Otherwise it is
+   * running and reports back to the dispatcher once it finishes, like any other hunter.
+   */
+  boolean preventRun() {
+    return running.compareAndSet(false, true);
   }
 
   boolean isCancelled() {
-    return future != null && future.isCancelled();
+    return future != null ? future.isCancelled() : asyncLoad != null && asyncLoad.isCanceled();
+  }
+
+  /** The number of times this hunter has been retried so far. */
+  int getRetryAttempt() {
+    return requestHandler.getRetryCount() - retryCount;
   }
 
   boolean shouldRetry(boolean airplaneMode, NetworkInfo info) {
@@ -378,6 +700,10 @@ class BitmapHunter implements Runnable {
     return key;
   }
 
+  CacheKey getCacheKey() {
+    return cacheKey;
+  }
+
   int getMemoryPolicy() {
     return memoryPolicy;
   }
@@ -420,6 +746,41 @@ class BitmapHunter implements Runnable {
     Thread.currentThread().setName(builder.toString());
   }
 
+  /**
+   * Loads the image so that it lands in the disk cache of the {@link Downloader}. Its bytes are
+   * read and thrown away without being decoded. {@link #loadedFrom} is only set once the image
+   * is stored.
+   */
+  private void prefetch() throws IOException {
+    if (!(requestHandler instanceof NetworkRequestHandler)) {
+      // Images from other sources are available offline already.
+      loadedFrom = DISK;
+      return;
+    }
+
+    networkPolicy = retryCount == 0 ? NetworkPolicy.OFFLINE.index : networkPolicy;
+    RequestHandler.Result result = requestHandler.load(data, networkPolicy);
+    Source source = result.getSource();
+    try {
+      if (result.getLoadedFrom() == NETWORK) {
+        // The disk cache only keeps a response once all of its body has been read.
+        Buffer buffer = new Buffer();
+        while (source.read(buffer, PREFETCH_READ_SIZE) != -1) {
+          buffer.clear();
+        }
+      }
+    } finally {
+      try {
+        source.close();
+      } catch (IOException ignored) {
+      }
+    }
+    loadedFrom = result.getLoadedFrom();
+    if (picasso.loggingEnabled) {
+      log(OWNER_HUNTER, VERB_PREFETCHED, data.logId(), "from " + loadedFrom);
+    }
+  }
+
   static BitmapHunter forRequest(Picasso picasso, Dispatcher dispatcher, Cache cache, Stats stats,
       Action action) {
     Request request = action.getRequest();
@@ -438,8 +799,26 @@ class BitmapHunter implements Runnable {
   }
 
   static Bitmap applyCustomTransformations(List<Transformation> transformations, Bitmap result) {
-    for (int i = 0, count = transformations.size(); i < count; i++) {
+    return applyCustomTransformations(transformations, 0, transformations.size(), result);
+  }
+
+  static Bitmap applyCustomTransformations(List<Transformation> transformations, int start,
+      int end, Bitmap result) {
+    for (int i = start; i < end; i++) {
       final Transformation transformation = transformations.get(i);
+      if (transformation instanceof CanvasTransformation) {
+        int runEnd = Math.min(canvasTransformationsEnd(transformations, i), end);
+        int width = result.getWidth();
+        int height = result.getHeight();
+        result = drawFused(result, 0, 0, width, height, new Matrix(),
+            canvasTransformations(transformations, i, runEnd));
+        if (result == null) {
+          return null;
+        }
+        i = runEnd - 1;
+        continue;
+      }
+
       Bitmap newResult;
       try {
         newResult = transformation.transform(result);
@@ -500,6 +879,15 @@ class BitmapHunter implements Runnable {
   }
 
   static Bitmap transformResult(Request data, Bitmap result, int exifOrientation) {
+    return transformResult(data, result, exifOrientation, null);
+  }
+
+  /**
+   * Applies the request's matrix transform to {@code result}. When {@code fused} is non-null
+   * those transformations are drawn in the same pass instead of being applied afterwards.
+   */
+  static Bitmap transformResult(Request data, Bitmap result, int exifOrientation,
+      List<CanvasTransformation> fused) {
     int inWidth = result.getWidth();
     int inHeight = result.getHeight();
     boolean onlyScaleDown = data.onlyScaleDown;
@@ -641,6 +1029,10 @@ class BitmapHunter implements Runnable {
       }
     }
 
+    if (fused != null) {
+      return drawFused(result, drawX, drawY, drawWidth, drawHeight, matrix, fused);
+    }
+
     Bitmap newResult =
         Bitmap.createBitmap(result, drawX, drawY, drawWidth, drawHeight, matrix, true);
     if (newResult != result) {
@@ -651,6 +1043,112 @@ class BitmapHunter implements Runnable {
     return result;
   }
 
+  /**
+   * Draws the {@code width} by {@code height} region of {@code source} at {@code x},{@code y}
+   * through {@code matrix} into a new bitmap, applying {@code transformations} in the same draw.
+   * This mirrors {@link Bitmap#createBitmap(Bitmap, int, int, int, int, Matrix, boolean)}. Only
+   * one shape can be drawn at a time so transformations after a second shape get a pass of their
+   * own. The source is always recycled.
+   */
+  static Bitmap drawFused(Bitmap source, int x, int y, int width, int height, Matrix matrix,
+      List<CanvasTransformation> transformations) {
+    RectF bounds = new RectF(0, 0, width, height);
+    matrix.mapRect(bounds);
+    int outWidth = Math.round(bounds.width());
+    int outHeight = Math.round(bounds.height());
+
+    Matrix drawMatrix = new Matrix(matrix);
+    drawMatrix.postTranslate(-bounds.left, -bounds.top);
+
+    ColorMatrix colorMatrix = new ColorMatrix();
+    Path shape = null;
+    int count = transformations.size();
+    int drawn = 0;
+    for (; drawn < count; drawn++) {
+      final CanvasTransformation transformation = transformations.get(drawn);
+      try {
+        Path transformationShape = transformation.getShape(outWidth, outHeight);
+        if (transformationShape != null) {
+          if (shape != null) {
+            break;
+          }
+          shape = transformationShape;
+        }
+        transformation.transformColors(colorMatrix);
+      } catch (final RuntimeException e) {
+        Picasso.HANDLER.post(new Runnable() {
+          @Override public void run() {
+            throw new RuntimeException(
+                "Transformation " + transformation.key() + " crashed with exception.", e);
+          }
+        });
+        return null;
+      }
+    }
+
+    boolean rectStaysRect = drawMatrix.rectStaysRect();
+    Bitmap.Config config = source.getConfig();
+    if (config == null || shape != null || !rectStaysRect) {
+      config = Bitmap.Config.ARGB_8888;
+    }
+    Bitmap output = Bitmap.createBitmap(outWidth, outHeight, config);
+    output.setDensity(source.getDensity());
+
+    Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+    if (!Arrays.equals(colorMatrix.getArray(), IDENTITY_COLORS)) {
+      paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+    }
+
+    Canvas canvas = new Canvas(output);
+    if (shape == null) {
+      canvas.concat(drawMatrix);
+      canvas.drawBitmap(source, new Rect(x, y, x + width, y + height),
+          new RectF(0, 0, width, height), paint);
+    } else {
+      if (!rectStaysRect) {
+        // Keep pixels outside of the source region from being sampled by the shader.
+        Path region = new Path();
+        region.addRect(0, 0, width, height, Path.Direction.CW);
+        region.transform(drawMatrix);
+        canvas.clipPath(region);
+      }
+      Matrix shaderMatrix = new Matrix(drawMatrix);
+      shaderMatrix.preTranslate(-x, -y);
+      BitmapShader shader =
+          new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+      shader.setLocalMatrix(shaderMatrix);
+      paint.setShader(shader);
+      paint.setAntiAlias(true);
+      canvas.drawPath(shape, paint);
+    }
+    source.recycle();
+
+    if (drawn < count) {
+      return drawFused(output, 0, 0, outWidth, outHeight, new Matrix(),
+          transformations.subList(drawn, count));
+    }
+    return output;
+  }
+
+  /** Returns the end of the run of {@link CanvasTransformation}s beginning at {@code start}. */
+  static int canvasTransformationsEnd(List<Transformation> transformations, int start) {
+    int end = start;
+    while (end < transformations.size()
+        && transformations.get(end) instanceof CanvasTransformation) {
+      end++;
+    }
+    return end;
+  }
+
+  private static List<CanvasTransformation> canvasTransformations(
+      List<Transformation> transformations, int start, int end) {
+    List<CanvasTransformation> run = new ArrayList<>(end - start);
+    for (int i = start; i < end; i++) {
+      run.add((CanvasTransformation) transformations.get(i));
+    }
+    return run;
+  }
+
   private static boolean shouldResize(boolean onlyScaleDown, int inWidth, int inHeight,
       int targetWidth, int targetHeight) {
     return !onlyScaleDown || (targetWidth != 0 && inWidth > targetWidth)
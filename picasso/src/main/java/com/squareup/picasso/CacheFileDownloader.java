@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.File;
+import okhttp3.Response;
+
+/**
+ * A {@link Downloader} whose disk cache keeps each response body as is in a file of its own.
+ * Images served from the disk cache are decoded straight from that file instead of being copied
+ * through the response body.
+ */
+public interface CacheFileDownloader extends Downloader {
+  /**
+   * Returns the file holding the body of {@code response}, or null if the body was not served
+   * from the disk cache or is not stored as is, for example because it is compressed. The file is
+   * opened while the body of {@code response} is still open.
+   */
+  @Nullable File cacheFile(@NonNull Response response);
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.squareup.picasso.Utils.KEY_SEPARATOR;
+
+/**
+ * Identifies an image in a {@link KeyedCache}: its source and everything applied to it once
+ * loaded. Keys are immutable and their hash is computed once up front so lookups never need to
+ * build or compare long strings.
+ */
+public final class CacheKey {
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final String[] NO_TRANSFORMATIONS = new String[0];
+
+  final String uri;
+  final float rotationDegrees;
+  final float rotationPivotX;
+  final float rotationPivotY;
+  final boolean hasRotationPivot;
+  final int targetWidth;
+  final int targetHeight;
+  final boolean centerCrop;
+  final int centerCropGravity;
+  final boolean centerInside;
+  final String[] transformationKeys;
+  final long hash;
+
+  /** The equivalent {@link Cache} key. Built lazily as it is only needed for string caches. */
+  private String string;
+
+  static CacheKey create(Request data) {
+    int transformationCount = data.transformations != null ? data.transformations.size() : 0;
+    return create(data, transformationCount);
+  }
+
+  /** Create the key for {@code data} with only its first {@code transformationCount} applied. */
+  static CacheKey create(Request data, int transformationCount) {
+    String uri;
+    if (data.stableKey != null) {
+      uri = data.stableKey;
+    } else if (data.uri != null) {
+      uri = data.uri.toString();
+    } else {
+      uri = Integer.toString(data.resourceId);
+    }
+    String[] transformationKeys = NO_TRANSFORMATIONS;
+    if (transformationCount > 0) {
+      transformationKeys = new String[transformationCount];
+      for (int i = 0; i < transformationCount; i++) {
+        transformationKeys[i] = data.transformations.get(i).key();
+      }
+    }
+    return new CacheKey(uri, data.rotationDegrees, data.rotationPivotX, data.rotationPivotY,
+        data.hasRotationPivot, data.targetWidth, data.targetHeight, data.centerCrop,
+        data.centerCropGravity, data.centerInside, transformationKeys);
+  }
+
+  private CacheKey(String uri, float rotationDegrees, float rotationPivotX, float rotationPivotY,
+      boolean hasRotationPivot, int targetWidth, int targetHeight, boolean centerCrop,
+      int centerCropGravity, boolean centerInside, String[] transformationKeys) {
+    this.uri = uri;
+    this.rotationDegrees = rotationDegrees;
+    this.rotationPivotX = rotationPivotX;
+    this.rotationPivotY = rotationPivotY;
+    this.hasRotationPivot = hasRotationPivot;
+    this.targetWidth = targetWidth;
+    this.targetHeight = targetHeight;
+    this.centerCrop = centerCrop;
+    this.centerCropGravity = centerCropGravity;
+    this.centerInside = centerInside;
+    this.transformationKeys = transformationKeys;
+    this.hash = computeHash();
+  }
+
+  /**
+   * Returns the key whose {@link #toString() string form} is {@code string}, or null if no key
+   * has it, like keys callers of a {@link Cache} made up themselves.
+   */
+  static CacheKey parse(String string) {
+    int end = string.indexOf(KEY_SEPARATOR);
+    if (end < 0 || string.charAt(string.length() - 1) != KEY_SEPARATOR) {
+      return null;
+    }
+    String uri = string.substring(0, end);
+    float rotationDegrees = 0;
+    float rotationPivotX = 0;
+    float rotationPivotY = 0;
+    boolean hasRotationPivot = false;
+    int targetWidth = 0;
+    int targetHeight = 0;
+    boolean centerCrop = false;
+    int centerCropGravity = 0;
+    boolean centerInside = false;
+    List<String> transformationKeys = null;
+    // Parts always come in this order, see toString().
+    boolean rotated = false;
+    boolean resized = false;
+    boolean scaled = false;
+    try {
+      for (int start = end + 1; start < string.length(); start = end + 1) {
+        end = string.indexOf(KEY_SEPARATOR, start);
+        String part = string.substring(start, end);
+        if (!rotated && !resized && !scaled && part.startsWith("rotation:")) {
+          int pivot = part.indexOf('@');
+          if (pivot < 0) {
+            rotationDegrees = Float.parseFloat(part.substring(9));
+          } else {
+            int x = part.indexOf('x', pivot);
+            rotationDegrees = Float.parseFloat(part.substring(9, pivot));
+            hasRotationPivot = true;
+            rotationPivotX = Float.parseFloat(part.substring(pivot + 1, x));
+            rotationPivotY = Float.parseFloat(part.substring(x + 1));
+          }
+          rotated = true;
+        } else if (!resized && !scaled && part.startsWith("resize:")) {
+          int x = part.indexOf('x');
+          targetWidth = Integer.parseInt(part.substring(7, x));
+          targetHeight = Integer.parseInt(part.substring(x + 1));
+          resized = true;
+        } else if (!scaled && transformationKeys == null && part.startsWith("centerCrop:")) {
+          centerCrop = true;
+          centerCropGravity = Integer.parseInt(part.substring(11));
+          scaled = true;
+        } else if (!scaled && transformationKeys == null && part.equals("centerInside")) {
+          centerInside = true;
+          scaled = true;
+        } else {
+          if (transformationKeys == null) {
+            transformationKeys = new ArrayList<>();
+          }
+          transformationKeys.add(part);
+          rotated = resized = scaled = true;
+        }
+      }
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      return null;
+    }
+    CacheKey key = new CacheKey(uri, rotationDegrees, rotationPivotX, rotationPivotY,
+        hasRotationPivot, targetWidth, targetHeight, centerCrop, centerCropGravity, centerInside,
+        transformationKeys != null
+            ? transformationKeys.toArray(new String[transformationKeys.size()])
+            : NO_TRANSFORMATIONS);
+    // Parts which could not have come from a request, like a rotation by zero, are not its key.
+    return string.equals(key.toString()) ? key : null;
+  }
+
+  /**
+   * Returns the key a {@link KeyedCache} should store {@code string} under so that it is also
+   * found by the equivalent {@link CacheKey}, or {@code string} itself if there is none.
+   */
+  static Object forString(String string) {
+    CacheKey key = parse(string);
+    return key != null ? key : string;
+  }
+
+  private long computeHash() {
+    // The String hash codes used here are cached by String itself, so for URIs this is cheap.
+    long hash = mix(FNV_OFFSET_BASIS, uri.hashCode());
+    hash = mix(hash, Float.floatToIntBits(rotationDegrees));
+    if (hasRotationPivot) {
+      hash = mix(hash, Float.floatToIntBits(rotationPivotX));
+      hash = mix(hash, Float.floatToIntBits(rotationPivotY));
+    }
+    hash = mix(hash, targetWidth);
+    hash = mix(hash, targetHeight);
+    hash = mix(hash, centerCrop ? centerCropGravity : -1);
+    hash = mix(hash, centerInside ? 1 : 0);
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0, n = transformationKeys.length; i < n; i++) {
+      hash = mix(hash, transformationKeys[i].hashCode());
+    }
+    return hash;
+  }
+
+  private static long mix(long hash, int value) {
+    for (int shift = 0; shift < 32; shift += 8) {
+      hash ^= (value >>> shift) & 0xff;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /** The source of the image. This is what {@link Cache#clearKeyUri(String)} matches against. */
+  @NonNull public String uri() {
+    return uri;
+  }
+
+  /** A 64-bit hash of this key. */
+  public long hash() {
+    return hash;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof CacheKey)) {
+      return false;
+    }
+    CacheKey other = (CacheKey) o;
+    return hash == other.hash
+        && targetWidth == other.targetWidth
+        && targetHeight == other.targetHeight
+        && Float.compare(rotationDegrees, other.rotationDegrees) == 0
+        && hasRotationPivot == other.hasRotationPivot
+        && (!hasRotationPivot || (Float.compare(rotationPivotX, other.rotationPivotX) == 0
+            && Float.compare(rotationPivotY, other.rotationPivotY) == 0))
+        && centerCrop == other.centerCrop
+        && (!centerCrop || centerCropGravity == other.centerCropGravity)
+        && centerInside == other.centerInside
+        && uri.equals(other.uri)
+        && Arrays.equals(transformationKeys, other.transformationKeys);
+  }
+
+  @Override public int hashCode() {
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  /** Returns the same key as used with a {@link Cache} for the same request. */
+  @Override public String toString() {
+    String string = this.string;
+    if (string == null) {
+      StringBuilder builder = new StringBuilder(uri.length() + Utils.KEY_PADDING);
+      builder.append(uri).append(KEY_SEPARATOR);
+      if (rotationDegrees != 0) {
+        builder.append("rotation:").append(rotationDegrees);
+        if (hasRotationPivot) {
+          builder.append('@').append(rotationPivotX).append('x').append(rotationPivotY);
+        }
+        builder.append(KEY_SEPARATOR);
+      }
+      if (targetWidth != 0 || targetHeight != 0) {
+        builder.append("resize:").append(targetWidth).append('x').append(targetHeight);
+        builder.append(KEY_SEPARATOR);
+      }
+      if (centerCrop) {
+        builder.append("centerCrop:").append(centerCropGravity).append(KEY_SEPARATOR);
+      } else if (centerInside) {
+        builder.append("centerInside").append(KEY_SEPARATOR);
+      }
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0, n = transformationKeys.length; i < n; i++) {
+        builder.append(transformationKeys[i]).append(KEY_SEPARATOR);
+      }
+      this.string = string = builder.toString();
+    }
+    return string;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.ColorMatrix;
+import android.graphics.Path;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A {@link Transformation} which can be expressed as part of a single canvas draw.
+ * <p>
+ * Consecutive canvas transformations are fused with the built-in resize, crop and rotation into
+ * one draw into a single output bitmap instead of each allocating a bitmap of its own.
+ * {@link #transform(android.graphics.Bitmap)} is still required and is used when the
+ * transformation is applied on its own.
+ */
+public interface CanvasTransformation extends Transformation {
+  /**
+   * Concatenate this transformation's color changes onto {@code colorMatrix}, which is shared
+   * with the other transformations of the same draw. Leave it untouched if colors are unchanged.
+   */
+  void transformColors(@NonNull ColorMatrix colorMatrix);
+
+  /**
+   * Returns the shape the output of {@code width} by {@code height} should be clipped to, or
+   * {@code null} to keep it rectangular. Pixels outside of the shape are transparent.
+   */
+  @Nullable Path getShape(int width, int height);
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+/**
+ * Hints sent along with network requests so that servers can pick a cheaper format and size for
+ * each image instead of sending the original which is then downsampled on the device.
+ * <p>
+ * Requests {@link #accept(String) accept} formats such as WebP and carry the
+ * <a href="https://httpwg.org/http-extensions/client-hints.html">client hints</a> {@code Width},
+ * the target width in pixels from {@link RequestCreator#resize(int, int)}, and {@code DPR}, the
+ * density of the display. Servers which vary their response on these headers must list them in
+ * {@code Vary} so that the disk cache of the {@link Downloader} keeps the right variant. Widths are
+ * rounded up to a {@link Builder#widthStep(int) step} so that similar sizes share a variant.
+ *
+ * @see Picasso.Builder#clientHints(ClientHints)
+ * @see Picasso.Builder#clientHints(String, ClientHints)
+ */
+public final class ClientHints {
+  /** Accepts WebP before other image formats. */
+  public static final String ACCEPT_WEBP = "image/webp,image/*;q=0.8";
+
+  /** Sends no hints, for example to exclude a host from the hints used for all others. */
+  public static final ClientHints NONE =
+      new Builder().accept(null).width(false).dpr(false).build();
+
+  @Nullable final String accept;
+  final boolean width;
+  final boolean dpr;
+  final int widthStep;
+
+  ClientHints(Builder builder) {
+    this.accept = builder.accept;
+    this.width = builder.width;
+    this.dpr = builder.dpr;
+    this.widthStep = builder.widthStep;
+  }
+
+  /** Returns {@code width} rounded up to the next multiple of the {@link #widthStep}. */
+  int roundWidth(int width) {
+    return (width + widthStep - 1) / widthStep * widthStep;
+  }
+
+  /** Fluent API for creating {@link ClientHints} instances. */
+  @SuppressWarnings("UnusedDeclaration") // Public API.
+  public static final class Builder {
+    // Lossless and transparent WebP images can only be decoded from Android 4.3 on.
+    @Nullable String accept =
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 ? ACCEPT_WEBP : null;
+    boolean width = true;
+    boolean dpr = true;
+    int widthStep = 64;
+
+    /**
+     * The {@code Accept} header of requests, or null to send none. Defaults to
+     * {@link #ACCEPT_WEBP} from Android 4.3 on, where all kinds of WebP images can be decoded.
+     */
+    public Builder accept(@Nullable String accept) {
+      this.accept = accept;
+      return this;
+    }
+
+    /** Whether requests for resized images carry their target width. Enabled by default. */
+    public Builder width(boolean width) {
+      this.width = width;
+      return this;
+    }
+
+    /** Whether requests carry the density of the display. Enabled by default. */
+    public Builder dpr(boolean dpr) {
+      this.dpr = dpr;
+      return this;
+    }
+
+    /**
+     * The multiple in pixels which the {@code Width} hint is rounded up to. Larger steps let more
+     * requests share a variant in the disk cache at the expense of bigger downloads.
+     */
+    public Builder widthStep(int widthStep) {
+      if (widthStep <= 0) {
+        throw new IllegalArgumentException("Width step must be positive.");
+      }
+      this.widthStep = widthStep;
+      return this;
+    }
+
+    /** Create the {@link ClientHints}. */
+    public ClientHints build() {
+      return new ClientHints(this);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caps how many hunters run at once for the same host, for the same {@link RequestHandler} and
+ * for {@link RequestCreator#prefetch() prefetches}. Hunters over a cap wait here, without a
+ * thread, until a running hunter for it finishes. Only used from the dispatcher thread.
+ */
+final class ConcurrencyLimiter {
+  static final int UNLIMITED = Integer.MAX_VALUE;
+  static final int DEFAULT_MAX_PREFETCHES = 2;
+
+  final int maxPerHost;
+  final int maxPerHandler;
+  final int maxPrefetches;
+  private final Set<BitmapHunter> running = new HashSet<>();
+  private final Map<String, Integer> runningPerHost = new HashMap<>();
+  private final Map<RequestHandler, Integer> runningPerHandler = new HashMap<>();
+  private int runningPrefetches;
+  final List<BitmapHunter> waiting = new ArrayList<>();
+
+  ConcurrencyLimiter(int maxPerHost, int maxPerHandler, int maxPrefetches) {
+    this.maxPerHost = maxPerHost;
+    this.maxPerHandler = maxPerHandler;
+    this.maxPrefetches = maxPrefetches;
+  }
+
+  private boolean isUnlimited(BitmapHunter hunter) {
+    return maxPerHost == UNLIMITED && maxPerHandler == UNLIMITED
+        && (!hunter.diskOnly || maxPrefetches == UNLIMITED);
+  }
+
+  /**
+   * Returns true if {@code hunter} may run now, counting it as running until it is
+   * {@link #release released}. Otherwise it is kept waiting to be returned by {@link #poll}.
+   */
+  boolean tryAcquire(BitmapHunter hunter) {
+    if (isUnlimited(hunter)) {
+      return true;
+    }
+    if (!canRun(hunter)) {
+      waiting.add(hunter);
+      return false;
+    }
+    acquire(hunter);
+    return true;
+  }
+
+  /** Stops counting {@code hunter} as running. Does nothing if it was not running. */
+  void release(BitmapHunter hunter) {
+    if (!running.remove(hunter)) {
+      return;
+    }
+    String host = getHost(hunter);
+    if (host != null) {
+      decrement(runningPerHost, host);
+    }
+    decrement(runningPerHandler, hunter.requestHandler);
+    if (hunter.diskOnly) {
+      runningPrefetches--;
+    }
+  }
+
+  /**
+   * Returns the most important waiting hunter which may now run, counting it as running, or null
+   * if none can.
+   */
+  BitmapHunter poll() {
+    BitmapHunter next = null;
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0, n = waiting.size(); i < n; i++) {
+      BitmapHunter hunter = waiting.get(i);
+      if ((next == null || hunter.getPriority().ordinal() > next.getPriority().ordinal())
+          && canRun(hunter)) {
+        next = hunter;
+      }
+    }
+    if (next != null) {
+      waiting.remove(next);
+      acquire(next);
+    }
+    return next;
+  }
+
+  /** Returns true if {@code hunter} was waiting and no longer is. */
+  boolean removeWaiting(BitmapHunter hunter) {
+    return waiting.remove(hunter);
+  }
+
+  private boolean canRun(BitmapHunter hunter) {
+    String host = getHost(hunter);
+    return (host == null || count(runningPerHost, host) < maxPerHost)
+        && count(runningPerHandler, hunter.requestHandler) < maxPerHandler
+        && (!hunter.diskOnly || runningPrefetches < maxPrefetches);
+  }
+
+  private void acquire(BitmapHunter hunter) {
+    running.add(hunter);
+    String host = getHost(hunter);
+    if (host != null) {
+      runningPerHost.put(host, count(runningPerHost, host) + 1);
+    }
+    RequestHandler handler = hunter.requestHandler;
+    runningPerHandler.put(handler, count(runningPerHandler, handler) + 1);
+    if (hunter.diskOnly) {
+      runningPrefetches++;
+    }
+  }
+
+  private static String getHost(BitmapHunter hunter) {
+    Request data = hunter.getData();
+    return data.uri != null ? data.uri.getHost() : null;
+  }
+
+  private static <K> int count(Map<K, Integer> counts, K key) {
+    Integer count = counts.get(key);
+    return count != null ? count : 0;
+  }
+
+  private static <K> void decrement(Map<K, Integer> counts, K key) {
+    int count = count(counts, key) - 1;
+    if (count == 0) {
+      counts.remove(key);
+    } else {
+      counts.put(key, count);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which contact a contact or lookup URI resolves to and whether that contact has a
+ * photo, so that rows which are bound again do not query the contacts provider again. Everything
+ * is forgotten whenever the contacts change. Safe for use from any thread.
+ */
+final class ContactsPhotoCache {
+  /** Stands for URIs which resolve to no contact, or to a contact without a photo. */
+  static final Uri NO_PHOTO = Uri.EMPTY;
+  /** URIs beyond this many are forgotten, least recently used first. */
+  private static final int MAX_SIZE = 512;
+
+  private final ContentResolver contentResolver;
+  private final LinkedHashMap<String, Uri> contactUris =
+      new LinkedHashMap<String, Uri>(0, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Uri> eldest) {
+          return size() > MAX_SIZE;
+        }
+      };
+  private ContentObserver observer;
+  /** Incremented whenever everything is forgotten, so lookups running meanwhile are dropped. */
+  private int generation;
+
+  ContactsPhotoCache(ContentResolver contentResolver) {
+    this.contentResolver = contentResolver;
+  }
+
+  /**
+   * Starts to look up {@code uri}, returning the generation to {@link #put} the result with.
+   * Changes of the contacts are observed from the first lookup on.
+   */
+  synchronized int begin() {
+    if (observer == null) {
+      observer = new ContentObserver(null) {
+        @Override public void onChange(boolean selfChange) {
+          clear();
+        }
+      };
+      contentResolver.registerContentObserver(ContactsContract.AUTHORITY_URI, true, observer);
+    }
+    return generation;
+  }
+
+  /**
+   * Returns the contact URI {@code uri} resolves to, {@link #NO_PHOTO} if it is known to have no
+   * photo or null if it is not known.
+   */
+  synchronized Uri get(Uri uri) {
+    return contactUris.get(uri.toString());
+  }
+
+  /** Remembers what {@code uri} resolves to unless the contacts changed since {@link #begin}. */
+  synchronized void put(Uri uri, Uri contactUri, int generation) {
+    if (generation == this.generation) {
+      contactUris.put(uri.toString(), contactUri);
+    }
+  }
+
+  /** Forgets everything. */
+  synchronized void clear() {
+    contactUris.clear();
+    generation++;
+  }
+
+  /** Stops listening to changes of the contacts. */
+  synchronized void shutdown() {
+    if (observer != null) {
+      contentResolver.unregisterContentObserver(observer);
+      observer = null;
+    }
+    clear();
+  }
+
+  synchronized int size() {
+    return contactUris.size();
+  }
+}
@@ -53,9 +53,11 @@ class ContactsPhotoRequestHandler extends RequestHandler {
   }
 
   private final Context context;
+  final ContactsPhotoCache photoCache;
 
   ContactsPhotoRequestHandler(Context context) {
     this.context = context;
+    this.photoCache = new ContactsPhotoCache(context.getContentResolver());
   }
 
   @Override public boolean canHandleRequest(Request data) {
@@ -78,13 +80,9 @@ class ContactsPhotoRequestHandler extends RequestHandler {
     Uri uri = data.uri;
     switch (matcher.match(uri)) {
       case ID_LOOKUP:
-        uri = ContactsContract.Contacts.lookupContact(contentResolver, uri);
-        if (uri == null) {
-          return null;
-        }
-        // Resolved the uri to a contact uri, intentionally fall through to process the resolved uri
+        return openContactPhoto(contentResolver, uri, true);
       case ID_CONTACT:
-        return openContactPhotoInputStream(contentResolver, uri, true);
+        return openContactPhoto(contentResolver, uri, false);
       case ID_THUMBNAIL:
       case ID_DISPLAY_PHOTO:
         return contentResolver.openInputStream(uri);
@@ -92,4 +90,31 @@ class ContactsPhotoRequestHandler extends RequestHandler {
         throw new IllegalStateException("Invalid uri: " + uri);
     }
   }
+
+  /**
+   * Opens the photo of the contact at {@code uri}, first resolving it to a contact URI if it is a
+   * lookup URI. Both the contact and whether it has a photo are remembered.
+   */
+  private InputStream openContactPhoto(ContentResolver contentResolver, Uri uri,
+      boolean isLookup) {
+    int generation = photoCache.begin();
+    Uri contactUri = photoCache.get(uri);
+    if (contactUri == ContactsPhotoCache.NO_PHOTO) {
+      return null;
+    }
+    if (contactUri == null) {
+      contactUri = isLookup ? ContactsContract.Contacts.lookupContact(contentResolver, uri) : uri;
+      if (contactUri == null) {
+        photoCache.put(uri, ContactsPhotoCache.NO_PHOTO, generation);
+        return null;
+      }
+    }
+    InputStream is = openContactPhotoInputStream(contentResolver, contactUri, true);
+    photoCache.put(uri, is != null ? contactUri : ContactsPhotoCache.NO_PHOTO, generation);
+    return is;
+  }
+
+  @Override void shutdown() {
+    photoCache.shutdown();
+  }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import okhttp3.Response;
+
+/** Adds the {@link ClientHints} configured for the host of each request to it. */
+final class ContentNegotiation {
+  static final ContentNegotiation NONE =
+      new ContentNegotiation(ClientHints.NONE, Collections.<String, ClientHints>emptyMap(), 1f);
+
+  static final String ACCEPT = "Accept";
+  static final String WIDTH = "Width";
+  static final String DPR = "DPR";
+  private static final String[] HINTS = {ACCEPT, WIDTH, DPR};
+
+  final ClientHints clientHints;
+  final Map<String, ClientHints> hostClientHints;
+  final float density;
+
+  ContentNegotiation(ClientHints clientHints, Map<String, ClientHints> hostClientHints,
+      float density) {
+    this.clientHints = clientHints;
+    this.hostClientHints = hostClientHints;
+    this.density = density;
+  }
+
+  ClientHints forHost(String host) {
+    ClientHints hints = hostClientHints.get(host);
+    return hints != null ? hints : clientHints;
+  }
+
+  void apply(Request request, okhttp3.Request.Builder builder) {
+    ClientHints hints = forHost(request.uri.getHost());
+    if (hints.accept != null) {
+      builder.header(ACCEPT, hints.accept);
+    }
+    if (hints.width && request.targetWidth > 0) {
+      builder.header(WIDTH, Integer.toString(hints.roundWidth(request.targetWidth)));
+    }
+    if (hints.dpr) {
+      builder.header(DPR, Float.toString(density));
+    }
+  }
+
+  /**
+   * True if {@code response} was downloaded and the server chose it based on hints which were
+   * sent for it, as told by its {@code Vary} header.
+   */
+  static boolean isNegotiated(Response response) {
+    Response networkResponse = response.networkResponse();
+    if (networkResponse == null) {
+      return false;
+    }
+    okhttp3.Request sent = networkResponse.request();
+    List<String> varies = response.headers("Vary");
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0, n = varies.size(); i < n; i++) {
+      for (String field : varies.get(i).split(",")) {
+        field = field.trim();
+        for (String hint : HINTS) {
+          if (hint.equalsIgnoreCase(field) && sent.header(hint) != null) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+}
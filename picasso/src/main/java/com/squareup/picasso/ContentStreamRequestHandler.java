@@ -17,6 +17,8 @@ package com.squareup.picasso;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.os.ParcelFileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,8 +40,31 @@ class ContentStreamRequestHandler extends RequestHandler {
   }
 
   @Override public Result load(Request request, int networkPolicy) throws IOException {
-    Source source = Okio.source(getInputStream(request));
-    return new Result(source, DISK);
+    return loadFile(request);
+  }
+
+  /**
+   * Loads the image of {@code request} as a result which can be decoded straight from its file,
+   * or as a plain stream if it is not backed by a whole, regular file.
+   */
+  Result loadFile(Request request) throws IOException {
+    ParcelFileDescriptor fd;
+    try {
+      fd = context.getContentResolver().openFileDescriptor(request.uri, "r");
+    } catch (FileNotFoundException e) {
+      // Thrown for files which are only part of a larger one, like uncompressed assets.
+      fd = null;
+    }
+    if (fd == null) {
+      Source source = Okio.source(getInputStream(request));
+      return new Result(source, DISK);
+    }
+    FileInputStream stream = new ParcelFileDescriptor.AutoCloseInputStream(fd);
+    if (fd.getStatSize() < 0) {
+      // Pipes and sockets cannot be read twice, so they are decoded from a buffered stream.
+      return new Result(Okio.source(stream), DISK);
+    }
+    return new Result(stream, DISK);
   }
 
   InputStream getInputStream(Request request) throws FileNotFoundException {
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A memory cache which evicts the images that are cheapest to load again for the memory they
+ * take, using the GreedyDual-Size-Frequency policy. An image which took seconds to download is
+ * kept over several that were decoded from resources in a few milliseconds, and images used
+ * often are kept over those used once.
+ * <p>
+ * The cost of an image is the time Picasso spent loading, decoding and transforming it. Images
+ * stored through the plain {@link Cache} methods are given the average cost of those Picasso
+ * stored. The priority of every image is raised to that of the last one evicted whenever it is
+ * used, so that images which were once expensive or popular still age out.
+ */
+public final class CostAwareCache implements KeyedCache {
+  /** Orders entries by priority, and those of equal priority by least recent use. */
+  private static final Comparator<Entry> PRIORITY_ORDER = new Comparator<Entry>() {
+    @Override public int compare(Entry a, Entry b) {
+      int result = Double.compare(a.priority, b.priority);
+      if (result != 0) {
+        return result;
+      }
+      return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+    }
+  };
+  private static final long UNKNOWN_COST = -1;
+
+  /** Keys are either a {@link String} or a {@link CacheKey}. */
+  private final Map<Object, Entry> entries = new HashMap<>();
+  private final TreeSet<Entry> queue = new TreeSet<>(PRIORITY_ORDER);
+  private final int maxSize;
+
+  private int size;
+  private double inflation; // The priority of the last evicted entry.
+  private long sequence;
+  private long totalCostNanos;
+  private int costCount;
+  private int putCount;
+  private int evictionCount;
+  private int hitCount;
+  private int missCount;
+
+  /** Create a cache using an appropriate portion of the available RAM as the maximum size. */
+  public CostAwareCache(@NonNull Context context) {
+    this(Utils.calculateMemoryCacheSize(context));
+  }
+
+  /** Create a cache with a given maximum size in bytes. */
+  public CostAwareCache(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Max size must be positive.");
+    }
+    this.maxSize = maxSize;
+  }
+
+  @Override public Bitmap get(@NonNull String key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+    return getInternal(CacheKey.forString(key));
+  }
+
+  @Override public Bitmap get(@NonNull CacheKey key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+    return getInternal(key);
+  }
+
+  private synchronized Bitmap getInternal(Object key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      missCount++;
+      return null;
+    }
+    hitCount++;
+    queue.remove(entry);
+    entry.frequency++;
+    prioritize(entry);
+    queue.add(entry);
+    return entry.bitmap;
+  }
+
+  @Override public void set(@NonNull String key, @NonNull Bitmap bitmap) {
+    if (key == null || bitmap == null) {
+      throw new NullPointerException("key == null || bitmap == null");
+    }
+    setInternal(CacheKey.forString(key), bitmap, UNKNOWN_COST);
+  }
+
+  @Override public void set(@NonNull CacheKey key, @NonNull Bitmap bitmap) {
+    if (key == null || bitmap == null) {
+      throw new NullPointerException("key == null || bitmap == null");
+    }
+    setInternal(key, bitmap, UNKNOWN_COST);
+  }
+
+  /**
+   * Stores {@code bitmap} at the cost of loading it. Images Picasso found in the memory cache took
+   * nothing to load and keep the cost they were stored with.
+   */
+  @Override public void set(@NonNull CacheKey key, @NonNull Bitmap bitmap, @NonNull Origin origin) {
+    if (key == null || bitmap == null || origin == null) {
+      throw new NullPointerException("key == null || bitmap == null || origin == null");
+    }
+    long loadNanos = origin.hunter.loadNanos;
+    setInternal(key, bitmap, loadNanos > 0 ? loadNanos : UNKNOWN_COST);
+  }
+
+  /** Stores {@code bitmap} as an image which takes {@code costNanos} to load again. */
+  void set(CacheKey key, Bitmap bitmap, long costNanos) {
+    setInternal(key, bitmap, costNanos);
+  }
+
+  private void setInternal(Object key, Bitmap bitmap, long costNanos) {
+    int addedSize = Utils.getBitmapBytes(bitmap);
+    if (addedSize > maxSize) {
+      return;
+    }
+
+    synchronized (this) {
+      putCount++;
+      Entry entry = new Entry(key, bitmap, addedSize);
+      Entry previous = entries.put(key, entry);
+      if (previous != null) {
+        queue.remove(previous);
+        size -= previous.size;
+        entry.frequency = previous.frequency;
+      }
+      if (costNanos != UNKNOWN_COST) {
+        totalCostNanos += costNanos;
+        costCount++;
+        entry.costNanos = costNanos;
+      } else if (previous != null) {
+        entry.costNanos = previous.costNanos;
+      } else {
+        entry.costNanos = costCount > 0 ? totalCostNanos / costCount : 1;
+      }
+      prioritize(entry);
+      queue.add(entry);
+      size += addedSize;
+
+      while (size > maxSize) {
+        Entry evicted = queue.pollFirst();
+        entries.remove(evicted.key);
+        size -= evicted.size;
+        inflation = evicted.priority;
+        evictionCount++;
+      }
+    }
+  }
+
+  private void prioritize(Entry entry) {
+    // Zero-sized bitmaps would otherwise have infinite priority and never be evicted.
+    int size = Math.max(entry.size, 1);
+    entry.priority = inflation + (double) entry.frequency * entry.costNanos / size;
+    entry.sequence = sequence++;
+  }
+
+  /** Clear the cache. */
+  public synchronized void evictAll() {
+    entries.clear();
+    queue.clear();
+    size = 0;
+  }
+
+  @Override public synchronized int size() {
+    return size;
+  }
+
+  @Override public int maxSize() {
+    return maxSize;
+  }
+
+  @Override public void clear() {
+    evictAll();
+  }
+
+  @Override public synchronized void clearKeyUri(String uri) {
+    for (Iterator<Map.Entry<Object, Entry>> i = entries.entrySet().iterator(); i.hasNext();) {
+      Map.Entry<Object, Entry> mapEntry = i.next();
+      if (LruCache.keyMatchesUri(mapEntry.getKey(), uri)) {
+        i.remove();
+        Entry entry = mapEntry.getValue();
+        queue.remove(entry);
+        size -= entry.size;
+      }
+    }
+  }
+
+  /** Returns the number of times {@link #get} returned a value. */
+  public synchronized int hitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of times {@link #get} returned {@code null}. */
+  public synchronized int missCount() {
+    return missCount;
+  }
+
+  /** Returns the number of times {@link #set} was called. */
+  public synchronized int putCount() {
+    return putCount;
+  }
+
+  /** Returns the number of values that have been evicted. */
+  public synchronized int evictionCount() {
+    return evictionCount;
+  }
+
+  private static final class Entry {
+    final Object key;
+    final Bitmap bitmap;
+    final int size;
+    long costNanos;
+    int frequency = 1;
+    double priority;
+    long sequence;
+
+    Entry(Object key, Bitmap bitmap, int size) {
+      this.key = key;
+      this.bitmap = bitmap;
+      this.size = size;
+    }
+  }
+}
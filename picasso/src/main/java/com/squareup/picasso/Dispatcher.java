@@ -22,18 +22,24 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 
 import static android.content.Context.CONNECTIVITY_SERVICE;
@@ -45,6 +51,7 @@ import static com.squareup.picasso.MemoryPolicy.shouldWriteToMemoryCache;
 import static com.squareup.picasso.Utils.OWNER_DISPATCHER;
 import static com.squareup.picasso.Utils.VERB_BATCHED;
 import static com.squareup.picasso.Utils.VERB_CANCELED;
+import static com.squareup.picasso.Utils.VERB_DEFERRED;
 import static com.squareup.picasso.Utils.VERB_DELIVERED;
 import static com.squareup.picasso.Utils.VERB_ENQUEUED;
 import static com.squareup.picasso.Utils.VERB_IGNORED;
@@ -57,7 +64,6 @@ import static com.squareup.picasso.Utils.hasPermission;
 import static com.squareup.picasso.Utils.log;
 
 class Dispatcher {
-  private static final int RETRY_DELAY = 500;
   private static final int AIRPLANE_MODE_ON = 1;
   private static final int AIRPLANE_MODE_OFF = 0;
 
@@ -74,9 +80,29 @@ class Dispatcher {
   static final int TAG_PAUSE = 11;
   static final int TAG_RESUME = 12;
   static final int REQUEST_BATCH_RESUME = 13;
+  static final int REQUEST_BATCH_SUBMIT = 14;
+  static final int REQUEST_GET = 15;
+  static final int HUNTER_DOWNLOADED = 16;
+  static final int REPLAY_NEXT_BATCH = 17;
+  static final int THUMBNAIL_BATCH_START = 18;
 
   private static final String DISPATCHER_THREAD_NAME = "Dispatcher";
   private static final int BATCH_DELAY = 200; // ms
+  private static final int REPLAY_INITIAL_BATCH_SIZE = 2;
+  private static final int REPLAY_DELAY = 250; // ms
+
+  private static final Comparator<Action> PRIORITY_ORDER = new Comparator<Action>() {
+    @Override public int compare(Action lhs, Action rhs) {
+      return rhs.getPriority().ordinal() - lhs.getPriority().ordinal();
+    }
+  };
+
+  private static final Comparator<BitmapHunter> HUNTER_PRIORITY_ORDER =
+      new Comparator<BitmapHunter>() {
+        @Override public int compare(BitmapHunter lhs, BitmapHunter rhs) {
+          return rhs.getPriority().ordinal() - lhs.getPriority().ordinal();
+        }
+      };
 
   final DispatcherThread dispatcherThread;
   final Context context;
@@ -84,6 +110,7 @@ class Dispatcher {
   final Downloader downloader;
   final Map<String, BitmapHunter> hunterMap;
   final Map<Object, Action> failedActions;
+  final List<Action> replayQueue;
   final Map<Object, Action> pausedActions;
   final Set<Object> pausedTags;
   final Handler handler;
@@ -93,11 +120,24 @@ class Dispatcher {
   final List<BitmapHunter> batch;
   final NetworkBroadcastReceiver receiver;
   final boolean scansNetworkChanges;
+  final boolean asyncDownloads;
+  final RetryPolicy retryPolicy;
+  final ConcurrencyLimiter limiter;
+  final boolean prefetchOnMeteredNetworks;
+  final boolean batchMediaStoreThumbnails;
+  final List<BitmapHunter> thumbnailBatch;
+  /** Blocked {@link RequestCreator#get()} calls which the dispatcher has not answered yet. */
+  final Set<GetAction> pendingGets =
+      Collections.newSetFromMap(new ConcurrentHashMap<GetAction, Boolean>());
+  private final Random random = new Random();
 
   boolean airplaneMode;
+  int replayBatchSize;
 
   Dispatcher(Context context, ExecutorService service, Handler mainThreadHandler,
-      Downloader downloader, Cache cache, Stats stats) {
+      Downloader downloader, Cache cache, Stats stats, boolean asyncDownloads,
+      RetryPolicy retryPolicy, ConcurrencyLimiter limiter, boolean prefetchOnMeteredNetworks,
+      boolean batchMediaStoreThumbnails) {
     this.dispatcherThread = new DispatcherThread();
     this.dispatcherThread.start();
     Utils.flushStackLocalLeaks(dispatcherThread.getLooper());
@@ -105,6 +145,7 @@ class Dispatcher {
     this.service = service;
     this.hunterMap = new LinkedHashMap<>();
     this.failedActions = new WeakHashMap<>();
+    this.replayQueue = new ArrayList<>();
     this.pausedActions = new WeakHashMap<>();
     this.pausedTags = new HashSet<>();
     this.handler = new DispatcherHandler(dispatcherThread.getLooper(), this);
@@ -115,6 +156,12 @@ class Dispatcher {
     this.batch = new ArrayList<>(4);
     this.airplaneMode = Utils.isAirplaneModeOn(this.context);
     this.scansNetworkChanges = hasPermission(context, Manifest.permission.ACCESS_NETWORK_STATE);
+    this.asyncDownloads = asyncDownloads;
+    this.retryPolicy = retryPolicy;
+    this.limiter = limiter;
+    this.prefetchOnMeteredNetworks = prefetchOnMeteredNetworks;
+    this.batchMediaStoreThumbnails = batchMediaStoreThumbnails;
+    this.thumbnailBatch = new ArrayList<>();
     this.receiver = new NetworkBroadcastReceiver(this);
     receiver.register();
   }
@@ -126,6 +173,11 @@ class Dispatcher {
     }
     downloader.shutdown();
     dispatcherThread.quit();
+    // Quitting drops queued messages, so blocked get() calls must be answered here.
+    for (GetAction action : pendingGets) {
+      action.abandon();
+    }
+    pendingGets.clear();
     // Unregister network broadcast receiver on the main thread.
     Picasso.HANDLER.post(new Runnable() {
       @Override public void run() {
@@ -138,6 +190,23 @@ class Dispatcher {
     handler.sendMessage(handler.obtainMessage(REQUEST_SUBMIT, action));
   }
 
+  void dispatchSubmit(List<Action> actions) {
+    handler.sendMessage(handler.obtainMessage(REQUEST_BATCH_SUBMIT, actions));
+  }
+
+  void dispatchGet(GetAction action) {
+    pendingGets.add(action);
+    if (!handler.sendMessage(handler.obtainMessage(REQUEST_GET, action))) {
+      // The dispatcher thread has already quit.
+      pendingGets.remove(action);
+      action.abandon();
+    }
+  }
+
+  void dispatchDownloaded(BitmapHunter hunter) {
+    handler.sendMessage(handler.obtainMessage(HUNTER_DOWNLOADED, hunter));
+  }
+
   void dispatchCancel(Action action) {
     handler.sendMessage(handler.obtainMessage(REQUEST_CANCEL, action));
   }
@@ -155,7 +224,9 @@ class Dispatcher {
   }
 
   void dispatchRetry(BitmapHunter hunter) {
-    handler.sendMessageDelayed(handler.obtainMessage(HUNTER_RETRY, hunter), RETRY_DELAY);
+    // Back off further with each retry, jittered so hunters which failed together spread out.
+    long delay = retryPolicy.retryDelayMillis(hunter.getRetryAttempt(), random);
+    handler.sendMessageDelayed(handler.obtainMessage(HUNTER_RETRY, hunter), delay);
   }
 
   void dispatchFailed(BitmapHunter hunter) {
@@ -198,8 +269,18 @@ class Dispatcher {
       return;
     }
 
+    if (action instanceof PrefetchAction && !prefetchOnMeteredNetworks && isNetworkMetered()) {
+      // Replayed once connected to another network, which is checked again then.
+      markForReplay(action);
+      if (action.getPicasso().loggingEnabled) {
+        log(OWNER_DISPATCHER, VERB_PAUSED, action.request.logId(),
+            "until an unmetered network is available");
+      }
+      return;
+    }
+
     hunter = forRequest(action.getPicasso(), this, cache, stats, action);
-    hunter.future = service.submit(hunter);
+    execute(hunter);
     hunterMap.put(action.getKey(), hunter);
     if (dismissFailed) {
       failedActions.remove(action.getTarget());
@@ -210,13 +291,63 @@ class Dispatcher {
     }
   }
 
+  void performBatchSubmit(List<Action> actions) {
+    // Hunters are handed to the executor in the order they are created so start with the most
+    // important ones. The sort is stable and keeps the submit order within each priority.
+    Collections.sort(actions, PRIORITY_ORDER);
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0, n = actions.size(); i < n; i++) {
+      performSubmit(actions.get(i));
+    }
+  }
+
+  /**
+   * Joins {@code action} to the hunter in flight for its key or registers a new hunter for it
+   * which the caller runs itself. Either way requests submitted meanwhile join the same hunter.
+   */
+  void performGet(GetAction action) {
+    BitmapHunter hunter = hunterMap.get(action.getKey());
+    if (hunter != null) {
+      hunter.attach(action);
+      action.register(hunter, true);
+      return;
+    }
+
+    pendingGets.remove(action);
+    if (service.isShutdown()) {
+      action.register(null, false);
+      return;
+    }
+
+    hunter = forRequest(action.getPicasso(), this, cache, stats, action);
+    hunterMap.put(action.getKey(), hunter);
+    action.register(hunter, false);
+  }
+
   void performCancel(Action action) {
     String key = action.getKey();
     BitmapHunter hunter = hunterMap.get(key);
+    if (action instanceof GetAction) {
+      pendingGets.remove(action);
+      if (hunter != null && hunter.getAction() == action) {
+        // The interrupted get() will not run the hunter registered for it.
+        hunter.detach(action);
+        if (hasNoActions(hunter)) {
+          hunterMap.remove(key);
+        } else {
+          execute(hunter);
+        }
+        if (action.getPicasso().loggingEnabled) {
+          log(OWNER_DISPATCHER, VERB_CANCELED, action.getRequest().logId());
+        }
+        return;
+      }
+    }
     if (hunter != null) {
       hunter.detach(action);
-      if (hunter.cancel()) {
+      if (hunter.cancel() || (hasNoActions(hunter) && limiter.removeWaiting(hunter))) {
         hunterMap.remove(key);
+        releaseCanceled(hunter);
         if (action.getPicasso().loggingEnabled) {
           log(OWNER_DISPATCHER, VERB_CANCELED, action.getRequest().logId());
         }
@@ -232,6 +363,9 @@ class Dispatcher {
     }
 
     Action remove = failedActions.remove(action.getTarget());
+    if (remove == null && replayQueue.remove(action)) {
+      remove = action;
+    }
     if (remove != null && remove.getPicasso().loggingEnabled) {
       log(OWNER_DISPATCHER, VERB_CANCELED, remove.getRequest().logId(), "from replaying");
     }
@@ -258,7 +392,8 @@ class Dispatcher {
         continue;
       }
 
-      if (single != null && single.getTag().equals(tag)) {
+      // Requests made by get() are never paused as their caller is blocked waiting for them.
+      if (single != null && !(single instanceof GetAction) && single.getTag().equals(tag)) {
         hunter.detach(single);
         pausedActions.put(single.getTarget(), single);
         if (loggingEnabled) {
@@ -270,7 +405,7 @@ class Dispatcher {
       if (hasMultiple) {
         for (int i = joined.size() - 1; i >= 0; i--) {
           Action action = joined.get(i);
-          if (!action.getTag().equals(tag)) {
+          if (action instanceof GetAction || !action.getTag().equals(tag)) {
             continue;
           }
 
@@ -285,8 +420,9 @@ class Dispatcher {
 
       // Check if the hunter can be cancelled in case all its requests
       // had the tag being paused here.
-      if (hunter.cancel()) {
+      if (hunter.cancel() || (hasNoActions(hunter) && limiter.removeWaiting(hunter))) {
         it.remove();
+        releaseCanceled(hunter);
         if (loggingEnabled) {
           log(OWNER_DISPATCHER, VERB_CANCELED, getLogIdsForHunter(hunter), "all actions paused");
         }
@@ -318,8 +454,16 @@ class Dispatcher {
   }
 
   void performRetry(BitmapHunter hunter) {
+    // Let others for the same host go first while this one waits to run again.
+    release(hunter);
     if (hunter.isCancelled()) return;
 
+    if (hunter.revalidation) {
+      // Targets already show an image. Check again the next time it is requested instead.
+      performError(hunter, false);
+      return;
+    }
+
     if (service.isShutdown()) {
       performError(hunter, false);
       return;
@@ -338,7 +482,7 @@ class Dispatcher {
       if (hunter.getException() instanceof NetworkRequestHandler.ContentLengthException) {
         hunter.networkPolicy |= NetworkPolicy.NO_CACHE.index;
       }
-      hunter.future = service.submit(hunter);
+      execute(hunter);
     } else {
       // Mark for replay only if we observe network info changes and support replay.
       boolean willReplay = scansNetworkChanges && hunter.supportsReplay();
@@ -349,11 +493,51 @@ class Dispatcher {
     }
   }
 
+  void performDownloaded(BitmapHunter hunter) {
+    if (hunter.isCancelled()) {
+      // Downloaded just before the download was canceled, which already released the hunter.
+      hunter.discardDownloaded();
+      return;
+    }
+    if (hasNoActions(hunter)) {
+      // Every request for the image was canceled while it was downloading.
+      hunter.discardDownloaded();
+      hunterMap.remove(hunter.getKey());
+      release(hunter);
+      if (hunter.getPicasso().loggingEnabled) {
+        log(OWNER_DISPATCHER, VERB_CANCELED, getLogIdsForHunter(hunter), "after download");
+      }
+      return;
+    }
+
+    if (service.isShutdown()) {
+      hunter.discardDownloaded();
+      performError(hunter, false);
+      return;
+    }
+
+    hunter.future = service.submit(hunter);
+  }
+
   void performComplete(BitmapHunter hunter) {
     if (shouldWriteToMemoryCache(hunter.getMemoryPolicy())) {
-      cache.set(hunter.getKey(), hunter.getResult());
+      if (cache instanceof KeyedCache) {
+        KeyedCache.Origin origin = new KeyedCache.Origin(hunter);
+        ((KeyedCache) cache).set(hunter.getCacheKey(), hunter.getResult(), origin);
+      } else {
+        cache.set(hunter.getKey(), hunter.getResult());
+      }
+    }
+    if (hunter.revalidation) {
+      finishRevalidation(hunter);
+    } else {
+      hunterMap.remove(hunter.getKey());
+    }
+    release(hunter);
+    deliverGetActions(hunter);
+    if (hunter.shouldRevalidate()) {
+      revalidate(hunter);
     }
-    hunterMap.remove(hunter.getKey());
     batch(hunter);
     if (hunter.getPicasso().loggingEnabled) {
       log(OWNER_DISPATCHER, VERB_BATCHED, getLogIdsForHunter(hunter), "for completion");
@@ -372,10 +556,56 @@ class Dispatcher {
       log(OWNER_DISPATCHER, VERB_BATCHED, getLogIdsForHunter(hunter),
           "for error" + (willReplay ? " (will replay)" : ""));
     }
-    hunterMap.remove(hunter.getKey());
+    if (hunter.revalidation) {
+      finishRevalidation(hunter);
+    } else {
+      hunterMap.remove(hunter.getKey());
+    }
+    release(hunter);
+    deliverGetActions(hunter);
     batch(hunter);
   }
 
+  /**
+   * Runs the thumbnail hunters started since the last call in batches of the same kind. Each batch
+   * keeps the order of its most important hunter on the executor.
+   */
+  void performStartThumbnailBatches() {
+    List<BitmapHunter> hunters = new ArrayList<>(thumbnailBatch);
+    thumbnailBatch.clear();
+    Collections.sort(hunters, HUNTER_PRIORITY_ORDER);
+    Map<MediaStoreRequestHandler.PicassoKind, List<BitmapHunter>> batches =
+        new EnumMap<>(MediaStoreRequestHandler.PicassoKind.class);
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0, n = hunters.size(); i < n; i++) {
+      BitmapHunter hunter = hunters.get(i);
+      if (hunter.isCancelled()) {
+        continue;
+      }
+      if (service.isShutdown()) {
+        performError(hunter, false);
+        continue;
+      }
+      Request data = hunter.getData();
+      MediaStoreRequestHandler.PicassoKind kind =
+          MediaStoreRequestHandler.getPicassoKind(data.targetWidth, data.targetHeight);
+      List<BitmapHunter> kindBatch = batches.get(kind);
+      if (kindBatch == null) {
+        kindBatch = new ArrayList<>();
+        batches.put(kind, kindBatch);
+      }
+      kindBatch.add(hunter);
+      if (kindBatch.size() == MediaStoreThumbnailBatch.MAX_SIZE) {
+        service.submit(new MediaStoreThumbnailBatch(kind, kindBatch));
+        batches.remove(kind);
+      }
+    }
+    for (Map.Entry<MediaStoreRequestHandler.PicassoKind, List<BitmapHunter>> entry
+        : batches.entrySet()) {
+      service.submit(new MediaStoreThumbnailBatch(entry.getKey(), entry.getValue()));
+    }
+  }
+
   void performAirplaneModeChange(boolean airplaneMode) {
     this.airplaneMode = airplaneMode;
   }
@@ -387,20 +617,68 @@ class Dispatcher {
     // Intentionally check only if isConnected() here before we flush out failed actions.
     if (info != null && info.isConnected()) {
       flushFailedActions();
+    } else if (!replayQueue.isEmpty()) {
+      // Connectivity was lost again. Keep the rest for the next time it is back.
+      handler.removeMessages(REPLAY_NEXT_BATCH);
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0, n = replayQueue.size(); i < n; i++) {
+        markForReplay(replayQueue.get(i));
+      }
+      replayQueue.clear();
     }
   }
 
+  /**
+   * Replays failed actions in priority order, starting with a few and doubling their number with
+   * each batch. This way the most important images are not held up by a burst of requests while
+   * the connection is still coming up.
+   */
   private void flushFailedActions() {
-    if (!failedActions.isEmpty()) {
-      Iterator<Action> iterator = failedActions.values().iterator();
-      while (iterator.hasNext()) {
-        Action action = iterator.next();
+    if (failedActions.isEmpty()) {
+      return;
+    }
+    replayQueue.addAll(failedActions.values());
+    failedActions.clear();
+    Collections.sort(replayQueue, PRIORITY_ORDER);
+    replayBatchSize = REPLAY_INITIAL_BATCH_SIZE;
+    handler.removeMessages(REPLAY_NEXT_BATCH);
+    performReplayNextBatch();
+  }
+
+  /**
+   * Submits the actions for the next {@link #replayBatchSize} keys waiting to be replayed. Actions
+   * for the same key are submitted together so they share one hunter and count once.
+   */
+  void performReplayNextBatch() {
+    List<String> keys = new ArrayList<>(replayBatchSize);
+    for (Iterator<Action> iterator = replayQueue.iterator(); iterator.hasNext();) {
+      Action action = iterator.next();
+      boolean loggingEnabled = action.getPicasso().loggingEnabled;
+      if (action.isCancelled() || action.isTargetGone()) {
         iterator.remove();
-        if (action.getPicasso().loggingEnabled) {
-          log(OWNER_DISPATCHER, VERB_REPLAYING, action.getRequest().logId());
+        if (loggingEnabled) {
+          log(OWNER_DISPATCHER, VERB_CANCELED, action.getRequest().logId(),
+              "from replaying as its target is gone");
+        }
+        continue;
+      }
+      String key = action.getKey();
+      if (!keys.contains(key)) {
+        if (keys.size() == replayBatchSize) {
+          continue;
         }
-        performSubmit(action, false);
+        keys.add(key);
       }
+      iterator.remove();
+      if (loggingEnabled) {
+        log(OWNER_DISPATCHER, VERB_REPLAYING, action.getRequest().logId());
+      }
+      performSubmit(action, false);
+    }
+
+    if (!replayQueue.isEmpty()) {
+      replayBatchSize *= 2;
+      handler.sendEmptyMessageDelayed(REPLAY_NEXT_BATCH, REPLAY_DELAY);
     }
   }
 
@@ -427,6 +705,156 @@ class Dispatcher {
     }
   }
 
+  private boolean isNetworkMetered() {
+    if (!scansNetworkChanges) {
+      return false;
+    }
+    ConnectivityManager connectivityManager = getService(context, CONNECTIVITY_SERVICE);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      return connectivityManager.isActiveNetworkMetered();
+    }
+    NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+    return networkInfo != null && networkInfo.getType() != ConnectivityManager.TYPE_WIFI
+        && networkInfo.getType() != ConnectivityManager.TYPE_ETHERNET;
+  }
+
+  /**
+   * Runs {@code hunter} once fewer than the maximum number of hunters for its host and request
+   * handler are running. Until then it waits without occupying a thread.
+   */
+  private void execute(BitmapHunter hunter) {
+    if (limiter.tryAcquire(hunter)) {
+      start(hunter);
+    } else if (hunter.getPicasso().loggingEnabled) {
+      log(OWNER_DISPATCHER, VERB_DEFERRED, getLogIdsForHunter(hunter),
+          "until other requests finish");
+    }
+  }
+
+  /** Lets waiting hunters run in place of {@code hunter}, which is no longer running. */
+  private void release(BitmapHunter hunter) {
+    limiter.release(hunter);
+    BitmapHunter next;
+    while ((next = limiter.poll()) != null) {
+      if (service.isShutdown()) {
+        performError(next, false);
+      } else {
+        start(next);
+      }
+    }
+  }
+
+  /**
+   * Releases a canceled hunter unless it is still running. Canceling does not interrupt it, so it
+   * keeps counting against the limits of its host and request handler until it finishes.
+   */
+  private void releaseCanceled(BitmapHunter hunter) {
+    if (hunter.preventRun()) {
+      hunter.discardDownloaded();
+      release(hunter);
+    }
+  }
+
+  private static boolean hasNoActions(BitmapHunter hunter) {
+    List<Action> joined = hunter.getActions();
+    return hunter.getAction() == null && (joined == null || joined.isEmpty());
+  }
+
+  /**
+   * Runs {@code hunter} on the executor, or first downloads its image without occupying one of the
+   * executor's threads if asynchronous downloads are enabled.
+   */
+  private void start(BitmapHunter hunter) {
+    if (asyncDownloads && hunter.canDownloadAsync()) {
+      hunter.downloadAsync();
+    } else if (batchMediaStoreThumbnails && MediaStoreThumbnailBatch.canBatch(hunter)) {
+      // Thumbnails started while handling the messages queued until then run together.
+      if (thumbnailBatch.isEmpty()) {
+        handler.sendEmptyMessage(THUMBNAIL_BATCH_START);
+      }
+      MediaStoreThumbnailBatch.prepare(hunter);
+      thumbnailBatch.add(hunter);
+    } else {
+      hunter.future = service.submit(hunter);
+    }
+  }
+
+  /**
+   * Checks the stale image {@code hunter} served from the disk cache with the server in the
+   * background. Its actions stay registered with their targets so that they are updated if the
+   * image changed, unless they are canceled or their targets are reused meanwhile.
+   * <p>
+   * The revalidating hunter is not registered by key. New requests for the image are served the
+   * stale copy from the memory cache, or load it again if they skip the memory cache.
+   */
+  private void revalidate(BitmapHunter hunter) {
+    BitmapHunter revalidation = revalidationJoin(null, hunter, hunter.getAction());
+    List<Action> joined = hunter.getActions();
+    if (joined != null) {
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0, n = joined.size(); i < n; i++) {
+        revalidation = revalidationJoin(revalidation, hunter, joined.get(i));
+      }
+    }
+    if (revalidation == null) {
+      return;
+    }
+    revalidation.revalidate();
+    if (revalidation.getPicasso().loggingEnabled) {
+      log(OWNER_DISPATCHER, VERB_ENQUEUED, getLogIdsForHunter(revalidation), "for revalidation");
+    }
+    execute(revalidation);
+  }
+
+  private BitmapHunter revalidationJoin(BitmapHunter revalidation, BitmapHunter hunter,
+      Action action) {
+    // Blocked get() calls already returned and have nothing left to update.
+    if (action == null || action instanceof GetAction) {
+      return revalidation;
+    }
+    action.willRevalidate = true;
+    if (revalidation == null) {
+      return new BitmapHunter(action.getPicasso(), this, cache, stats, action,
+          hunter.requestHandler);
+    }
+    revalidation.attach(action);
+    return revalidation;
+  }
+
+  private static void finishRevalidation(BitmapHunter hunter) {
+    Action single = hunter.getAction();
+    if (single != null) {
+      single.willRevalidate = false;
+    }
+    List<Action> joined = hunter.getActions();
+    if (joined != null) {
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0, n = joined.size(); i < n; i++) {
+        joined.get(i).willRevalidate = false;
+      }
+    }
+  }
+
+  /** Hand the result to blocked {@link RequestCreator#get()} calls without a main thread trip. */
+  private void deliverGetActions(BitmapHunter hunter) {
+    Action single = hunter.getAction();
+    if (single instanceof GetAction) {
+      pendingGets.remove(single);
+      ((GetAction) single).deliver(hunter.getResult(), hunter.getException());
+    }
+    List<Action> joined = hunter.getActions();
+    if (joined != null) {
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0, n = joined.size(); i < n; i++) {
+        Action action = joined.get(i);
+        if (action instanceof GetAction) {
+          pendingGets.remove(action);
+          ((GetAction) action).deliver(hunter.getResult(), hunter.getException());
+        }
+      }
+    }
+  }
+
   private void batch(BitmapHunter hunter) {
     if (hunter.isCancelled()) {
       return;
@@ -469,6 +897,21 @@ class Dispatcher {
           dispatcher.performSubmit(action);
           break;
         }
+        case REQUEST_BATCH_SUBMIT: {
+          @SuppressWarnings("unchecked") List<Action> actions = (List<Action>) msg.obj;
+          dispatcher.performBatchSubmit(actions);
+          break;
+        }
+        case REQUEST_GET: {
+          GetAction action = (GetAction) msg.obj;
+          dispatcher.performGet(action);
+          break;
+        }
+        case HUNTER_DOWNLOADED: {
+          BitmapHunter hunter = (BitmapHunter) msg.obj;
+          dispatcher.performDownloaded(hunter);
+          break;
+        }
         case REQUEST_CANCEL: {
           Action action = (Action) msg.obj;
           dispatcher.performCancel(action);
@@ -508,6 +951,14 @@ class Dispatcher {
           dispatcher.performNetworkStateChange(info);
           break;
         }
+        case REPLAY_NEXT_BATCH: {
+          dispatcher.performReplayNextBatch();
+          break;
+        }
+        case THUMBNAIL_BATCH_START: {
+          dispatcher.performStartThumbnailBatches();
+          break;
+        }
         case AIRPLANE_MODE_CHANGE: {
           dispatcher.performAirplaneModeChange(msg.arg1 == AIRPLANE_MODE_ON);
           break;
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.io.IOException;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+import static android.media.ExifInterface.ORIENTATION_NORMAL;
+import static android.media.ExifInterface.ORIENTATION_ROTATE_270;
+
+/**
+ * Reads the EXIF orientation of a JPEG from the header of its stream. Nothing is consumed from the
+ * stream: the header is only buffered, so the same source can be decoded afterwards.
+ */
+final class ExifReader {
+  /** Headers longer than this are not buffered, and their orientation is not read. */
+  static final long MAX_HEADER_SIZE = 128 * 1024;
+
+  private static final int MARKER = 0xFF;
+  private static final int MARKER_SOI = 0xD8;
+  private static final int MARKER_EOI = 0xD9;
+  private static final int MARKER_SOS = 0xDA;
+  private static final int MARKER_APP1 = 0xE1;
+  private static final ByteString EXIF_HEADER = ByteString.encodeUtf8("Exif\u0000\u0000");
+  private static final int BYTE_ORDER_LITTLE_ENDIAN = 0x4949; // "II"
+  private static final int BYTE_ORDER_BIG_ENDIAN = 0x4D4D; // "MM"
+  private static final int TIFF_MAGIC = 42;
+  private static final int IFD_ENTRY_SIZE = 12;
+  private static final int TAG_ORIENTATION = 0x0112;
+  private static final int TYPE_SHORT = 3;
+
+  private ExifReader() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Returns the EXIF orientation of the JPEG at the start of {@code source}, or 0 if it is not a
+   * JPEG, has no orientation or is {@link android.media.ExifInterface#ORIENTATION_NORMAL normal}.
+   */
+  static int readOrientation(BufferedSource source) throws IOException {
+    if (!source.request(2)
+        || (source.buffer().getByte(0) & 0xFF) != MARKER
+        || (source.buffer().getByte(1) & 0xFF) != MARKER_SOI) {
+      return 0;
+    }
+    long offset = 2;
+    while (offset + 4 <= MAX_HEADER_SIZE && source.request(offset + 4)) {
+      Buffer buffer = source.buffer();
+      if ((buffer.getByte(offset) & 0xFF) != MARKER) {
+        return 0;
+      }
+      int marker = buffer.getByte(offset + 1) & 0xFF;
+      if (marker == MARKER) {
+        // Markers may be preceded by any number of fill bytes.
+        offset++;
+        continue;
+      }
+      if (marker == MARKER_SOS || marker == MARKER_EOI) {
+        // Metadata only comes before the image data.
+        return 0;
+      }
+      int length = readShort(buffer, offset + 2, true);
+      if (length < 2) {
+        return 0;
+      }
+      long end = offset + 2 + length;
+      if (marker == MARKER_APP1 && source.rangeEquals(offset + 4, EXIF_HEADER)) {
+        if (end > MAX_HEADER_SIZE || !source.request(end)) {
+          return 0;
+        }
+        return readTiffOrientation(source.buffer(), offset + 4 + EXIF_HEADER.size(), end);
+      }
+      offset = end;
+    }
+    return 0;
+  }
+
+  /** Reads the orientation from the first IFD of the TIFF structure between the offsets. */
+  private static int readTiffOrientation(Buffer buffer, long start, long end) {
+    if (start + 8 > end) {
+      return 0;
+    }
+    boolean bigEndian;
+    int byteOrder = readShort(buffer, start, true);
+    if (byteOrder == BYTE_ORDER_BIG_ENDIAN) {
+      bigEndian = true;
+    } else if (byteOrder == BYTE_ORDER_LITTLE_ENDIAN) {
+      bigEndian = false;
+    } else {
+      return 0;
+    }
+    if (readShort(buffer, start + 2, bigEndian) != TIFF_MAGIC) {
+      return 0;
+    }
+    long ifd = start + readInt(buffer, start + 4, bigEndian);
+    if (ifd + 2 > end) {
+      return 0;
+    }
+    int entries = readShort(buffer, ifd, bigEndian);
+    for (int i = 0; i < entries; i++) {
+      long entry = ifd + 2 + i * IFD_ENTRY_SIZE;
+      if (entry + IFD_ENTRY_SIZE > end) {
+        return 0;
+      }
+      if (readShort(buffer, entry, bigEndian) == TAG_ORIENTATION) {
+        if (readShort(buffer, entry + 2, bigEndian) != TYPE_SHORT) {
+          return 0;
+        }
+        int orientation = readShort(buffer, entry + 8, bigEndian);
+        // The rotation by 270 degrees is the last of the valid orientations.
+        return orientation > ORIENTATION_NORMAL && orientation <= ORIENTATION_ROTATE_270
+            ? orientation : 0;
+      }
+    }
+    return 0;
+  }
+
+  private static int readShort(Buffer buffer, long offset, boolean bigEndian) {
+    int first = buffer.getByte(offset) & 0xFF;
+    int second = buffer.getByte(offset + 1) & 0xFF;
+    return bigEndian ? first << 8 | second : second << 8 | first;
+  }
+
+  private static long readInt(Buffer buffer, long offset, boolean bigEndian) {
+    long high = readShort(buffer, bigEndian ? offset : offset + 2, bigEndian);
+    long low = readShort(buffer, bigEndian ? offset + 2 : offset, bigEndian);
+    return high << 16 | low;
+  }
+}
@@ -16,17 +16,10 @@
 package com.squareup.picasso;
 
 import android.content.Context;
-import android.media.ExifInterface;
-import android.net.Uri;
-import java.io.IOException;
-import okio.Okio;
-import okio.Source;
 
 import static android.content.ContentResolver.SCHEME_FILE;
-import static android.media.ExifInterface.ORIENTATION_NORMAL;
-import static android.media.ExifInterface.TAG_ORIENTATION;
-import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
 
+/** Loads files like their content URIs. Their EXIF orientation is read while decoding. */
 class FileRequestHandler extends ContentStreamRequestHandler {
 
   FileRequestHandler(Context context) {
@@ -36,14 +29,4 @@ class FileRequestHandler extends ContentStreamRequestHandler {
   @Override public boolean canHandleRequest(Request data) {
     return SCHEME_FILE.equals(data.uri.getScheme());
   }
-
-  @Override public Result load(Request request, int networkPolicy) throws IOException {
-    Source source = Okio.source(getInputStream(request));
-    return new Result(null, source, DISK, getFileExifRotation(request.uri));
-  }
-
-  static int getFileExifRotation(Uri uri) throws IOException {
-    ExifInterface exifInterface = new ExifInterface(uri.getPath());
-    return exifInterface.getAttributeInt(TAG_ORIENTATION, ORIENTATION_NORMAL);
-  }
 }
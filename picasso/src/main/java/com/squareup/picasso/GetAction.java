@@ -16,8 +16,20 @@
 package com.squareup.picasso;
 
 import android.graphics.Bitmap;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
 
 class GetAction extends Action<Void> {
+  private final CountDownLatch registered = new CountDownLatch(1);
+  private final CountDownLatch delivered = new CountDownLatch(1);
+
+  private BitmapHunter hunter;
+  private boolean joined;
+  private boolean abandoned;
+  private Bitmap result;
+  private Exception exception;
+
   GetAction(Picasso picasso, Request data, int memoryPolicy, int networkPolicy, Object tag,
       String key) {
     super(picasso, null, data, memoryPolicy, networkPolicy, 0, null, key, tag, false);
@@ -28,4 +40,80 @@ class GetAction extends Action<Void> {
 
   @Override public void error(Exception e) {
   }
+
+  /** Called by the dispatcher once this action has a hunter, or without one if shut down. */
+  synchronized void register(BitmapHunter hunter, boolean joined) {
+    if (registered.getCount() == 0) {
+      return;
+    }
+    this.hunter = hunter;
+    this.joined = joined;
+    registered.countDown();
+  }
+
+  /** Called by the dispatcher when the hunter this action joined has finished. */
+  synchronized void deliver(Bitmap result, Exception exception) {
+    if (delivered.getCount() == 0) {
+      return;
+    }
+    this.result = result;
+    this.exception = exception;
+    delivered.countDown();
+  }
+
+  /**
+   * Called when the dispatcher shuts down before registering this action or before the hunter it
+   * joined has finished. The blocked caller then loads the image itself.
+   */
+  synchronized void abandon() {
+    if (registered.getCount() != 0) {
+      register(null, false);
+    } else if (joined && delivered.getCount() != 0) {
+      abandoned = true;
+      delivered.countDown();
+    }
+  }
+
+  /**
+   * Blocks until the dispatcher has registered this action. If interrupted the dispatcher is told
+   * to run the hunter it registers for this action itself, since requests may join it meanwhile.
+   */
+  BitmapHunter awaitHunter() throws InterruptedIOException {
+    try {
+      registered.await();
+    } catch (InterruptedException e) {
+      picasso.dispatcher.dispatchCancel(this);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    return hunter;
+  }
+
+  /** True if this action joined a hunter already in flight rather than running its own. */
+  boolean isJoined() {
+    return joined;
+  }
+
+  /** True if the dispatcher shut down before the hunter this action joined had finished. */
+  boolean isAbandoned() {
+    return abandoned;
+  }
+
+  /** Blocks until the hunter this action joined has finished and returns its result. */
+  Bitmap awaitResult() throws IOException {
+    try {
+      delivered.await();
+    } catch (InterruptedException e) {
+      picasso.dispatcher.dispatchCancel(this);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    if (exception instanceof IOException) {
+      throw (IOException) exception;
+    }
+    if (exception instanceof RuntimeException) {
+      throw (RuntimeException) exception;
+    }
+    return result;
+  }
 }
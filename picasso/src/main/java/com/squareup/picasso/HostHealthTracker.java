@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts consecutive failures per host and opens a host's circuit for the cool-down of the
+ * {@link RetryPolicy} once too many of them happen in a row. Safe for use from any thread.
+ */
+final class HostHealthTracker {
+  /** Hosts beyond this many are forgotten, least recently used first. */
+  private static final int MAX_HOSTS = 64;
+
+  final RetryPolicy retryPolicy;
+  private final LinkedHashMap<String, Host> hosts =
+      new LinkedHashMap<String, Host>(0, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Host> eldest) {
+          return size() > MAX_HOSTS;
+        }
+      };
+
+  HostHealthTracker(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /** False while the circuit of {@code host} is open and it should not be contacted. */
+  synchronized boolean isAvailable(String host, long now) {
+    Host state = hosts.get(host);
+    return state == null || now >= state.openUntil;
+  }
+
+  synchronized void recordSuccess(String host) {
+    Host state = hosts.get(host);
+    if (state == null) {
+      state = new Host();
+      hosts.put(host, state);
+    }
+    state.successes++;
+    state.consecutiveFailures = 0;
+    state.openUntil = 0;
+  }
+
+  synchronized void recordFailure(String host, long now) {
+    Host state = hosts.get(host);
+    if (state == null) {
+      state = new Host();
+      hosts.put(host, state);
+    }
+    state.failures++;
+    state.consecutiveFailures++;
+    if (state.consecutiveFailures >= retryPolicy.failureThreshold) {
+      // Also re-opens the circuit when the first request after a cool-down fails.
+      state.openUntil = now + retryPolicy.coolDownMillis;
+    }
+  }
+
+  synchronized Map<String, StatsSnapshot.HostHealth> snapshot(long now) {
+    if (hosts.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Map<String, StatsSnapshot.HostHealth> snapshot =
+        new LinkedHashMap<String, StatsSnapshot.HostHealth>(hosts.size());
+    for (Map.Entry<String, Host> entry : hosts.entrySet()) {
+      Host state = entry.getValue();
+      snapshot.put(entry.getKey(), new StatsSnapshot.HostHealth(state.successes, state.failures,
+          state.consecutiveFailures, Math.max(0, state.openUntil - now)));
+    }
+    return Collections.unmodifiableMap(snapshot);
+  }
+
+  private static final class Host {
+    long successes;
+    long failures;
+    int consecutiveFailures;
+    long openUntil;
+  }
+}
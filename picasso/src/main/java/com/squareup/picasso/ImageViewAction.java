@@ -53,6 +53,12 @@ class ImageViewAction extends Action<ImageView> {
     }
   }
 
+  @Override boolean isTargetGone() {
+    ImageView target = this.target.get();
+    // Read off the main thread. A stale answer at worst costs or saves a single replay.
+    return target == null || target.getWindowToken() == null;
+  }
+
   @Override public void error(Exception e) {
     ImageView target = this.target.get();
     if (target == null) {
@@ -73,6 +79,10 @@ class ImageViewAction extends Action<ImageView> {
     }
   }
 
+  @Override boolean showsResult() {
+    return true;
+  }
+
   @Override void cancel() {
     super.cancel();
     if (callback != null) {
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A {@link Cache} which can also be accessed with a structured {@link CacheKey}. Picasso uses the
+ * {@link CacheKey} methods of caches implementing this interface and the {@link String} methods
+ * otherwise.
+ * <p>
+ * Both kinds of keys are subject to {@link #clearKeyUri(String)}, which should match against
+ * {@link CacheKey#uri()} rather than parsing {@link CacheKey#toString()}.
+ * <p>
+ * A {@link String} key and the {@link CacheKey} whose {@link CacheKey#toString() string form} it
+ * is should name the same image, so that images Picasso stored can still be read and written with
+ * the {@link Cache} methods.
+ */
+public interface KeyedCache extends Cache {
+  /** Retrieve an image for the specified {@code key} or {@code null}. */
+  @Nullable Bitmap get(@NonNull CacheKey key);
+
+  /** Store an image in the cache for the specified {@code key}. */
+  void set(@NonNull CacheKey key, @NonNull Bitmap bitmap);
+
+  /**
+   * Store an image Picasso loaded in the cache for the specified {@code key}. Caches which do not
+   * place images by how they were loaded should store it as {@link #set(CacheKey, Bitmap)} does,
+   * and caches which wrap another should pass {@code origin} on to it.
+   */
+  void set(@NonNull CacheKey key, @NonNull Bitmap bitmap, @NonNull Origin origin);
+
+  /**
+   * How Picasso loaded an image it stores, which {@link PartitionedCache} and
+   * {@link CostAwareCache} use to place it.
+   */
+  final class Origin {
+    final BitmapHunter hunter;
+
+    Origin(BitmapHunter hunter) {
+      this.hunter = hunter;
+    }
+  }
+}
@@ -25,9 +25,14 @@ import java.util.Map;
 
 import static com.squareup.picasso.Utils.KEY_SEPARATOR;
 
-/** A memory cache which uses a least-recently used eviction policy. */
-public class LruCache implements Cache {
-  final LinkedHashMap<String, Bitmap> map;
+/**
+ * A memory cache which uses a least-recently used eviction policy. Images may be stored under
+ * either {@link String} or {@link CacheKey} keys. A string key is stored as the equivalent
+ * {@link CacheKey} where there is one, so either finds the same image.
+ */
+public class LruCache implements KeyedCache {
+  /** Keys are either a {@link String} or a {@link CacheKey}. */
+  final LinkedHashMap<Object, Bitmap> map;
   private final int maxSize;
 
   private int size;
@@ -54,7 +59,17 @@ public class LruCache implements Cache {
     if (key == null) {
       throw new NullPointerException("key == null");
     }
+    return getInternal(CacheKey.forString(key));
+  }
 
+  @Override public Bitmap get(@NonNull CacheKey key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+    return getInternal(key);
+  }
+
+  private Bitmap getInternal(Object key) {
     Bitmap mapValue;
     synchronized (this) {
       mapValue = map.get(key);
@@ -72,7 +87,21 @@ public class LruCache implements Cache {
     if (key == null || bitmap == null) {
       throw new NullPointerException("key == null || bitmap == null");
     }
+    setInternal(CacheKey.forString(key), bitmap);
+  }
 
+  @Override public void set(@NonNull CacheKey key, @NonNull Bitmap bitmap) {
+    if (key == null || bitmap == null) {
+      throw new NullPointerException("key == null || bitmap == null");
+    }
+    setInternal(key, bitmap);
+  }
+
+  @Override public void set(@NonNull CacheKey key, @NonNull Bitmap bitmap, @NonNull Origin origin) {
+    set(key, bitmap);
+  }
+
+  private void setInternal(Object key, Bitmap bitmap) {
     int addedSize = Utils.getBitmapBytes(bitmap);
     if (addedSize > maxSize) {
       return;
@@ -92,7 +121,7 @@ public class LruCache implements Cache {
 
   private void trimToSize(int maxSize) {
     while (true) {
-      String key;
+      Object key;
       Bitmap value;
       synchronized (this) {
         if (size < 0 || (map.isEmpty() && size != 0)) {
@@ -104,7 +133,7 @@ public class LruCache implements Cache {
           break;
         }
 
-        Map.Entry<String, Bitmap> toEvict = map.entrySet().iterator().next();
+        Map.Entry<Object, Bitmap> toEvict = map.entrySet().iterator().next();
         key = toEvict.getKey();
         value = toEvict.getValue();
         map.remove(key);
@@ -132,19 +161,26 @@ public class LruCache implements Cache {
   }
 
   @Override public final synchronized void clearKeyUri(String uri) {
-    int uriLength = uri.length();
-    for (Iterator<Map.Entry<String, Bitmap>> i = map.entrySet().iterator(); i.hasNext();) {
-      Map.Entry<String, Bitmap> entry = i.next();
-      String key = entry.getKey();
-      Bitmap value = entry.getValue();
-      int newlineIndex = key.indexOf(KEY_SEPARATOR);
-      if (newlineIndex == uriLength && key.substring(0, newlineIndex).equals(uri)) {
+    for (Iterator<Map.Entry<Object, Bitmap>> i = map.entrySet().iterator(); i.hasNext();) {
+      Map.Entry<Object, Bitmap> entry = i.next();
+      if (keyMatchesUri(entry.getKey(), uri)) {
         i.remove();
-        size -= Utils.getBitmapBytes(value);
+        size -= Utils.getBitmapBytes(entry.getValue());
       }
     }
   }
 
+  /** True if {@code key}, either a {@link String} or a {@link CacheKey}, is for {@code uri}. */
+  static boolean keyMatchesUri(Object key, String uri) {
+    if (key instanceof CacheKey) {
+      return ((CacheKey) key).uri.equals(uri);
+    }
+    String stringKey = (String) key;
+    int uriLength = uri.length();
+    int newlineIndex = stringKey.indexOf(KEY_SEPARATOR);
+    return newlineIndex == uriLength && stringKey.regionMatches(0, uri, 0, uriLength);
+  }
+
   /** Returns the number of times {@link #get} returned a value. */
   public final synchronized int hitCount() {
     return hitCount;
@@ -155,7 +191,7 @@ public class LruCache implements Cache {
     return missCount;
   }
 
-  /** Returns the number of times {@link #set(String, Bitmap)} was called. */
+  /** Returns the number of times {@link #set} was called. */
   public final synchronized int putCount() {
     return putCount;
   }
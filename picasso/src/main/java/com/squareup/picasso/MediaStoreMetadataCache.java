@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static android.content.ContentResolver.SCHEME_CONTENT;
+
+/**
+ * Remembers the MIME type, orientation and dimensions of MediaStore items. Items which are shown
+ * together usually have neighbouring IDs, so a miss loads a whole block of them with a single
+ * query. Everything is forgotten whenever the MediaStore changes. Safe for use from any thread.
+ */
+final class MediaStoreMetadataCache {
+  /** The number of neighbouring IDs loaded by a single query. */
+  static final int BATCH_SIZE = 64;
+  /** Items beyond this many are forgotten, least recently used first. */
+  private static final int MAX_SIZE = 1024;
+
+  private static final Uri MEDIA_STORE_URI = new Uri.Builder()
+      .scheme(SCHEME_CONTENT)
+      .authority(MediaStore.AUTHORITY)
+      .build();
+  private static final String SELECTION = BaseColumns._ID + " >= ? AND " + BaseColumns._ID + " < ?";
+
+  static final class Metadata {
+    final String mimeType;
+    final int exifOrientation;
+    /** The dimensions of the full image, or 0 if they are not known. */
+    final int width;
+    final int height;
+
+    Metadata(String mimeType, int exifOrientation, int width, int height) {
+      this.mimeType = mimeType;
+      this.exifOrientation = exifOrientation;
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  private final ContentResolver contentResolver;
+  private final LinkedHashMap<String, Metadata> entries =
+      new LinkedHashMap<String, Metadata>(0, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+          return size() > MAX_SIZE;
+        }
+      };
+  private ContentObserver observer;
+  /** Incremented whenever everything is forgotten, so queries running meanwhile are dropped. */
+  private int generation;
+
+  MediaStoreMetadataCache(ContentResolver contentResolver) {
+    this.contentResolver = contentResolver;
+  }
+
+  /**
+   * Returns the metadata of the item at {@code uri}, or null if it could not be loaded, in which
+   * case it has to be looked up separately.
+   */
+  Metadata get(Uri uri) {
+    int queryGeneration;
+    synchronized (this) {
+      Metadata metadata = entries.get(uri.toString());
+      if (metadata != null) {
+        return metadata;
+      }
+      registerObserver();
+      queryGeneration = generation;
+    }
+
+    List<String> segments = uri.getPathSegments();
+    if (segments.isEmpty()) {
+      return null;
+    }
+    long id;
+    try {
+      id = Long.parseLong(segments.get(segments.size() - 1));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    Uri.Builder collectionBuilder = uri.buildUpon().path(null);
+    for (int i = 0, n = segments.size() - 1; i < n; i++) {
+      collectionBuilder.appendPath(segments.get(i));
+    }
+    Uri collection = collectionBuilder.build();
+    // Only images have an orientation column on every version.
+    boolean isImages = segments.contains("images");
+    long start = id - id % BATCH_SIZE;
+
+    Map<String, Metadata> loaded = new LinkedHashMap<>(BATCH_SIZE);
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(collection, getProjection(isImages), SELECTION,
+          new String[] {Long.toString(start), Long.toString(start + BATCH_SIZE)}, null);
+      if (cursor == null) {
+        return null;
+      }
+      while (cursor.moveToNext()) {
+        Uri itemUri = ContentUris.withAppendedId(collection, cursor.getLong(0));
+        int exifOrientation = isImages
+            ? MediaStoreRequestHandler.getExifOrientation(cursor.getInt(4)) : 0;
+        loaded.put(itemUri.toString(), new Metadata(cursor.getString(1), exifOrientation,
+            cursor.getInt(2), cursor.getInt(3)));
+      }
+    } catch (RuntimeException ignored) {
+      // The collection does not have the expected columns.
+      return null;
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    synchronized (this) {
+      if (queryGeneration == generation) {
+        entries.putAll(loaded);
+      }
+    }
+    return loaded.get(uri.toString());
+  }
+
+  /** Forgets everything. */
+  synchronized void clear() {
+    entries.clear();
+    generation++;
+  }
+
+  /** Stops listening to changes of the MediaStore. */
+  synchronized void shutdown() {
+    if (observer != null) {
+      contentResolver.unregisterContentObserver(observer);
+      observer = null;
+    }
+    clear();
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private void registerObserver() {
+    if (observer != null) {
+      return;
+    }
+    observer = new ContentObserver(null) {
+      @Override public void onChange(boolean selfChange) {
+        clear();
+      }
+    };
+    contentResolver.registerContentObserver(MEDIA_STORE_URI, true, observer);
+  }
+
+  private static String[] getProjection(boolean isImages) {
+    // The dimension columns were only added in Jelly Bean.
+    boolean hasDimensions = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    String width = hasDimensions ? MediaStore.MediaColumns.WIDTH : "0";
+    String height = hasDimensions ? MediaStore.MediaColumns.HEIGHT : "0";
+    if (isImages) {
+      return new String[] {BaseColumns._ID, MediaStore.MediaColumns.MIME_TYPE, width, height,
+          MediaStore.Images.ImageColumns.ORIENTATION};
+    }
+    return new String[] {BaseColumns._ID, MediaStore.MediaColumns.MIME_TYPE, width, height};
+  }
+}
@@ -23,11 +23,15 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.provider.MediaStore;
 import java.io.IOException;
-import okio.Okio;
-import okio.Source;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static android.content.ContentResolver.SCHEME_CONTENT;
 import static android.content.ContentUris.parseId;
+import static android.media.ExifInterface.ORIENTATION_ROTATE_180;
+import static android.media.ExifInterface.ORIENTATION_ROTATE_270;
+import static android.media.ExifInterface.ORIENTATION_ROTATE_90;
 import static android.provider.MediaStore.Images;
 import static android.provider.MediaStore.Video;
 import static android.provider.MediaStore.Images.Thumbnails.FULL_SCREEN_KIND;
@@ -42,9 +46,15 @@ class MediaStoreRequestHandler extends ContentStreamRequestHandler {
   private static final String[] CONTENT_ORIENTATION = new String[] {
       Images.ImageColumns.ORIENTATION
   };
+  private static final String[] CONTENT_THUMBNAIL_FILE = new String[] {
+      Images.Thumbnails.IMAGE_ID, Images.Thumbnails.DATA
+  };
+
+  final MediaStoreMetadataCache metadataCache;
 
   MediaStoreRequestHandler(Context context) {
     super(context);
+    metadataCache = new MediaStoreMetadataCache(context.getContentResolver());
   }
 
   @Override public boolean canHandleRequest(Request data) {
@@ -55,16 +65,14 @@ class MediaStoreRequestHandler extends ContentStreamRequestHandler {
 
   @Override public Result load(Request request, int networkPolicy) throws IOException {
     ContentResolver contentResolver = context.getContentResolver();
-    int exifOrientation = getExifOrientation(contentResolver, request.uri);
-
-    String mimeType = contentResolver.getType(request.uri);
+    MediaStoreMetadataCache.Metadata metadata = metadataCache.get(request.uri);
+    String mimeType = metadata != null ? metadata.mimeType : contentResolver.getType(request.uri);
     boolean isVideo = mimeType != null && mimeType.startsWith("video/");
 
     if (request.hasSize()) {
       PicassoKind picassoKind = getPicassoKind(request.targetWidth, request.targetHeight);
       if (!isVideo && picassoKind == FULL) {
-        Source source = Okio.source(getInputStream(request));
-        return new Result(null, source, DISK, exifOrientation);
+        return loadFile(request);
       }
 
       long id = parseId(request.uri);
@@ -88,12 +96,84 @@ class MediaStoreRequestHandler extends ContentStreamRequestHandler {
       }
 
       if (bitmap != null) {
+        // Thumbnails have no EXIF header of their own to read the orientation from.
+        int exifOrientation = metadata != null
+            ? metadata.exifOrientation : getExifOrientation(contentResolver, request.uri);
         return new Result(bitmap, null, DISK, exifOrientation);
       }
     }
 
-    Source source = Okio.source(getInputStream(request));
-    return new Result(null, source, DISK, exifOrientation);
+    // The EXIF orientation of full images is read from their file while it is decoded.
+    return loadFile(request);
+  }
+
+  @Override void shutdown() {
+    metadataCache.shutdown();
+  }
+
+  /** True if {@code request} is for a thumbnail, which can be loaded in a batch. */
+  static boolean isThumbnail(Request request) {
+    return request.hasSize()
+        && getPicassoKind(request.targetWidth, request.targetHeight) != FULL;
+  }
+
+  /**
+   * Looks up the files of the thumbnails of {@code kind} for all the images with {@code ids} with
+   * a single query. Images without a thumbnail file are left out.
+   */
+  Map<Long, String> queryThumbnailFiles(PicassoKind kind, List<Long> ids) {
+    Map<Long, String> files = new HashMap<>(ids.size());
+    StringBuilder selection = new StringBuilder(Images.Thumbnails.KIND)
+        .append(" = ? AND ")
+        .append(Images.Thumbnails.IMAGE_ID)
+        .append(" IN (");
+    String[] selectionArgs = new String[ids.size() + 1];
+    selectionArgs[0] = Integer.toString(kind.androidKind);
+    for (int i = 0, n = ids.size(); i < n; i++) {
+      selection.append(i == 0 ? "?" : ",?");
+      selectionArgs[i + 1] = Long.toString(ids.get(i));
+    }
+    selection.append(')');
+
+    Cursor cursor = null;
+    try {
+      cursor = context.getContentResolver().query(Images.Thumbnails.EXTERNAL_CONTENT_URI,
+          CONTENT_THUMBNAIL_FILE, selection.toString(), selectionArgs, null);
+      while (cursor != null && cursor.moveToNext()) {
+        String file = cursor.getString(1);
+        if (file != null) {
+          files.put(cursor.getLong(0), file);
+        }
+      }
+    } catch (RuntimeException ignored) {
+      // Each thumbnail is then loaded on its own.
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Decodes the thumbnail of {@code kind} for {@code request} from {@code file}, using
+   * {@code tempStorage} as the decoding buffer, or returns null if the file cannot be decoded.
+   */
+  Result loadThumbnailFile(Request request, PicassoKind kind, String file, byte[] tempStorage) {
+    BitmapFactory.Options options = createBitmapOptions(request);
+    options.inJustDecodeBounds = true;
+    calculateInSampleSize(request.targetWidth, request.targetHeight, kind.width, kind.height,
+        options, request);
+    options.inTempStorage = tempStorage;
+    Bitmap bitmap = BitmapFactory.decodeFile(file, options);
+    if (bitmap == null) {
+      return null;
+    }
+    MediaStoreMetadataCache.Metadata metadata = metadataCache.get(request.uri);
+    int exifOrientation = metadata != null
+        ? metadata.exifOrientation
+        : getExifOrientation(context.getContentResolver(), request.uri);
+    return new Result(bitmap, null, DISK, exifOrientation);
   }
 
   static PicassoKind getPicassoKind(int targetWidth, int targetHeight) {
@@ -112,7 +192,7 @@ class MediaStoreRequestHandler extends ContentStreamRequestHandler {
       if (cursor == null || !cursor.moveToFirst()) {
         return 0;
       }
-      return cursor.getInt(0);
+      return getExifOrientation(cursor.getInt(0));
     } catch (RuntimeException ignored) {
       // If the orientation column doesn't exist, assume no rotation.
       return 0;
@@ -123,6 +203,20 @@ class MediaStoreRequestHandler extends ContentStreamRequestHandler {
     }
   }
 
+  /** Returns the EXIF orientation for the clockwise rotation in the orientation column. */
+  static int getExifOrientation(int degrees) {
+    switch (degrees) {
+      case 90:
+        return ORIENTATION_ROTATE_90;
+      case 180:
+        return ORIENTATION_ROTATE_180;
+      case 270:
+        return ORIENTATION_ROTATE_270;
+      default:
+        return 0;
+    }
+  }
+
   enum PicassoKind {
     MICRO(MICRO_KIND, 96, 96),
     MINI(MINI_KIND, 512, 384),
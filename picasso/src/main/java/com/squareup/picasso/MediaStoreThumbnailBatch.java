@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.ContentUris;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.FutureTask;
+
+import static com.squareup.picasso.MediaStoreRequestHandler.PicassoKind;
+
+/**
+ * Runs hunters for MediaStore thumbnails of the same kind back to back on a single thread. The
+ * files of all their thumbnails are looked up with one query first, and they are decoded with a
+ * shared buffer. Thumbnails which cannot be found this way are loaded by their hunters as usual.
+ */
+final class MediaStoreThumbnailBatch implements Runnable {
+  /** Hunters beyond this many are split into more batches, which can run in parallel. */
+  static final int MAX_SIZE = 32;
+  private static final int TEMP_STORAGE_SIZE = 16 * 1024;
+
+  final PicassoKind kind;
+  /** The hunters in the order they run. Each runs as its {@link BitmapHunter#future}. */
+  final List<BitmapHunter> hunters;
+
+  MediaStoreThumbnailBatch(PicassoKind kind, List<BitmapHunter> hunters) {
+    this.kind = kind;
+    this.hunters = hunters;
+  }
+
+  /** True if {@code hunter} loads a MediaStore thumbnail and can run in a batch. */
+  static boolean canBatch(BitmapHunter hunter) {
+    return hunter.requestHandler instanceof MediaStoreRequestHandler
+        && MediaStoreRequestHandler.isThumbnail(hunter.getData());
+  }
+
+  /** Prepares {@code hunter} to run in a batch, which can be canceled for it alone. */
+  static void prepare(BitmapHunter hunter) {
+    hunter.future = new FutureTask<Object>(hunter, null);
+  }
+
+  @Override public void run() {
+    MediaStoreRequestHandler requestHandler =
+        (MediaStoreRequestHandler) hunters.get(0).requestHandler;
+    int size = hunters.size();
+    long[] imageIds = new long[size];
+    List<Long> ids = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      BitmapHunter hunter = hunters.get(i);
+      imageIds[i] = hunter.isCancelled() ? -1 : getImageId(requestHandler, hunter.getData());
+      if (imageIds[i] != -1) {
+        ids.add(imageIds[i]);
+      }
+    }
+    Map<Long, String> files = ids.isEmpty()
+        ? Collections.<Long, String>emptyMap() : requestHandler.queryThumbnailFiles(kind, ids);
+
+    byte[] tempStorage = new byte[TEMP_STORAGE_SIZE];
+    for (int i = 0; i < size; i++) {
+      BitmapHunter hunter = hunters.get(i);
+      FutureTask<?> task = (FutureTask<?>) hunter.future;
+      if (task.isCancelled()) {
+        continue;
+      }
+      String file = files.get(imageIds[i]);
+      // Thumbnails already in the memory cache are not loaded again.
+      if (file != null && !hunter.checkMemoryCache()) {
+        try {
+          hunter.downloaded =
+              requestHandler.loadThumbnailFile(hunter.getData(), kind, file, tempStorage);
+        } catch (RuntimeException | OutOfMemoryError ignored) {
+          // The hunter loads the thumbnail itself, and reports the failure if it happens again.
+        }
+      }
+      task.run();
+    }
+  }
+
+  /** Returns the ID of the image {@code request} is for, or -1 if it is not for an image. */
+  private static long getImageId(MediaStoreRequestHandler requestHandler, Request request) {
+    long id;
+    try {
+      id = ContentUris.parseId(request.uri);
+    } catch (RuntimeException e) {
+      return -1;
+    }
+    MediaStoreMetadataCache.Metadata metadata = requestHandler.metadataCache.get(request.uri);
+    return metadata != null && metadata.mimeType != null && metadata.mimeType.startsWith("image/")
+        ? id : -1;
+  }
+}
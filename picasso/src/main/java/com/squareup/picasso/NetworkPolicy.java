@@ -30,7 +30,19 @@ public enum NetworkPolicy {
   NO_STORE(1 << 1),
 
   /** Forces the request through the disk cache only, skipping network. */
-  OFFLINE(1 << 2);
+  OFFLINE(1 << 2),
+
+  /**
+   * Shows the copy in the disk cache immediately, even if it is stale, and then checks with the
+   * server in the background. The target is updated a second time only if the image changed.
+   * Without a copy on disk the image is loaded from the network as usual.
+   * <p>
+   * <em>Note</em>: At this time this is only supported if you are using OkHttp.
+   */
+  STALE_WHILE_REVALIDATE(1 << 3);
+
+  /** Validates the copy in the disk cache with the server. Used for background revalidation. */
+  static final int REVALIDATE = 1 << 30;
 
   public static boolean shouldReadFromDiskCache(int networkPolicy) {
     return (networkPolicy & NetworkPolicy.NO_CACHE.index) == 0;
@@ -44,6 +56,14 @@ public enum NetworkPolicy {
     return (networkPolicy & NetworkPolicy.OFFLINE.index) != 0;
   }
 
+  public static boolean shouldServeStale(int networkPolicy) {
+    return (networkPolicy & NetworkPolicy.STALE_WHILE_REVALIDATE.index) != 0;
+  }
+
+  static boolean isRevalidation(int networkPolicy) {
+    return (networkPolicy & REVALIDATE) != 0;
+  }
+
   final int index;
 
   NetworkPolicy(int index) {
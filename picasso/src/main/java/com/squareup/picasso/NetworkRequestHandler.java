@@ -16,10 +16,23 @@
 package com.squareup.picasso;
 
 import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import okhttp3.CacheControl;
+import okhttp3.Call;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
 
 import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
 import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
@@ -27,13 +40,31 @@ import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
 class NetworkRequestHandler extends RequestHandler {
   private static final String SCHEME_HTTP = "http";
   private static final String SCHEME_HTTPS = "https";
+  private static final long MAX_PARTIAL_DOWNLOADS_SIZE = 4 * 1024 * 1024; // 4MB
+  static final long MAX_ASYNC_BUFFER_SIZE = 512 * 1024; // 512KB
+  private static final int HTTP_NOT_MODIFIED = 304;
 
   private final Downloader downloader;
   private final Stats stats;
+  final HostHealthTracker hostHealth;
+  final PartialDownloads partialDownloads;
+  final ContentNegotiation negotiation;
 
   public NetworkRequestHandler(Downloader downloader, Stats stats) {
+    this(downloader, stats, new HostHealthTracker(RetryPolicy.DEFAULT));
+  }
+
+  NetworkRequestHandler(Downloader downloader, Stats stats, HostHealthTracker hostHealth) {
+    this(downloader, stats, hostHealth, ContentNegotiation.NONE);
+  }
+
+  NetworkRequestHandler(Downloader downloader, Stats stats, HostHealthTracker hostHealth,
+      ContentNegotiation negotiation) {
     this.downloader = downloader;
     this.stats = stats;
+    this.hostHealth = hostHealth;
+    this.negotiation = negotiation;
+    this.partialDownloads = new PartialDownloads(MAX_PARTIAL_DOWNLOADS_SIZE);
   }
 
   @Override public boolean canHandleRequest(Request data) {
@@ -42,8 +73,218 @@ class NetworkRequestHandler extends RequestHandler {
   }
 
   @Override public Result load(Request request, int networkPolicy) throws IOException {
+    String host = request.uri.getHost();
+    networkPolicy = applyHostHealth(host, networkPolicy);
+    if (NetworkPolicy.shouldServeStale(networkPolicy)
+        && NetworkPolicy.shouldReadFromDiskCache(networkPolicy)
+        && !NetworkPolicy.isOfflineOnly(networkPolicy)) {
+      Result cached = loadFromDiskCache(request);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    okhttp3.Request downloaderRequest = createRequest(request, networkPolicy);
+    PartialDownloads.Partial partial = takePartial(request, networkPolicy);
+    if (partial != null) {
+      downloaderRequest = PartialDownloads.resume(downloaderRequest, partial);
+    }
+
+    Response response;
+    try {
+      response = downloader.load(downloaderRequest);
+    } catch (IOException e) {
+      recordFailure(host, networkPolicy);
+      throw e;
+    }
+    recordResponse(host, networkPolicy, response);
+
+    if (NetworkPolicy.isRevalidation(networkPolicy)) {
+      if (isUnchanged(response)) {
+        response.body().close();
+        return null;
+      }
+      return new Result(toResult(request, response, null).getSource(), NETWORK);
+    }
+    if (partial == null) {
+      return toResult(request, response, null);
+    }
+    if (!PartialDownloads.resumes(response, partial) && isUnusableRange(response)) {
+      // The server did not return the range asked for. Download everything instead.
+      response.body().close();
+      return load(request, networkPolicy);
+    }
+    return toResult(request, response, partial);
+  }
+
+  /** True if {@link #loadAsync} can be used. */
+  boolean supportsAsyncLoad() {
+    return downloader instanceof AsyncDownloader;
+  }
+
+  /**
+   * Like {@link #load} but without blocking the calling thread. Bodies of up to
+   * {@link #MAX_ASYNC_BUFFER_SIZE} are read in full on the downloader's thread so that decoding
+   * the result never waits on the network. The rest of larger bodies is read while decoding, like
+   * {@link #load} does, so that concurrent downloads never hold more than that each.
+   */
+  AsyncLoad loadAsync(Request request, int requestNetworkPolicy, LoadCallback callback) {
+    AsyncLoad load = new AsyncLoad();
+    startAsync(load, request, requestNetworkPolicy, callback);
+    return load;
+  }
+
+  private void startAsync(final AsyncLoad load, final Request request, int requestNetworkPolicy,
+      final LoadCallback callback) {
+    final String host = request.uri.getHost();
+    final int networkPolicy = applyHostHealth(host, requestNetworkPolicy);
     okhttp3.Request downloaderRequest = createRequest(request, networkPolicy);
-    Response response = downloader.load(downloaderRequest);
+    final PartialDownloads.Partial partial = takePartial(request, networkPolicy);
+    if (partial != null) {
+      downloaderRequest = PartialDownloads.resume(downloaderRequest, partial);
+    }
+    load.started(((AsyncDownloader) downloader).load(downloaderRequest,
+        new AsyncDownloader.ResponseCallback() {
+          @Override public void onResponse(@NonNull Response response) {
+            recordResponse(host, networkPolicy, response);
+            if (load.isCanceled()) {
+              response.body().close();
+              return;
+            }
+            if (partial != null
+                && !PartialDownloads.resumes(response, partial)
+                && isUnusableRange(response)) {
+              // The server did not return the range asked for. Download everything instead.
+              response.body().close();
+              startAsync(load, request, networkPolicy, callback);
+              return;
+            }
+
+            Result result;
+            try {
+              long contentLength = response.body().contentLength();
+              result = buffer(toResult(request, response, partial), contentLength);
+            } catch (IOException e) {
+              if (!load.isCanceled()) {
+                callback.onFailure(e);
+              }
+              return;
+            }
+            callback.onLoaded(result);
+          }
+
+          @Override public void onFailure(@NonNull IOException e) {
+            if (load.isCanceled()) {
+              return;
+            }
+            recordFailure(host, networkPolicy);
+            callback.onFailure(e);
+          }
+        }));
+  }
+
+  /**
+   * Reads the network body of {@code streaming} into memory unless it is larger than
+   * {@link #MAX_ASYNC_BUFFER_SIZE}. Results from the disk cache are read from the cache file.
+   */
+  private static Result buffer(Result streaming, long contentLength) throws IOException {
+    Source source = streaming.getSource();
+    if (streaming.getFile() != null || contentLength > MAX_ASYNC_BUFFER_SIZE) {
+      return streaming;
+    }
+    //noinspection ConstantConditions Network results always have a source.
+    BufferedSource bufferedSource = Okio.buffer(source);
+    try {
+      if (bufferedSource.request(MAX_ASYNC_BUFFER_SIZE + 1)) {
+        // Larger than announced, or of unknown length.
+        return new Result(bufferedSource, streaming.getLoadedFrom());
+      }
+      Buffer buffer = new Buffer();
+      buffer.writeAll(bufferedSource);
+      bufferedSource.close();
+      return new Result(buffer, streaming.getLoadedFrom());
+    } catch (IOException e) {
+      try {
+        bufferedSource.close();
+      } catch (IOException ignored) {
+      }
+      throw e;
+    }
+  }
+
+  /** Restricts {@code networkPolicy} to the disk cache while {@code host} is cooling down. */
+  private int applyHostHealth(String host, int networkPolicy) {
+    if (!hostHealth.isAvailable(host, SystemClock.elapsedRealtime())) {
+      networkPolicy |= NetworkPolicy.OFFLINE.index;
+    }
+    return networkPolicy;
+  }
+
+  private void recordFailure(String host, int networkPolicy) {
+    if (!NetworkPolicy.isOfflineOnly(networkPolicy)) {
+      hostHealth.recordFailure(host, SystemClock.elapsedRealtime());
+    }
+  }
+
+  /** Counts {@code response} towards the health of {@code host} if it came from the network. */
+  private void recordResponse(String host, int networkPolicy, Response response) {
+    if (NetworkPolicy.isOfflineOnly(networkPolicy)
+        || (response.networkResponse() == null && response.cacheResponse() != null)) {
+      return;
+    }
+    if (response.code() >= 500) {
+      hostHealth.recordFailure(host, SystemClock.elapsedRealtime());
+    } else {
+      hostHealth.recordSuccess(host);
+    }
+  }
+
+  /** Returns the copy of {@code request} in the disk cache however old it is, or null. */
+  private Result loadFromDiskCache(Request request) throws IOException {
+    Response response = downloader.load(createRequest(request, NetworkPolicy.OFFLINE.index));
+    if (!response.isSuccessful()) {
+      response.body().close();
+      return null;
+    }
+    return toResult(request, response, null);
+  }
+
+  /**
+   * True if the server confirmed that the copy in the disk cache is still current, either with a
+   * 304 or with the same strong validator as the copy.
+   */
+  private static boolean isUnchanged(Response response) {
+    Response networkResponse = response.networkResponse();
+    Response cacheResponse = response.cacheResponse();
+    if (networkResponse == null || cacheResponse == null) {
+      return networkResponse == null && cacheResponse != null;
+    }
+    if (networkResponse.code() == HTTP_NOT_MODIFIED) {
+      return true;
+    }
+    String etag = networkResponse.header("ETag");
+    return etag != null && !etag.startsWith("W/") && etag.equals(cacheResponse.header("ETag"));
+  }
+
+  /** Returns the start of the body of the last attempt at {@code request} if it can be resumed. */
+  private PartialDownloads.Partial takePartial(Request request, int networkPolicy) {
+    if (NetworkPolicy.isOfflineOnly(networkPolicy) || NetworkPolicy.isRevalidation(networkPolicy)) {
+      return null;
+    }
+    return partialDownloads.take(request.uri.toString());
+  }
+
+  private static boolean isUnusableRange(Response response) {
+    return response.code() == PartialDownloads.HTTP_PARTIAL_CONTENT
+        || response.code() == PartialDownloads.HTTP_RANGE_NOT_SATISFIABLE;
+  }
+
+  /**
+   * Converts {@code response} into a result. If {@code partial} is non-null the response was
+   * requested to resume it and is used as its remainder if it is one.
+   */
+  private Result toResult(Request request, Response response, PartialDownloads.Partial partial)
+      throws IOException {
     ResponseBody body = response.body();
 
     if (!response.isSuccessful()) {
@@ -61,14 +302,74 @@ class NetworkRequestHandler extends RequestHandler {
       body.close();
       throw new ContentLengthException("Received response with 0 content-length header.");
     }
+    if (loadedFrom == DISK && partial == null) {
+      FileInputStream file = openCacheFile(response);
+      if (file != null) {
+        body.close();
+        return new Result(file, DISK);
+      }
+    }
     if (loadedFrom == NETWORK && body.contentLength() > 0) {
-      stats.dispatchDownloadFinished(body.contentLength());
+      if (ContentNegotiation.isNegotiated(response)) {
+        stats.dispatchNegotiatedDownloadFinished(body.contentLength());
+      } else {
+        stats.dispatchDownloadFinished(body.contentLength());
+      }
     }
-    return new Result(body.source(), loadedFrom);
+
+    Source source = body.source();
+    if (partial == null || !PartialDownloads.resumes(response, partial)) {
+      partial = null;
+    }
+    String validator = partial != null ? partial.validator : PartialDownloads.validator(response);
+    // Only bodies of a known length are recorded, so that they are dropped once complete.
+    long contentLength = body.contentLength();
+    if (validator != null && contentLength > 0) {
+      source = partialDownloads.record(request.uri.toString(), validator, partial, source,
+          contentLength);
+    }
+    return new Result(source, loadedFrom);
+  }
+
+  /**
+   * Opens the file in the disk cache which holds the body of {@code response}, or returns null if
+   * there is none. It is opened before the body is closed so that it cannot be evicted meanwhile.
+   */
+  private FileInputStream openCacheFile(Response response) {
+    if (!(downloader instanceof CacheFileDownloader)) {
+      return null;
+    }
+    File file = ((CacheFileDownloader) downloader).cacheFile(response);
+    if (file == null) {
+      return null;
+    }
+    // Without a length the file cannot be checked to hold this response, so the body is read.
+    long contentLength = response.body().contentLength();
+    if (contentLength == -1) {
+      return null;
+    }
+    FileInputStream stream;
+    try {
+      stream = new FileInputStream(file);
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    try {
+      // The entry may have been replaced with one for another response since.
+      if (stream.getChannel().size() == contentLength) {
+        return stream;
+      }
+    } catch (IOException ignored) {
+    }
+    try {
+      stream.close();
+    } catch (IOException ignored) {
+    }
+    return null;
   }
 
   @Override int getRetryCount() {
-    return 2;
+    return hostHealth.retryPolicy.maxRetries;
   }
 
   @Override boolean shouldRetry(boolean airplaneMode, NetworkInfo info) {
@@ -79,7 +380,7 @@ class NetworkRequestHandler extends RequestHandler {
     return true;
   }
 
-  private static okhttp3.Request createRequest(Request request, int networkPolicy) {
+  private okhttp3.Request createRequest(Request request, int networkPolicy) {
     CacheControl cacheControl = null;
     if (networkPolicy != 0) {
       if (NetworkPolicy.isOfflineOnly(networkPolicy)) {
@@ -92,6 +393,9 @@ class NetworkRequestHandler extends RequestHandler {
         if (!NetworkPolicy.shouldWriteToDiskCache(networkPolicy)) {
           builder.noStore();
         }
+        if (NetworkPolicy.isRevalidation(networkPolicy)) {
+          builder.maxAge(0, TimeUnit.SECONDS);
+        }
         cacheControl = builder.build();
       }
     }
@@ -100,9 +404,47 @@ class NetworkRequestHandler extends RequestHandler {
     if (cacheControl != null) {
       builder.cacheControl(cacheControl);
     }
+    negotiation.apply(request, builder);
     return builder.build();
   }
 
+  /**
+   * Receives the outcome of {@link #loadAsync}. Exactly one method is called, on any thread,
+   * unless the download is {@link AsyncLoad#cancel() canceled} first.
+   */
+  interface LoadCallback {
+    void onLoaded(Result result);
+
+    void onFailure(IOException e);
+  }
+
+  /** A download started by {@link #loadAsync}, which can be stopped before it completes. */
+  static final class AsyncLoad {
+    // More than one if the download restarted without the range asked for first.
+    private final List<Call> calls = new ArrayList<>(1);
+    private boolean canceled;
+
+    synchronized void started(Call call) {
+      calls.add(call);
+      if (canceled) {
+        call.cancel();
+      }
+    }
+
+    /** Stops the download. The callback passed to {@link #loadAsync} is no longer called. */
+    synchronized void cancel() {
+      canceled = true;
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0, n = calls.size(); i < n; i++) {
+        calls.get(i).cancel();
+      }
+    }
+
+    synchronized boolean isCanceled() {
+      return canceled;
+    }
+  }
+
   static class ContentLengthException extends IOException {
     ContentLengthException(String message) {
       super(message);
@@ -17,17 +17,23 @@ package com.squareup.picasso;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import java.io.File;
 import java.io.IOException;
 import okhttp3.Cache;
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
 /** A {@link Downloader} which uses OkHttp to download images. */
-public final class OkHttp3Downloader implements Downloader {
+public final class OkHttp3Downloader implements AsyncDownloader, CacheFileDownloader {
+  private static final int HTTP_NOT_MODIFIED = 304;
+  /** Index of the body file of a cache entry. See {@link #cacheFile}. */
+  private static final int ENTRY_BODY = 1;
+
   @VisibleForTesting final Call.Factory client;
   private final Cache cache;
   private boolean sharedClient = true;
@@ -91,6 +97,47 @@ public final class OkHttp3Downloader implements Downloader {
     return client.newCall(request).execute();
   }
 
+  @NonNull @Override public Call load(@NonNull Request request,
+      @NonNull final ResponseCallback callback) {
+    Call call = client.newCall(request);
+    call.enqueue(new Callback() {
+      @Override public void onFailure(Call call, IOException e) {
+        callback.onFailure(e);
+      }
+
+      @Override public void onResponse(Call call, Response response) {
+        callback.onResponse(response);
+      }
+    });
+    return call;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * This depends on how OkHttp 3.x lays out its disk cache, which is not public API: the clean
+   * body of each entry is the file named by {@link Cache#key} with the suffix {@code .1}. Entries
+   * are only ever replaced by renaming a new file over it, so an opened file is never half
+   * written, but it may belong to a newer response. Callers must check its length against that of
+   * the response, which {@code OkHttp3DownloaderTest} pins for the bundled OkHttp version.
+   */
+  @Nullable @Override public File cacheFile(@NonNull Response response) {
+    Response cacheResponse = response.cacheResponse();
+    Response networkResponse = response.networkResponse();
+    if (cache == null
+        || cacheResponse == null
+        || (networkResponse != null && networkResponse.code() != HTTP_NOT_MODIFIED)) {
+      return null;
+    }
+    // Compressed bodies are stored as received and only decompressed when read.
+    if (cacheResponse.header("Content-Encoding") != null) {
+      return null;
+    }
+    String key = Cache.key(cacheResponse.request().url());
+    File file = new File(cache.directory(), key + "." + ENTRY_BODY);
+    return file.isFile() ? file : null;
+  }
+
   @Override public void shutdown() {
     if (!sharedClient && cache != null) {
       try {
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.Source;
+import okio.Timeout;
+
+/**
+ * Keeps the bytes received for network responses whose body failed part way through, so that a
+ * retry can ask for the rest with a range request instead of downloading everything again.
+ * <p>
+ * Only responses with a strong validator are kept since the range request is made conditional on
+ * the image being unchanged with {@code If-Range}. The total size kept is bounded; the oldest
+ * bodies are dropped first.
+ */
+final class PartialDownloads {
+  static final int HTTP_PARTIAL_CONTENT = 206;
+  static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+  private final long maxSize;
+  private final Map<String, Partial> partials = new LinkedHashMap<>();
+  private long size;
+
+  PartialDownloads(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /** Removes and returns what was received of {@code url} before its last failure, if anything. */
+  synchronized Partial take(String url) {
+    Partial partial = partials.remove(url);
+    if (partial != null) {
+      size -= partial.body.size();
+    }
+    return partial;
+  }
+
+  synchronized void put(String url, Partial partial) {
+    Partial previous = partials.put(url, partial);
+    if (previous != null) {
+      size -= previous.body.size();
+    }
+    size += partial.body.size();
+
+    Iterator<Partial> eldest = partials.values().iterator();
+    while (size > maxSize && eldest.hasNext()) {
+      size -= eldest.next().body.size();
+      eldest.remove();
+    }
+  }
+
+  synchronized long size() {
+    return size;
+  }
+
+  /**
+   * Returns the body of {@code source}, recording the bytes read from it so that they are kept for
+   * {@code url} if reading fails before all {@code contentLength} bytes were read. When resuming,
+   * {@code partial} supplies the start of the body.
+   */
+  Source record(String url, String validator, Partial partial, Source source,
+      long contentLength) {
+    return new RecordingSource(url, validator, partial, source, contentLength);
+  }
+
+  /** Returns {@code request} asking for the remainder of {@code partial} only. */
+  static okhttp3.Request resume(okhttp3.Request request, Partial partial) {
+    return request.newBuilder()
+        .header("Range", "bytes=" + partial.body.size() + "-")
+        .header("If-Range", partial.validator)
+        // The range must apply to the same representation that was partially received.
+        .header("Accept-Encoding", "identity")
+        .build();
+  }
+
+  /** True if {@code response} is the remainder of {@code partial}. */
+  static boolean resumes(Response response, Partial partial) {
+    String contentRange = response.header("Content-Range");
+    return response.code() == HTTP_PARTIAL_CONTENT
+        && contentRange != null
+        && contentRange.startsWith("bytes " + partial.body.size() + "-");
+  }
+
+  /**
+   * Returns the validator with which the body of {@code response} can be resumed, or null if it
+   * cannot be resumed.
+   */
+  static String validator(Response response) {
+    if (response.code() != 200 || response.cacheResponse() != null) {
+      return null;
+    }
+    // A body which was transparently decompressed can't be resumed by its decompressed offset.
+    Response networkResponse = response.networkResponse();
+    String encoding = (networkResponse != null ? networkResponse : response)
+        .header("Content-Encoding");
+    if (encoding != null && !"identity".equalsIgnoreCase(encoding)) {
+      return null;
+    }
+    if ("none".equalsIgnoreCase(response.header("Accept-Ranges"))) {
+      return null;
+    }
+    String etag = response.header("ETag");
+    if (etag != null && !etag.startsWith("W/")) {
+      return etag;
+    }
+    return response.header("Last-Modified");
+  }
+
+  static final class Partial {
+    final String validator;
+    final Buffer body;
+
+    Partial(String validator, Buffer body) {
+      this.validator = validator;
+      this.body = body;
+    }
+  }
+
+  private final class RecordingSource implements Source {
+    private final String url;
+    private final String validator;
+    private final Source source;
+    private Buffer prefix;
+    /** Shares the segments read rather than copying them, and is dropped once all were read. */
+    private Buffer received;
+    private long remaining;
+
+    RecordingSource(String url, String validator, Partial partial, Source source,
+        long contentLength) {
+      this.url = url;
+      this.validator = validator;
+      this.source = source;
+      this.remaining = contentLength;
+      if (partial != null) {
+        prefix = partial.body.clone();
+        received = partial.body;
+      } else {
+        received = new Buffer();
+      }
+    }
+
+    @Override public long read(Buffer sink, long byteCount) throws IOException {
+      if (prefix != null) {
+        long read = prefix.read(sink, byteCount);
+        if (read != -1) {
+          return read;
+        }
+        prefix = null;
+      }
+
+      long read;
+      try {
+        read = source.read(sink, byteCount);
+      } catch (IOException e) {
+        if (received != null && received.size() > 0) {
+          put(url, new Partial(validator, received));
+          received = null;
+        }
+        throw e;
+      }
+      if (read == -1) {
+        received = null;
+      } else if (received != null) {
+        remaining -= read;
+        if (remaining <= 0 || received.size() + read > maxSize) {
+          received = null; // Complete, so nothing is left to resume, or too large to keep.
+        } else {
+          sink.copyTo(received, sink.size() - read, read);
+        }
+      }
+      return read;
+    }
+
+    @Override public Timeout timeout() {
+      return source.timeout();
+    }
+
+    @Override public void close() throws IOException {
+      received = null;
+      source.close();
+    }
+  }
+}
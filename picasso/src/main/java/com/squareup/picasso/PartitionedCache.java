@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory cache split into named partitions, each with its own size and least-recently used
+ * eviction, so that loading many large images into one partition does not evict the images of
+ * another.
+ * <p>
+ * Each image is stored in the partition named by {@link RequestCreator#memoryCachePartition}, or
+ * else the one its {@linkplain Builder#partitionTag tag} or
+ * {@linkplain Builder#partitionRequestHandler request handler} is assigned to, or else the
+ * {@link #DEFAULT_PARTITION default partition}. Images stored through the plain {@link Cache}
+ * methods go to the default partition.
+ * <p>
+ * With {@linkplain Builder#borrowing borrowing}, a partition may grow beyond its size while the
+ * others leave room unused. Partitions over their size are trimmed first once that room is
+ * needed again.
+ */
+public final class PartitionedCache implements KeyedCache {
+  /** The partition of images no other partition is chosen for. */
+  public static final String DEFAULT_PARTITION = "default";
+
+  /** Keys are either a {@link String} or a {@link CacheKey}. */
+  private final Map<Object, Partition> keyToPartition = new HashMap<>();
+  private final Map<String, Partition> partitions;
+  private final Partition defaultPartition;
+  private final Map<Object, String> tagPartitions;
+  private final Map<Class<? extends RequestHandler>, String> requestHandlerPartitions;
+  private final boolean borrowing;
+  private final int maxSize;
+  private int size;
+
+  PartitionedCache(Builder builder) {
+    partitions = new LinkedHashMap<>(builder.partitionSizes.size());
+    int maxSize = 0;
+    for (Map.Entry<String, Integer> entry : builder.partitionSizes.entrySet()) {
+      partitions.put(entry.getKey(), new Partition(entry.getValue()));
+      maxSize += entry.getValue();
+    }
+    this.maxSize = maxSize;
+    defaultPartition = partitions.get(DEFAULT_PARTITION);
+    tagPartitions = new HashMap<>(builder.tagPartitions);
+    requestHandlerPartitions = new LinkedHashMap<>(builder.requestHandlerPartitions);
+    borrowing = builder.borrowing;
+  }
+
+  @Override public Bitmap get(@NonNull String key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+    return getInternal(CacheKey.forString(key));
+  }
+
+  @Override public Bitmap get(@NonNull CacheKey key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+    return getInternal(key);
+  }
+
+  private synchronized Bitmap getInternal(Object key) {
+    Partition partition = keyToPartition.get(key);
+    if (partition == null) {
+      return null;
+    }
+    Bitmap bitmap = partition.map.get(key);
+    if (bitmap != null) {
+      partition.hitCount++;
+    }
+    return bitmap;
+  }
+
+  @Override public void set(@NonNull String key, @NonNull Bitmap bitmap) {
+    if (key == null || bitmap == null) {
+      throw new NullPointerException("key == null || bitmap == null");
+    }
+    setInternal(CacheKey.forString(key), bitmap, defaultPartition);
+  }
+
+  @Override public void set(@NonNull CacheKey key, @NonNull Bitmap bitmap) {
+    if (key == null || bitmap == null) {
+      throw new NullPointerException("key == null || bitmap == null");
+    }
+    setInternal(key, bitmap, defaultPartition);
+  }
+
+  /** Stores {@code bitmap} in the partition chosen for the request it was loaded for. */
+  @Override public void set(@NonNull CacheKey key, @NonNull Bitmap bitmap, @NonNull Origin origin) {
+    if (key == null || bitmap == null || origin == null) {
+      throw new NullPointerException("key == null || bitmap == null || origin == null");
+    }
+    setInternal(key, bitmap, partitions.get(getPartition(origin.hunter)));
+  }
+
+  /** Returns the name of the partition the result of {@code hunter} is stored in. */
+  String getPartition(BitmapHunter hunter) {
+    String explicit = hunter.getData().memoryCachePartition;
+    if (explicit != null) {
+      return partitions.containsKey(explicit) ? explicit : DEFAULT_PARTITION;
+    }
+    Action action = hunter.getAction();
+    if (action == null) {
+      List<Action> actions = hunter.getActions();
+      action = actions != null && !actions.isEmpty() ? actions.get(0) : null;
+    }
+    if (action != null) {
+      String partition = tagPartitions.get(action.getTag());
+      if (partition != null) {
+        return partition;
+      }
+    }
+    for (Map.Entry<Class<? extends RequestHandler>, String> entry
+        : requestHandlerPartitions.entrySet()) {
+      if (entry.getKey().isInstance(hunter.requestHandler)) {
+        return entry.getValue();
+      }
+    }
+    return DEFAULT_PARTITION;
+  }
+
+  private void setInternal(Object key, Bitmap bitmap, Partition partition) {
+    int addedSize = Utils.getBitmapBytes(bitmap);
+    if (addedSize > (borrowing ? maxSize : partition.maxSize)) {
+      return;
+    }
+
+    synchronized (this) {
+      Partition previous = keyToPartition.put(key, partition);
+      if (previous != null) {
+        remove(previous, key);
+      } else {
+        partition.insertCount++;
+      }
+      partition.map.put(key, bitmap);
+      partition.size += addedSize;
+      size += addedSize;
+
+      if (borrowing) {
+        while (size > maxSize) {
+          evictEldest(getMostOverSize());
+        }
+      } else {
+        while (partition.size > partition.maxSize) {
+          evictEldest(partition);
+        }
+      }
+    }
+  }
+
+  /** The partition furthest over its size. One always is while the whole cache is over. */
+  private Partition getMostOverSize() {
+    Partition mostOver = null;
+    for (Partition partition : partitions.values()) {
+      if (mostOver == null
+          || partition.size - partition.maxSize > mostOver.size - mostOver.maxSize) {
+        mostOver = partition;
+      }
+    }
+    return mostOver;
+  }
+
+  private void evictEldest(Partition partition) {
+    Object key = partition.map.keySet().iterator().next();
+    keyToPartition.remove(key);
+    remove(partition, key);
+    partition.evictionCount++;
+  }
+
+  private void remove(Partition partition, Object key) {
+    int removedSize = Utils.getBitmapBytes(partition.map.remove(key));
+    partition.size -= removedSize;
+    size -= removedSize;
+  }
+
+  @Override public synchronized int size() {
+    return size;
+  }
+
+  /** The sum of the sizes of all partitions. */
+  @Override public int maxSize() {
+    return maxSize;
+  }
+
+  @Override public synchronized void clear() {
+    for (Partition partition : partitions.values()) {
+      partition.map.clear();
+      partition.size = 0;
+    }
+    keyToPartition.clear();
+    size = 0;
+  }
+
+  @Override public synchronized void clearKeyUri(String uri) {
+    for (Iterator<Map.Entry<Object, Partition>> i = keyToPartition.entrySet().iterator();
+        i.hasNext();) {
+      Map.Entry<Object, Partition> entry = i.next();
+      if (LruCache.keyMatchesUri(entry.getKey(), uri)) {
+        i.remove();
+        remove(entry.getValue(), entry.getKey());
+      }
+    }
+  }
+
+  synchronized Map<String, StatsSnapshot.CachePartition> snapshot() {
+    Map<String, StatsSnapshot.CachePartition> snapshot = new LinkedHashMap<>(partitions.size());
+    for (Map.Entry<String, Partition> entry : partitions.entrySet()) {
+      Partition partition = entry.getValue();
+      snapshot.put(entry.getKey(), new StatsSnapshot.CachePartition(partition.maxSize,
+          partition.size, partition.hitCount, partition.insertCount, partition.evictionCount));
+    }
+    return Collections.unmodifiableMap(snapshot);
+  }
+
+  private static final class Partition {
+    final int maxSize;
+    final LinkedHashMap<Object, Bitmap> map = new LinkedHashMap<>(0, 0.75f, true);
+    int size;
+    long hitCount;
+    long insertCount;
+    long evictionCount;
+
+    Partition(int maxSize) {
+      this.maxSize = maxSize;
+    }
+  }
+
+  /** Fluent API for creating {@link PartitionedCache} instances. */
+  @SuppressWarnings("UnusedDeclaration") // Public API.
+  public static final class Builder {
+    final Map<String, Integer> partitionSizes = new LinkedHashMap<>();
+    final Map<Object, String> tagPartitions = new HashMap<>();
+    final Map<Class<? extends RequestHandler>, String> requestHandlerPartitions =
+        new LinkedHashMap<>();
+    boolean borrowing;
+
+    /** Start building a cache whose default partition holds {@code defaultMaxSize} bytes. */
+    public Builder(int defaultMaxSize) {
+      addPartition(DEFAULT_PARTITION, defaultMaxSize);
+    }
+
+    /** Add a partition holding up to {@code maxSize} bytes. */
+    public Builder addPartition(@NonNull String name, int maxSize) {
+      if (name == null) {
+        throw new IllegalArgumentException("Partition name must not be null.");
+      }
+      if (maxSize <= 0) {
+        throw new IllegalArgumentException("Max size must be positive.");
+      }
+      if (partitionSizes.containsKey(name)) {
+        throw new IllegalStateException("Partition " + name + " already added.");
+      }
+      partitionSizes.put(name, maxSize);
+      return this;
+    }
+
+    /**
+     * Store images requested with {@code tag} in {@code partition}. The tag is compared with
+     * {@link Object#equals} and kept for the life of the cache.
+     */
+    public Builder partitionTag(@NonNull Object tag, @NonNull String partition) {
+      if (tag == null) {
+        throw new IllegalArgumentException("Tag must not be null.");
+      }
+      if (partition == null) {
+        throw new IllegalArgumentException("Partition name must not be null.");
+      }
+      if (tagPartitions.containsKey(tag)) {
+        throw new IllegalStateException("Tag already assigned to a partition.");
+      }
+      tagPartitions.put(tag, partition);
+      return this;
+    }
+
+    /**
+     * Store images loaded by request handlers of {@code type} in {@code partition}. Handlers
+     * matching several types are assigned by the first of them.
+     */
+    public Builder partitionRequestHandler(@NonNull Class<? extends RequestHandler> type,
+        @NonNull String partition) {
+      if (type == null) {
+        throw new IllegalArgumentException("Request handler type must not be null.");
+      }
+      if (partition == null) {
+        throw new IllegalArgumentException("Partition name must not be null.");
+      }
+      if (requestHandlerPartitions.containsKey(type)) {
+        throw new IllegalStateException("Request handler type already assigned to a partition.");
+      }
+      requestHandlerPartitions.put(type, partition);
+      return this;
+    }
+
+    /** Toggle whether partitions may use the room other partitions leave unused. */
+    public Builder borrowing(boolean borrowing) {
+      this.borrowing = borrowing;
+      return this;
+    }
+
+    /** Create the {@link PartitionedCache}. */
+    public PartitionedCache build() {
+      long maxSize = 0;
+      for (int partitionSize : partitionSizes.values()) {
+        maxSize += partitionSize;
+      }
+      if (maxSize > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Partitions must not hold more than 2 GB in total.");
+      }
+      checkPartitionsExist(tagPartitions);
+      checkPartitionsExist(requestHandlerPartitions);
+      return new PartitionedCache(this);
+    }
+
+    private void checkPartitionsExist(Map<?, String> assignments) {
+      for (String partition : assignments.values()) {
+        if (!partitionSizes.containsKey(partition)) {
+          throw new IllegalStateException("Unknown partition " + partition + ".");
+        }
+      }
+    }
+  }
+}
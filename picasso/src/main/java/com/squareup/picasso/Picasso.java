@@ -33,6 +33,7 @@ import java.io.File;
 import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
@@ -42,8 +43,10 @@ import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
 import static com.squareup.picasso.Action.RequestWeakReference;
 import static com.squareup.picasso.Dispatcher.HUNTER_BATCH_COMPLETE;
 import static com.squareup.picasso.Dispatcher.REQUEST_BATCH_RESUME;
+import static com.squareup.picasso.Dispatcher.REQUEST_BATCH_SUBMIT;
 import static com.squareup.picasso.Dispatcher.REQUEST_GCED;
 import static com.squareup.picasso.MemoryPolicy.shouldReadFromMemoryCache;
+import static com.squareup.picasso.MemoryPolicy.shouldWriteToMemoryCache;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
 import static com.squareup.picasso.Utils.OWNER_MAIN;
 import static com.squareup.picasso.Utils.THREAD_LEAK_CLEANING_MS;
@@ -53,6 +56,7 @@ import static com.squareup.picasso.Utils.VERB_COMPLETED;
 import static com.squareup.picasso.Utils.VERB_ERRORED;
 import static com.squareup.picasso.Utils.VERB_RESUMED;
 import static com.squareup.picasso.Utils.checkMain;
+import static com.squareup.picasso.Utils.isMain;
 import static com.squareup.picasso.Utils.log;
 
 /**
@@ -138,6 +142,11 @@ public class Picasso {
             action.picasso.resumeAction(action);
           }
           break;
+        case REQUEST_BATCH_SUBMIT: {
+          Picasso picasso = (Picasso) msg.obj;
+          picasso.flushSubmits();
+          break;
+        }
         default:
           throw new AssertionError("Unknown handler message received: " + msg.what);
       }
@@ -147,16 +156,19 @@ public class Picasso {
   static volatile Picasso singleton = null;
 
   private final Listener listener;
-  private final RequestTransformer requestTransformer;
+  final RequestTransformer requestTransformer;
   private final CleanupThread cleanupThread;
   private final List<RequestHandler> requestHandlers;
 
   final Context context;
   final Dispatcher dispatcher;
   final Cache cache;
+  final Cache transformationCache;
   final Stats stats;
+  final ActiveResources activeResources;
   final Map<Object, Action> targetToAction;
   final Map<ImageView, DeferredRequestCreator> targetToDeferredRequestCreator;
+  final List<Action> pendingSubmits;
   final ReferenceQueue<Object> referenceQueue;
   final Bitmap.Config defaultBitmapConfig;
 
@@ -165,12 +177,15 @@ public class Picasso {
 
   boolean shutdown;
 
-  Picasso(Context context, Dispatcher dispatcher, Cache cache, Listener listener,
-      RequestTransformer requestTransformer, List<RequestHandler> extraRequestHandlers, Stats stats,
-      Bitmap.Config defaultBitmapConfig, boolean indicatorsEnabled, boolean loggingEnabled) {
+  Picasso(Context context, Dispatcher dispatcher, Cache cache, Cache transformationCache,
+      Listener listener, RequestTransformer requestTransformer,
+      List<RequestHandler> extraRequestHandlers, Stats stats, ContentNegotiation negotiation,
+      List<String> assetBundles, Bitmap.Config defaultBitmapConfig, boolean indicatorsEnabled,
+      boolean loggingEnabled) {
     this.context = context;
     this.dispatcher = dispatcher;
     this.cache = cache;
+    this.transformationCache = transformationCache;
     this.listener = listener;
     this.requestTransformer = requestTransformer;
     this.defaultBitmapConfig = defaultBitmapConfig;
@@ -189,14 +204,18 @@ public class Picasso {
     allRequestHandlers.add(new ContactsPhotoRequestHandler(context));
     allRequestHandlers.add(new MediaStoreRequestHandler(context));
     allRequestHandlers.add(new ContentStreamRequestHandler(context));
-    allRequestHandlers.add(new AssetRequestHandler(context));
+    allRequestHandlers.add(new AssetRequestHandler(context,
+        assetBundles != null ? assetBundles : Collections.<String>emptyList()));
     allRequestHandlers.add(new FileRequestHandler(context));
-    allRequestHandlers.add(new NetworkRequestHandler(dispatcher.downloader, stats));
+    allRequestHandlers.add(
+        new NetworkRequestHandler(dispatcher.downloader, stats, stats.hostHealth, negotiation));
     requestHandlers = Collections.unmodifiableList(allRequestHandlers);
 
     this.stats = stats;
+    this.activeResources = new ActiveResources();
     this.targetToAction = new WeakHashMap<>();
     this.targetToDeferredRequestCreator = new WeakHashMap<>();
+    this.pendingSubmits = new ArrayList<>();
     this.indicatorsEnabled = indicatorsEnabled;
     this.loggingEnabled = loggingEnabled;
     this.referenceQueue = new ReferenceQueue<>();
@@ -377,6 +396,8 @@ public class Picasso {
   public void invalidate(@Nullable Uri uri) {
     if (uri != null) {
       cache.clearKeyUri(uri.toString());
+      transformationCache.clearKeyUri(uri.toString());
+      activeResources.clearKeyUri(uri.toString());
     }
   }
 
@@ -451,9 +472,15 @@ public class Picasso {
       return;
     }
     cache.clear();
+    transformationCache.clear();
+    activeResources.clear();
     cleanupThread.shutdown();
     stats.shutdown();
     dispatcher.shutdown();
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0, n = requestHandlers.size(); i < n; i++) {
+      requestHandlers.get(i).shutdown();
+    }
     for (DeferredRequestCreator deferredRequestCreator : targetToDeferredRequestCreator.values()) {
       deferredRequestCreator.cancel();
     }
@@ -495,7 +522,69 @@ public class Picasso {
   }
 
   void submit(Action action) {
-    dispatcher.dispatchSubmit(action);
+    // Fetches and remote views may be submitted from any thread. Only main thread submits are
+    // batched, so the pending list is never touched by two threads.
+    if (!isMain()) {
+      dispatcher.dispatchSubmit(action);
+      return;
+    }
+    // Submits made while handling the same main thread message (e.g. binding every visible row of
+    // a list) are handed to the dispatcher together once that message is done.
+    pendingSubmits.add(action);
+    if (pendingSubmits.size() == 1) {
+      HANDLER.sendMessage(HANDLER.obtainMessage(REQUEST_BATCH_SUBMIT, this));
+    }
+  }
+
+  void flushSubmits() {
+    List<Action> actions = null;
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0, n = pendingSubmits.size(); i < n; i++) {
+      Action action = pendingSubmits.get(i);
+      if (action.isCancelled()) {
+        continue;
+      }
+      if (actions == null) {
+        actions = new ArrayList<>(n);
+      }
+      actions.add(action);
+    }
+    pendingSubmits.clear();
+
+    if (actions == null) {
+      return;
+    }
+    if (actions.size() == 1) {
+      dispatcher.dispatchSubmit(actions.get(0));
+    } else {
+      dispatcher.dispatchSubmit(actions);
+    }
+  }
+
+  /** Returns the bitmap a target is showing for {@code key}, or null. Safe from any thread. */
+  Bitmap quickActiveResourcesCheck(CacheKey key) {
+    Bitmap active = activeResources.get(key);
+    if (active != null) {
+      stats.dispatchActiveHit();
+    }
+    return active;
+  }
+
+  Bitmap quickMemoryCacheCheck(CacheKey key) {
+    Bitmap active = quickActiveResourcesCheck(key);
+    if (active != null) {
+      return active;
+    }
+    if (!(cache instanceof KeyedCache)) {
+      return quickMemoryCacheCheck(key.toString());
+    }
+    Bitmap cached = ((KeyedCache) cache).get(key);
+    if (cached != null) {
+      stats.dispatchCacheHit();
+    } else {
+      stats.dispatchCacheMiss();
+    }
+    return cached;
   }
 
   Bitmap quickMemoryCacheCheck(String key) {
@@ -524,6 +613,20 @@ public class Picasso {
     Bitmap result = hunter.getResult();
     LoadedFrom from = hunter.getLoadedFrom();
 
+    if (hunter.revalidation && result == null) {
+      // The image is unchanged or could not be checked. Targets keep showing what they have.
+      if (single != null) {
+        finishRevalidation(single);
+      }
+      if (hasMultiple) {
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0, n = joined.size(); i < n; i++) {
+          finishRevalidation(joined.get(i));
+        }
+      }
+      return;
+    }
+
     if (single != null) {
       deliverAction(result, from, single, exception);
     }
@@ -541,10 +644,16 @@ public class Picasso {
     }
   }
 
+  private void finishRevalidation(Action action) {
+    if (!action.isCancelled()) {
+      targetToAction.remove(action.getTarget());
+    }
+  }
+
   void resumeAction(Action action) {
     Bitmap bitmap = null;
     if (shouldReadFromMemoryCache(action.memoryPolicy)) {
-      bitmap = quickMemoryCacheCheck(action.getKey());
+      bitmap = quickMemoryCacheCheck(CacheKey.create(action.getRequest()));
     }
 
     if (bitmap != null) {
@@ -566,7 +675,7 @@ public class Picasso {
     if (action.isCancelled()) {
       return;
     }
-    if (!action.willReplay()) {
+    if (!action.willReplay() && !action.willRevalidate()) {
       targetToAction.remove(action.getTarget());
     }
     if (result != null) {
@@ -574,6 +683,19 @@ public class Picasso {
         throw new AssertionError("LoadedFrom cannot be null.");
       }
       action.complete(result, from);
+      if (action.showsResult()) {
+        Object target = action.getTarget();
+        if (target != null) {
+          activateResource(target, CacheKey.create(action.getRequest()), result,
+              action.getMemoryPolicy());
+        }
+      }
+      if (loggingEnabled) {
+        log(OWNER_MAIN, VERB_COMPLETED, action.request.logId(), "from " + from);
+      }
+    } else if (action instanceof PrefetchAction && e == null && from != null) {
+      // Prefetched images are only stored, there is no bitmap to deliver.
+      action.complete(null, from);
       if (loggingEnabled) {
         log(OWNER_MAIN, VERB_COMPLETED, action.request.logId(), "from " + from);
       }
@@ -585,8 +707,31 @@ public class Picasso {
     }
   }
 
+  /**
+   * Records that {@code target} now shows {@code bitmap}, so that it is found for {@code key}
+   * while it does even if the memory cache evicts it.
+   */
+  void activateResource(Object target, CacheKey key, Bitmap bitmap, int memoryPolicy) {
+    if (shouldWriteToMemoryCache(memoryPolicy)) {
+      activeResources.activate(target, key, bitmap);
+    } else {
+      activeResources.release(target);
+    }
+  }
+
   void cancelExistingRequest(Object target) {
+    cancelExistingRequest(target, true);
+  }
+
+  /**
+   * Cancels the request of {@code target}. Memory cache hits keep what the target shows active
+   * until {@link #activateResource} replaces it, which keeps it as is when the image is the same.
+   */
+  void cancelExistingRequest(Object target, boolean releaseActive) {
     checkMain();
+    if (releaseActive) {
+      activeResources.release(target);
+    }
     Action action = targetToAction.remove(target);
     if (action != null) {
       action.cancel();
@@ -711,6 +856,7 @@ public class Picasso {
     private Downloader downloader;
     private ExecutorService service;
     private Cache cache;
+    private Cache transformationCache;
     private Listener listener;
     private RequestTransformer transformer;
     private List<RequestHandler> requestHandlers;
@@ -718,6 +864,16 @@ public class Picasso {
 
     private boolean indicatorsEnabled;
     private boolean loggingEnabled;
+    private boolean asyncDownloads;
+    private RetryPolicy retryPolicy;
+    private int maxRequestsPerHost = ConcurrencyLimiter.UNLIMITED;
+    private int maxRequestsPerRequestHandler = ConcurrencyLimiter.UNLIMITED;
+    private int maxConcurrentPrefetches = ConcurrencyLimiter.DEFAULT_MAX_PREFETCHES;
+    private boolean prefetchOnMeteredNetworks;
+    private boolean batchMediaStoreThumbnails;
+    private ClientHints clientHints;
+    private Map<String, ClientHints> hostClientHints;
+    private List<String> assetBundles;
 
     /** Start building a new {@link Picasso} instance. */
     public Builder(@NonNull Context context) {
@@ -779,6 +935,26 @@ public class Picasso {
       return this;
     }
 
+    /**
+     * Specify a cache for images part way through their list of
+     * {@linkplain RequestCreator#transform(Transformation) transformations}. A request which
+     * shares its first transformations with an earlier one continues from the longest cached
+     * step instead of loading and transforming the image again.
+     * <p>
+     * This is separate from the {@linkplain #memoryCache(Cache) memory cache} so that
+     * intermediate images never evict finished ones. It is disabled by default.
+     */
+    public Builder transformationCache(@NonNull Cache transformationCache) {
+      if (transformationCache == null) {
+        throw new IllegalArgumentException("Transformation cache must not be null.");
+      }
+      if (this.transformationCache != null) {
+        throw new IllegalStateException("Transformation cache already set.");
+      }
+      this.transformationCache = transformationCache;
+      return this;
+    }
+
     /** Specify a listener for interesting events. */
     public Builder listener(@NonNull Listener listener) {
       if (listener == null) {
@@ -823,6 +999,27 @@ public class Picasso {
       return this;
     }
 
+    /**
+     * Serve asset images from the bundle at {@code assetName}, packed by the Picasso asset packer.
+     * Images that are not in any bundle are still loaded from their own asset. The bundle is
+     * mapped into memory, so it must be stored uncompressed in the APK, for example with
+     * {@code aaptOptions { noCompress 'picb' }}. A bundle which cannot be opened is logged and
+     * skipped, so that its images are loaded from their own assets instead.
+     */
+    public Builder addAssetBundle(@NonNull String assetName) {
+      if (assetName == null) {
+        throw new IllegalArgumentException("Asset name must not be null.");
+      }
+      if (assetBundles == null) {
+        assetBundles = new ArrayList<>();
+      }
+      if (assetBundles.contains(assetName)) {
+        throw new IllegalStateException("Asset bundle already added.");
+      }
+      assetBundles.add(assetName);
+      return this;
+    }
+
     /** Toggle whether to display debug indicators on images. */
     public Builder indicatorsEnabled(boolean enabled) {
       this.indicatorsEnabled = enabled;
@@ -840,6 +1037,130 @@ public class Picasso {
       return this;
     }
 
+    /**
+     * Toggle whether network images are downloaded without blocking one of the executor's threads.
+     * Only decoding then happens on the executor so slow downloads no longer hold up other
+     * requests. Images larger than 512KB are still partly read while decoding. This requires the
+     * {@link #downloader(Downloader) downloader} to be an {@link AsyncDownloader}, as the default
+     * one is.
+     */
+    public Builder asyncDownloads(boolean enabled) {
+      this.asyncDownloads = enabled;
+      return this;
+    }
+
+    /**
+     * Specify how failed network requests are retried and when failing hosts stop being
+     * contacted. Defaults to {@link RetryPolicy#DEFAULT}.
+     */
+    public Builder retryPolicy(@NonNull RetryPolicy retryPolicy) {
+      if (retryPolicy == null) {
+        throw new IllegalArgumentException("Retry policy must not be null.");
+      }
+      if (this.retryPolicy != null) {
+        throw new IllegalStateException("Retry policy already set.");
+      }
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Specify the maximum number of requests for the same host which are loaded at once. Further
+     * requests for the host wait without occupying one of the executor's threads so a slow host
+     * cannot hold up requests for other hosts. Unlimited by default.
+     */
+    public Builder maxRequestsPerHost(int maxRequests) {
+      if (maxRequests <= 0) {
+        throw new IllegalArgumentException("Max requests per host must be positive.");
+      }
+      this.maxRequestsPerHost = maxRequests;
+      return this;
+    }
+
+    /**
+     * Specify the maximum number of requests loaded at once by each {@link RequestHandler}.
+     * Further requests for the handler wait without occupying one of the executor's threads.
+     * Unlimited by default.
+     */
+    public Builder maxRequestsPerRequestHandler(int maxRequests) {
+      if (maxRequests <= 0) {
+        throw new IllegalArgumentException("Max requests per request handler must be positive.");
+      }
+      this.maxRequestsPerRequestHandler = maxRequests;
+      return this;
+    }
+
+    /**
+     * Specify the maximum number of {@link RequestCreator#prefetch() prefetches} which are loaded
+     * at once. Further prefetches wait without occupying one of the executor's threads. Defaults
+     * to 2.
+     */
+    public Builder maxConcurrentPrefetches(int maxPrefetches) {
+      if (maxPrefetches <= 0) {
+        throw new IllegalArgumentException("Max concurrent prefetches must be positive.");
+      }
+      this.maxConcurrentPrefetches = maxPrefetches;
+      return this;
+    }
+
+    /**
+     * Whether {@link RequestCreator#prefetch() prefetches} are loaded on a metered network. When
+     * they are not, which is the default, they wait until an unmetered network is available. This
+     * requires the {@link android.Manifest.permission#ACCESS_NETWORK_STATE ACCESS_NETWORK_STATE}
+     * permission, without which prefetches are always loaded.
+     */
+    public Builder prefetchOnMeteredNetworks(boolean prefetchOnMeteredNetworks) {
+      this.prefetchOnMeteredNetworks = prefetchOnMeteredNetworks;
+      return this;
+    }
+
+    /**
+     * Whether MediaStore thumbnails which are requested together, like those of a gallery grid,
+     * are loaded in batches. The files of a batch of thumbnails are looked up with a single query
+     * and decoded one after another on the same thread. Disabled by default.
+     */
+    public Builder batchMediaStoreThumbnails(boolean batchMediaStoreThumbnails) {
+      this.batchMediaStoreThumbnails = batchMediaStoreThumbnails;
+      return this;
+    }
+
+    /**
+     * Specify the {@link ClientHints} sent with network requests to hosts which have none of
+     * their own. No hints are sent by default.
+     */
+    public Builder clientHints(@NonNull ClientHints clientHints) {
+      if (clientHints == null) {
+        throw new IllegalArgumentException("Client hints must not be null.");
+      }
+      if (this.clientHints != null) {
+        throw new IllegalStateException("Client hints already set.");
+      }
+      this.clientHints = clientHints;
+      return this;
+    }
+
+    /**
+     * Specify the {@link ClientHints} sent with network requests to {@code host}, in place of
+     * those {@link #clientHints(ClientHints) for all hosts}. Use {@link ClientHints#NONE} to send
+     * none to it.
+     */
+    public Builder clientHints(@NonNull String host, @NonNull ClientHints clientHints) {
+      if (host == null) {
+        throw new IllegalArgumentException("Host must not be null.");
+      }
+      if (clientHints == null) {
+        throw new IllegalArgumentException("Client hints must not be null.");
+      }
+      if (hostClientHints == null) {
+        hostClientHints = new HashMap<>();
+      }
+      if (hostClientHints.containsKey(host)) {
+        throw new IllegalStateException("Client hints already set for " + host + ".");
+      }
+      hostClientHints.put(host, clientHints);
+      return this;
+    }
+
     /** Create the {@link Picasso} instance. */
     public Picasso build() {
       Context context = this.context;
@@ -847,22 +1168,45 @@ public class Picasso {
       if (downloader == null) {
         downloader = new OkHttp3Downloader(context);
       }
+      if (asyncDownloads && !(downloader instanceof AsyncDownloader)) {
+        throw new IllegalStateException("Asynchronous downloads require an AsyncDownloader.");
+      }
       if (cache == null) {
         cache = new LruCache(context);
       }
+      if (transformationCache == null) {
+        transformationCache = Cache.NONE;
+      }
       if (service == null) {
         service = new PicassoExecutorService();
       }
       if (transformer == null) {
         transformer = RequestTransformer.IDENTITY;
       }
+      if (retryPolicy == null) {
+        retryPolicy = RetryPolicy.DEFAULT;
+      }
 
-      Stats stats = new Stats(cache);
+      Stats stats = new Stats(cache, transformationCache, new HostHealthTracker(retryPolicy));
+
+      ContentNegotiation negotiation = ContentNegotiation.NONE;
+      if (clientHints != null || hostClientHints != null) {
+        negotiation = new ContentNegotiation(
+            clientHints != null ? clientHints : ClientHints.NONE,
+            hostClientHints != null
+                ? hostClientHints : Collections.<String, ClientHints>emptyMap(),
+            context.getResources().getDisplayMetrics().density);
+      }
 
-      Dispatcher dispatcher = new Dispatcher(context, service, HANDLER, downloader, cache, stats);
+      ConcurrencyLimiter limiter = new ConcurrencyLimiter(maxRequestsPerHost,
+          maxRequestsPerRequestHandler, maxConcurrentPrefetches);
+      Dispatcher dispatcher = new Dispatcher(context, service, HANDLER, downloader, cache, stats,
+          asyncDownloads, retryPolicy, limiter, prefetchOnMeteredNetworks,
+          batchMediaStoreThumbnails);
 
-      return new Picasso(context, dispatcher, cache, listener, transformer, requestHandlers, stats,
-          defaultBitmapConfig, indicatorsEnabled, loggingEnabled);
+      return new Picasso(context, dispatcher, cache, transformationCache, listener, transformer,
+          requestHandlers, stats, negotiation, assetBundles, defaultBitmapConfig,
+          indicatorsEnabled, loggingEnabled);
     }
   }
 
@@ -43,6 +43,11 @@ final class PicassoDrawable extends BitmapDrawable {
   static void setBitmap(ImageView target, Context context, Bitmap bitmap,
       Picasso.LoadedFrom loadedFrom, boolean noFade, boolean debugging) {
     Drawable placeholder = target.getDrawable();
+    if (placeholder instanceof PicassoDrawable && (loadedFrom == MEMORY || noFade)
+        && ((PicassoDrawable) placeholder).isShowing(bitmap, loadedFrom, debugging)) {
+      // Rebinding a view to the image it already shows without a fade. Nothing would change.
+      return;
+    }
     if (placeholder instanceof AnimationDrawable) {
       ((AnimationDrawable) placeholder).stop();
     }
@@ -89,6 +94,12 @@ final class PicassoDrawable extends BitmapDrawable {
     }
   }
 
+  /** True if this drawable displays {@code bitmap} and would not fade it in. */
+  boolean isShowing(Bitmap bitmap, Picasso.LoadedFrom loadedFrom, boolean debugging) {
+    return getBitmap() == bitmap && this.loadedFrom == loadedFrom && this.debugging == debugging
+        && !animating;
+  }
+
   @Override public void draw(Canvas canvas) {
     if (!animating) {
       super.draw(canvas);
@@ -83,7 +83,10 @@ class PicassoExecutorService extends ThreadPoolExecutor {
 
   @Override
   public Future<?> submit(Runnable task) {
-    PicassoFutureTask ftask = new PicassoFutureTask((BitmapHunter) task);
+    PicassoFutureTask ftask = task instanceof MediaStoreThumbnailBatch
+        // A batch is ordered like its first hunter, which is the most important one.
+        ? new PicassoFutureTask(task, ((MediaStoreThumbnailBatch) task).hunters.get(0))
+        : new PicassoFutureTask(task, (BitmapHunter) task);
     execute(ftask);
     return ftask;
   }
@@ -92,8 +95,8 @@ class PicassoExecutorService extends ThreadPoolExecutor {
       implements Comparable<PicassoFutureTask> {
     private final BitmapHunter hunter;
 
-    public PicassoFutureTask(BitmapHunter hunter) {
-      super(hunter, null);
+    public PicassoFutureTask(Runnable task, BitmapHunter hunter) {
+      super(task, null);
       this.hunter = hunter;
     }
 
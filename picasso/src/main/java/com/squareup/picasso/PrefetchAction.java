@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+
+/**
+ * Loads an image only into the disk cache of the {@link Downloader}, see
+ * {@link RequestCreator#prefetch()}. It completes without a bitmap.
+ */
+class PrefetchAction extends Action<Object> {
+
+  private final Object target;
+  private Callback callback;
+
+  PrefetchAction(Picasso picasso, Request data, int networkPolicy, Object tag, String key,
+      Callback callback) {
+    super(picasso, null, data, MemoryPolicy.NO_CACHE.index | MemoryPolicy.NO_STORE.index,
+        networkPolicy, 0, null, key, tag, false);
+    this.target = new Object();
+    this.callback = callback;
+  }
+
+  @Override void complete(Bitmap result, Picasso.LoadedFrom from) {
+    if (callback != null) {
+      callback.onSuccess();
+    }
+  }
+
+  @Override void error(Exception e) {
+    if (callback != null) {
+      callback.onError(e);
+    }
+  }
+
+  @Override void cancel() {
+    super.cancel();
+    callback = null;
+  }
+
+  @Override Object getTarget() {
+    return target;
+  }
+}
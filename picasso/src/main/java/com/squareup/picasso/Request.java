@@ -92,12 +92,14 @@ public final class Request {
   public final Bitmap.Config config;
   /** The priority of this request. */
   public final Priority priority;
+  /** The {@link PartitionedCache} partition the image is stored in, if chosen explicitly. */
+  public final String memoryCachePartition;
 
   private Request(Uri uri, int resourceId, String stableKey, List<Transformation> transformations,
       int targetWidth, int targetHeight, boolean centerCrop, boolean centerInside,
       int centerCropGravity, boolean onlyScaleDown, float rotationDegrees,
       float rotationPivotX, float rotationPivotY, boolean hasRotationPivot,
-      boolean purgeable, Bitmap.Config config, Priority priority) {
+      boolean purgeable, Bitmap.Config config, Priority priority, String memoryCachePartition) {
     this.uri = uri;
     this.resourceId = resourceId;
     this.stableKey = stableKey;
@@ -119,6 +121,7 @@ public final class Request {
     this.purgeable = purgeable;
     this.config = config;
     this.priority = priority;
+    this.memoryCachePartition = memoryCachePartition;
   }
 
   @Override public String toString() {
@@ -158,6 +161,9 @@ public final class Request {
     if (config != null) {
       builder.append(' ').append(config);
     }
+    if (memoryCachePartition != null) {
+      builder.append(" partition(").append(memoryCachePartition).append(')');
+    }
     builder.append('}');
 
     return builder.toString();
@@ -221,6 +227,7 @@ public final class Request {
     private List<Transformation> transformations;
     private Bitmap.Config config;
     private Priority priority;
+    private String memoryCachePartition;
 
     /** Start building a request using the specified {@link Uri}. */
     public Builder(@NonNull Uri uri) {
@@ -258,6 +265,7 @@ public final class Request {
       }
       config = request.config;
       priority = request.priority;
+      memoryCachePartition = request.memoryCachePartition;
     }
 
     boolean hasImage() {
@@ -453,6 +461,18 @@ public final class Request {
       return this;
     }
 
+    /**
+     * Store the image in the named partition of a {@link PartitionedCache}, instead of the one
+     * chosen by its tag or request handler.
+     */
+    public Builder memoryCachePartition(@NonNull String partition) {
+      if (partition == null) {
+        throw new IllegalArgumentException("Partition must not be null.");
+      }
+      this.memoryCachePartition = partition;
+      return this;
+    }
+
     /**
      * Add a custom transformation to be applied to the image.
      * <p>
@@ -489,6 +509,51 @@ public final class Request {
 
     /** Create the immutable {@link Request} object. */
     public Request build() {
+      checkState();
+      if (priority == null) {
+        priority = Priority.NORMAL;
+      }
+      return new Request(uri, resourceId, stableKey, transformations, targetWidth, targetHeight,
+          centerCrop, centerInside, centerCropGravity, onlyScaleDown, rotationDegrees,
+          rotationPivotX, rotationPivotY, hasRotationPivot, purgeable, config, priority,
+          memoryCachePartition);
+    }
+
+    /**
+     * True if {@code key} is the key of the request being built, checked without building it.
+     * This is only the key of the built request when no {@link Picasso.RequestTransformer} is
+     * used.
+     */
+    boolean hasCacheKey(CacheKey key) {
+      checkState();
+      int transformationCount = transformations != null ? transformations.size() : 0;
+      if (key.targetWidth != targetWidth
+          || key.targetHeight != targetHeight
+          || Float.compare(key.rotationDegrees, rotationDegrees) != 0
+          || key.hasRotationPivot != hasRotationPivot
+          || (hasRotationPivot && (Float.compare(key.rotationPivotX, rotationPivotX) != 0
+              || Float.compare(key.rotationPivotY, rotationPivotY) != 0))
+          || key.centerCrop != centerCrop
+          || (centerCrop && key.centerCropGravity != centerCropGravity)
+          || key.centerInside != centerInside
+          || key.transformationKeys.length != transformationCount) {
+        return false;
+      }
+      for (int i = 0; i < transformationCount; i++) {
+        if (!key.transformationKeys[i].equals(transformations.get(i).key())) {
+          return false;
+        }
+      }
+      if (stableKey != null) {
+        return stableKey.equals(key.uri);
+      }
+      if (uri != null) {
+        return uri.toString().equals(key.uri);
+      }
+      return key.uri.equals(Integer.toString(resourceId));
+    }
+
+    private void checkState() {
       if (centerInside && centerCrop) {
         throw new IllegalStateException("Center crop and center inside can not be used together.");
       }
@@ -500,12 +565,6 @@ public final class Request {
         throw new IllegalStateException(
             "Center inside requires calling resize with positive width and height.");
       }
-      if (priority == null) {
-        priority = Priority.NORMAL;
-      }
-      return new Request(uri, resourceId, stableKey, transformations, targetWidth, targetHeight,
-          centerCrop, centerInside, centerCropGravity, onlyScaleDown, rotationDegrees,
-          rotationPivotX, rotationPivotY, hasRotationPivot, purgeable, config, priority);
     }
   }
 }
@@ -41,6 +41,7 @@ import static com.squareup.picasso.PicassoDrawable.setBitmap;
 import static com.squareup.picasso.PicassoDrawable.setPlaceholder;
 import static com.squareup.picasso.RemoteViewsAction.AppWidgetAction;
 import static com.squareup.picasso.RemoteViewsAction.NotificationAction;
+import static com.squareup.picasso.Utils.KEY_SEPARATOR;
 import static com.squareup.picasso.Utils.OWNER_MAIN;
 import static com.squareup.picasso.Utils.VERB_CHANGED;
 import static com.squareup.picasso.Utils.VERB_COMPLETED;
@@ -316,6 +317,16 @@ public class RequestCreator {
     return this;
   }
 
+  /**
+   * Store the image in the named partition of the {@link PartitionedCache} used as the memory
+   * cache, instead of the partition chosen by its tag or request handler. Unknown partitions fall
+   * back to the {@linkplain PartitionedCache#DEFAULT_PARTITION default partition}.
+   */
+  public RequestCreator memoryCachePartition(@NonNull String partition) {
+    data.memoryCachePartition(partition);
+    return this;
+  }
+
   /**
    * Add a custom transformation to be applied to the image.
    * <p>
@@ -406,8 +417,10 @@ public class RequestCreator {
   /**
    * Synchronously fulfill this request. Must not be called from the main thread.
    * <p>
-   * <em>Note</em>: The result of this operation is not cached in memory because the underlying
-   * {@link Cache} implementation is not guaranteed to be thread-safe.
+   * If the same image is already being loaded this waits for that load rather than starting
+   * another. Otherwise the image is loaded on the calling thread and other requests for it which
+   * are made in the meantime wait for the result. The result is written to the memory cache
+   * unless {@link MemoryPolicy#NO_STORE} is used.
    */
   public Bitmap get() throws IOException {
     long started = System.nanoTime();
@@ -421,9 +434,31 @@ public class RequestCreator {
     }
 
     Request finalData = createRequest(started);
+    if (shouldReadFromMemoryCache(memoryPolicy)) {
+      Bitmap active = picasso.quickActiveResourcesCheck(CacheKey.create(finalData));
+      if (active != null) {
+        return active;
+      }
+    }
     String key = createKey(finalData, new StringBuilder());
 
-    Action action = new GetAction(picasso, finalData, memoryPolicy, networkPolicy, tag, key);
+    GetAction action = new GetAction(picasso, finalData, memoryPolicy, networkPolicy, tag, key);
+    if (picasso.shutdown) {
+      return forRequest(picasso, picasso.dispatcher, picasso.cache, picasso.stats, action).hunt();
+    }
+
+    picasso.dispatcher.dispatchGet(action);
+    BitmapHunter hunter = action.awaitHunter();
+    if (hunter != null) {
+      if (!action.isJoined()) {
+        return hunter.huntSynchronously();
+      }
+      Bitmap result = action.awaitResult();
+      if (!action.isAbandoned()) {
+        return result;
+      }
+    }
+    // The dispatcher shut down before it could register this request or finish the one it joined.
     return forRequest(picasso, picasso.dispatcher, picasso.cache, picasso.stats, action).hunt();
   }
 
@@ -459,7 +494,7 @@ public class RequestCreator {
       }
 
       Request request = createRequest(started);
-      String key = createKey(request, new StringBuilder());
+      CacheKey key = CacheKey.create(request);
 
       if (shouldReadFromMemoryCache(memoryPolicy)) {
         Bitmap bitmap = picasso.quickMemoryCacheCheck(key);
@@ -474,8 +509,55 @@ public class RequestCreator {
         }
       }
 
-      Action action =
-          new FetchAction(picasso, request, memoryPolicy, networkPolicy, tag, key, callback);
+      Action action = new FetchAction(picasso, request, memoryPolicy, networkPolicy, tag,
+          key.toString(), callback);
+      picasso.submit(action);
+    }
+  }
+
+  /**
+   * Asynchronously downloads the image into the disk cache of the {@link Downloader} without
+   * decoding it, so that it is available offline later. Nothing is put into the memory cache.
+   * <p>
+   * <em>Note:</em> It is safe to invoke this method from any thread.
+   *
+   * @see #prefetch(Callback)
+   */
+  public void prefetch() {
+    prefetch(null);
+  }
+
+  /**
+   * Asynchronously downloads the image into the disk cache of the {@link Downloader} without
+   * decoding, transforming or memory caching it, and invokes the target {@link Callback} once it
+   * is stored. Images which are not loaded from the network are always available and are not
+   * read at all.
+   * <p>
+   * Prefetches run at low priority by default, no more than
+   * {@link Picasso.Builder#maxConcurrentPrefetches(int) a few} at a time. On a metered network they
+   * wait until an unmetered one is available, unless
+   * {@link Picasso.Builder#prefetchOnMeteredNetworks(boolean)} allows them.
+   * <p>
+   * <em>Note:</em> The {@link Callback} param is a strong reference and will prevent your
+   * {@link android.app.Activity} or {@link android.app.Fragment} from being garbage collected
+   * until the request is completed.
+   */
+  public void prefetch(@Nullable Callback callback) {
+    long started = System.nanoTime();
+
+    if (deferred) {
+      throw new IllegalStateException("Fit cannot be used with prefetch.");
+    }
+    if (data.hasImage()) {
+      if (!data.hasPriority()) {
+        data.priority(Priority.LOW);
+      }
+
+      Request request = createRequest(started);
+      // Keeps prefetches from being joined by requests which need the decoded image.
+      String key = CacheKey.create(request) + "prefetch" + KEY_SEPARATOR;
+
+      Action action = new PrefetchAction(picasso, request, networkPolicy, tag, key, callback);
       picasso.submit(action);
     }
   }
@@ -543,13 +625,14 @@ public class RequestCreator {
     }
 
     Request request = createRequest(started);
-    String requestKey = createKey(request);
+    CacheKey requestKey = CacheKey.create(request);
 
     if (shouldReadFromMemoryCache(memoryPolicy)) {
       Bitmap bitmap = picasso.quickMemoryCacheCheck(requestKey);
       if (bitmap != null) {
-        picasso.cancelRequest(target);
+        picasso.cancelExistingRequest(target, false);
         target.onBitmapLoaded(bitmap, MEMORY);
+        picasso.activateResource(target, requestKey, bitmap, memoryPolicy);
         return;
       }
     }
@@ -558,7 +641,7 @@ public class RequestCreator {
 
     Action action =
         new TargetAction(picasso, target, request, memoryPolicy, networkPolicy, errorDrawable,
-            requestKey, tag, errorResId);
+            requestKey.toString(), tag, errorResId);
     picasso.enqueueAndSubmit(action);
   }
 
@@ -704,14 +787,30 @@ public class RequestCreator {
       data.resize(width, height);
     }
 
-    Request request = createRequest(started);
-    String requestKey = createKey(request);
+    Request request = null;
+    CacheKey requestKey = null;
 
     if (shouldReadFromMemoryCache(memoryPolicy)) {
-      Bitmap bitmap = picasso.quickMemoryCacheCheck(requestKey);
+      CacheKey key = null;
+      if (picasso.requestTransformer == Picasso.RequestTransformer.IDENTITY
+          && !picasso.loggingEnabled) {
+        // A target shown the same image again reuses its key, so the hit allocates nothing.
+        CacheKey shown = picasso.activeResources.getKey(target);
+        if (shown != null && data.hasCacheKey(shown)) {
+          key = shown;
+        }
+      }
+      if (key == null) {
+        request = createRequest(started);
+        requestKey = CacheKey.create(request);
+        key = requestKey;
+      }
+      Bitmap bitmap = picasso.quickMemoryCacheCheck(key);
       if (bitmap != null) {
-        picasso.cancelRequest(target);
+        picasso.cancelExistingRequest(target, false);
         setBitmap(target, picasso.context, bitmap, MEMORY, noFade, picasso.indicatorsEnabled);
+        // Only copied when neither this target nor another already shows the bitmap.
+        picasso.activateResource(target, key, bitmap, memoryPolicy);
         if (picasso.loggingEnabled) {
           log(OWNER_MAIN, VERB_COMPLETED, request.plainId(), "from " + MEMORY);
         }
@@ -722,13 +821,18 @@ public class RequestCreator {
       }
     }
 
+    if (request == null) {
+      request = createRequest(started);
+      requestKey = CacheKey.create(request);
+    }
+
     if (setPlaceholder) {
       setPlaceholder(target, getPlaceholderDrawable());
     }
 
     Action action =
         new ImageViewAction(picasso, target, request, memoryPolicy, networkPolicy, errorResId,
-            errorDrawable, requestKey, tag, callback, noFade);
+            errorDrawable, requestKey.toString(), tag, callback, noFade);
 
     picasso.enqueueAndSubmit(action);
   }
@@ -770,7 +874,7 @@ public class RequestCreator {
 
   private void performRemoteViewInto(RemoteViewsAction action) {
     if (shouldReadFromMemoryCache(memoryPolicy)) {
-      Bitmap bitmap = picasso.quickMemoryCacheCheck(action.getKey());
+      Bitmap bitmap = picasso.quickMemoryCacheCheck(CacheKey.create(action.getRequest()));
       if (bitmap != null) {
         action.complete(bitmap, MEMORY);
         return;
@@ -20,7 +20,9 @@ import android.graphics.BitmapFactory;
 import android.net.NetworkInfo;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import java.io.FileInputStream;
 import java.io.IOException;
+import okio.Okio;
 import okio.Source;
 
 import static com.squareup.picasso.Utils.checkNotNull;
@@ -54,6 +56,7 @@ public abstract class RequestHandler {
     private final Picasso.LoadedFrom loadedFrom;
     private final Bitmap bitmap;
     private final Source source;
+    private final FileInputStream file;
     private final int exifOrientation;
 
     public Result(@NonNull Bitmap bitmap, @NonNull Picasso.LoadedFrom loadedFrom) {
@@ -64,16 +67,31 @@ public abstract class RequestHandler {
       this(null, checkNotNull(source, "source == null"), loadedFrom, 0);
     }
 
+    /** A result whose image can be decoded straight from {@code file}, see {@link #getFile()}. */
+    Result(@NonNull FileInputStream file, @NonNull Picasso.LoadedFrom loadedFrom) {
+      this(null, Okio.source(file), file, loadedFrom, 0);
+    }
+
     Result(
         @Nullable Bitmap bitmap,
         @Nullable Source source,
         @NonNull Picasso.LoadedFrom loadedFrom,
         int exifOrientation) {
+      this(bitmap, source, null, loadedFrom, exifOrientation);
+    }
+
+    private Result(
+        @Nullable Bitmap bitmap,
+        @Nullable Source source,
+        @Nullable FileInputStream file,
+        @NonNull Picasso.LoadedFrom loadedFrom,
+        int exifOrientation) {
       if ((bitmap != null) == (source != null)) {
         throw new AssertionError();
       }
       this.bitmap = bitmap;
       this.source = source;
+      this.file = file;
       this.loadedFrom = checkNotNull(loadedFrom, "loadedFrom == null");
       this.exifOrientation = exifOrientation;
     }
@@ -88,6 +106,15 @@ public abstract class RequestHandler {
       return source;
     }
 
+    /**
+     * The file, positioned at its start, which the {@link #getSource() source} reads from if the
+     * image can be decoded from it directly. Closing the source closes it. This is only set by
+     * built-in RequestHandlers.
+     */
+    @Nullable FileInputStream getFile() {
+      return file;
+    }
+
     /**
      * Returns the resulting {@link Picasso.LoadedFrom} generated from a
      * {@link #load(Request, int)} call.
@@ -130,6 +157,10 @@ public abstract class RequestHandler {
     return false;
   }
 
+  /** Releases anything held on to by a built-in RequestHandler when Picasso is shut down. */
+  void shutdown() {
+  }
+
   /**
    * Lazily create {@link BitmapFactory.Options} based in given
    * {@link Request}, only instantiating them if needed.
@@ -19,13 +19,31 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static android.content.ContentResolver.SCHEME_ANDROID_RESOURCE;
 import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
 
 class ResourceRequestHandler extends RequestHandler {
+  /** Resolved URIs beyond this many are forgotten, least recently used first. */
+  private static final int MAX_RESOLVED = 256;
+  /** Enough of a PNG to read the size from its header. */
+  private static final int PNG_HEADER_SIZE = 24;
+
   private final Context context;
+  private final LinkedHashMap<Uri, Resolved> resolved =
+      new LinkedHashMap<Uri, Resolved>(0, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Uri, Resolved> eldest) {
+          return size() > MAX_RESOLVED;
+        }
+      };
 
   ResourceRequestHandler(Context context) {
     this.context = context;
@@ -40,17 +58,170 @@ class ResourceRequestHandler extends RequestHandler {
   }
 
   @Override public Result load(Request request, int networkPolicy) throws IOException {
-    Resources res = Utils.getResources(context, request);
+    Resolved resource = resolve(request);
+    try {
+      return new Result(decodeResource(resource.resources, resource.id, request), DISK);
+    } catch (Resources.NotFoundException e) {
+      if (request.resourceId == 0) {
+        // The package may have been updated since the URI was resolved.
+        synchronized (resolved) {
+          resolved.remove(request.uri);
+        }
+      }
+      throw new FileNotFoundException("Resource not found: " + request);
+    }
+  }
+
+  /**
+   * Looks up the resources and ID of {@code request}, remembering them for URIs since finding
+   * another package's resources or a resource by name is slow.
+   */
+  private Resolved resolve(Request request) throws FileNotFoundException {
+    if (request.resourceId != 0 || request.uri == null) {
+      return new Resolved(context.getResources(), request.resourceId);
+    }
+    synchronized (resolved) {
+      Resolved resource = resolved.get(request.uri);
+      if (resource != null) {
+        return resource;
+      }
+    }
+    Resources res = context.getPackageName().equals(request.uri.getAuthority())
+        ? context.getResources()
+        : Utils.getResources(context, request);
     int id = Utils.getResourceId(res, request);
-    return new Result(decodeResource(res, id, request), DISK);
+    Resolved resource = new Resolved(res, id);
+    if (id != 0) {
+      synchronized (resolved) {
+        resolved.put(request.uri, resource);
+      }
+    }
+    return resource;
   }
 
-  private static Bitmap decodeResource(Resources resources, int id, Request data) {
-    final BitmapFactory.Options options = createBitmapOptions(data);
-    if (requiresInSampleSize(options)) {
-      BitmapFactory.decodeResource(resources, id, options);
-      calculateInSampleSize(data.targetWidth, data.targetHeight, options, data);
+  /**
+   * Decodes the resource from a single stream, reading its size from the header first if it has
+   * to be sampled.
+   */
+  private static Bitmap decodeResource(Resources resources, int id, Request data)
+      throws IOException {
+    TypedValue value = new TypedValue();
+    InputStream stream = resources.openRawResource(id, value);
+    try {
+      BitmapFactory.Options options = createBitmapOptions(data);
+      if (options == null) {
+        options = new BitmapFactory.Options();
+      }
+      // The same densities decodeResource would scale with.
+      if (value.density == TypedValue.DENSITY_DEFAULT) {
+        options.inDensity = DisplayMetrics.DENSITY_DEFAULT;
+      } else if (value.density != TypedValue.DENSITY_NONE) {
+        options.inDensity = value.density;
+      }
+      int screenDensity = resources.getDisplayMetrics().densityDpi;
+      options.inTargetDensity = screenDensity;
+
+      if (requiresInSampleSize(options)) {
+        stream.mark(Integer.MAX_VALUE);
+        if (!readPngSize(stream, options)) {
+          stream.reset();
+          options.inScaled = false;
+          BitmapFactory.decodeResourceStream(resources, value, stream, null, options);
+          options.inScaled = true;
+        }
+        stream.reset();
+        float scale = getDensityScale(options);
+        int width = (int) (options.outWidth * scale + 0.5f);
+        int height = (int) (options.outHeight * scale + 0.5f);
+        calculateInSampleSize(data.targetWidth, data.targetHeight, width, height, options, data);
+        if (scale != 1) {
+          scaleTargetDensity(data, width, height, options);
+        }
+      }
+      Bitmap bitmap = BitmapFactory.decodeResourceStream(resources, value, stream, null, options);
+      if (bitmap != null && options.inTargetDensity != screenDensity) {
+        // The bitmap is already the size it should be drawn at on this screen.
+        bitmap.setDensity(screenDensity);
+      }
+      return bitmap;
+    } finally {
+      try {
+        stream.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  /** Reads the size of a PNG from its header, returning false if the stream is not a PNG. */
+  static boolean readPngSize(InputStream stream, BitmapFactory.Options options)
+      throws IOException {
+    byte[] header = new byte[PNG_HEADER_SIZE];
+    int read = 0;
+    while (read < header.length) {
+      int count = stream.read(header, read, header.length - read);
+      if (count == -1) {
+        return false;
+      }
+      read += count;
+    }
+    // The signature followed by the length and type of the IHDR chunk.
+    if (readInt(header, 0) != 0x89504E47 || readInt(header, 4) != 0x0D0A1A0A
+        || readInt(header, 12) != 0x49484452) {
+      return false;
+    }
+    options.outWidth = readInt(header, 16);
+    options.outHeight = readInt(header, 20);
+    return options.outWidth > 0 && options.outHeight > 0;
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) << 24
+        | (bytes[offset + 1] & 0xFF) << 16
+        | (bytes[offset + 2] & 0xFF) << 8
+        | (bytes[offset + 3] & 0xFF);
+  }
+
+  private static float getDensityScale(BitmapFactory.Options options) {
+    if (options.inDensity == 0 || options.inTargetDensity == 0
+        || options.inDensity == options.inTargetDensity) {
+      return 1;
+    }
+    return (float) options.inTargetDensity / options.inDensity;
+  }
+
+  /**
+   * Lowers the target density of a resource which is scaled for the screen anyway, so that the
+   * scaled bitmap is exactly the requested size instead of only a sampled approximation of it.
+   * {@code width} and {@code height} are the size it would otherwise have before sampling. The
+   * decoded bitmap takes the lowered density, so it has to be given that of the screen again.
+   */
+  static void scaleTargetDensity(Request data, int width, int height,
+      BitmapFactory.Options options) {
+    float ratio;
+    if (data.targetHeight == 0) {
+      ratio = (float) width / data.targetWidth;
+    } else if (data.targetWidth == 0) {
+      ratio = (float) height / data.targetHeight;
+    } else {
+      float widthRatio = (float) width / data.targetWidth;
+      float heightRatio = (float) height / data.targetHeight;
+      ratio = data.centerInside
+          ? Math.max(widthRatio, heightRatio)
+          : Math.min(widthRatio, heightRatio);
+    }
+    float remaining = ratio / options.inSampleSize;
+    if (remaining > 1) {
+      options.inTargetDensity = Math.round(options.inTargetDensity / remaining);
+    }
+  }
+
+  private static final class Resolved {
+    final Resources resources;
+    final int id;
+
+    Resolved(Resources resources, int id) {
+      this.resources = resources;
+      this.id = id;
     }
-    return BitmapFactory.decodeResource(resources, id, options);
   }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.support.annotation.NonNull;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls how failed network requests are retried.
+ * <p>
+ * Each retry waits longer than the last one, with a random part of the delay removed so that
+ * requests which failed together are not all retried at the same time.
+ * <p>
+ * Failures are also tracked per host. Once a host fails {@link Builder#failureThreshold(int)
+ * enough times} in a row it is not contacted for a {@link Builder#coolDown cool-down period},
+ * during which requests to it are only served from the disk cache. The next request after the
+ * cool-down goes to the network again and either closes or re-opens the circuit.
+ */
+public final class RetryPolicy {
+  /** The policy used unless {@link Picasso.Builder#retryPolicy(RetryPolicy)} is called. */
+  public static final RetryPolicy DEFAULT = new Builder().build();
+
+  final int maxRetries;
+  final long initialDelayMillis;
+  final long maxDelayMillis;
+  final float multiplier;
+  final float jitter;
+  final int failureThreshold;
+  final long coolDownMillis;
+
+  RetryPolicy(Builder builder) {
+    this.maxRetries = builder.maxRetries;
+    this.initialDelayMillis = builder.initialDelayMillis;
+    this.maxDelayMillis = builder.maxDelayMillis;
+    this.multiplier = builder.multiplier;
+    this.jitter = builder.jitter;
+    this.failureThreshold = builder.failureThreshold;
+    this.coolDownMillis = builder.coolDownMillis;
+  }
+
+  /** Returns the delay before retrying a request which has been retried {@code retries} times. */
+  long retryDelayMillis(int retries, Random random) {
+    double delay = initialDelayMillis * Math.pow(multiplier, retries);
+    delay = Math.min(delay, maxDelayMillis);
+    delay -= delay * jitter * random.nextDouble();
+    return (long) delay;
+  }
+
+  /** Fluent API for creating {@link RetryPolicy} instances. */
+  @SuppressWarnings("UnusedDeclaration") // Public API.
+  public static final class Builder {
+    int maxRetries = 2;
+    long initialDelayMillis = 500;
+    long maxDelayMillis = TimeUnit.SECONDS.toMillis(30);
+    float multiplier = 2f;
+    float jitter = 0.5f;
+    int failureThreshold = 5;
+    long coolDownMillis = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The number of times a failed request is retried. The last retry is only ever served from
+     * the disk cache.
+     */
+    public Builder maxRetries(int maxRetries) {
+      if (maxRetries < 0) {
+        throw new IllegalArgumentException("Max retries must not be negative.");
+      }
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    /** The delay before the first retry. */
+    public Builder initialDelay(long delay, @NonNull TimeUnit unit) {
+      if (delay < 0) {
+        throw new IllegalArgumentException("Initial delay must not be negative.");
+      }
+      if (unit == null) {
+        throw new IllegalArgumentException("Unit must not be null.");
+      }
+      this.initialDelayMillis = unit.toMillis(delay);
+      return this;
+    }
+
+    /** The longest any retry waits, however many retries came before it. */
+    public Builder maxDelay(long delay, @NonNull TimeUnit unit) {
+      if (delay < 0) {
+        throw new IllegalArgumentException("Max delay must not be negative.");
+      }
+      if (unit == null) {
+        throw new IllegalArgumentException("Unit must not be null.");
+      }
+      this.maxDelayMillis = unit.toMillis(delay);
+      return this;
+    }
+
+    /** How much longer each retry waits than the one before it. */
+    public Builder multiplier(float multiplier) {
+      if (multiplier < 1) {
+        throw new IllegalArgumentException("Multiplier must be at least 1.");
+      }
+      this.multiplier = multiplier;
+      return this;
+    }
+
+    /**
+     * The largest fraction of each delay which is randomly removed from it, between 0 for no
+     * jitter and 1 for delays anywhere between zero and their full length.
+     */
+    public Builder jitter(float jitter) {
+      if (jitter < 0 || jitter > 1) {
+        throw new IllegalArgumentException("Jitter must be between 0 and 1.");
+      }
+      this.jitter = jitter;
+      return this;
+    }
+
+    /**
+     * The number of consecutive failures after which a host is not contacted for the
+     * {@link #coolDown cool-down period}.
+     */
+    public Builder failureThreshold(int failureThreshold) {
+      if (failureThreshold <= 0) {
+        throw new IllegalArgumentException("Failure threshold must be positive.");
+      }
+      this.failureThreshold = failureThreshold;
+      return this;
+    }
+
+    /** How long a failing host is not contacted for. */
+    public Builder coolDown(long coolDown, @NonNull TimeUnit unit) {
+      if (coolDown < 0) {
+        throw new IllegalArgumentException("Cool-down must not be negative.");
+      }
+      if (unit == null) {
+        throw new IllegalArgumentException("Unit must not be null.");
+      }
+      this.coolDownMillis = unit.toMillis(coolDown);
+      return this;
+    }
+
+    /** Create the {@link RetryPolicy}. */
+    public RetryPolicy build() {
+      if (maxDelayMillis < initialDelayMillis) {
+        throw new IllegalStateException("Max delay must not be shorter than the initial delay.");
+      }
+      return new RetryPolicy(this);
+    }
+  }
+}
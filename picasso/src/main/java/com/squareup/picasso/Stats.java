@@ -20,36 +20,51 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
 
 class Stats {
-  private static final int CACHE_HIT = 0;
-  private static final int CACHE_MISS = 1;
   private static final int BITMAP_DECODE_FINISHED = 2;
   private static final int BITMAP_TRANSFORMED_FINISHED = 3;
   private static final int DOWNLOAD_FINISHED = 4;
+  private static final int TRANSFORMATION_CACHE_HIT = 5;
+  private static final int TRANSFORMATION_CACHE_MISS = 6;
+  private static final int NEGOTIATED_DOWNLOAD_FINISHED = 7;
 
   private static final String STATS_THREAD_NAME = Utils.THREAD_PREFIX + "Stats";
 
   final HandlerThread statsThread;
   final Cache cache;
+  final Cache transformationCache;
+  final HostHealthTracker hostHealth;
   final Handler handler;
 
-  long cacheHits;
-  long cacheMisses;
+  // Memory cache lookups happen on the main thread for every request and are counted in place.
+  final AtomicLong cacheHits = new AtomicLong();
+  final AtomicLong cacheMisses = new AtomicLong();
+  final AtomicLong activeHits = new AtomicLong();
+  long transformationCacheHits;
+  long transformationCacheMisses;
   long totalDownloadSize;
   long totalOriginalBitmapSize;
   long totalTransformedBitmapSize;
+  long totalNegotiatedDownloadSize;
   long averageDownloadSize;
   long averageOriginalBitmapSize;
   long averageTransformedBitmapSize;
   int downloadCount;
+  int negotiatedDownloadCount;
   int originalBitmapCount;
   int transformedBitmapCount;
 
-  Stats(Cache cache) {
+  Stats(Cache cache, Cache transformationCache, HostHealthTracker hostHealth) {
     this.cache = cache;
+    this.transformationCache = transformationCache;
+    this.hostHealth = hostHealth;
     this.statsThread = new HandlerThread(STATS_THREAD_NAME, THREAD_PRIORITY_BACKGROUND);
     this.statsThread.start();
     Utils.flushStackLocalLeaks(statsThread.getLooper());
@@ -68,24 +83,42 @@ class Stats {
     handler.sendMessage(handler.obtainMessage(DOWNLOAD_FINISHED, size));
   }
 
+  /** Counts a download which the server chose based on the {@link ClientHints} sent for it. */
+  void dispatchNegotiatedDownloadFinished(long size) {
+    handler.sendMessage(handler.obtainMessage(NEGOTIATED_DOWNLOAD_FINISHED, size));
+  }
+
   void dispatchCacheHit() {
-    handler.sendEmptyMessage(CACHE_HIT);
+    cacheHits.incrementAndGet();
   }
 
   void dispatchCacheMiss() {
-    handler.sendEmptyMessage(CACHE_MISS);
+    cacheMisses.incrementAndGet();
+  }
+
+  /** Counts a bitmap found because a target still showed it, without a memory cache lookup. */
+  void dispatchActiveHit() {
+    activeHits.incrementAndGet();
+  }
+
+  void dispatchTransformationCacheHit() {
+    handler.sendEmptyMessage(TRANSFORMATION_CACHE_HIT);
+  }
+
+  void dispatchTransformationCacheMiss() {
+    handler.sendEmptyMessage(TRANSFORMATION_CACHE_MISS);
   }
 
   void shutdown() {
     statsThread.quit();
   }
 
-  void performCacheHit() {
-    cacheHits++;
+  void performTransformationCacheHit() {
+    transformationCacheHits++;
   }
 
-  void performCacheMiss() {
-    cacheMisses++;
+  void performTransformationCacheMiss() {
+    transformationCacheMisses++;
   }
 
   void performDownloadFinished(Long size) {
@@ -94,6 +127,12 @@ class Stats {
     averageDownloadSize = getAverage(downloadCount, totalDownloadSize);
   }
 
+  void performNegotiatedDownloadFinished(Long size) {
+    performDownloadFinished(size);
+    negotiatedDownloadCount++;
+    totalNegotiatedDownloadSize += size;
+  }
+
   void performBitmapDecoded(long size) {
     originalBitmapCount++;
     totalOriginalBitmapSize += size;
@@ -107,10 +146,20 @@ class Stats {
   }
 
   StatsSnapshot createSnapshot() {
-    return new StatsSnapshot(cache.maxSize(), cache.size(), cacheHits, cacheMisses,
-        totalDownloadSize, totalOriginalBitmapSize, totalTransformedBitmapSize, averageDownloadSize,
-        averageOriginalBitmapSize, averageTransformedBitmapSize, downloadCount, originalBitmapCount,
-        transformedBitmapCount, System.currentTimeMillis());
+    return new StatsSnapshot(cache.maxSize(), cache.size(), cacheHits.get(), cacheMisses.get(),
+        activeHits.get(), totalDownloadSize, totalOriginalBitmapSize, totalTransformedBitmapSize,
+        averageDownloadSize, averageOriginalBitmapSize, averageTransformedBitmapSize,
+        downloadCount, originalBitmapCount, transformedBitmapCount, transformationCache.maxSize(),
+        transformationCache.size(), transformationCacheHits, transformationCacheMisses,
+        negotiatedDownloadCount, totalNegotiatedDownloadSize,
+        hostHealth.snapshot(SystemClock.elapsedRealtime()), getCachePartitions(),
+        System.currentTimeMillis());
+  }
+
+  private Map<String, StatsSnapshot.CachePartition> getCachePartitions() {
+    return cache instanceof PartitionedCache
+        ? ((PartitionedCache) cache).snapshot()
+        : Collections.<String, StatsSnapshot.CachePartition>emptyMap();
   }
 
   private void processBitmap(Bitmap bitmap, int what) {
@@ -134,12 +183,6 @@ class Stats {
 
     @Override public void handleMessage(final Message msg) {
       switch (msg.what) {
-        case CACHE_HIT:
-          stats.performCacheHit();
-          break;
-        case CACHE_MISS:
-          stats.performCacheMiss();
-          break;
         case BITMAP_DECODE_FINISHED:
           stats.performBitmapDecoded(msg.arg1);
           break;
@@ -149,6 +192,15 @@ class Stats {
         case DOWNLOAD_FINISHED:
           stats.performDownloadFinished((Long) msg.obj);
           break;
+        case TRANSFORMATION_CACHE_HIT:
+          stats.performTransformationCacheHit();
+          break;
+        case TRANSFORMATION_CACHE_MISS:
+          stats.performTransformationCacheMiss();
+          break;
+        case NEGOTIATED_DOWNLOAD_FINISHED:
+          stats.performNegotiatedDownloadFinished((Long) msg.obj);
+          break;
         default:
           Picasso.HANDLER.post(new Runnable() {
             @Override public void run() {
@@ -18,6 +18,8 @@ package com.squareup.picasso;
 import android.util.Log;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
 
 import static com.squareup.picasso.Picasso.TAG;
 
@@ -27,6 +29,11 @@ public class StatsSnapshot {
   public final int size;
   public final long cacheHits;
   public final long cacheMisses;
+  /**
+   * Bitmaps found because a target was still showing them, even if the memory cache had evicted
+   * them. These are not counted as cache hits or misses.
+   */
+  public final long activeHits;
   public final long totalDownloadSize;
   public final long totalOriginalBitmapSize;
   public final long totalTransformedBitmapSize;
@@ -36,17 +43,55 @@ public class StatsSnapshot {
   public final int downloadCount;
   public final int originalBitmapCount;
   public final int transformedBitmapCount;
+  public final int transformationCacheMaxSize;
+  public final int transformationCacheSize;
+  public final long transformationCacheHits;
+  public final long transformationCacheMisses;
+  /** Downloads which the server chose based on the {@link ClientHints} sent for them. */
+  public final int negotiatedDownloadCount;
+  public final long totalNegotiatedDownloadSize;
+  public final long averageNegotiatedDownloadSize;
+  /**
+   * An estimate of the bytes {@link ClientHints} saved: how much smaller negotiated downloads
+   * were than other downloads on average, times their number. Zero until there are both.
+   */
+  public final long negotiationSavings;
+  /** The health of each host images were recently requested from. */
+  public final Map<String, HostHealth> hostHealth;
+  /** The partitions of the memory cache, if it is a {@link PartitionedCache}. */
+  public final Map<String, CachePartition> cachePartitions;
 
   public final long timeStamp;
 
+  /**
+   * Creates a snapshot of the statistics Picasso always kept. Those added since are zero, and
+   * {@link #hostHealth} and {@link #cachePartitions} are empty.
+   */
   public StatsSnapshot(int maxSize, int size, long cacheHits, long cacheMisses,
       long totalDownloadSize, long totalOriginalBitmapSize, long totalTransformedBitmapSize,
       long averageDownloadSize, long averageOriginalBitmapSize, long averageTransformedBitmapSize,
       int downloadCount, int originalBitmapCount, int transformedBitmapCount, long timeStamp) {
+    this(maxSize, size, cacheHits, cacheMisses, 0, totalDownloadSize, totalOriginalBitmapSize,
+        totalTransformedBitmapSize, averageDownloadSize, averageOriginalBitmapSize,
+        averageTransformedBitmapSize, downloadCount, originalBitmapCount, transformedBitmapCount,
+        0, 0, 0, 0, 0, 0, Collections.<String, HostHealth>emptyMap(),
+        Collections.<String, CachePartition>emptyMap(), timeStamp);
+  }
+
+  // New statistics are only added here, which keeps the public constructor stable.
+  StatsSnapshot(int maxSize, int size, long cacheHits, long cacheMisses, long activeHits,
+      long totalDownloadSize, long totalOriginalBitmapSize, long totalTransformedBitmapSize,
+      long averageDownloadSize, long averageOriginalBitmapSize, long averageTransformedBitmapSize,
+      int downloadCount, int originalBitmapCount, int transformedBitmapCount,
+      int transformationCacheMaxSize, int transformationCacheSize, long transformationCacheHits,
+      long transformationCacheMisses, int negotiatedDownloadCount,
+      long totalNegotiatedDownloadSize, Map<String, HostHealth> hostHealth,
+      Map<String, CachePartition> cachePartitions, long timeStamp) {
     this.maxSize = maxSize;
     this.size = size;
     this.cacheHits = cacheHits;
     this.cacheMisses = cacheMisses;
+    this.activeHits = activeHits;
     this.totalDownloadSize = totalDownloadSize;
     this.totalOriginalBitmapSize = totalOriginalBitmapSize;
     this.totalTransformedBitmapSize = totalTransformedBitmapSize;
@@ -56,6 +101,25 @@ public class StatsSnapshot {
     this.downloadCount = downloadCount;
     this.originalBitmapCount = originalBitmapCount;
     this.transformedBitmapCount = transformedBitmapCount;
+    this.transformationCacheMaxSize = transformationCacheMaxSize;
+    this.transformationCacheSize = transformationCacheSize;
+    this.transformationCacheHits = transformationCacheHits;
+    this.transformationCacheMisses = transformationCacheMisses;
+    this.negotiatedDownloadCount = negotiatedDownloadCount;
+    this.totalNegotiatedDownloadSize = totalNegotiatedDownloadSize;
+    this.averageNegotiatedDownloadSize = negotiatedDownloadCount > 0
+        ? totalNegotiatedDownloadSize / negotiatedDownloadCount : 0;
+    int otherDownloadCount = downloadCount - negotiatedDownloadCount;
+    if (negotiatedDownloadCount > 0 && otherDownloadCount > 0) {
+      long averageOtherDownloadSize =
+          (totalDownloadSize - totalNegotiatedDownloadSize) / otherDownloadCount;
+      this.negotiationSavings = negotiatedDownloadCount
+          * Math.max(0, averageOtherDownloadSize - averageNegotiatedDownloadSize);
+    } else {
+      this.negotiationSavings = 0;
+    }
+    this.hostHealth = hostHealth;
+    this.cachePartitions = cachePartitions;
     this.timeStamp = timeStamp;
   }
 
@@ -80,6 +144,33 @@ public class StatsSnapshot {
     writer.println(cacheHits);
     writer.print("  Cache Misses: ");
     writer.println(cacheMisses);
+    writer.print("  Active Hits: ");
+    writer.println(activeHits);
+    for (Map.Entry<String, CachePartition> entry : cachePartitions.entrySet()) {
+      CachePartition partition = entry.getValue();
+      writer.print("  Partition ");
+      writer.print(entry.getKey());
+      writer.print(": ");
+      writer.print(partition.size);
+      writer.print(" of ");
+      writer.print(partition.maxSize);
+      writer.print(" bytes, ");
+      writer.print(partition.hitCount);
+      writer.print(" hits, ");
+      writer.print(partition.insertCount);
+      writer.print(" inserts, ");
+      writer.print(partition.evictionCount);
+      writer.println(" evictions");
+    }
+    writer.println("Transformation Cache Stats");
+    writer.print("  Max Cache Size: ");
+    writer.println(transformationCacheMaxSize);
+    writer.print("  Cache Size: ");
+    writer.println(transformationCacheSize);
+    writer.print("  Cache Hits: ");
+    writer.println(transformationCacheHits);
+    writer.print("  Cache Misses: ");
+    writer.println(transformationCacheMisses);
     writer.println("Network Stats");
     writer.print("  Download Count: ");
     writer.println(downloadCount);
@@ -87,6 +178,30 @@ public class StatsSnapshot {
     writer.println(totalDownloadSize);
     writer.print("  Average Download Size: ");
     writer.println(averageDownloadSize);
+    writer.print("  Negotiated Download Count: ");
+    writer.println(negotiatedDownloadCount);
+    writer.print("  Total Negotiated Download Size: ");
+    writer.println(totalNegotiatedDownloadSize);
+    writer.print("  Average Negotiated Download Size: ");
+    writer.println(averageNegotiatedDownloadSize);
+    writer.print("  Estimated Negotiation Savings: ");
+    writer.println(negotiationSavings);
+    for (Map.Entry<String, HostHealth> entry : hostHealth.entrySet()) {
+      HostHealth health = entry.getValue();
+      writer.print("  Host ");
+      writer.print(entry.getKey());
+      writer.print(": ");
+      writer.print(health.successes);
+      writer.print(" succeeded, ");
+      writer.print(health.failures);
+      writer.print(" failed");
+      if (health.coolDownRemainingMillis > 0) {
+        writer.print(", unavailable for ");
+        writer.print(health.coolDownRemainingMillis);
+        writer.print("ms");
+      }
+      writer.println();
+    }
     writer.println("Bitmap Stats");
     writer.print("  Total Bitmaps Decoded: ");
     writer.println(originalBitmapCount);
@@ -114,6 +229,8 @@ public class StatsSnapshot {
         + cacheHits
         + ", cacheMisses="
         + cacheMisses
+        + ", activeHits="
+        + activeHits
         + ", downloadCount="
         + downloadCount
         + ", totalDownloadSize="
@@ -132,8 +249,100 @@ public class StatsSnapshot {
         + originalBitmapCount
         + ", transformedBitmapCount="
         + transformedBitmapCount
+        + ", transformationCacheMaxSize="
+        + transformationCacheMaxSize
+        + ", transformationCacheSize="
+        + transformationCacheSize
+        + ", transformationCacheHits="
+        + transformationCacheHits
+        + ", transformationCacheMisses="
+        + transformationCacheMisses
+        + ", negotiatedDownloadCount="
+        + negotiatedDownloadCount
+        + ", totalNegotiatedDownloadSize="
+        + totalNegotiatedDownloadSize
+        + ", averageNegotiatedDownloadSize="
+        + averageNegotiatedDownloadSize
+        + ", negotiationSavings="
+        + negotiationSavings
+        + ", hostHealth="
+        + hostHealth
+        + ", cachePartitions="
+        + cachePartitions
         + ", timeStamp="
         + timeStamp
         + '}';
   }
+
+  /** A partition of a {@link PartitionedCache} at the time of a {@link StatsSnapshot}. */
+  public static final class CachePartition {
+    public final int maxSize;
+    /** May be above {@link #maxSize} while the partition borrows room from others. */
+    public final int size;
+    public final long hitCount;
+    /** Images stored in the partition under keys which were not in the cache. */
+    public final long insertCount;
+    public final long evictionCount;
+
+    CachePartition(int maxSize, int size, long hitCount, long insertCount, long evictionCount) {
+      this.maxSize = maxSize;
+      this.size = size;
+      this.hitCount = hitCount;
+      this.insertCount = insertCount;
+      this.evictionCount = evictionCount;
+    }
+
+    @Override public String toString() {
+      return "CachePartition{"
+          + "maxSize="
+          + maxSize
+          + ", size="
+          + size
+          + ", hitCount="
+          + hitCount
+          + ", insertCount="
+          + insertCount
+          + ", evictionCount="
+          + evictionCount
+          + '}';
+    }
+  }
+
+  /** The health of a single host at the time of a {@link StatsSnapshot}. */
+  public static final class HostHealth {
+    /** Requests which reached the host and got a successful response. */
+    public final long successes;
+    /** Requests which could not reach the host or got a server error from it. */
+    public final long failures;
+    /** Failures since the last success. */
+    public final int consecutiveFailures;
+    /** How much longer the host is not contacted for, or 0 if it is available. */
+    public final long coolDownRemainingMillis;
+
+    HostHealth(long successes, long failures, int consecutiveFailures,
+        long coolDownRemainingMillis) {
+      this.successes = successes;
+      this.failures = failures;
+      this.consecutiveFailures = consecutiveFailures;
+      this.coolDownRemainingMillis = coolDownRemainingMillis;
+    }
+
+    /** True if requests to the host go to the network. */
+    public boolean isAvailable() {
+      return coolDownRemainingMillis == 0;
+    }
+
+    @Override public String toString() {
+      return "HostHealth{"
+          + "successes="
+          + successes
+          + ", failures="
+          + failures
+          + ", consecutiveFailures="
+          + consecutiveFailures
+          + ", coolDownRemainingMillis="
+          + coolDownRemainingMillis
+          + '}';
+    }
+  }
 }
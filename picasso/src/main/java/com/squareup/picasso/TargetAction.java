@@ -40,6 +40,10 @@ final class TargetAction extends Action<Target> {
     }
   }
 
+  @Override boolean showsResult() {
+    return true;
+  }
+
   @Override void error(Exception e) {
     Target target = getTarget();
     if (target != null) {
@@ -51,7 +51,7 @@ final class Utils {
   static final String THREAD_PREFIX = "Picasso-";
   static final String THREAD_IDLE_NAME = THREAD_PREFIX + "Idle";
   private static final String PICASSO_CACHE = "picasso-cache";
-  private static final int KEY_PADDING = 50; // Determined by exact science.
+  static final int KEY_PADDING = 50; // Determined by exact science.
   private static final int MIN_DISK_CACHE_SIZE = 5 * 1024 * 1024; // 5MB
   private static final int MAX_DISK_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
   static final int THREAD_LEAK_CLEANING_MS = 1000;
@@ -68,11 +68,13 @@ final class Utils {
   static final String VERB_CHANGED = "changed";
   static final String VERB_IGNORED = "ignored";
   static final String VERB_ENQUEUED = "enqueued";
+  static final String VERB_DEFERRED = "deferred";
   static final String VERB_CANCELED = "canceled";
   static final String VERB_BATCHED = "batched";
   static final String VERB_RETRYING = "retrying";
   static final String VERB_EXECUTING = "executing";
   static final String VERB_DECODED = "decoded";
+  static final String VERB_PREFETCHED = "prefetched";
   static final String VERB_TRANSFORMED = "transformed";
   static final String VERB_JOINED = "joined";
   static final String VERB_REMOVED = "removed";
@@ -167,6 +169,15 @@ final class Utils {
   }
 
   static String createKey(Request data, StringBuilder builder) {
+    int transformationCount = data.transformations != null ? data.transformations.size() : 0;
+    return createKey(data, builder, transformationCount);
+  }
+
+  /**
+   * Create the key of {@code data} as if only its first {@code transformationCount} custom
+   * transformations were applied. Keys of a shorter chain are always a prefix of longer ones.
+   */
+  static String createKey(Request data, StringBuilder builder, int transformationCount) {
     if (data.stableKey != null) {
       builder.ensureCapacity(data.stableKey.length() + KEY_PADDING);
       builder.append(data.stableKey);
@@ -198,8 +209,7 @@ final class Utils {
     }
 
     if (data.transformations != null) {
-      //noinspection ForLoopReplaceableByForEach
-      for (int i = 0, count = data.transformations.size(); i < count; i++) {
+      for (int i = 0; i < transformationCount; i++) {
         builder.append(data.transformations.get(i).key());
         builder.append(KEY_SEPARATOR);
       }
@@ -208,6 +218,20 @@ final class Utils {
     return builder.toString();
   }
 
+  /** Reads {@code key} from {@code cache}, using its string form if it is not a KeyedCache. */
+  static Bitmap getFromCache(Cache cache, CacheKey key) {
+    return cache instanceof KeyedCache ? ((KeyedCache) cache).get(key) : cache.get(key.toString());
+  }
+
+  /** Writes {@code key} to {@code cache}, using its string form if it is not a KeyedCache. */
+  static void setInCache(Cache cache, CacheKey key, Bitmap bitmap) {
+    if (cache instanceof KeyedCache) {
+      ((KeyedCache) cache).set(key, bitmap);
+    } else {
+      cache.set(key.toString(), bitmap);
+    }
+  }
+
   static File createDefaultCacheDir(Context context) {
     File cache = new File(context.getApplicationContext().getCacheDir(), PICASSO_CACHE);
     if (!cache.exists()) {
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static com.squareup.picasso.TestUtils.CACHE_KEY_1;
+import static com.squareup.picasso.TestUtils.URI_1;
+import static com.squareup.picasso.TestUtils.URI_2;
+import static com.squareup.picasso.TestUtils.makeBitmap;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class ActiveResourcesTest {
+  private static final CacheKey CACHE_KEY_2 = CacheKey.create(new Request.Builder(URI_2).build());
+
+  final ActiveResources active = new ActiveResources();
+  final Bitmap bitmap = makeBitmap();
+
+  @Test public void returnsActivatedBitmap() {
+    active.activate(new Object(), CACHE_KEY_1, bitmap);
+
+    assertThat(active.get(CACHE_KEY_1)).isSameAs(bitmap);
+    assertThat(active.get(CACHE_KEY_2)).isNull();
+  }
+
+  @Test public void returnsKeyOfBitmapTargetShows() {
+    Object target = new Object();
+    active.activate(target, CACHE_KEY_1, bitmap);
+
+    assertThat(active.getKey(target)).isSameAs(CACHE_KEY_1);
+    assertThat(active.getKey(new Object())).isNull();
+
+    active.release(target);
+    assertThat(active.getKey(target)).isNull();
+  }
+
+  @Test public void releasedOnceNoTargetShowsIt() {
+    Object first = new Object();
+    Object second = new Object();
+    active.activate(first, CACHE_KEY_1, bitmap);
+    active.activate(second, CACHE_KEY_1, bitmap);
+
+    active.release(first);
+    assertThat(active.get(CACHE_KEY_1)).isSameAs(bitmap);
+
+    active.release(second);
+    assertThat(active.get(CACHE_KEY_1)).isNull();
+    assertThat(active.size()).isEqualTo(0);
+  }
+
+  @Test public void activatingTargetReleasesWhatItShowed() {
+    Object target = new Object();
+    active.activate(target, CACHE_KEY_1, bitmap);
+    active.activate(target, CACHE_KEY_2, makeBitmap());
+
+    assertThat(active.get(CACHE_KEY_1)).isNull();
+    assertThat(active.size()).isEqualTo(1);
+  }
+
+  @Test public void activatingTargetAgainKeepsItsReference() {
+    Object target = new Object();
+    Bitmap other = makeBitmap();
+    active.activate(target, CACHE_KEY_1, bitmap);
+    active.activate(target, CACHE_KEY_1, other);
+
+    assertThat(active.get(CACHE_KEY_1)).isSameAs(other);
+    active.release(target);
+    assertThat(active.get(CACHE_KEY_1)).isNull();
+    assertThat(active.size()).isEqualTo(0);
+  }
+
+  @Test public void activatingTargetAfterClearKeyUriActivatesAgain() {
+    Object target = new Object();
+    active.activate(target, CACHE_KEY_1, bitmap);
+    active.clearKeyUri(URI_1.toString());
+    active.activate(target, CACHE_KEY_1, bitmap);
+
+    assertThat(active.get(CACHE_KEY_1)).isSameAs(bitmap);
+  }
+
+  @Test public void releaseUnknownTargetDoesNothing() {
+    active.activate(new Object(), CACHE_KEY_1, bitmap);
+
+    active.release(new Object());
+
+    assertThat(active.get(CACHE_KEY_1)).isSameAs(bitmap);
+  }
+
+  @Test public void releasedWhenTargetIsCollected() throws InterruptedException {
+    Object target = new Object();
+    active.activate(target, CACHE_KEY_1, bitmap);
+    //noinspection UnusedAssignment
+    target = null;
+
+    for (int i = 0; i < 20 && active.size() > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertThat(active.size()).isEqualTo(0);
+  }
+
+  @Test public void recycledBitmapIsNotReturned() {
+    active.activate(new Object(), CACHE_KEY_1, bitmap);
+    bitmap.recycle();
+
+    assertThat(active.get(CACHE_KEY_1)).isNull();
+  }
+
+  @Test public void clearKeyUriForgetsMatchingBitmaps() {
+    Object target = new Object();
+    active.activate(target, CACHE_KEY_1, bitmap);
+    active.activate(new Object(), CACHE_KEY_2, makeBitmap());
+
+    active.clearKeyUri(URI_1.toString());
+
+    assertThat(active.get(CACHE_KEY_1)).isNull();
+    assertThat(active.size()).isEqualTo(1);
+    // Releasing a target of a forgotten bitmap leaves the others alone.
+    active.release(target);
+    assertThat(active.size()).isEqualTo(1);
+  }
+}
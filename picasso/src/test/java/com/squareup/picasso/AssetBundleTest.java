@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import okio.Buffer;
+import okio.Okio;
+import okio.Source;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static com.squareup.picasso.TestUtils.makeAssetBundle;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AssetBundleTest {
+  @Test public void readsImagesByPath() throws IOException {
+    AssetBundle bundle = bundleOf(makeAssetBundle("a.png", "first", "dir/b.png", "second"));
+
+    assertThat(bundle.size()).isEqualTo(2);
+    assertThat(Okio.buffer(bundle.source("a.png")).readUtf8()).isEqualTo("first");
+    assertThat(Okio.buffer(bundle.source("dir/b.png")).readUtf8()).isEqualTo("second");
+  }
+
+  @Test public void missingPathReturnsNull() throws IOException {
+    AssetBundle bundle = bundleOf(makeAssetBundle("a.png", "first"));
+
+    assertThat(bundle.source("b.png")).isNull();
+  }
+
+  @Test public void sourcesAreIndependent() throws IOException {
+    AssetBundle bundle = bundleOf(makeAssetBundle("a.png", "first"));
+    Source first = bundle.source("a.png");
+    Source second = bundle.source("a.png");
+
+    Buffer sink = new Buffer();
+    assertThat(first.read(sink, 2)).isEqualTo(2);
+    assertThat(sink.readUtf8()).isEqualTo("fi");
+    assertThat(Okio.buffer(second).readUtf8()).isEqualTo("first");
+    assertThat(Okio.buffer(first).readUtf8()).isEqualTo("rst");
+  }
+
+  @Test public void rejectsOtherFiles() {
+    try {
+      bundleOf(new Buffer().writeUtf8("\u0089PNG\r\n\u001a\n0000"));
+      fail("Expected IOException.");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test public void rejectsEntriesOutOfBounds() {
+    Buffer bundle = makeAssetBundle("a.png", "first");
+    try {
+      bundleOf(bundle.readByteString(bundle.size() - 1).toByteArray());
+      fail("Expected IOException.");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test public void rejectsTruncatedIndex() {
+    try {
+      bundleOf(makeAssetBundle("a.png", "first").readByteString(16).toByteArray());
+      fail("Expected IOException.");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test public void mapsBundleAtDescriptorOffset() throws IOException {
+    // Like an uncompressed asset in the middle of an APK.
+    Buffer contents = makeAssetBundle("a.png", "first");
+    long length = contents.size();
+    Buffer apk = new Buffer().writeUtf8("header");
+    apk.writeAll(contents);
+    apk.writeUtf8("trailer");
+    File file = File.createTempFile("assets", ".apk");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    apk.writeTo(out);
+    out.close();
+
+    AssetFileDescriptor fd = new AssetFileDescriptor(
+        ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY), 6, length);
+    AssetBundle bundle = AssetBundle.open(fd);
+
+    assertThat(Okio.buffer(bundle.source("a.png")).readUtf8()).isEqualTo("first");
+  }
+
+  private static AssetBundle bundleOf(Buffer bundle) throws IOException {
+    return bundleOf(bundle.readByteArray());
+  }
+
+  private static AssetBundle bundleOf(byte[] bundle) throws IOException {
+    return new AssetBundle(ByteBuffer.wrap(bundle));
+  }
+}
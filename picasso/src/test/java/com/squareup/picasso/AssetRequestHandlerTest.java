@@ -1,15 +1,33 @@
 package com.squareup.picasso;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import okio.Buffer;
+import okio.Okio;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.robolectric.RobolectricGradleTestRunner;
 
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
+import static com.squareup.picasso.TestUtils.makeAssetBundle;
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 @RunWith(RobolectricGradleTestRunner.class)
@@ -27,4 +45,59 @@ public class AssetRequestHandlerTest {
     String actual = AssetRequestHandler.getFilePath(request);
     assertThat(actual).isEqualTo("foo/bar.png");
   }
+
+  @Test public void loadsBundledImagesFromBundle() throws IOException {
+    AssetManager assets = mockAssets(makeAssetBundle("foo/bar.png", "bundled"));
+    AssetRequestHandler handler =
+        new AssetRequestHandler(context, Collections.singletonList("images.picb"));
+
+    Request first = new Request.Builder(Uri.parse("file:///android_asset/foo/bar.png")).build();
+    RequestHandler.Result result = handler.load(first, 0);
+    assertThat(result.getLoadedFrom()).isEqualTo(DISK);
+    assertThat(Okio.buffer(result.getSource()).readUtf8()).isEqualTo("bundled");
+    handler.load(first, 0);
+
+    verify(assets, times(1)).openFd("images.picb");
+    verify(assets, never()).open("foo/bar.png");
+  }
+
+  @Test public void loadsOtherImagesFromAssets() throws IOException {
+    AssetManager assets = mockAssets(makeAssetBundle("foo/bar.png", "bundled"));
+    when(assets.open("foo/baz.png")).thenReturn(new ByteArrayInputStream(new byte[] {'a'}));
+    AssetRequestHandler handler =
+        new AssetRequestHandler(context, Collections.singletonList("images.picb"));
+
+    Request request = new Request.Builder(Uri.parse("file:///android_asset/foo/baz.png")).build();
+    RequestHandler.Result result = handler.load(request, 0);
+
+    assertThat(Okio.buffer(result.getSource()).readUtf8()).isEqualTo("a");
+  }
+
+  @Test public void skipsBundleWhichCannotBeOpened() throws IOException {
+    AssetManager assets = mockAssets(makeAssetBundle("foo/bar.png", "bundled"));
+    when(assets.openFd("missing.picb")).thenThrow(new FileNotFoundException("missing.picb"));
+    when(assets.open("foo/baz.png")).thenReturn(new ByteArrayInputStream(new byte[] {'a'}));
+    AssetRequestHandler handler =
+        new AssetRequestHandler(context, Arrays.asList("missing.picb", "images.picb"));
+
+    Request bundled = new Request.Builder(Uri.parse("file:///android_asset/foo/bar.png")).build();
+    assertThat(Okio.buffer(handler.load(bundled, 0).getSource()).readUtf8()).isEqualTo("bundled");
+    Request other = new Request.Builder(Uri.parse("file:///android_asset/foo/baz.png")).build();
+    assertThat(Okio.buffer(handler.load(other, 0).getSource()).readUtf8()).isEqualTo("a");
+
+    verify(assets, times(1)).openFd("missing.picb");
+  }
+
+  private AssetManager mockAssets(Buffer bundle) throws IOException {
+    File file = File.createTempFile("images", ".picb");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    bundle.writeTo(out);
+    out.close();
+    AssetManager assets = mock(AssetManager.class);
+    when(assets.openFd("images.picb")).thenReturn(new AssetFileDescriptor(
+        ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY), 0, file.length()));
+    when(context.getAssets()).thenReturn(assets);
+    return assets;
+  }
 }
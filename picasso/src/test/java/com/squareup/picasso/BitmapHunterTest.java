@@ -17,14 +17,23 @@ package com.squareup.picasso;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.ColorMatrix;
 import android.graphics.Matrix;
+import android.graphics.Path;
 import android.net.Uri;
 import android.view.Gravity;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSource;
+import okio.Okio;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -41,7 +50,9 @@ import static android.media.ExifInterface.ORIENTATION_TRANSPOSE;
 import static android.media.ExifInterface.ORIENTATION_TRANSVERSE;
 import static com.squareup.picasso.BitmapHunter.forRequest;
 import static com.squareup.picasso.BitmapHunter.transformResult;
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
 import static com.squareup.picasso.Picasso.Priority.HIGH;
 import static com.squareup.picasso.Picasso.Priority.LOW;
 import static com.squareup.picasso.Picasso.Priority.NORMAL;
@@ -75,6 +86,9 @@ import static org.fest.assertions.api.ANDROID.assertThat;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.fest.assertions.api.Assertions.entry;
 import static org.fest.assertions.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -113,6 +127,30 @@ public class BitmapHunterTest {
     verify(dispatcher).dispatchComplete(hunter);
   }
 
+  @Test public void huntSynchronouslyWithResultDispatchComplete() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    BitmapHunter hunter = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action, bitmap);
+    assertThat(hunter.huntSynchronously()).isSameAs(bitmap);
+    assertThat(hunter.getResult()).isSameAs(bitmap);
+    verify(dispatcher).dispatchComplete(hunter);
+  }
+
+  @Test public void huntSynchronouslyWithIoExceptionDispatchFailedAndThrows() {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    IOException exception = new IOException();
+    BitmapHunter hunter =
+        new TestableBitmapHunter(picasso, dispatcher, cache, stats, action, null, exception);
+    try {
+      hunter.huntSynchronously();
+      fail("Expected the request handler's exception.");
+    } catch (IOException e) {
+      assertThat(e).isSameAs(exception);
+    }
+    assertThat(hunter.getException()).isSameAs(exception);
+    verify(dispatcher).dispatchFailed(hunter);
+    verify(dispatcher, never()).dispatchRetry(hunter);
+  }
+
   @Test public void runWithNoResultDispatchFailed() {
     Action action = mockAction(URI_KEY_1, URI_1);
     BitmapHunter hunter = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action);
@@ -176,6 +214,57 @@ public class BitmapHunterTest {
     assertThat(result).isEqualTo(bitmap);
   }
 
+  @Test public void huntClosesDownloadedResultWhenResultInCache() throws Exception {
+    when(cache.get(URI_KEY_1)).thenReturn(bitmap);
+    Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    TestableBitmapHunter hunter =
+        new TestableBitmapHunter(picasso, dispatcher, cache, stats, action, bitmap);
+    final AtomicBoolean closed = new AtomicBoolean();
+    hunter.downloaded = new RequestHandler.Result(new ForwardingSource(new Buffer()) {
+      @Override public void close() throws IOException {
+        closed.set(true);
+        super.close();
+      }
+    }, NETWORK);
+
+    hunter.hunt();
+    assertThat(closed.get()).isTrue();
+    assertThat(hunter.downloaded).isNull();
+  }
+
+  @Test public void huntRecyclesBitmapLoadedAheadWhenResultInCache() throws Exception {
+    when(cache.get(URI_KEY_1)).thenReturn(bitmap);
+    Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    TestableBitmapHunter hunter =
+        new TestableBitmapHunter(picasso, dispatcher, cache, stats, action, bitmap);
+    Bitmap loaded = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+    hunter.downloaded = new RequestHandler.Result(loaded, DISK);
+
+    assertThat(hunter.hunt()).isSameAs(bitmap);
+    assertThat(loaded.isRecycled()).isTrue();
+    assertThat(hunter.downloaded).isNull();
+  }
+
+  @Test public void huntRecordsLoadTime() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    TestableBitmapHunter hunter =
+        new TestableBitmapHunter(picasso, dispatcher, cache, stats, action, bitmap);
+
+    hunter.hunt();
+    assertThat(hunter.loadNanos).isGreaterThan(0);
+  }
+
+  @Test public void huntDoesNotRecordLoadTimeWhenResultInCache() throws Exception {
+    when(cache.get(URI_KEY_1)).thenReturn(bitmap);
+    Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    TestableBitmapHunter hunter =
+        new TestableBitmapHunter(picasso, dispatcher, cache, stats, action, bitmap);
+    hunter.loadNanos = 1000;
+
+    hunter.hunt();
+    assertThat(hunter.loadNanos).isEqualTo(0);
+  }
+
   @Test public void huntUnrecognizedUri() throws Exception {
     Action action = mockAction(CUSTOM_URI_KEY, CUSTOM_URI);
     BitmapHunter hunter = forRequest(picasso, dispatcher, cache, stats, action);
@@ -194,6 +283,130 @@ public class BitmapHunterTest {
     assertThat(result).isEqualTo(bitmap);
   }
 
+  @Test public void prefetchReadsBodyWithoutDecoding() throws Exception {
+    Buffer body = new Buffer().writeUtf8("Not an image, never decoded.");
+    NetworkRequestHandler requestHandler = mock(NetworkRequestHandler.class);
+    when(requestHandler.canHandleRequest(any(Request.class))).thenReturn(true);
+    when(requestHandler.load(any(Request.class), anyInt()))
+        .thenReturn(new RequestHandler.Result(body, NETWORK));
+    Action action = prefetchAction(URI_KEY_1, URI_1);
+    BitmapHunter hunter =
+        forRequest(mockPicasso(requestHandler), dispatcher, cache, stats, action);
+
+    hunter.run();
+    assertThat(body.size()).isZero();
+    assertThat(hunter.getResult()).isNull();
+    assertThat(hunter.getLoadedFrom()).isEqualTo(NETWORK);
+    verify(dispatcher).dispatchComplete(hunter);
+    verify(stats, never()).dispatchBitmapDecoded(any(Bitmap.class));
+    verify(cache, never()).get(anyString());
+  }
+
+  @Test public void prefetchFromOtherSourceDoesNotLoad() throws Exception {
+    Action action = prefetchAction(CUSTOM_URI_KEY, CUSTOM_URI);
+    RequestHandler requestHandler = spy(new CustomRequestHandler());
+    BitmapHunter hunter =
+        forRequest(mockPicasso(requestHandler), dispatcher, cache, stats, action);
+
+    hunter.run();
+    verify(requestHandler, never()).load(any(Request.class), anyInt());
+    assertThat(hunter.getLoadedFrom()).isEqualTo(DISK);
+    verify(dispatcher).dispatchComplete(hunter);
+  }
+
+  @Test public void prefetchIsNotDownloadedAsynchronously() {
+    Action action = prefetchAction(URI_KEY_1, URI_1);
+    AsyncDownloader downloader = mock(AsyncDownloader.class);
+    BitmapHunter hunter = forRequest(mockPicasso(new NetworkRequestHandler(downloader, stats)),
+        dispatcher, cache, stats, action);
+    assertThat(hunter.canDownloadAsync()).isFalse();
+  }
+
+  @Test public void huntDecodesStraightFromFile() throws Exception {
+    File file = File.createTempFile("picasso", ".1");
+    file.deleteOnExit();
+    final FileInputStream stream = new FileInputStream(file);
+    RequestHandler requestHandler = new RequestHandler() {
+      @Override public boolean canHandleRequest(Request data) {
+        return true;
+      }
+
+      @Override public Result load(Request request, int networkPolicy) {
+        return new Result(stream, DISK);
+      }
+    };
+    Request request = new Request.Builder(CUSTOM_URI).resize(10, 10).build();
+    Action action = mockAction(CUSTOM_URI_KEY, request);
+    BitmapHunter hunter =
+        forRequest(mockPicasso(requestHandler), dispatcher, cache, stats, action);
+
+    assertThat(hunter.hunt()).isNotNull();
+    assertThat(hunter.getLoadedFrom()).isEqualTo(DISK);
+    assertThat(stream.getChannel().isOpen()).isFalse();
+  }
+
+  @Test public void huntReadsExifOrientationFromStream() throws Exception {
+    final Buffer jpeg = TestUtils.makeJpeg(ORIENTATION_ROTATE_90);
+    RequestHandler requestHandler = new RequestHandler() {
+      @Override public boolean canHandleRequest(Request data) {
+        return true;
+      }
+
+      @Override public Result load(Request request, int networkPolicy) {
+        return new Result(jpeg, NETWORK);
+      }
+    };
+    Action action = mockAction(CUSTOM_URI_KEY, CUSTOM_URI);
+    BitmapHunter hunter =
+        forRequest(mockPicasso(requestHandler), dispatcher, cache, stats, action);
+
+    assertThat(hunter.hunt()).isNotNull();
+    assertThat(hunter.exifOrientation).isEqualTo(ORIENTATION_ROTATE_90);
+  }
+
+  @Test public void huntReadsExifOrientationFromFile() throws Exception {
+    File file = File.createTempFile("picasso", ".jpg");
+    file.deleteOnExit();
+    BufferedSink sink = Okio.buffer(Okio.sink(file));
+    sink.writeAll(TestUtils.makeJpegHeader(ORIENTATION_TRANSPOSE, false));
+    sink.close();
+    final FileInputStream stream = new FileInputStream(file);
+    RequestHandler requestHandler = new RequestHandler() {
+      @Override public boolean canHandleRequest(Request data) {
+        return true;
+      }
+
+      @Override public Result load(Request request, int networkPolicy) {
+        return new Result(stream, DISK);
+      }
+    };
+    Action action = mockAction(CUSTOM_URI_KEY, CUSTOM_URI);
+    BitmapHunter hunter =
+        forRequest(mockPicasso(requestHandler), dispatcher, cache, stats, action);
+
+    assertThat(hunter.hunt()).isNotNull();
+    assertThat(hunter.exifOrientation).isEqualTo(ORIENTATION_TRANSPOSE);
+  }
+
+  @Test public void huntPrefersExifOrientationOfRequestHandler() throws Exception {
+    final Buffer jpeg = TestUtils.makeJpeg(ORIENTATION_ROTATE_90);
+    RequestHandler requestHandler = new RequestHandler() {
+      @Override public boolean canHandleRequest(Request data) {
+        return true;
+      }
+
+      @Override public Result load(Request request, int networkPolicy) {
+        return new Result(null, jpeg, DISK, ORIENTATION_FLIP_VERTICAL);
+      }
+    };
+    Action action = mockAction(CUSTOM_URI_KEY, CUSTOM_URI);
+    BitmapHunter hunter =
+        forRequest(mockPicasso(requestHandler), dispatcher, cache, stats, action);
+
+    assertThat(hunter.hunt()).isNotNull();
+    assertThat(hunter.exifOrientation).isEqualTo(ORIENTATION_FLIP_VERTICAL);
+  }
+
   @Test public void attachSingleRequest() {
     Action action1 = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
     BitmapHunter hunter = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action1);
@@ -349,8 +562,8 @@ public class BitmapHunterTest {
     RequestHandler handler = new AssetRequestHandler(context);
     List<RequestHandler> handlers = Collections.singletonList(handler);
     // Must use non-mock constructor because that is where Picasso's list of handlers is created.
-    Picasso picasso = new Picasso(context, dispatcher, cache, null, null, handlers, stats,
-        ARGB_8888, false, false);
+    Picasso picasso = new Picasso(context, dispatcher, cache, Cache.NONE, null, null, handlers,
+        stats, ContentNegotiation.NONE, null, ARGB_8888, false, false);
     BitmapHunter hunter = forRequest(picasso, dispatcher, cache, stats, action);
     assertThat(hunter.requestHandler).isEqualTo(handler);
   }
@@ -1088,6 +1301,175 @@ public class BitmapHunterTest {
     }
   }
 
+  @Test public void canvasTransformationsDrawnWithMatrixTransform() {
+    Request data = new Request.Builder(URI_1).resize(5, 5).build();
+    Bitmap source = Bitmap.createBitmap(10, 10, ARGB_8888);
+    FakeCanvasTransformation first = new FakeCanvasTransformation("first", false);
+    FakeCanvasTransformation second = new FakeCanvasTransformation("second", true);
+    List<CanvasTransformation> fused = Arrays.<CanvasTransformation>asList(first, second);
+
+    Bitmap result = transformResult(data, source, 0, fused);
+
+    assertThat(result).isNotSameAs(source).isNotRecycled();
+    assertThat(source).isRecycled();
+    assertThat(first.colorsTransformed).isEqualTo(1);
+    assertThat(second.colorsTransformed).isEqualTo(1);
+    assertThat(second.shapeWidth).isEqualTo(result.getWidth());
+  }
+
+  @Test public void consecutiveCanvasTransformationsShareOneBitmap() {
+    Bitmap original = Bitmap.createBitmap(10, 10, ARGB_8888);
+    Transformation legacy = new TestTransformation("legacy", Bitmap.createBitmap(8, 8, ARGB_8888));
+    FakeCanvasTransformation first = new FakeCanvasTransformation("first", false);
+    FakeCanvasTransformation second = new FakeCanvasTransformation("second", false);
+    List<Transformation> transformations = Arrays.asList(legacy, first, second);
+
+    Bitmap result = BitmapHunter.applyCustomTransformations(transformations, original);
+
+    assertThat(result).hasWidth(8).hasHeight(8).isNotRecycled();
+    assertThat(first.colorsTransformed).isEqualTo(1);
+    assertThat(second.colorsTransformed).isEqualTo(1);
+  }
+
+  @Test public void secondShapeIsDrawnSeparately() {
+    Bitmap original = Bitmap.createBitmap(10, 10, ARGB_8888);
+    FakeCanvasTransformation first = new FakeCanvasTransformation("first", true);
+    FakeCanvasTransformation second = new FakeCanvasTransformation("second", true);
+    List<CanvasTransformation> transformations = Arrays.<CanvasTransformation>asList(first, second);
+
+    Bitmap result = BitmapHunter.drawFused(original, 0, 0, 10, 10, new Matrix(), transformations);
+
+    assertThat(result).hasWidth(10).hasHeight(10).isNotRecycled();
+    assertThat(original).isRecycled();
+    assertThat(first.colorsTransformed).isEqualTo(1);
+    assertThat(second.colorsTransformed).isEqualTo(1);
+  }
+
+  @Test public void huntFusesLeadingCanvasTransformations() throws Exception {
+    FakeCanvasTransformation canvas = new FakeCanvasTransformation("canvas", true);
+    Request data = new Request.Builder(URI_1).resize(5, 5).transform(canvas).build();
+    Action action = mockAction(URI_KEY_1, data);
+    Bitmap source = Bitmap.createBitmap(10, 10, ARGB_8888);
+    Picasso picasso = new Picasso(context, dispatcher, cache, Cache.NONE, null, null, null,
+        stats, ContentNegotiation.NONE, null, ARGB_8888, false, false);
+    BitmapHunter hunter = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action,
+        source);
+
+    Bitmap result = hunter.hunt();
+
+    assertThat(result).isNotSameAs(source).isNotRecycled();
+    assertThat(source).isRecycled();
+    assertThat(canvas.colorsTransformed).isEqualTo(1);
+  }
+
+  @Test public void huntCachesIntermediateTransformations() throws Exception {
+    LruCache transformationCache = new LruCache(1024 * 1024);
+    Transformation first = new TestTransformation("first", Bitmap.createBitmap(8, 8, ARGB_8888));
+    Transformation second = new TestTransformation("second", Bitmap.createBitmap(6, 6, ARGB_8888));
+    Request data = new Request.Builder(URI_1).resize(10, 10).transform(first).transform(second)
+        .build();
+    Action action = mockAction(Utils.createKey(data), data);
+    Picasso picasso = new Picasso(context, dispatcher, cache, transformationCache, null, null,
+        null, stats, ContentNegotiation.NONE, null, ARGB_8888, false, false);
+    BitmapHunter hunter = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action,
+        Bitmap.createBitmap(10, 10, ARGB_8888));
+
+    Bitmap result = hunter.hunt();
+
+    assertThat(result).hasWidth(6);
+    assertThat(transformationCache.get(CacheKey.create(data, 0))).isNotNull();
+    assertThat(transformationCache.get(CacheKey.create(data, 1))).isNotNull();
+    assertThat(transformationCache.get(CacheKey.create(data))).isNull();
+    verify(stats).dispatchTransformationCacheMiss();
+  }
+
+  @Test public void huntResumesFromLongestCachedTransformation() throws Exception {
+    LruCache transformationCache = new LruCache(1024 * 1024);
+    Transformation first = new Transformation() {
+      @Override public Bitmap transform(Bitmap source) {
+        throw new AssertionError("Cached transformation should not run again.");
+      }
+
+      @Override public String key() {
+        return "first";
+      }
+    };
+    Transformation second = new TestTransformation("second", Bitmap.createBitmap(6, 6, ARGB_8888));
+    Request data = new Request.Builder(URI_1).transform(first).transform(second).build();
+    Bitmap cached = Bitmap.createBitmap(8, 8, ARGB_8888);
+    transformationCache.set(CacheKey.create(data, 1), cached);
+    Action action = mockAction(Utils.createKey(data), data);
+    Picasso picasso = new Picasso(context, dispatcher, cache, transformationCache, null, null,
+        null, stats, ContentNegotiation.NONE, null, ARGB_8888, false, false);
+    BitmapHunter hunter = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action,
+        Bitmap.createBitmap(10, 10, ARGB_8888));
+
+    Bitmap result = hunter.hunt();
+
+    assertThat(result).hasWidth(6);
+    assertThat(cached).isNotRecycled();
+    assertThat(hunter.loadedFrom).isEqualTo(MEMORY);
+    verify(hunter.requestHandler, never()).load(any(Request.class), anyInt());
+    verify(stats).dispatchTransformationCacheHit();
+  }
+
+  @Test public void crashingCanvasTransformationThrows() {
+    CanvasTransformation badTransformation = new FakeCanvasTransformation("test", false) {
+      @Override public void transformColors(ColorMatrix colorMatrix) {
+        throw new NullPointerException("hello");
+      }
+    };
+    List<Transformation> transformations =
+        Collections.<Transformation>singletonList(badTransformation);
+    Bitmap original = Bitmap.createBitmap(10, 10, ARGB_8888);
+    try {
+      BitmapHunter.applyCustomTransformations(transformations, original);
+      fail("Expected exception to be thrown.");
+    } catch (RuntimeException e) {
+      assertThat(e).hasMessage("Transformation " + badTransformation.key() + " crashed with exception.");
+    }
+  }
+
+  private static class FakeCanvasTransformation implements CanvasTransformation {
+    private final String key;
+    private final boolean hasShape;
+    int colorsTransformed;
+    int shapeWidth;
+
+    FakeCanvasTransformation(String key, boolean hasShape) {
+      this.key = key;
+      this.hasShape = hasShape;
+    }
+
+    @Override public void transformColors(ColorMatrix colorMatrix) {
+      colorsTransformed++;
+      colorMatrix.postConcat(new ColorMatrix());
+    }
+
+    @Override public Path getShape(int width, int height) {
+      if (!hasShape) {
+        return null;
+      }
+      shapeWidth = width;
+      Path path = new Path();
+      path.addCircle(width / 2f, height / 2f, width / 2f, Path.Direction.CW);
+      return path;
+    }
+
+    @Override public Bitmap transform(Bitmap source) {
+      throw new AssertionError("Canvas transformations should be fused.");
+    }
+
+    @Override public String key() {
+      return key;
+    }
+  }
+
+  private static Action prefetchAction(String key, Uri uri) {
+    Request request = new Request.Builder(uri).build();
+    return new PrefetchAction(mockPicasso(), request, 0, null, key, null);
+  }
+
   private static class TestableBitmapHunter extends BitmapHunter {
     TestableBitmapHunter(Picasso picasso, Dispatcher dispatcher, Cache cache, Stats stats,
         Action action) {
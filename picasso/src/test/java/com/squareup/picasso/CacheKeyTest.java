@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.view.Gravity;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static com.squareup.picasso.TestUtils.RESOURCE_ID_1;
+import static com.squareup.picasso.TestUtils.STABLE_1;
+import static com.squareup.picasso.TestUtils.URI_1;
+import static com.squareup.picasso.TestUtils.URI_2;
+import static com.squareup.picasso.Utils.createKey;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class CacheKeyTest {
+  @Test public void stringFormMatchesCacheKey() {
+    Transformation t1 = new TestTransformation("foo", null);
+    Transformation t2 = new TestTransformation("bar", null);
+    Request[] requests = {
+        new Request.Builder(URI_1).build(),
+        new Request.Builder(URI_1).stableKey(STABLE_1).build(),
+        new Request.Builder(RESOURCE_ID_1).build(),
+        new Request.Builder(URI_1).rotate(45).build(),
+        new Request.Builder(URI_1).rotate(45, 10, 20).build(),
+        new Request.Builder(URI_1).resize(10, 20).centerCrop(Gravity.TOP).build(),
+        new Request.Builder(URI_1).resize(10, 20).centerInside().build(),
+        new Request.Builder(URI_1).transform(t1).transform(t2).build()
+    };
+    for (Request request : requests) {
+      assertThat(CacheKey.create(request).toString()).isEqualTo(createKey(request));
+    }
+  }
+
+  @Test public void parseIsInverseOfStringForm() {
+    Transformation t1 = new TestTransformation("foo", null);
+    Request[] requests = {
+        new Request.Builder(URI_1).build(),
+        new Request.Builder(RESOURCE_ID_1).build(),
+        new Request.Builder(URI_1).rotate(45.5f).build(),
+        new Request.Builder(URI_1).rotate(45, 10, 20.25f).build(),
+        new Request.Builder(URI_1).resize(10, 20).centerCrop(Gravity.TOP).build(),
+        new Request.Builder(URI_1).resize(10, 0).centerInside().transform(t1).build(),
+        new Request.Builder(URI_1).rotate(90).resize(10, 20).transform(t1).transform(t1).build()
+    };
+    for (Request request : requests) {
+      CacheKey key = CacheKey.create(request);
+      CacheKey parsed = CacheKey.parse(createKey(request));
+      assertThat(parsed).isEqualTo(key);
+      assertThat(parsed.hash()).isEqualTo(key.hash());
+    }
+  }
+
+  @Test public void parseRejectsStringsNoRequestHas() {
+    assertThat(CacheKey.parse("a")).isNull();
+    assertThat(CacheKey.parse("a\nrotation:0.0\n")).isNull();
+    assertThat(CacheKey.parse("a\nresize:10\n")).isNull();
+    assertThat(CacheKey.parse("a\ncenterCrop:x\n")).isNull();
+    assertThat(CacheKey.forString("a")).isEqualTo("a");
+  }
+
+  @Test public void matchingRequestsHaveEqualKeys() {
+    Request request1 = new Request.Builder(URI_1).resize(10, 10).centerCrop()
+        .transform(new TestTransformation("foo", null)).build();
+    Request request2 = new Request.Builder(URI_1).resize(10, 10).centerCrop()
+        .transform(new TestTransformation("foo", null)).build();
+    CacheKey key1 = CacheKey.create(request1);
+    CacheKey key2 = CacheKey.create(request2);
+    assertThat(key1).isEqualTo(key2);
+    assertThat(key1.hash()).isEqualTo(key2.hash());
+    assertThat(key1.hashCode()).isEqualTo(key2.hashCode());
+  }
+
+  @Test public void differentRequestsHaveDifferentKeys() {
+    Transformation t1 = new TestTransformation("foo", null);
+    Transformation t2 = new TestTransformation("bar", null);
+    CacheKey plain = CacheKey.create(new Request.Builder(URI_1).build());
+    assertThat(plain).isNotEqualTo(CacheKey.create(new Request.Builder(URI_2).build()));
+    assertThat(plain).isNotEqualTo(CacheKey.create(new Request.Builder(URI_1).rotate(90).build()));
+    assertThat(plain).isNotEqualTo(
+        CacheKey.create(new Request.Builder(URI_1).resize(10, 10).build()));
+
+    Request request1 = new Request.Builder(URI_1).transform(t1).transform(t2).build();
+    Request request2 = new Request.Builder(URI_1).transform(t2).transform(t1).build();
+    CacheKey order1 = CacheKey.create(request1);
+    CacheKey order2 = CacheKey.create(request2);
+    assertThat(order1).isNotEqualTo(order2);
+    assertThat(order1.hash()).isNotEqualTo(order2.hash());
+  }
+
+  @Test public void partialTransformationKeys() {
+    Transformation t1 = new TestTransformation("foo", null);
+    Transformation t2 = new TestTransformation("bar", null);
+    Request plain = new Request.Builder(URI_1).resize(10, 10).build();
+    Request single = new Request.Builder(URI_1).resize(10, 10).transform(t1).build();
+    Request request = new Request.Builder(URI_1).resize(10, 10).transform(t1).transform(t2).build();
+
+    assertThat(CacheKey.create(request, 0)).isEqualTo(CacheKey.create(plain));
+    assertThat(CacheKey.create(request, 1)).isEqualTo(CacheKey.create(single));
+    assertThat(CacheKey.create(request, 2)).isEqualTo(CacheKey.create(request));
+  }
+
+  @Test public void uriComponent() {
+    Request request = new Request.Builder(URI_1).resize(10, 10).build();
+    assertThat(CacheKey.create(request).uri()).isEqualTo(URI_1.toString());
+    Request stable = new Request.Builder(URI_1).stableKey(STABLE_1).build();
+    assertThat(CacheKey.create(stable).uri()).isEqualTo(STABLE_1);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import java.io.FileNotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static android.provider.ContactsContract.Contacts.CONTENT_LOOKUP_URI;
+import static android.provider.ContactsContract.Contacts.Photo.CONTENT_DIRECTORY;
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class ContactsPhotoRequestHandlerTest {
+  private static final Uri LOOKUP_URI =
+      CONTENT_LOOKUP_URI.buildUpon().appendPath("3570i61").build();
+
+  @Mock Context context;
+  ContentResolver contentResolver;
+  FakeContacts contacts;
+  ContactsPhotoRequestHandler requestHandler;
+
+  @Before public void setUp() throws Exception {
+    initMocks(this);
+    contentResolver = mock(ContentResolver.class);
+    contacts = new FakeContacts();
+    when(contentResolver.query(any(Uri.class), any(String[].class), anyString(),
+        any(String[].class), anyString())).thenAnswer(contacts);
+    when(contentResolver.openAssetFileDescriptor(any(Uri.class), anyString()))
+        .thenThrow(new FileNotFoundException());
+    when(context.getContentResolver()).thenReturn(contentResolver);
+    requestHandler = new ContactsPhotoRequestHandler(context);
+  }
+
+  @Test public void lookupUriIsResolvedOnce() throws Exception {
+    Request request = new Request.Builder(LOOKUP_URI).build();
+    RequestHandler.Result first = requestHandler.load(request, 0);
+    RequestHandler.Result second = requestHandler.load(request, 0);
+
+    assertThat(first.getLoadedFrom()).isEqualTo(DISK);
+    assertThat(second.getLoadedFrom()).isEqualTo(DISK);
+    assertThat(contacts.lookups).isEqualTo(1);
+    assertThat(contacts.photos).isEqualTo(2);
+  }
+
+  @Test public void contactWithoutPhotoIsRemembered() throws Exception {
+    contacts.hasPhoto = false;
+    Request request = new Request.Builder(LOOKUP_URI).build();
+
+    assertThat(requestHandler.load(request, 0)).isNull();
+    assertThat(requestHandler.load(request, 0)).isNull();
+    assertThat(contacts.lookups).isEqualTo(1);
+    assertThat(contacts.photos).isEqualTo(1);
+  }
+
+  @Test public void unknownLookupUriIsRemembered() throws Exception {
+    contacts.contactId = -1;
+    Request request = new Request.Builder(LOOKUP_URI).build();
+
+    assertThat(requestHandler.load(request, 0)).isNull();
+    assertThat(requestHandler.load(request, 0)).isNull();
+    assertThat(contacts.lookups).isEqualTo(1);
+    assertThat(contacts.photos).isEqualTo(0);
+  }
+
+  @Test public void everythingIsForgottenWhenContactsChange() throws Exception {
+    contacts.hasPhoto = false;
+    Request request = new Request.Builder(LOOKUP_URI).build();
+    requestHandler.load(request, 0);
+    ArgumentCaptor<ContentObserver> observer = ArgumentCaptor.forClass(ContentObserver.class);
+    verify(contentResolver).registerContentObserver(any(Uri.class), eq(true), observer.capture());
+
+    observer.getValue().onChange(false);
+    contacts.hasPhoto = true;
+
+    assertThat(requestHandler.load(request, 0)).isNotNull();
+    assertThat(contacts.lookups).isEqualTo(2);
+  }
+
+  @Test public void shutdownStopsObservingContacts() throws Exception {
+    requestHandler.load(new Request.Builder(LOOKUP_URI).build(), 0);
+
+    requestHandler.shutdown();
+
+    verify(contentResolver).unregisterContentObserver(any(ContentObserver.class));
+    assertThat(requestHandler.photoCache.size()).isEqualTo(0);
+  }
+
+  /** Resolves lookup URIs to a single contact and serves its photo, counting the queries. */
+  static final class FakeContacts implements Answer<Cursor> {
+    long contactId = 38;
+    boolean hasPhoto = true;
+    int lookups;
+    int photos;
+
+    @Override public Cursor answer(InvocationOnMock invocation) {
+      Uri uri = (Uri) invocation.getArguments()[0];
+      String[] projection = (String[]) invocation.getArguments()[1];
+      MatrixCursor cursor = new MatrixCursor(projection);
+      if (CONTENT_DIRECTORY.equals(uri.getLastPathSegment())) {
+        photos++;
+        if (hasPhoto) {
+          cursor.addRow(new Object[] {new byte[] {1, 2, 3}});
+        }
+      } else {
+        lookups++;
+        if (contactId != -1) {
+          cursor.addRow(new Object[] {contactId});
+        }
+      }
+      return cursor;
+    }
+  }
+}
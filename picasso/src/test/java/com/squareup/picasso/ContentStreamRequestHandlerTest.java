@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
+import static com.squareup.picasso.TestUtils.CONTENT_1_URL;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class ContentStreamRequestHandlerTest {
+  @Mock Context context;
+  ContentResolver contentResolver;
+  ContentStreamRequestHandler requestHandler;
+
+  @Before public void setUp() {
+    initMocks(this);
+    contentResolver = mock(ContentResolver.class);
+    when(context.getContentResolver()).thenReturn(contentResolver);
+    requestHandler = new ContentStreamRequestHandler(context);
+  }
+
+  @Test public void loadsRegularFileToDecodeStraightFromIt() throws Exception {
+    File file = File.createTempFile("picasso", ".jpg");
+    file.deleteOnExit();
+    when(contentResolver.openFileDescriptor(any(Uri.class), anyString()))
+        .thenReturn(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY));
+
+    Request request = new Request.Builder(CONTENT_1_URL).build();
+    RequestHandler.Result result = requestHandler.load(request, 0);
+
+    assertThat(result.getFile()).isNotNull();
+    assertThat(result.getLoadedFrom()).isEqualTo(DISK);
+  }
+
+  @Test public void loadsStreamWithoutWholeFile() throws Exception {
+    when(contentResolver.openFileDescriptor(any(Uri.class), anyString()))
+        .thenThrow(new FileNotFoundException("Not a whole file"));
+    when(contentResolver.openInputStream(any(Uri.class)))
+        .thenReturn(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+
+    Request request = new Request.Builder(CONTENT_1_URL).build();
+    RequestHandler.Result result = requestHandler.load(request, 0);
+
+    assertThat(result.getFile()).isNull();
+    assertThat(result.getSource()).isNotNull();
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static android.graphics.Bitmap.Config.ALPHA_8;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class CostAwareCacheTest {
+  // The use of ALPHA_8 simplifies the size math in tests since only one byte is used per-pixel.
+  private final Bitmap A = Bitmap.createBitmap(1, 1, ALPHA_8);
+  private final Bitmap B = Bitmap.createBitmap(1, 1, ALPHA_8);
+  private final Bitmap C = Bitmap.createBitmap(1, 1, ALPHA_8);
+  private final Bitmap LARGE = Bitmap.createBitmap(2, 1, ALPHA_8);
+
+  @Test public void evictsCheapestToReload() {
+    CostAwareCache cache = new CostAwareCache(2);
+
+    cache.set(key("a"), A, 100);
+    cache.set(key("b"), B, 1);
+    cache.set(key("c"), C, 50);
+
+    assertThat(cache.get(key("a"))).isSameAs(A);
+    assertThat(cache.get(key("b"))).isNull();
+    assertThat(cache.get(key("c"))).isSameAs(C);
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.evictionCount()).isEqualTo(1);
+  }
+
+  @Test public void evictsLargestForSameCost() {
+    CostAwareCache cache = new CostAwareCache(3);
+
+    cache.set(key("large"), LARGE, 10);
+    cache.set(key("a"), A, 10);
+    cache.set(key("b"), B, 10);
+
+    assertThat(cache.get(key("large"))).isNull();
+    assertThat(cache.get(key("a"))).isSameAs(A);
+    assertThat(cache.get(key("b"))).isSameAs(B);
+  }
+
+  @Test public void keepsFrequentlyUsed() {
+    CostAwareCache cache = new CostAwareCache(2);
+
+    cache.set(key("a"), A, 10);
+    cache.set(key("b"), B, 10);
+    cache.get(key("a"));
+    cache.get(key("a"));
+    cache.set(key("c"), C, 10);
+
+    assertThat(cache.get(key("a"))).isSameAs(A);
+    assertThat(cache.get(key("b"))).isNull();
+  }
+
+  @Test public void evictsLeastRecentlyUsedForSamePriority() {
+    CostAwareCache cache = new CostAwareCache(2);
+
+    cache.set(key("a"), A, 10);
+    cache.set(key("b"), B, 10);
+    cache.set(key("c"), C, 10);
+
+    assertThat(cache.get(key("a"))).isNull();
+    assertThat(cache.get(key("b"))).isSameAs(B);
+    assertThat(cache.get(key("c"))).isSameAs(C);
+  }
+
+  @Test public void expensiveEntriesAgeOut() {
+    CostAwareCache cache = new CostAwareCache(2);
+
+    cache.set(key("a"), A, 100);
+    // Each eviction raises the priority of new entries until they outrank the unused one.
+    for (int i = 0; i < 20; i++) {
+      cache.set(key("b" + i), B, 10);
+    }
+
+    assertThat(cache.get(key("a"))).isNull();
+  }
+
+  @Test public void unknownCostIsAverageCost() {
+    CostAwareCache cache = new CostAwareCache(2);
+
+    cache.set(key("a"), A, 10);
+    cache.set(key("b"), B, 30);
+    cache.set(key("c"), C);
+
+    assertThat(cache.get(key("a"))).isNull();
+    assertThat(cache.get(key("b"))).isSameAs(B);
+    assertThat(cache.get(key("c"))).isSameAs(C);
+  }
+
+  @Test public void replacingKeepsCostAndFrequency() {
+    CostAwareCache cache = new CostAwareCache(2);
+
+    cache.set(key("a"), A, 100);
+    cache.get(key("a"));
+    cache.set(key("a"), C);
+    cache.set(key("b"), B, 150);
+    cache.set(key("c"), C, 150);
+
+    assertThat(cache.get(key("a"))).isSameAs(C);
+    assertThat(cache.get(key("b"))).isNull();
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.putCount()).isEqualTo(4);
+  }
+
+  @Test public void loadTimeOfOriginIsCost() {
+    CostAwareCache cache = new CostAwareCache(2);
+    BitmapHunter hunter = mock(BitmapHunter.class);
+    hunter.loadNanos = 100;
+
+    cache.set(key("a"), A, new KeyedCache.Origin(hunter));
+    cache.set(key("b"), B, 10);
+    cache.set(key("c"), C, 50);
+
+    assertThat(cache.get(key("a"))).isSameAs(A);
+    assertThat(cache.get(key("b"))).isNull();
+  }
+
+  @Test public void clearKeyUriRemovesEntries() {
+    CostAwareCache cache = new CostAwareCache(3);
+
+    cache.set(key("a"), A, 10);
+    cache.set("http://example.com/a\nrotation:90", B);
+    cache.set(key("c"), C, 10);
+    cache.clearKeyUri(uri("a").toString());
+
+    assertThat(cache.get(key("a"))).isNull();
+    assertThat(cache.get("http://example.com/a\nrotation:90")).isNull();
+    assertThat(cache.get(key("c"))).isSameAs(C);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test public void clearRemovesEverything() {
+    CostAwareCache cache = new CostAwareCache(3);
+
+    cache.set(key("a"), A, 10);
+    cache.set(key("b"), B, 10);
+    cache.clear();
+
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.get(key("a"))).isNull();
+    assertThat(cache.get(key("b"))).isNull();
+  }
+
+  @Test public void tooLargeIsNotStored() {
+    CostAwareCache cache = new CostAwareCache(1);
+
+    cache.set(key("large"), LARGE, 10);
+
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.get(key("large"))).isNull();
+  }
+
+  @Test public void invalidMaxSize() {
+    try {
+      new CostAwareCache(0);
+      fail("Zero max size should throw exception.");
+    } catch (IllegalArgumentException ignored) {
+    }
+  }
+
+  /**
+   * Replays a trace of skewed requests for images which are cheap resources, disk cache hits or
+   * slow downloads, and compares the time spent reloading evicted images with that of an LRU.
+   */
+  @Test public void replayedTraceTakesLessTimeToReloadThanLru() {
+    int images = 300;
+    Random random = new Random(2017);
+    Bitmap[] bitmaps = new Bitmap[images];
+    long[] costs = new long[images];
+    int totalSize = 0;
+    for (int i = 0; i < images; i++) {
+      bitmaps[i] = Bitmap.createBitmap(1 + random.nextInt(16), 16, ALPHA_8);
+      totalSize += Utils.getBitmapBytes(bitmaps[i]);
+      long baseMillis = i % 3 == 0 ? 2 : i % 3 == 1 ? 20 : 1500;
+      costs[i] = TimeUnit.MILLISECONDS.toNanos(baseMillis + random.nextInt((int) baseMillis));
+    }
+    int[] trace = new int[20000];
+    for (int i = 0; i < trace.length; i++) {
+      trace[i] = (int) (images * Math.pow(random.nextDouble(), 3));
+    }
+
+    LruCache lru = new LruCache(totalSize / 5);
+    long lruReloadNanos = 0;
+    CostAwareCache costAware = new CostAwareCache(totalSize / 5);
+    long costAwareReloadNanos = 0;
+    for (int image : trace) {
+      CacheKey key = key(String.valueOf(image));
+      if (lru.get(key) == null) {
+        lruReloadNanos += costs[image];
+        lru.set(key, bitmaps[image]);
+      }
+      if (costAware.get(key) == null) {
+        costAwareReloadNanos += costs[image];
+        costAware.set(key, bitmaps[image], costs[image]);
+      }
+    }
+
+    assertThat(costAwareReloadNanos).isLessThan(lruReloadNanos / 2);
+  }
+
+  private static CacheKey key(String name) {
+    return CacheKey.create(new Request.Builder(uri(name)).build());
+  }
+
+  private static Uri uri(String name) {
+    return Uri.parse("http://example.com/" + name);
+  }
+}
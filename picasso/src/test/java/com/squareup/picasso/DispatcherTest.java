@@ -15,21 +15,36 @@
  */
 package com.squareup.picasso;
 
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
+import android.provider.MediaStore;
 import com.squareup.picasso.NetworkRequestHandler.ContentLengthException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.shadows.ShadowLooper;
 
 import static android.content.Context.CONNECTIVITY_SERVICE;
 import static android.content.Intent.ACTION_AIRPLANE_MODE_CHANGED;
@@ -37,8 +52,12 @@ import static android.content.pm.PackageManager.PERMISSION_DENIED;
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 import static android.net.ConnectivityManager.CONNECTIVITY_ACTION;
 import static com.squareup.picasso.Dispatcher.NetworkBroadcastReceiver;
+import static com.squareup.picasso.ConcurrencyLimiter.UNLIMITED;
 import static com.squareup.picasso.Dispatcher.NetworkBroadcastReceiver.EXTRA_AIRPLANE_STATE;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.Picasso.Priority.HIGH;
+import static com.squareup.picasso.Picasso.Priority.LOW;
+import static com.squareup.picasso.Picasso.Priority.NORMAL;
 import static com.squareup.picasso.TestUtils.URI_1;
 import static com.squareup.picasso.TestUtils.URI_2;
 import static com.squareup.picasso.TestUtils.URI_KEY_1;
@@ -51,8 +70,10 @@ import static com.squareup.picasso.TestUtils.mockNetworkInfo;
 import static com.squareup.picasso.TestUtils.mockPicasso;
 import static com.squareup.picasso.TestUtils.mockTarget;
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -61,6 +82,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
+import static org.robolectric.Shadows.shadowOf;
 
 @RunWith(RobolectricGradleTestRunner.class)
 public class DispatcherTest {
@@ -123,6 +145,19 @@ public class DispatcherTest {
     verify(service).submit(any(BitmapHunter.class));
   }
 
+  @Test public void performBatchSubmitQueuesHuntersInPriorityOrder() {
+    Action low = mockAction(URI_KEY_1, URI_1, LOW);
+    Action high = mockAction(URI_KEY_2, URI_2, HIGH);
+    Action joined = mockAction(URI_KEY_1, URI_1, NORMAL);
+    dispatcher.performBatchSubmit(new ArrayList<>(Arrays.asList(low, joined, high)));
+    assertThat(dispatcher.hunterMap).hasSize(2);
+    ArgumentCaptor<BitmapHunter> captor = ArgumentCaptor.forClass(BitmapHunter.class);
+    verify(service, times(2)).submit(captor.capture());
+    assertThat(captor.getAllValues().get(0).getKey()).isEqualTo(URI_KEY_2);
+    assertThat(captor.getAllValues().get(1).getKey()).isEqualTo(URI_KEY_1);
+    assertThat(dispatcher.hunterMap.get(URI_KEY_1).getActions()).containsExactly(low);
+  }
+
   @Test public void performSubmitWithShutdownServiceIgnoresRequest() {
     when(service.isShutdown()).thenReturn(true);
     Action action = mockAction(URI_KEY_1, URI_1);
@@ -240,12 +275,517 @@ public class DispatcherTest {
     verify(hunter).detach(action);
   }
 
+  @Test public void performGetRegistersHunterWithoutQueueing() throws Exception {
+    GetAction action = getAction(URI_KEY_1, URI_1);
+    dispatcher.performGet(action);
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    assertThat(action.awaitHunter()).isSameAs(dispatcher.hunterMap.get(URI_KEY_1));
+    assertThat(action.isJoined()).isFalse();
+    verify(service, never()).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performGetWithExistingRequestAttachesToHunter() throws Exception {
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    GetAction action2 = getAction(URI_KEY_1, URI_1);
+    dispatcher.performSubmit(action1);
+    dispatcher.performGet(action2);
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    assertThat(action2.isJoined()).isTrue();
+    BitmapHunter hunter = dispatcher.hunterMap.get(URI_KEY_1);
+    assertThat(action2.awaitHunter()).isSameAs(hunter);
+    assertThat(hunter.getActions()).containsExactly(action2);
+    verify(service).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performSubmitAttachesToHunterRegisteredByGet() {
+    GetAction action1 = getAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(URI_KEY_1, URI_1);
+    dispatcher.performGet(action1);
+    dispatcher.performSubmit(action2);
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    assertThat(dispatcher.hunterMap.get(URI_KEY_1).getActions()).containsExactly(action2);
+    verify(service, never()).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performGetWithShutdownServiceRegistersNothing() throws Exception {
+    GetAction action = getAction(URI_KEY_1, URI_1);
+    when(service.isShutdown()).thenReturn(true);
+    dispatcher.performGet(action);
+    assertThat(dispatcher.hunterMap).isEmpty();
+    assertThat(action.awaitHunter()).isNull();
+  }
+
+  @Test public void shutdownAnswersGetWhoseMessageWasDropped() throws Exception {
+    GetAction action = getAction(URI_KEY_1, URI_1);
+    shadowOf(dispatcher.dispatcherThread.getLooper()).pause();
+    dispatcher.dispatchGet(action);
+    dispatcher.shutdown();
+    assertThat(action.awaitHunter()).isNull();
+    assertThat(dispatcher.pendingGets).isEmpty();
+  }
+
+  @Test public void shutdownAnswersGetWhichJoinedUnfinishedHunter() throws Exception {
+    dispatcher.performSubmit(mockAction(URI_KEY_1, URI_1));
+    GetAction action = getAction(URI_KEY_1, URI_1);
+    ShadowLooper looper = shadowOf(dispatcher.dispatcherThread.getLooper());
+    looper.pause();
+    dispatcher.dispatchGet(action);
+    looper.runOneTask();
+    assertThat(action.isJoined()).isTrue();
+    dispatcher.shutdown();
+    assertThat(action.awaitResult()).isNull();
+    assertThat(action.isAbandoned()).isTrue();
+  }
+
+  @Test public void performCancelOfInterruptedGetDropsItsHunter() {
+    GetAction action = getAction(URI_KEY_1, URI_1);
+    dispatcher.performGet(action);
+    dispatcher.performCancel(action);
+    assertThat(dispatcher.hunterMap).isEmpty();
+    verify(service, never()).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performCancelOfInterruptedGetRunsHunterForJoinedRequests() {
+    GetAction action1 = getAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(URI_KEY_1, URI_1);
+    dispatcher.performGet(action1);
+    dispatcher.performSubmit(action2);
+    dispatcher.performCancel(action1);
+    BitmapHunter hunter = dispatcher.hunterMap.get(URI_KEY_1);
+    assertThat(hunter.getAction()).isNull();
+    assertThat(hunter.getActions()).containsExactly(action2);
+    verify(service).submit(hunter);
+  }
+
+  @Test public void performCompleteDeliversResultToGetAction() throws Exception {
+    GetAction action = getAction(URI_KEY_1, URI_1);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, bitmap1, false, action);
+    dispatcher.performComplete(hunter);
+    assertThat(action.awaitResult()).isSameAs(bitmap1);
+  }
+
+  @Test public void performErrorDeliversExceptionToGetAction() {
+    GetAction action = getAction(URI_KEY_1, URI_1);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, null, false);
+    when(hunter.getActions()).thenReturn(Arrays.<Action>asList(action));
+    IOException exception = new IOException();
+    when(hunter.getException()).thenReturn(exception);
+    dispatcher.performError(hunter, false);
+    try {
+      action.awaitResult();
+      fail("Expected the hunter's exception.");
+    } catch (IOException e) {
+      assertThat(e).isSameAs(exception);
+    }
+  }
+
+  @Test public void performSubmitOverHostLimitWaitsWithoutThread() {
+    Dispatcher dispatcher =
+        createDispatcher(service, new ConcurrencyLimiter(1, UNLIMITED, UNLIMITED));
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(URI_KEY_2, URI_2);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(action2);
+    assertThat(dispatcher.hunterMap).hasSize(2);
+    assertThat(dispatcher.limiter.waiting).hasSize(1);
+    verify(service).submit(any(BitmapHunter.class));
+
+    dispatcher.performComplete(dispatcher.hunterMap.get(URI_KEY_1));
+    assertThat(dispatcher.limiter.waiting).isEmpty();
+    verify(service, times(2)).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performSubmitOverPrefetchLimitWaits() {
+    Dispatcher dispatcher =
+        createDispatcher(service, new ConcurrencyLimiter(UNLIMITED, UNLIMITED, 1));
+    Uri otherUri = Uri.parse("http://example.org/1.png");
+    dispatcher.performSubmit(prefetchAction(URI_KEY_1, URI_1));
+    dispatcher.performSubmit(prefetchAction(URI_KEY_2, URI_2));
+    dispatcher.performSubmit(mockAction(otherUri.toString(), otherUri));
+    assertThat(dispatcher.limiter.waiting).hasSize(1);
+    verify(service, times(2)).submit(any(BitmapHunter.class));
+
+    dispatcher.performComplete(dispatcher.hunterMap.get(URI_KEY_1));
+    assertThat(dispatcher.limiter.waiting).isEmpty();
+    verify(service, times(3)).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performSubmitBatchesMediaStoreThumbnailsOfSameKind() {
+    Dispatcher dispatcher = createDispatcher(service, true, false,
+        new ConcurrencyLimiter(UNLIMITED, UNLIMITED, UNLIMITED), true);
+    MediaStoreRequestHandler requestHandler = mock(MediaStoreRequestHandler.class);
+    when(requestHandler.canHandleRequest(any(Request.class))).thenReturn(true);
+    dispatcher.performSubmit(thumbnailAction(requestHandler, 1, 100));
+    dispatcher.performSubmit(thumbnailAction(requestHandler, 2, 100));
+    dispatcher.performSubmit(thumbnailAction(requestHandler, 3, 50));
+    dispatcher.performSubmit(thumbnailAction(requestHandler, 4, 1000));
+    assertThat(dispatcher.thumbnailBatch).hasSize(3);
+    verify(service).submit(any(BitmapHunter.class));
+
+    dispatcher.performStartThumbnailBatches();
+
+    assertThat(dispatcher.thumbnailBatch).isEmpty();
+    // The full size image was submitted first, on its own.
+    ArgumentCaptor<Runnable> tasks = ArgumentCaptor.forClass(Runnable.class);
+    verify(service, times(3)).submit(tasks.capture());
+    MediaStoreThumbnailBatch micro = (MediaStoreThumbnailBatch) tasks.getAllValues().get(1);
+    MediaStoreThumbnailBatch mini = (MediaStoreThumbnailBatch) tasks.getAllValues().get(2);
+    assertThat(micro.kind).isEqualTo(MediaStoreRequestHandler.PicassoKind.MICRO);
+    assertThat(micro.hunters).hasSize(1);
+    assertThat(mini.kind).isEqualTo(MediaStoreRequestHandler.PicassoKind.MINI);
+    assertThat(mini.hunters).hasSize(2);
+  }
+
+  @Test public void performCancelRemovesThumbnailFromBatch() {
+    Dispatcher dispatcher = createDispatcher(service, true, false,
+        new ConcurrencyLimiter(UNLIMITED, UNLIMITED, UNLIMITED), true);
+    MediaStoreRequestHandler requestHandler = mock(MediaStoreRequestHandler.class);
+    when(requestHandler.canHandleRequest(any(Request.class))).thenReturn(true);
+    Action action1 = thumbnailAction(requestHandler, 1, 100);
+    Action action2 = thumbnailAction(requestHandler, 2, 100);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(action2);
+
+    dispatcher.performCancel(action1);
+    dispatcher.performStartThumbnailBatches();
+
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    ArgumentCaptor<MediaStoreThumbnailBatch> batch =
+        ArgumentCaptor.forClass(MediaStoreThumbnailBatch.class);
+    verify(service).submit(batch.capture());
+    assertThat(batch.getValue().hunters).containsOnly(dispatcher.hunterMap.get(action2.getKey()));
+  }
+
+  @Test public void performSubmitPrefetchOnMeteredNetworkWaitsForReplay() {
+    when(connectivityManager.isActiveNetworkMetered()).thenReturn(true);
+    Dispatcher dispatcher = createDispatcher();
+    Action action = prefetchAction(URI_KEY_1, URI_1);
+    dispatcher.performSubmit(action);
+    assertThat(dispatcher.hunterMap).isEmpty();
+    assertThat(dispatcher.failedActions.get(action.getTarget())).isSameAs(action);
+    verify(service, never()).submit(any(BitmapHunter.class));
+
+    when(connectivityManager.isActiveNetworkMetered()).thenReturn(false);
+    dispatcher.performNetworkStateChange(mockNetworkInfo(true));
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    verify(service).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performSubmitPrefetchOnMeteredNetworkWithoutPermission() {
+    when(connectivityManager.isActiveNetworkMetered()).thenReturn(true);
+    Dispatcher dispatcher = createDispatcher(false);
+    dispatcher.performSubmit(prefetchAction(URI_KEY_1, URI_1));
+    assertThat(dispatcher.failedActions).isEmpty();
+    verify(service).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performSubmitOnMeteredNetworkOnlyHoldsBackPrefetches() {
+    when(connectivityManager.isActiveNetworkMetered()).thenReturn(true);
+    Dispatcher dispatcher = createDispatcher();
+    dispatcher.performSubmit(mockAction(URI_KEY_1, URI_1));
+    assertThat(dispatcher.failedActions).isEmpty();
+    verify(service).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performSubmitForOtherHostIsNotLimited() {
+    Dispatcher dispatcher =
+        createDispatcher(service, new ConcurrencyLimiter(1, UNLIMITED, UNLIMITED));
+    Uri otherUri = Uri.parse("http://example.org/1.png");
+    dispatcher.performSubmit(mockAction(URI_KEY_1, URI_1));
+    dispatcher.performSubmit(mockAction(otherUri.toString(), otherUri));
+    assertThat(dispatcher.limiter.waiting).isEmpty();
+    verify(service, times(2)).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performSubmitOverRequestHandlerLimitWaits() {
+    Dispatcher dispatcher =
+        createDispatcher(service, new ConcurrencyLimiter(UNLIMITED, 1, UNLIMITED));
+    Uri otherUri = Uri.parse("http://example.org/1.png");
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(otherUri.toString(), otherUri);
+    Action action3 = mockAction(URI_KEY_2, URI_2);
+    Picasso picasso = action1.getPicasso();
+    when(action2.getPicasso()).thenReturn(picasso);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(action2);
+    dispatcher.performSubmit(action3);
+    assertThat(dispatcher.limiter.waiting).hasSize(1);
+    verify(service, times(2)).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performRetryLetsWaitingHunterRunFirst() {
+    Dispatcher dispatcher =
+        createDispatcher(service, new ConcurrencyLimiter(1, UNLIMITED, UNLIMITED));
+    dispatcher.performSubmit(mockAction(URI_KEY_1, URI_1));
+    dispatcher.performSubmit(mockAction(URI_KEY_2, URI_2));
+    BitmapHunter hunter1 = dispatcher.hunterMap.get(URI_KEY_1);
+    BitmapHunter hunter2 = dispatcher.hunterMap.get(URI_KEY_2);
+    hunter1.retryCount = 1;
+    when(hunter1.requestHandler.shouldRetry(anyBoolean(), any(NetworkInfo.class))).thenReturn(true);
+
+    dispatcher.performRetry(hunter1);
+    assertThat(dispatcher.limiter.waiting).containsExactly(hunter1);
+    verify(service).submit(hunter2);
+  }
+
+  @Test public void waitingHunterRunsByPriority() {
+    Dispatcher dispatcher =
+        createDispatcher(service, new ConcurrencyLimiter(1, UNLIMITED, UNLIMITED));
+    Uri uri3 = Uri.parse("http://example.com/3.png");
+    dispatcher.performSubmit(mockAction(URI_KEY_1, URI_1));
+    dispatcher.performSubmit(mockAction(URI_KEY_2, URI_2, LOW));
+    dispatcher.performSubmit(mockAction(uri3.toString(), uri3, HIGH));
+
+    dispatcher.performComplete(dispatcher.hunterMap.get(URI_KEY_1));
+    verify(service).submit(dispatcher.hunterMap.get(uri3.toString()));
+    verify(service, never()).submit(dispatcher.hunterMap.get(URI_KEY_2));
+  }
+
+  @Test public void performCancelRemovesWaitingHunter() {
+    Dispatcher dispatcher =
+        createDispatcher(service, new ConcurrencyLimiter(1, UNLIMITED, UNLIMITED));
+    Action action2 = mockAction(URI_KEY_2, URI_2);
+    dispatcher.performSubmit(mockAction(URI_KEY_1, URI_1));
+    dispatcher.performSubmit(action2);
+    dispatcher.performCancel(action2);
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    assertThat(dispatcher.limiter.waiting).isEmpty();
+  }
+
+  @Test public void performCancelKeepsRunningHunterCounted() {
+    Future future = mock(Future.class);
+    when(future.cancel(false)).thenReturn(true);
+    when(service.submit(any(BitmapHunter.class))).thenReturn(future);
+    Dispatcher dispatcher =
+        createDispatcher(service, new ConcurrencyLimiter(1, UNLIMITED, UNLIMITED));
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(mockAction(URI_KEY_2, URI_2));
+    BitmapHunter hunter1 = dispatcher.hunterMap.get(URI_KEY_1);
+    BitmapHunter hunter2 = dispatcher.hunterMap.get(URI_KEY_2);
+    hunter1.running.set(true);
+
+    dispatcher.performCancel(action1);
+    assertThat(dispatcher.hunterMap).doesNotContainKey(URI_KEY_1);
+    assertThat(dispatcher.limiter.waiting).containsExactly(hunter2);
+
+    // The canceled hunter finishes and hands back its slot.
+    hunter1.running.set(false);
+    dispatcher.performComplete(hunter1);
+    assertThat(dispatcher.limiter.waiting).isEmpty();
+    verify(service).submit(hunter2);
+  }
+
+  @Test public void performCancelReleasesHunterWhichHasNotStarted() throws Exception {
+    Future future = mock(Future.class);
+    when(future.cancel(false)).thenReturn(true);
+    when(service.submit(any(BitmapHunter.class))).thenReturn(future);
+    Dispatcher dispatcher =
+        createDispatcher(service, new ConcurrencyLimiter(1, UNLIMITED, UNLIMITED));
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(mockAction(URI_KEY_2, URI_2));
+    BitmapHunter hunter1 = dispatcher.hunterMap.get(URI_KEY_1);
+    BitmapHunter hunter2 = dispatcher.hunterMap.get(URI_KEY_2);
+
+    dispatcher.performCancel(action1);
+    assertThat(dispatcher.limiter.waiting).isEmpty();
+    verify(service).submit(hunter2);
+
+    // A thread picking up the canceled hunter anyway does nothing.
+    hunter1.run();
+    verify(hunter1.requestHandler, never()).load(any(Request.class), anyInt());
+  }
+
+  @Test public void slowHostDoesNotStarveOtherHosts() throws Exception {
+    final CountDownLatch slowResponses = new CountDownLatch(1);
+    MockWebServer slowServer = new MockWebServer();
+    MockWebServer fastServer = new MockWebServer();
+    slowServer.setDispatcher(new okhttp3.mockwebserver.Dispatcher() {
+      @Override public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        slowResponses.await();
+        return new MockResponse().setBody("Hi");
+      }
+    });
+    fastServer.enqueue(new MockResponse().setBody("Hi"));
+    slowServer.start();
+    fastServer.start();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Dispatcher dispatcher =
+          createDispatcher(executor, new ConcurrencyLimiter(1, UNLIMITED, UNLIMITED));
+      Downloader downloader = new OkHttp3Downloader(new OkHttpClient());
+      Picasso picasso = mockPicasso(new NetworkRequestHandler(downloader, stats));
+      // Both servers are local. Reach them through different names to make them different hosts.
+      String slowHost = slowServer.url("/").host();
+      String fastHost = "127.0.0.1".equals(slowHost) ? "localhost" : "127.0.0.1";
+      Uri slowUri1 = Uri.parse(slowServer.url("/1.png").toString());
+      Uri slowUri2 = Uri.parse(slowServer.url("/2.png").toString());
+      Uri fastUri =
+          Uri.parse(fastServer.url("/1.png").newBuilder().host(fastHost).build().toString());
+      Action[] actions = {
+          mockAction(slowUri1.toString(), slowUri1),
+          mockAction(slowUri2.toString(), slowUri2),
+          mockAction(fastUri.toString(), fastUri)
+      };
+      for (Action action : actions) {
+        when(action.getPicasso()).thenReturn(picasso);
+        dispatcher.performSubmit(action);
+      }
+
+      // Without the limit both threads would be stuck on the slow host.
+      assertThat(slowServer.takeRequest(5, TimeUnit.SECONDS)).isNotNull();
+      assertThat(fastServer.takeRequest(5, TimeUnit.SECONDS)).isNotNull();
+      assertThat(slowServer.getRequestCount()).isEqualTo(1);
+    } finally {
+      slowResponses.countDown();
+      executor.shutdownNow();
+      slowServer.shutdown();
+      fastServer.shutdown();
+    }
+  }
+
+  @Test public void performCompleteWithStaleResultStartsRevalidation() {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    when(action.getNetworkPolicy()).thenReturn(NetworkPolicy.STALE_WHILE_REVALIDATE.index);
+    dispatcher.performSubmit(action);
+    BitmapHunter hunter = dispatcher.hunterMap.get(URI_KEY_1);
+    hunter.result = bitmap1;
+    hunter.loadedFrom = Picasso.LoadedFrom.DISK;
+    dispatcher.performComplete(hunter);
+
+    ArgumentCaptor<BitmapHunter> captor = ArgumentCaptor.forClass(BitmapHunter.class);
+    verify(service, times(2)).submit(captor.capture());
+    BitmapHunter revalidation = captor.getAllValues().get(1);
+    assertThat(revalidation).isNotSameAs(hunter);
+    assertThat(revalidation.revalidation).isTrue();
+    assertThat(revalidation.getAction()).isSameAs(action);
+    assertThat(revalidation.getPriority()).isEqualTo(LOW);
+    assertThat(NetworkPolicy.isRevalidation(revalidation.networkPolicy)).isTrue();
+    assertThat(NetworkPolicy.shouldServeStale(revalidation.networkPolicy)).isFalse();
+    assertThat(MemoryPolicy.shouldReadFromMemoryCache(revalidation.memoryPolicy)).isFalse();
+    assertThat(action.willRevalidate).isTrue();
+    assertThat(dispatcher.hunterMap).isEmpty();
+  }
+
+  @Test public void performCompleteWithNetworkResultDoesNotRevalidate() {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    when(action.getNetworkPolicy()).thenReturn(NetworkPolicy.STALE_WHILE_REVALIDATE.index);
+    dispatcher.performSubmit(action);
+    BitmapHunter hunter = dispatcher.hunterMap.get(URI_KEY_1);
+    hunter.result = bitmap1;
+    hunter.loadedFrom = Picasso.LoadedFrom.NETWORK;
+    dispatcher.performComplete(hunter);
+    verify(service).submit(any(BitmapHunter.class));
+    assertThat(action.willRevalidate).isFalse();
+  }
+
+  @Test public void finishedRevalidationKeepsHunterForSameKey() {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    BitmapHunter revalidation = new BitmapHunter(action.getPicasso(), dispatcher, cache, stats,
+        action, action.getPicasso().getRequestHandlers().get(0));
+    revalidation.revalidate();
+    action.willRevalidate = true;
+    dispatcher.performSubmit(mockAction(URI_KEY_1, URI_1));
+
+    dispatcher.performRetry(revalidation);
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    assertThat(action.willRevalidate).isFalse();
+    verify(service).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performSubmitWithAsyncDownloadsStartsDownload() {
+    Dispatcher dispatcher = createDispatcher(service, true, true);
+    AsyncDownloader asyncDownloader = mock(AsyncDownloader.class);
+    when(asyncDownloader.load(any(okhttp3.Request.class),
+        any(AsyncDownloader.ResponseCallback.class))).thenReturn(mock(okhttp3.Call.class));
+    RequestHandler networkHandler = new NetworkRequestHandler(asyncDownloader, stats);
+    Action action = mockAction(URI_KEY_1, URI_1);
+    Picasso picasso = mockPicasso(networkHandler);
+    when(action.getPicasso()).thenReturn(picasso);
+    dispatcher.performSubmit(action);
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    verify(asyncDownloader).load(any(okhttp3.Request.class),
+        any(AsyncDownloader.ResponseCallback.class));
+    verify(service, never()).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performSubmitWithAsyncDownloadsQueuesOtherHunters() {
+    Dispatcher dispatcher = createDispatcher(service, true, true);
+    Action action = mockAction(URI_KEY_1, URI_1);
+    dispatcher.performSubmit(action);
+    verify(service).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performDownloadedQueuesHunter() {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, null, false, action);
+    dispatcher.hunterMap.put(URI_KEY_1, hunter);
+    dispatcher.performDownloaded(hunter);
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    verify(service).submit(hunter);
+  }
+
+  @Test public void performDownloadedWithoutActionsDropsHunter() {
+    BitmapHunter hunter = mockHunter(URI_KEY_1, null, false);
+    dispatcher.hunterMap.put(URI_KEY_1, hunter);
+    dispatcher.performDownloaded(hunter);
+    assertThat(dispatcher.hunterMap).isEmpty();
+    verify(service, never()).submit(any(BitmapHunter.class));
+    verify(hunter).discardDownloaded();
+  }
+
+  @Test public void performDownloadedOfCanceledHunterDiscardsIt() {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, null, false, action);
+    when(hunter.isCancelled()).thenReturn(true);
+    BitmapHunter other = mockHunter(URI_KEY_1, null, false, action);
+    dispatcher.hunterMap.put(URI_KEY_1, other);
+    dispatcher.performDownloaded(hunter);
+    assertThat(dispatcher.hunterMap.get(URI_KEY_1)).isSameAs(other);
+    verify(service, never()).submit(any(BitmapHunter.class));
+    verify(hunter).discardDownloaded();
+  }
+
   @Test public void performCompleteSetsResultInCache() {
     BitmapHunter hunter = mockHunter(URI_KEY_1, bitmap1, 0, null);
     dispatcher.performComplete(hunter);
     verify(cache).set(hunter.getKey(), hunter.getResult());
   }
 
+  @Test public void performCompleteResultIsFoundByStringKey() {
+    LruCache lruCache = new LruCache(1024);
+    when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(connectivityManager);
+    Dispatcher dispatcher = new Dispatcher(context, service, mainThreadHandler, downloader,
+        lruCache, stats, false, RetryPolicy.DEFAULT,
+        new ConcurrencyLimiter(UNLIMITED, UNLIMITED, UNLIMITED), false, false);
+    Request request = new Request.Builder(URI_1).rotate(90).resize(20, 10).centerCrop().build();
+    String key = Utils.createKey(request);
+    dispatcher.performSubmit(mockAction(key, request));
+    BitmapHunter hunter = dispatcher.hunterMap.get(key);
+    Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+    hunter.result = bitmap;
+    dispatcher.performComplete(hunter);
+    assertThat(lruCache.get(key)).isSameAs(bitmap);
+  }
+
+  @Test public void performCompletePassesOriginToKeyedCache() {
+    KeyedCache keyedCache = mock(KeyedCache.class);
+    when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(connectivityManager);
+    Dispatcher dispatcher = new Dispatcher(context, service, mainThreadHandler, downloader,
+        keyedCache, stats, false, RetryPolicy.DEFAULT,
+        new ConcurrencyLimiter(UNLIMITED, UNLIMITED, UNLIMITED), false, false);
+    Request request = new Request.Builder(URI_1).build();
+    dispatcher.performSubmit(mockAction(URI_KEY_1, request));
+    BitmapHunter hunter = dispatcher.hunterMap.get(URI_KEY_1);
+    hunter.result = bitmap1;
+    dispatcher.performComplete(hunter);
+    ArgumentCaptor<KeyedCache.Origin> origin = ArgumentCaptor.forClass(KeyedCache.Origin.class);
+    verify(keyedCache).set(any(CacheKey.class), any(Bitmap.class), origin.capture());
+    assertThat(origin.getValue().hunter).isSameAs(hunter);
+    verify(keyedCache, never()).set(any(CacheKey.class), any(Bitmap.class));
+  }
+
   @Test public void performCompleteWithNoStoreMemoryPolicy() {
     int memoryPolicy = 0;
     memoryPolicy |= MemoryPolicy.NO_STORE.index;
@@ -454,6 +994,19 @@ public class DispatcherTest {
     verify(hunter, never()).getAction();
   }
 
+  @Test public void performPauseTagDoesNotPauseGetAction() throws Exception {
+    Request request = new Request.Builder(URI_1).build();
+    GetAction action = new GetAction(mockPicasso(), request, 0, 0, "tag", URI_KEY_1);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, bitmap1, false, action);
+    dispatcher.hunterMap.put(URI_KEY_1, hunter);
+    dispatcher.performPauseTag("tag");
+    verify(hunter, never()).detach(action);
+    assertThat(dispatcher.pausedActions).isEmpty();
+    dispatcher.performResumeTag("tag");
+    dispatcher.performComplete(hunter);
+    assertThat(action.awaitResult()).isSameAs(bitmap1);
+  }
+
   @Test public void performPauseTagQueuesNewRequestDoesNotSubmit() {
     dispatcher.performPauseTag("tag");
     Action action = mockAction(URI_KEY_1, URI_1, "tag");
@@ -525,6 +1078,71 @@ public class DispatcherTest {
     assertThat(dispatcher.failedActions).isEmpty();
   }
 
+  @Test public void performNetworkStateChangeReplaysInPriorityOrderAndRamps() {
+    NetworkInfo info = mockNetworkInfo(true);
+    Action low = failedAction("low", LOW);
+    failedAction("normal1", NORMAL);
+    failedAction("high", HIGH);
+    failedAction("normal2", NORMAL);
+    failedAction("normal3", NORMAL);
+    dispatcher.performNetworkStateChange(info);
+    assertThat(dispatcher.failedActions).isEmpty();
+    assertThat(dispatcher.hunterMap).hasSize(2).containsKey("high");
+    assertThat(dispatcher.replayQueue).hasSize(3);
+    assertThat(dispatcher.replayQueue.get(2)).isSameAs(low);
+
+    dispatcher.performReplayNextBatch();
+    assertThat(dispatcher.hunterMap).hasSize(5);
+    assertThat(dispatcher.replayQueue).isEmpty();
+    verify(service, times(5)).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void replayCollapsesActionsForTheSameKey() {
+    NetworkInfo info = mockNetworkInfo(true);
+    failedAction("a", HIGH);
+    failedAction("a", HIGH);
+    failedAction("a", HIGH);
+    failedAction("b", LOW);
+    failedAction("c", LOW);
+    dispatcher.performNetworkStateChange(info);
+    assertThat(dispatcher.hunterMap).hasSize(2).containsKey("a");
+    assertThat(dispatcher.hunterMap.get("a").getActions()).hasSize(2);
+    assertThat(dispatcher.replayQueue).hasSize(1);
+    verify(service, times(2)).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void replayDropsActionsWhoseTargetIsGone() {
+    NetworkInfo info = mockNetworkInfo(true);
+    Action gone = failedAction("gone", HIGH);
+    when(gone.isTargetGone()).thenReturn(true);
+    failedAction("shown", NORMAL);
+    dispatcher.performNetworkStateChange(info);
+    assertThat(dispatcher.hunterMap.keySet()).containsOnly("shown");
+    assertThat(dispatcher.replayQueue).isEmpty();
+  }
+
+  @Test public void replayStopsWhenConnectivityIsLostAgain() {
+    failedAction("a", HIGH);
+    failedAction("b", HIGH);
+    Action c = failedAction("c", LOW);
+    dispatcher.performNetworkStateChange(mockNetworkInfo(true));
+    assertThat(dispatcher.replayQueue).containsExactly(c);
+
+    dispatcher.performNetworkStateChange(mockNetworkInfo(false));
+    assertThat(dispatcher.replayQueue).isEmpty();
+    assertThat(dispatcher.failedActions).hasSize(1);
+    assertThat(dispatcher.failedActions.get(c.getTarget())).isSameAs(c);
+  }
+
+  @Test public void performCancelRemovesActionWaitingForReplay() {
+    failedAction("a", HIGH);
+    failedAction("b", HIGH);
+    Action c = failedAction("c", LOW);
+    dispatcher.performNetworkStateChange(mockNetworkInfo(true));
+    dispatcher.performCancel(c);
+    assertThat(dispatcher.replayQueue).isEmpty();
+  }
+
   @Test public void nullIntentOnReceiveDoesNothing() {
     Dispatcher dispatcher = mock(Dispatcher.class);
     NetworkBroadcastReceiver receiver = new NetworkBroadcastReceiver(dispatcher);
@@ -564,6 +1182,32 @@ public class DispatcherTest {
     verify(dispatcher).dispatchAirplaneModeChange(airplaneOn);
   }
 
+  private static GetAction getAction(String key, Uri uri) {
+    Request request = new Request.Builder(uri).build();
+    return new GetAction(mockPicasso(), request, 0, 0, null, key);
+  }
+
+  private static Action thumbnailAction(RequestHandler requestHandler, long id, int size) {
+    Uri uri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id);
+    Request request = new Request.Builder(uri).resize(size, size).build();
+    Action action = mockAction(uri.toString(), request);
+    Picasso picasso = mockPicasso(requestHandler);
+    when(action.getPicasso()).thenReturn(picasso);
+    return action;
+  }
+
+  private static Action prefetchAction(String key, Uri uri) {
+    Request request = new Request.Builder(uri).build();
+    return new PrefetchAction(mockPicasso(), request, 0, null, key, null);
+  }
+
+  /** Adds a failed action for {@code key} with a target of its own to {@link #dispatcher}. */
+  private Action failedAction(String key, Picasso.Priority priority) {
+    Action action = mockAction(key, URI_1, new Object(), 0, priority, null);
+    dispatcher.failedActions.put(action.getTarget(), action);
+    return action;
+  }
+
   private Dispatcher createDispatcher() {
     return createDispatcher(service);
   }
@@ -577,9 +1221,30 @@ public class DispatcherTest {
   }
 
   private Dispatcher createDispatcher(ExecutorService service, boolean scansNetworkChanges) {
+    return createDispatcher(service, scansNetworkChanges, false);
+  }
+
+  private Dispatcher createDispatcher(ExecutorService service, boolean scansNetworkChanges,
+      boolean asyncDownloads) {
+    return createDispatcher(service, scansNetworkChanges, asyncDownloads,
+        new ConcurrencyLimiter(UNLIMITED, UNLIMITED, UNLIMITED));
+  }
+
+  private Dispatcher createDispatcher(ExecutorService service, ConcurrencyLimiter limiter) {
+    return createDispatcher(service, true, false, limiter);
+  }
+
+  private Dispatcher createDispatcher(ExecutorService service, boolean scansNetworkChanges,
+      boolean asyncDownloads, ConcurrencyLimiter limiter) {
+    return createDispatcher(service, scansNetworkChanges, asyncDownloads, limiter, false);
+  }
+
+  private Dispatcher createDispatcher(ExecutorService service, boolean scansNetworkChanges,
+      boolean asyncDownloads, ConcurrencyLimiter limiter, boolean batchMediaStoreThumbnails) {
     when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(connectivityManager);
     when(context.checkCallingOrSelfPermission(anyString())).thenReturn(
         scansNetworkChanges ? PERMISSION_GRANTED : PERMISSION_DENIED);
-    return new Dispatcher(context, service, mainThreadHandler, downloader, cache, stats);
+    return new Dispatcher(context, service, mainThreadHandler, downloader, cache, stats,
+        asyncDownloads, RetryPolicy.DEFAULT, limiter, false, batchMediaStoreThumbnails);
   }
 }
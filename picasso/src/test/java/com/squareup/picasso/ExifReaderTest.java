@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.io.IOException;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+import okio.Source;
+import org.junit.Test;
+
+import static android.media.ExifInterface.ORIENTATION_NORMAL;
+import static android.media.ExifInterface.ORIENTATION_ROTATE_270;
+import static android.media.ExifInterface.ORIENTATION_ROTATE_90;
+import static android.media.ExifInterface.ORIENTATION_TRANSVERSE;
+import static com.squareup.picasso.TestUtils.makeJpegHeader;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ExifReaderTest {
+  @Test public void readsBigEndianOrientation() throws IOException {
+    assertThat(ExifReader.readOrientation(makeJpegHeader(ORIENTATION_ROTATE_90, true)))
+        .isEqualTo(ORIENTATION_ROTATE_90);
+  }
+
+  @Test public void readsLittleEndianOrientation() throws IOException {
+    assertThat(ExifReader.readOrientation(makeJpegHeader(ORIENTATION_TRANSVERSE, false)))
+        .isEqualTo(ORIENTATION_TRANSVERSE);
+  }
+
+  @Test public void consumesNothing() throws IOException {
+    Buffer jpeg = makeJpegHeader(ORIENTATION_ROTATE_270, true);
+    ByteString bytes = jpeg.snapshot();
+    BufferedSource source = Okio.buffer((Source) new Buffer().write(bytes));
+
+    assertThat(ExifReader.readOrientation(source)).isEqualTo(ORIENTATION_ROTATE_270);
+    assertThat(source.readByteString()).isEqualTo(bytes);
+  }
+
+  @Test public void normalOrientationIsIgnored() throws IOException {
+    assertThat(ExifReader.readOrientation(makeJpegHeader(ORIENTATION_NORMAL, true))).isEqualTo(0);
+  }
+
+  @Test public void invalidOrientationIsIgnored() throws IOException {
+    assertThat(ExifReader.readOrientation(makeJpegHeader(9, true))).isEqualTo(0);
+  }
+
+  @Test public void notJpeg() throws IOException {
+    Buffer png = new Buffer().write(ByteString.decodeHex("89504e470d0a1a0a"));
+    assertThat(ExifReader.readOrientation(png)).isEqualTo(0);
+    assertThat(png.size()).isEqualTo(8);
+  }
+
+  @Test public void noExif() throws IOException {
+    Buffer jpeg = new Buffer()
+        .writeShort(0xFFD8)
+        .writeShort(0xFFDB).writeShort(4).writeShort(0)
+        .writeShort(0xFFDA).writeShort(2);
+    assertThat(ExifReader.readOrientation(jpeg)).isEqualTo(0);
+  }
+
+  @Test public void truncatedExif() throws IOException {
+    Buffer jpeg = makeJpegHeader(ORIENTATION_ROTATE_90, true);
+    Buffer truncated = new Buffer();
+    jpeg.copyTo(truncated, 0, 40);
+    assertThat(ExifReader.readOrientation(truncated)).isEqualTo(0);
+  }
+
+  @Test public void exifAfterHeaderLimitIsIgnored() throws IOException {
+    Buffer jpeg = new Buffer().writeShort(0xFFD8);
+    for (long size = 0; size < ExifReader.MAX_HEADER_SIZE; size += 0xFFFF + 2) {
+      jpeg.writeShort(0xFFE2).writeShort(0xFFFF).write(new byte[0xFFFF - 2]);
+    }
+    Buffer exif = makeJpegHeader(ORIENTATION_ROTATE_90, true);
+    exif.skip(2);
+    jpeg.writeAll(exif);
+    assertThat(ExifReader.readOrientation(jpeg)).isEqualTo(0);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class HostHealthTrackerTest {
+  private final RetryPolicy retryPolicy = new RetryPolicy.Builder()
+      .failureThreshold(3)
+      .coolDown(10, TimeUnit.SECONDS)
+      .build();
+  private final HostHealthTracker tracker = new HostHealthTracker(retryPolicy);
+
+  @Test public void unknownHostIsAvailable() {
+    assertThat(tracker.isAvailable("example.com", 0)).isTrue();
+    assertThat(tracker.snapshot(0)).isEmpty();
+  }
+
+  @Test public void opensAfterConsecutiveFailures() {
+    tracker.recordFailure("example.com", 0);
+    tracker.recordFailure("example.com", 0);
+    assertThat(tracker.isAvailable("example.com", 0)).isTrue();
+    tracker.recordFailure("example.com", 1000);
+    assertThat(tracker.isAvailable("example.com", 1000)).isFalse();
+    assertThat(tracker.isAvailable("example.org", 1000)).isTrue();
+
+    StatsSnapshot.HostHealth health = tracker.snapshot(5000).get("example.com");
+    assertThat(health.failures).isEqualTo(3);
+    assertThat(health.consecutiveFailures).isEqualTo(3);
+    assertThat(health.coolDownRemainingMillis).isEqualTo(6000);
+  }
+
+  @Test public void closesAfterCoolDownAndSuccess() {
+    for (int i = 0; i < 3; i++) {
+      tracker.recordFailure("example.com", 0);
+    }
+    assertThat(tracker.isAvailable("example.com", 10000)).isTrue();
+    tracker.recordSuccess("example.com");
+    tracker.recordFailure("example.com", 10000);
+    assertThat(tracker.isAvailable("example.com", 10000)).isTrue();
+    assertThat(tracker.snapshot(10000).get("example.com").isAvailable()).isTrue();
+  }
+
+  @Test public void failureAfterCoolDownReopens() {
+    for (int i = 0; i < 3; i++) {
+      tracker.recordFailure("example.com", 0);
+    }
+    tracker.recordFailure("example.com", 10000);
+    assertThat(tracker.isAvailable("example.com", 10000)).isFalse();
+    assertThat(tracker.isAvailable("example.com", 20000)).isTrue();
+  }
+
+  @Test public void retryDelayBacksOffExponentiallyUpToMax() {
+    RetryPolicy policy = new RetryPolicy.Builder()
+        .initialDelay(100, TimeUnit.MILLISECONDS)
+        .maxDelay(1, TimeUnit.SECONDS)
+        .multiplier(3)
+        .jitter(0)
+        .build();
+    Random random = new Random(0);
+    assertThat(policy.retryDelayMillis(0, random)).isEqualTo(100);
+    assertThat(policy.retryDelayMillis(1, random)).isEqualTo(300);
+    assertThat(policy.retryDelayMillis(2, random)).isEqualTo(900);
+    assertThat(policy.retryDelayMillis(3, random)).isEqualTo(1000);
+  }
+
+  @Test public void retryDelayIsJittered() {
+    RetryPolicy policy = new RetryPolicy.Builder()
+        .initialDelay(1000, TimeUnit.MILLISECONDS)
+        .jitter(0.5f)
+        .build();
+    Random random = new Random(0);
+    boolean varies = false;
+    long first = policy.retryDelayMillis(0, random);
+    for (int i = 0; i < 100; i++) {
+      long delay = policy.retryDelayMillis(0, random);
+      assertThat(delay).isGreaterThanOrEqualTo(500).isLessThanOrEqualTo(1000);
+      varies |= delay != first;
+    }
+    assertThat(varies).isTrue();
+  }
+
+  @Test public void invalidRetryPolicy() {
+    try {
+      new RetryPolicy.Builder().jitter(2);
+      fail("Jitter above 1 should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new RetryPolicy.Builder().failureThreshold(0);
+      fail("Zero failure threshold should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new RetryPolicy.Builder().maxDelay(1, TimeUnit.MILLISECONDS).build();
+      fail("Max delay shorter than the initial delay should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.squareup.picasso;
 import android.graphics.Bitmap;
 import android.graphics.drawable.AnimationDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.IBinder;
 import android.widget.ImageView;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -82,8 +83,9 @@ public class ImageViewActionTest {
   public void invokesTargetAndCallbackSuccessIfTargetIsNotNull() throws Exception {
     Bitmap bitmap = makeBitmap();
     Picasso picasso =
-        new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE, null, IDENTITY,
-            null, mock(Stats.class), Bitmap.Config.ARGB_8888, false, false);
+        new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE,
+            Cache.NONE, null, IDENTITY, null, mock(Stats.class), ContentNegotiation.NONE, null,
+            Bitmap.Config.ARGB_8888, false, false);
     ImageView target = mockImageViewTarget();
     Callback callback = mockCallback();
     ImageViewAction request =
@@ -161,4 +163,17 @@ public class ImageViewActionTest {
     request.error(new RuntimeException());
     verify(placeholder).stop();
   }
+
+  @Test
+  public void targetIsGoneWhenDetachedOrCollected() throws Exception {
+    ImageView target = mockImageViewTarget();
+    ImageViewAction request =
+        new ImageViewAction(mock(Picasso.class), target, null, 0, 0, 0, null, URI_KEY_1, null,
+            null, false);
+    assertThat(request.isTargetGone()).isTrue();
+    when(target.getWindowToken()).thenReturn(mock(IBinder.class));
+    assertThat(request.isTargetGone()).isFalse();
+    request.target.clear();
+    assertThat(request.isTargetGone()).isTrue();
+  }
 }
@@ -17,6 +17,7 @@
 package com.squareup.picasso;
 
 import android.graphics.Bitmap;
+import android.net.Uri;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -103,7 +104,7 @@ public class LruCacheTest {
   @Test public void cannotPutNullKey() {
     LruCache cache = new LruCache(3);
     try {
-      cache.set(null, A);
+      cache.set((String) null, A);
       fail();
     } catch (NullPointerException expected) {
     }
@@ -128,7 +129,7 @@ public class LruCacheTest {
   @Test public void throwsWithNullKey() {
     LruCache cache = new LruCache(1);
     try {
-      cache.get(null);
+      cache.get((String) null);
       fail("Expected NullPointerException");
     } catch (NullPointerException expected) {
     }
@@ -177,6 +178,31 @@ public class LruCacheTest {
     assertThat(cache.size()).isZero();
   }
 
+  @Test public void cacheKeys() {
+    LruCache cache = new LruCache(3);
+    Request request = new Request.Builder(TestUtils.URI_1).build();
+    cache.set(CacheKey.create(request), A);
+    expectedPutCount++;
+    assertThat(cache.get(CacheKey.create(request))).isEqualTo(A);
+    expectedHitCount++;
+    assertThat(cache.get(CacheKey.create(new Request.Builder(TestUtils.URI_2).build()))).isNull();
+    expectedMissCount++;
+    assertStatistics(cache);
+  }
+
+  @Test public void clearKeyUriMatchesCacheKeys() {
+    LruCache cache = new LruCache(3);
+    CacheKey key1 = CacheKey.create(new Request.Builder(TestUtils.URI_1).build());
+    CacheKey key2 = CacheKey.create(new Request.Builder(TestUtils.URI_1).resize(1, 1).build());
+    CacheKey key3 = CacheKey.create(new Request.Builder(TestUtils.URI_2).build());
+    cache.set(key1, A);
+    cache.set(key2, B);
+    cache.set(key3, C);
+
+    cache.clearKeyUri(TestUtils.URI_1.toString());
+    assertThat(cache.map).hasSize(1).containsKey(key3);
+  }
+
   @Test public void overMaxSizeDoesNotClear() {
     LruCache cache = new LruCache(16);
     Bitmap size4 = Bitmap.createBitmap(2, 2, ALPHA_8);
@@ -217,7 +243,7 @@ public class LruCacheTest {
 
   private void assertSnapshot(LruCache cache, Object... keysAndValues) {
     List<Object> actualKeysAndValues = new ArrayList<>();
-    for (Map.Entry<String, Bitmap> entry : cache.map.entrySet()) {
+    for (Map.Entry<Object, Bitmap> entry : cache.map.entrySet()) {
       actualKeysAndValues.add(entry.getKey());
       actualKeysAndValues.add(entry.getValue());
     }
@@ -225,4 +251,17 @@ public class LruCacheTest {
     // assert using lists because order is important for LRUs
     assertThat(actualKeysAndValues).isEqualTo(Arrays.asList(keysAndValues));
   }
+
+  @Test public void stringAndCacheKeysFindTheSameImage() {
+    LruCache cache = new LruCache(10);
+    Request request = new Request.Builder(Uri.parse("http://example.com/a.png"))
+        .resize(10, 20).centerCrop().build();
+    cache.set(CacheKey.create(request), A);
+    assertThat(cache.get(Utils.createKey(request))).isSameAs(A);
+
+    cache.set(Utils.createKey(request), B);
+    assertThat(cache.get(CacheKey.create(request))).isSameAs(B);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
 }
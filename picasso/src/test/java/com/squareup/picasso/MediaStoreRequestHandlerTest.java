@@ -1,18 +1,28 @@
 package com.squareup.picasso;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import java.util.Arrays;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowBitmap;
 
 import static android.graphics.Bitmap.Config.ARGB_8888;
+import static android.media.ExifInterface.ORIENTATION_ROTATE_90;
+import static android.provider.MediaStore.Images;
 import static com.squareup.picasso.MediaStoreRequestHandler.PicassoKind.FULL;
 import static com.squareup.picasso.MediaStoreRequestHandler.PicassoKind.MICRO;
 import static com.squareup.picasso.MediaStoreRequestHandler.PicassoKind.MINI;
@@ -24,7 +34,11 @@ import static com.squareup.picasso.TestUtils.mockAction;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.robolectric.Shadows.shadowOf;
@@ -59,6 +73,53 @@ public class MediaStoreRequestHandlerTest {
     assertBitmapsEqual(result, bitmap);
   }
 
+  @Test public void gridLoadsMetadataInBatches() throws Exception {
+    ContentResolver contentResolver = mock(ContentResolver.class);
+    FakeMediaStore mediaStore = new FakeMediaStore(200, 90);
+    mediaStore.install(contentResolver);
+    MediaStoreRequestHandler requestHandler = create(contentResolver);
+
+    for (int id = 1; id <= 200; id++) {
+      Request request = new Request.Builder(imageUri(id)).resize(100, 100).build();
+      RequestHandler.Result result = requestHandler.load(request, 0);
+      assertThat(result.getBitmap()).isNotNull();
+      assertThat(result.getExifOrientation()).isEqualTo(ORIENTATION_ROTATE_90);
+    }
+
+    // IDs 1 to 200 fall into four blocks, and neither MIME types nor orientations are queried.
+    assertThat(mediaStore.queries).isEqualTo(4);
+    assertThat(requestHandler.metadataCache.size()).isEqualTo(200);
+    verify(contentResolver, never()).getType(any(Uri.class));
+  }
+
+  @Test public void metadataIsForgottenWhenMediaStoreChanges() throws Exception {
+    ContentResolver contentResolver = mock(ContentResolver.class);
+    FakeMediaStore mediaStore = new FakeMediaStore(10, 0);
+    mediaStore.install(contentResolver);
+    MediaStoreRequestHandler requestHandler = create(contentResolver);
+    Request request = new Request.Builder(imageUri(1)).resize(100, 100).build();
+
+    requestHandler.load(request, 0);
+    ArgumentCaptor<ContentObserver> observer = ArgumentCaptor.forClass(ContentObserver.class);
+    verify(contentResolver).registerContentObserver(any(Uri.class), eq(true), observer.capture());
+    observer.getValue().onChange(false);
+    requestHandler.load(request, 0);
+
+    assertThat(mediaStore.queries).isEqualTo(2);
+  }
+
+  @Test public void shutdownStopsObservingMediaStore() throws Exception {
+    ContentResolver contentResolver = mock(ContentResolver.class);
+    new FakeMediaStore(10, 0).install(contentResolver);
+    MediaStoreRequestHandler requestHandler = create(contentResolver);
+    requestHandler.load(new Request.Builder(imageUri(1)).resize(100, 100).build(), 0);
+
+    requestHandler.shutdown();
+
+    verify(contentResolver).unregisterContentObserver(any(ContentObserver.class));
+    assertThat(requestHandler.metadataCache.size()).isEqualTo(0);
+  }
+
   @Test public void getPicassoKindMicro() throws Exception {
     assertThat(getPicassoKind(96, 96)).isEqualTo(MICRO);
     assertThat(getPicassoKind(95, 95)).isEqualTo(MICRO);
@@ -88,6 +149,52 @@ public class MediaStoreRequestHandlerTest {
     return new MediaStoreRequestHandler(context);
   }
 
+  static Uri imageUri(long id) {
+    return ContentUris.withAppendedId(Images.Media.EXTERNAL_CONTENT_URI, id);
+  }
+
+  /**
+   * Serves the metadata of {@code count} images and the files of their thumbnails, counting the
+   * queries for them.
+   */
+  static final class FakeMediaStore implements Answer<Cursor> {
+    final int count;
+    final int orientation;
+    int queries;
+
+    FakeMediaStore(int count, int orientation) {
+      this.count = count;
+      this.orientation = orientation;
+    }
+
+    void install(ContentResolver contentResolver) {
+      when(contentResolver.query(any(Uri.class), any(String[].class), anyString(),
+          any(String[].class), anyString())).thenAnswer(this);
+    }
+
+    @Override public Cursor answer(InvocationOnMock invocation) {
+      queries++;
+      String[] projection = (String[]) invocation.getArguments()[1];
+      String[] selectionArgs = (String[]) invocation.getArguments()[3];
+      if (Images.Thumbnails.EXTERNAL_CONTENT_URI.equals(invocation.getArguments()[0])) {
+        // The kind, followed by the image IDs.
+        MatrixCursor cursor = new MatrixCursor(projection);
+        for (int i = 1; i < selectionArgs.length; i++) {
+          cursor.addRow(new Object[] {selectionArgs[i], "/thumbnails/" + selectionArgs[i]});
+        }
+        return cursor;
+      }
+      long start = Math.max(1, Long.parseLong(selectionArgs[0]));
+      long end = Math.min(count + 1, Long.parseLong(selectionArgs[1]));
+      MatrixCursor cursor = new MatrixCursor(projection);
+      for (long id = start; id < end; id++) {
+        Object[] row = new Object[] {id, "image/jpeg", 640, 480, orientation};
+        cursor.addRow(Arrays.copyOf(row, projection.length));
+      }
+      return cursor;
+    }
+  }
+
   private static void assertBitmapsEqual(Bitmap a, Bitmap b) {
     ShadowBitmap shadowA = shadowOf(a);
     ShadowBitmap shadowB = shadowOf(b);
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static com.squareup.picasso.BitmapHunter.forRequest;
+import static com.squareup.picasso.MediaStoreRequestHandler.PicassoKind.MINI;
+import static com.squareup.picasso.MediaStoreRequestHandlerTest.FakeMediaStore;
+import static com.squareup.picasso.MediaStoreRequestHandlerTest.imageUri;
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
+import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.TestUtils.mockAction;
+import static com.squareup.picasso.TestUtils.mockPicasso;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class MediaStoreThumbnailBatchTest {
+  @Mock Context context;
+  @Mock Cache cache;
+  @Mock Stats stats;
+  @Mock Dispatcher dispatcher;
+  FakeMediaStore mediaStore;
+  MediaStoreRequestHandler requestHandler;
+
+  @Before public void setUp() {
+    initMocks(this);
+    ContentResolver contentResolver = mock(ContentResolver.class);
+    mediaStore = new FakeMediaStore(10, 0);
+    mediaStore.install(contentResolver);
+    when(context.getContentResolver()).thenReturn(contentResolver);
+    requestHandler = new MediaStoreRequestHandler(context);
+  }
+
+  @Test public void decodesThumbnailFilesFoundWithOneQuery() {
+    List<BitmapHunter> hunters = hunters(1, 2, 3);
+    new MediaStoreThumbnailBatch(MINI, hunters).run();
+
+    // One for the metadata of the images and one for the files of their thumbnails.
+    assertThat(mediaStore.queries).isEqualTo(2);
+    for (int i = 0; i < hunters.size(); i++) {
+      BitmapHunter hunter = hunters.get(i);
+      verify(dispatcher).dispatchComplete(hunter);
+      assertThat(hunter.getLoadedFrom()).isEqualTo(DISK);
+      assertThat(shadowOf(hunter.getResult()).getDescription())
+          .contains("/thumbnails/" + (i + 1));
+    }
+  }
+
+  @Test public void skipsCanceledHunters() {
+    List<BitmapHunter> hunters = hunters(1, 2);
+    BitmapHunter canceled = hunters.get(0);
+    canceled.future.cancel(false);
+
+    new MediaStoreThumbnailBatch(MINI, hunters).run();
+
+    verify(dispatcher, never()).dispatchComplete(canceled);
+    verify(dispatcher).dispatchComplete(hunters.get(1));
+    assertThat(canceled.getResult()).isNull();
+  }
+
+  @Test public void doesNotLoadThumbnailsInMemoryCache() {
+    requestHandler = spy(requestHandler);
+    List<BitmapHunter> hunters = hunters(1, 2);
+    BitmapHunter cached = hunters.get(0);
+    Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+    when(cache.get(cached.getKey())).thenReturn(bitmap);
+
+    new MediaStoreThumbnailBatch(MINI, hunters).run();
+
+    verify(requestHandler, never()).loadThumbnailFile(eq(cached.getData()), eq(MINI),
+        anyString(), any(byte[].class));
+    verify(cache, times(1)).get(cached.getKey());
+    assertThat(cached.getResult()).isSameAs(bitmap);
+    assertThat(cached.getLoadedFrom()).isEqualTo(MEMORY);
+    assertThat(hunters.get(1).getLoadedFrom()).isEqualTo(DISK);
+  }
+
+  private List<BitmapHunter> hunters(long... ids) {
+    List<BitmapHunter> hunters = new ArrayList<>(ids.length);
+    for (long id : ids) {
+      Request request = new Request.Builder(imageUri(id)).resize(100, 100).build();
+      Action action = mockAction(request.uri.toString(), request);
+      BitmapHunter hunter =
+          forRequest(mockPicasso(requestHandler), dispatcher, cache, stats, action);
+      MediaStoreThumbnailBatch.prepare(hunter);
+      hunters.add(hunter);
+    }
+    return hunters;
+  }
+}
@@ -16,18 +16,27 @@
 package com.squareup.picasso;
 
 import android.net.NetworkInfo;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
 import okhttp3.CacheControl;
+import okhttp3.Call;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okio.Buffer;
+import okio.BufferedSink;
 import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -36,6 +45,9 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.robolectric.RobolectricGradleTestRunner;
 
+import static com.squareup.picasso.NetworkRequestHandler.MAX_ASYNC_BUFFER_SIZE;
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
+import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
 import static com.squareup.picasso.TestUtils.URI_1;
 import static com.squareup.picasso.TestUtils.URI_KEY_1;
 import static com.squareup.picasso.TestUtils.mockNetworkInfo;
@@ -44,6 +56,7 @@ import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -66,11 +79,30 @@ public class NetworkRequestHandlerTest {
     @Override public void shutdown() {
     }
   };
+  private final AsyncDownloader asyncDownloader = new AsyncDownloader() {
+    @NonNull @Override public Response load(@NonNull Request request) throws IOException {
+      return downloader.load(request);
+    }
+
+    @NonNull @Override public Call load(@NonNull Request request,
+        @NonNull ResponseCallback callback) {
+      try {
+        callback.onResponse(downloader.load(request));
+      } catch (IOException e) {
+        callback.onFailure(e);
+      }
+      return call;
+    }
+
+    @Override public void shutdown() {
+    }
+  };
 
   @Mock Picasso picasso;
   @Mock Cache cache;
   @Mock Stats stats;
   @Mock Dispatcher dispatcher;
+  @Mock Call call;
   @Captor ArgumentCaptor<okhttp3.Request> requestCaptor;
 
   private NetworkRequestHandler networkHandler;
@@ -165,6 +197,562 @@ public class NetworkRequestHandlerTest {
     verifyZeroInteractions(stats);
   }
 
+  @Test public void loadAsyncReadsBodyBeforeCallingBack() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    NetworkRequestHandler asyncHandler = new NetworkRequestHandler(asyncDownloader, stats);
+    assertThat(asyncHandler.supportsAsyncLoad()).isTrue();
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    RecordingLoadCallback callback = new RecordingLoadCallback();
+    asyncHandler.loadAsync(action.getRequest(), 0, callback);
+    RequestHandler.Result result = (RequestHandler.Result) callback.results.takeFirst();
+    assertThat(result.getLoadedFrom()).isEqualTo(NETWORK);
+    assertThat(result.getSource()).isInstanceOf(Buffer.class);
+    assertThat(((Buffer) result.getSource()).size()).isEqualTo(10);
+    verify(stats).dispatchDownloadFinished(10);
+  }
+
+  @Test public void loadAsyncWithUnsuccessfulResponseFails() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])).newBuilder()
+        .code(500)
+        .build());
+    NetworkRequestHandler asyncHandler = new NetworkRequestHandler(asyncDownloader, stats);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    RecordingLoadCallback callback = new RecordingLoadCallback();
+    asyncHandler.loadAsync(action.getRequest(), 0, callback);
+    Object result = callback.results.takeFirst();
+    assertThat(result).isInstanceOf(NetworkRequestHandler.ResponseException.class);
+    assertThat(((NetworkRequestHandler.ResponseException) result).code).isEqualTo(500);
+  }
+
+  @Test public void loadAsyncStreamsBodyAnnouncedLargerThanBuffer() throws Exception {
+    Buffer body = new Buffer().write(new byte[(int) MAX_ASYNC_BUFFER_SIZE + 1]);
+    responses.add(responseOf(ResponseBody.create(null, body.size(), body)));
+    NetworkRequestHandler asyncHandler = new NetworkRequestHandler(asyncDownloader, stats);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    RecordingLoadCallback callback = new RecordingLoadCallback();
+    asyncHandler.loadAsync(action.getRequest(), 0, callback);
+    RequestHandler.Result result = (RequestHandler.Result) callback.results.takeFirst();
+    assertThat(body.size()).isEqualTo(MAX_ASYNC_BUFFER_SIZE + 1);
+    assertThat(Okio.buffer(result.getSource()).readByteArray()).hasSize(
+        (int) MAX_ASYNC_BUFFER_SIZE + 1);
+  }
+
+  @Test public void loadAsyncStreamsRestOfBodyLargerThanBuffer() throws Exception {
+    Buffer body = new Buffer().write(new byte[(int) MAX_ASYNC_BUFFER_SIZE * 2]);
+    responses.add(responseOf(ResponseBody.create(null, -1, body)));
+    NetworkRequestHandler asyncHandler = new NetworkRequestHandler(asyncDownloader, stats);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    RecordingLoadCallback callback = new RecordingLoadCallback();
+    asyncHandler.loadAsync(action.getRequest(), 0, callback);
+    RequestHandler.Result result = (RequestHandler.Result) callback.results.takeFirst();
+    assertThat(result.getSource()).isNotInstanceOf(Buffer.class);
+    assertThat(body.size()).isLessThan(MAX_ASYNC_BUFFER_SIZE);
+    assertThat(Okio.buffer(result.getSource()).readByteArray()).hasSize(
+        (int) MAX_ASYNC_BUFFER_SIZE * 2);
+  }
+
+  @Test public void canceledLoadAsyncCancelsCallAndDropsResponse() throws Exception {
+    final BlockingDeque<AsyncDownloader.ResponseCallback> pending = new LinkedBlockingDeque<>();
+    NetworkRequestHandler asyncHandler = new NetworkRequestHandler(new AsyncDownloader() {
+      @NonNull @Override public Response load(@NonNull Request request) throws IOException {
+        throw new AssertionError();
+      }
+
+      @NonNull @Override public Call load(@NonNull Request request,
+          @NonNull ResponseCallback callback) {
+        pending.add(callback);
+        return call;
+      }
+
+      @Override public void shutdown() {
+      }
+    }, stats);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    RecordingLoadCallback callback = new RecordingLoadCallback();
+    NetworkRequestHandler.AsyncLoad load = asyncHandler.loadAsync(action.getRequest(), 0, callback);
+    load.cancel();
+    verify(call).cancel();
+
+    final AtomicBoolean closed = new AtomicBoolean();
+    Source source = new ForwardingSource(new Buffer().write(new byte[10])) {
+      @Override public void close() throws IOException {
+        closed.set(true);
+        super.close();
+      }
+    };
+    pending.takeFirst().onResponse(
+        responseOf(ResponseBody.create(null, 10, Okio.buffer(source))));
+    assertThat(callback.results).isEmpty();
+    assertThat(closed.get()).isTrue();
+  }
+
+  @Test public void blockingDownloaderDoesNotSupportAsyncLoad() {
+    assertThat(networkHandler.supportsAsyncLoad()).isFalse();
+  }
+
+  @Test public void downloadAsyncHandsResultToHunt() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    NetworkRequestHandler asyncHandler = new NetworkRequestHandler(asyncDownloader, stats);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    BitmapHunter hunter = new BitmapHunter(picasso, dispatcher, cache, stats, action, asyncHandler);
+    assertThat(hunter.canDownloadAsync()).isTrue();
+    hunter.downloadAsync();
+    verify(dispatcher).dispatchDownloaded(hunter);
+    assertThat(hunter.downloaded).isNotNull();
+
+    hunter.hunt();
+    assertThat(requests).hasSize(1);
+    assertThat(hunter.downloaded).isNull();
+  }
+
+  @Test public void downloadAsyncFailureDispatchesRetry() throws Exception {
+    final IOException exception = new IOException();
+    AsyncDownloader failing = new AsyncDownloader() {
+      @NonNull @Override public Response load(@NonNull Request request) throws IOException {
+        throw exception;
+      }
+
+      @NonNull @Override public Call load(@NonNull Request request,
+          @NonNull ResponseCallback callback) {
+        callback.onFailure(exception);
+        return call;
+      }
+
+      @Override public void shutdown() {
+      }
+    };
+    NetworkRequestHandler asyncHandler = new NetworkRequestHandler(failing, stats);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    BitmapHunter hunter = new BitmapHunter(picasso, dispatcher, cache, stats, action, asyncHandler);
+    hunter.downloadAsync();
+    verify(dispatcher).dispatchRetry(hunter);
+    assertThat(hunter.getException()).isSameAs(exception);
+  }
+
+  @Test public void canceledDownloadAsyncIsNotHandedBack() throws Exception {
+    final BlockingDeque<AsyncDownloader.ResponseCallback> pending = new LinkedBlockingDeque<>();
+    NetworkRequestHandler asyncHandler = new NetworkRequestHandler(new AsyncDownloader() {
+      @NonNull @Override public Response load(@NonNull Request request) throws IOException {
+        throw new AssertionError();
+      }
+
+      @NonNull @Override public Call load(@NonNull Request request,
+          @NonNull ResponseCallback callback) {
+        pending.add(callback);
+        return call;
+      }
+
+      @Override public void shutdown() {
+      }
+    }, stats);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    BitmapHunter hunter = new BitmapHunter(picasso, dispatcher, cache, stats, action, asyncHandler);
+    hunter.downloadAsync();
+    assertThat(hunter.cancel()).isFalse();
+
+    hunter.detach(action);
+    assertThat(hunter.cancel()).isTrue();
+    assertThat(hunter.isCancelled()).isTrue();
+    verify(call).cancel();
+
+    pending.takeFirst().onFailure(new IOException("Canceled"));
+    verifyZeroInteractions(dispatcher);
+  }
+
+  @Test public void failedBodyIsResumedWithRangeRequest() throws Exception {
+    responses.add(responseOf(failingBody("01234", 10)).newBuilder()
+        .header("ETag", "\"v1\"")
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    RequestHandler.Result result = networkHandler.load(action.getRequest(), 0);
+    BufferedSource source = Okio.buffer(result.getSource());
+    assertThat(source.readUtf8(5)).isEqualTo("01234");
+    try {
+      source.readUtf8(5);
+      fail();
+    } catch (IOException expected) {
+    }
+    assertThat(requests.takeFirst().header("Range")).isNull();
+
+    responses.add(responseOf(ResponseBody.create(null, "56789")).newBuilder()
+        .code(206)
+        .header("Content-Range", "bytes 5-9/10")
+        .build());
+    result = networkHandler.load(action.getRequest(), 0);
+    Request request = requests.takeFirst();
+    assertThat(request.header("Range")).isEqualTo("bytes=5-");
+    assertThat(request.header("If-Range")).isEqualTo("\"v1\"");
+    assertThat(Okio.buffer(result.getSource()).readUtf8()).isEqualTo("0123456789");
+    assertThat(networkHandler.partialDownloads.size()).isZero();
+  }
+
+  @Test public void fullResponseToRangeRequestReplacesPartialBody() throws Exception {
+    responses.add(responseOf(failingBody("01234", 10)).newBuilder()
+        .header("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT")
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    readUntilFailure(networkHandler.load(action.getRequest(), 0));
+
+    responses.add(responseOf(ResponseBody.create(null, "abcdefghij")));
+    RequestHandler.Result result = networkHandler.load(action.getRequest(), 0);
+    requests.takeFirst();
+    assertThat(requests.takeFirst().header("If-Range"))
+        .isEqualTo("Wed, 21 Oct 2015 07:28:00 GMT");
+    assertThat(Okio.buffer(result.getSource()).readUtf8()).isEqualTo("abcdefghij");
+  }
+
+  @Test public void unsatisfiableRangeDownloadsEverything() throws Exception {
+    responses.add(responseOf(failingBody("01234", 10)).newBuilder()
+        .header("ETag", "\"v1\"")
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    readUntilFailure(networkHandler.load(action.getRequest(), 0));
+
+    responses.add(responseOf(ResponseBody.create(null, "")).newBuilder().code(416).build());
+    responses.add(responseOf(ResponseBody.create(null, "0123456789")));
+    RequestHandler.Result result = networkHandler.load(action.getRequest(), 0);
+    assertThat(Okio.buffer(result.getSource()).readUtf8()).isEqualTo("0123456789");
+    requests.takeFirst();
+    assertThat(requests.takeFirst().header("Range")).isEqualTo("bytes=5-");
+    assertThat(requests.takeFirst().header("Range")).isNull();
+  }
+
+  @Test public void bodyWithWeakValidatorIsNotResumed() throws Exception {
+    responses.add(responseOf(failingBody("01234", 10)).newBuilder()
+        .header("ETag", "W/\"v1\"")
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    readUntilFailure(networkHandler.load(action.getRequest(), 0));
+    assertThat(networkHandler.partialDownloads.size()).isZero();
+  }
+
+  @Test public void bodyOfUnknownLengthIsNotResumed() throws Exception {
+    responses.add(responseOf(failingBody("01234", -1)).newBuilder()
+        .header("ETag", "\"v1\"")
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    readUntilFailure(networkHandler.load(action.getRequest(), 0));
+    assertThat(networkHandler.partialDownloads.size()).isZero();
+  }
+
+  @Test public void completeBodyIsNotKept() throws Exception {
+    responses.add(responseOf(failingBody("0123456789", 10)).newBuilder()
+        .header("ETag", "\"v1\"")
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    BufferedSource source = Okio.buffer(networkHandler.load(action.getRequest(), 0).getSource());
+    assertThat(source.readUtf8(10)).isEqualTo("0123456789");
+    try {
+      source.readByte();
+      fail();
+    } catch (IOException expected) {
+    }
+    assertThat(networkHandler.partialDownloads.size()).isZero();
+  }
+
+  @Test public void retryCountComesFromRetryPolicy() {
+    RetryPolicy retryPolicy = new RetryPolicy.Builder().maxRetries(5).build();
+    NetworkRequestHandler handler =
+        new NetworkRequestHandler(downloader, stats, new HostHealthTracker(retryPolicy));
+    assertThat(handler.getRetryCount()).isEqualTo(5);
+  }
+
+  @Test public void failingHostIsOnlyReadFromDiskCache() throws Exception {
+    RetryPolicy retryPolicy = new RetryPolicy.Builder().failureThreshold(2).build();
+    HostHealthTracker hostHealth = new HostHealthTracker(retryPolicy);
+    NetworkRequestHandler handler = new NetworkRequestHandler(downloader, stats, hostHealth);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    for (int i = 0; i < 2; i++) {
+      responses.add(responseOf(ResponseBody.create(null, "")).newBuilder().code(503).build());
+      try {
+        handler.load(action.getRequest(), 0);
+        fail();
+      } catch (NetworkRequestHandler.ResponseException expected) {
+      }
+      assertThat(requests.takeFirst().cacheControl().toString()).isEmpty();
+    }
+
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    handler.load(action.getRequest(), 0);
+    assertThat(requests.takeFirst().cacheControl().toString())
+        .isEqualTo(CacheControl.FORCE_CACHE.toString());
+    StatsSnapshot.HostHealth health =
+        hostHealth.snapshot(SystemClock.elapsedRealtime()).get(URI_1.getHost());
+    assertThat(health.failures).isEqualTo(2);
+    assertThat(health.isAvailable()).isFalse();
+  }
+
+  @Test public void successfulResponseResetsHostFailures() throws Exception {
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    responses.add(responseOf(ResponseBody.create(null, "")).newBuilder().code(500).build());
+    try {
+      networkHandler.load(action.getRequest(), 0);
+      fail();
+    } catch (NetworkRequestHandler.ResponseException expected) {
+    }
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    networkHandler.load(action.getRequest(), 0);
+
+    StatsSnapshot.HostHealth health =
+        networkHandler.hostHealth.snapshot(SystemClock.elapsedRealtime()).get(URI_1.getHost());
+    assertThat(health.successes).isEqualTo(1);
+    assertThat(health.failures).isEqualTo(1);
+    assertThat(health.consecutiveFailures).isZero();
+  }
+
+  @Test public void loadAsyncFailureCountsAgainstHost() throws Exception {
+    NetworkRequestHandler handler = new NetworkRequestHandler(new AsyncDownloader() {
+      @NonNull @Override public Response load(@NonNull Request request) throws IOException {
+        throw new AssertionError();
+      }
+
+      @NonNull @Override public Call load(@NonNull Request request,
+          @NonNull ResponseCallback callback) {
+        callback.onFailure(new IOException("Connection refused"));
+        return call;
+      }
+
+      @Override public void shutdown() {
+      }
+    }, stats);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    handler.loadAsync(action.getRequest(), 0, new RecordingLoadCallback());
+
+    StatsSnapshot.HostHealth health =
+        handler.hostHealth.snapshot(SystemClock.elapsedRealtime()).get(URI_1.getHost());
+    assertThat(health.consecutiveFailures).isEqualTo(1);
+  }
+
+  @Test public void offlineOnlyLoadDoesNotCountAgainstHost() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, "")).newBuilder().code(504).build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    try {
+      networkHandler.load(action.getRequest(), NetworkPolicy.OFFLINE.index);
+      fail();
+    } catch (NetworkRequestHandler.ResponseException expected) {
+    }
+    assertThat(networkHandler.hostHealth.snapshot(SystemClock.elapsedRealtime())).isEmpty();
+  }
+
+  @Test public void staleWhileRevalidateServesDiskCacheFirst() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])).newBuilder()
+        .cacheResponse(headersOf(200, null))
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    RequestHandler.Result result =
+        networkHandler.load(action.getRequest(), NetworkPolicy.STALE_WHILE_REVALIDATE.index);
+    assertThat(result.getLoadedFrom()).isEqualTo(DISK);
+    assertThat(requests.takeFirst().cacheControl().toString())
+        .isEqualTo(CacheControl.FORCE_CACHE.toString());
+    assertThat(requests).isEmpty();
+  }
+
+  @Test public void staleWhileRevalidateWithoutDiskCacheLoadsFromNetwork() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, "")).newBuilder().code(504).build());
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    RequestHandler.Result result =
+        networkHandler.load(action.getRequest(), NetworkPolicy.STALE_WHILE_REVALIDATE.index);
+    assertThat(result.getLoadedFrom()).isEqualTo(NETWORK);
+    assertThat(requests.takeFirst().cacheControl().toString())
+        .isEqualTo(CacheControl.FORCE_CACHE.toString());
+    assertThat(requests.takeFirst().cacheControl().onlyIfCached()).isFalse();
+  }
+
+  @Test public void revalidationWithNotModifiedResponseHasNoResult() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])).newBuilder()
+        .cacheResponse(headersOf(200, null))
+        .networkResponse(headersOf(304, null))
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    assertThat(networkHandler.load(action.getRequest(), NetworkPolicy.REVALIDATE)).isNull();
+    assertThat(requests.takeFirst().cacheControl().maxAgeSeconds()).isEqualTo(0);
+  }
+
+  @Test public void revalidationWithSameStrongValidatorHasNoResult() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])).newBuilder()
+        .cacheResponse(headersOf(200, "\"v1\""))
+        .networkResponse(headersOf(200, "\"v1\""))
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    assertThat(networkHandler.load(action.getRequest(), NetworkPolicy.REVALIDATE)).isNull();
+  }
+
+  @Test public void revalidationWithChangedImageReturnsNetworkResult() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, "changed")).newBuilder()
+        .cacheResponse(headersOf(200, "\"v1\""))
+        .networkResponse(headersOf(200, "\"v2\""))
+        .build());
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    RequestHandler.Result result =
+        networkHandler.load(action.getRequest(), NetworkPolicy.REVALIDATE);
+    assertThat(result.getLoadedFrom()).isEqualTo(NETWORK);
+    assertThat(Okio.buffer(result.getSource()).readUtf8()).isEqualTo("changed");
+  }
+
+  @Test public void sendsNoClientHintsByDefault() throws Exception {
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    networkHandler.load(new com.squareup.picasso.Request.Builder(URI_1).resize(100, 0).build(), 0);
+    okhttp3.Request request = requests.takeFirst();
+    assertThat(request.header("Accept")).isNull();
+    assertThat(request.header("Width")).isNull();
+    assertThat(request.header("DPR")).isNull();
+  }
+
+  @Test public void sendsClientHints() throws Exception {
+    ClientHints hints = new ClientHints.Builder().widthStep(100).build();
+    NetworkRequestHandler handler = new NetworkRequestHandler(downloader, stats,
+        new HostHealthTracker(RetryPolicy.DEFAULT), new ContentNegotiation(hints,
+            Collections.<String, ClientHints>emptyMap(), 2.5f));
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    handler.load(new com.squareup.picasso.Request.Builder(URI_1).resize(130, 50).build(), 0);
+    okhttp3.Request request = requests.takeFirst();
+    assertThat(request.header("Accept")).isEqualTo(ClientHints.ACCEPT_WEBP);
+    assertThat(request.header("Width")).isEqualTo("200");
+    assertThat(request.header("DPR")).isEqualTo("2.5");
+  }
+
+  @Test public void sendsNoWidthHintWithoutTargetWidth() throws Exception {
+    ClientHints hints = new ClientHints.Builder().build();
+    NetworkRequestHandler handler = new NetworkRequestHandler(downloader, stats,
+        new HostHealthTracker(RetryPolicy.DEFAULT), new ContentNegotiation(hints,
+            Collections.<String, ClientHints>emptyMap(), 2f));
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    handler.load(new com.squareup.picasso.Request.Builder(URI_1).resize(0, 50).build(), 0);
+    okhttp3.Request request = requests.takeFirst();
+    assertThat(request.header("Width")).isNull();
+    assertThat(request.header("DPR")).isEqualTo("2.0");
+  }
+
+  @Test public void hostClientHintsReplaceDefault() throws Exception {
+    ClientHints hints = new ClientHints.Builder().build();
+    NetworkRequestHandler handler = new NetworkRequestHandler(downloader, stats,
+        new HostHealthTracker(RetryPolicy.DEFAULT), new ContentNegotiation(hints,
+            Collections.singletonMap(URI_1.getHost(), ClientHints.NONE), 2f));
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    handler.load(new com.squareup.picasso.Request.Builder(URI_1).resize(100, 0).build(), 0);
+    okhttp3.Request request = requests.takeFirst();
+    assertThat(request.header("Accept")).isNull();
+    assertThat(request.header("Width")).isNull();
+    assertThat(request.header("DPR")).isNull();
+  }
+
+  @Test public void negotiatedDownloadDispatchToStats() throws Exception {
+    Response networkResponse = new Response.Builder()
+        .code(200)
+        .protocol(HTTP_1_1)
+        .request(new okhttp3.Request.Builder().url("http://example.com").header("Width", "200")
+            .build())
+        .build();
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])).newBuilder()
+        .header("Vary", "Accept-Encoding, width")
+        .networkResponse(networkResponse)
+        .build());
+    networkHandler.load(TestUtils.mockAction(URI_KEY_1, URI_1).getRequest(), 0);
+    verify(stats).dispatchNegotiatedDownloadFinished(10);
+    verify(stats, never()).dispatchDownloadFinished(10);
+  }
+
+  @Test public void responseVaryingOnUnsentHintIsNotNegotiated() throws Exception {
+    Response networkResponse = new Response.Builder()
+        .code(200)
+        .protocol(HTTP_1_1)
+        .request(new okhttp3.Request.Builder().url("http://example.com").build())
+        .build();
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])).newBuilder()
+        .header("Vary", "Width")
+        .networkResponse(networkResponse)
+        .build());
+    networkHandler.load(TestUtils.mockAction(URI_KEY_1, URI_1).getRequest(), 0);
+    verify(stats).dispatchDownloadFinished(10);
+    verify(stats, never()).dispatchNegotiatedDownloadFinished(10);
+  }
+
+  @Test public void diskCacheHitIsReadFromCacheFile() throws Exception {
+    File file = cacheFile(new byte[10]);
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])).newBuilder()
+        .cacheResponse(headersOf(200, null))
+        .build());
+    NetworkRequestHandler handler = new NetworkRequestHandler(cacheFileDownloader(file), stats);
+    RequestHandler.Result result =
+        handler.load(TestUtils.mockAction(URI_KEY_1, URI_1).getRequest(), 0);
+    assertThat(result.getLoadedFrom()).isEqualTo(DISK);
+    assertThat(result.getFile()).isNotNull();
+    assertThat(Okio.buffer(result.getSource()).readByteArray()).hasSize(10);
+  }
+
+  @Test public void diskCacheHitWithReplacedCacheFileReadsBody() throws Exception {
+    File file = cacheFile(new byte[5]);
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])).newBuilder()
+        .cacheResponse(headersOf(200, null))
+        .build());
+    NetworkRequestHandler handler = new NetworkRequestHandler(cacheFileDownloader(file), stats);
+    RequestHandler.Result result =
+        handler.load(TestUtils.mockAction(URI_KEY_1, URI_1).getRequest(), 0);
+    assertThat(result.getFile()).isNull();
+    assertThat(Okio.buffer(result.getSource()).readByteArray()).hasSize(10);
+  }
+
+  @Test public void diskCacheHitWithUnknownLengthReadsBody() throws Exception {
+    File file = cacheFile(new byte[10]);
+    ResponseBody body = ResponseBody.create(null, -1, new Buffer().write(new byte[10]));
+    responses.add(responseOf(body).newBuilder()
+        .cacheResponse(headersOf(200, null))
+        .build());
+    NetworkRequestHandler handler = new NetworkRequestHandler(cacheFileDownloader(file), stats);
+    RequestHandler.Result result =
+        handler.load(TestUtils.mockAction(URI_KEY_1, URI_1).getRequest(), 0);
+    assertThat(result.getLoadedFrom()).isEqualTo(DISK);
+    assertThat(result.getFile()).isNull();
+    assertThat(Okio.buffer(result.getSource()).readByteArray()).hasSize(10);
+  }
+
+  @Test public void networkResponseIsNotReadFromCacheFile() throws Exception {
+    File file = cacheFile(new byte[10]);
+    responses.add(responseOf(ResponseBody.create(null, new byte[10])));
+    NetworkRequestHandler handler = new NetworkRequestHandler(cacheFileDownloader(file), stats);
+    RequestHandler.Result result =
+        handler.load(TestUtils.mockAction(URI_KEY_1, URI_1).getRequest(), 0);
+    assertThat(result.getLoadedFrom()).isEqualTo(NETWORK);
+    assertThat(result.getFile()).isNull();
+  }
+
+  /** A response without a body, as used for cache and network responses. */
+  private static Response headersOf(int code, String etag) {
+    Response.Builder builder = new Response.Builder()
+        .code(code)
+        .protocol(HTTP_1_1)
+        .request(new okhttp3.Request.Builder().url("http://example.com").build());
+    if (etag != null) {
+      builder.header("ETag", etag);
+    }
+    return builder.build();
+  }
+
+  private static File cacheFile(byte[] body) throws IOException {
+    File file = File.createTempFile("picasso", ".1");
+    file.deleteOnExit();
+    BufferedSink sink = Okio.buffer(Okio.sink(file));
+    sink.write(body).close();
+    return file;
+  }
+
+  /** Serves the queued responses and reports {@code file} for those from the disk cache. */
+  private CacheFileDownloader cacheFileDownloader(final File file) {
+    return new CacheFileDownloader() {
+      @NonNull @Override public Response load(@NonNull Request request) throws IOException {
+        return downloader.load(request);
+      }
+
+      @Override public File cacheFile(@NonNull Response response) {
+        return response.cacheResponse() != null ? file : null;
+      }
+
+      @Override public void shutdown() {
+      }
+    };
+  }
+
   private static Response responseOf(ResponseBody body) {
     return new Response.Builder()
         .code(200)
@@ -173,4 +761,45 @@ public class NetworkRequestHandlerTest {
         .body(body)
         .build();
   }
+
+  private static final class RecordingLoadCallback implements NetworkRequestHandler.LoadCallback {
+    final BlockingDeque<Object> results = new LinkedBlockingDeque<>();
+
+    @Override public void onLoaded(RequestHandler.Result result) {
+      results.add(result);
+    }
+
+    @Override public void onFailure(IOException e) {
+      results.add(e);
+    }
+  }
+
+  private static void readUntilFailure(RequestHandler.Result result) {
+    try {
+      Okio.buffer(result.getSource()).readByteArray();
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  /** A body of {@code contentLength} bytes which fails after the bytes of {@code prefix}. */
+  private static ResponseBody failingBody(String prefix, long contentLength) {
+    final Buffer data = new Buffer().writeUtf8(prefix);
+    Source source = new Source() {
+      @Override public long read(Buffer sink, long byteCount) throws IOException {
+        if (data.size() == 0) {
+          throw new IOException("Connection reset");
+        }
+        return data.read(sink, byteCount);
+      }
+
+      @Override public Timeout timeout() {
+        return Timeout.NONE;
+      }
+
+      @Override public void close() {
+      }
+    };
+    return ResponseBody.create(null, contentLength, Okio.buffer(source));
+  }
 }
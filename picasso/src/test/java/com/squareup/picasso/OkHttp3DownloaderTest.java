@@ -15,10 +15,18 @@
  */
 package com.squareup.picasso;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import okhttp3.*;
 import okhttp3.Request;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -27,6 +35,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.fest.assertions.api.Assertions.assertThat;
 
 @RunWith(RobolectricGradleTestRunner.class)
@@ -51,6 +60,70 @@ public class OkHttp3DownloaderTest {
     assertThat(response.body().string()).isEqualTo("Hi");
   }
 
+  @Test public void loadsAsynchronously() throws Exception {
+    server.enqueue(new MockResponse().setBody("Hi"));
+    okhttp3.Request request = new Request.Builder().url(server.url("/")).build();
+    final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+    downloader.load(request, new AsyncDownloader.ResponseCallback() {
+      @Override public void onResponse(Response response) {
+        try {
+          results.add(response.body().string());
+        } catch (IOException e) {
+          results.add(e);
+        }
+      }
+
+      @Override public void onFailure(IOException e) {
+        results.add(e);
+      }
+    });
+    assertThat(results.poll(5, SECONDS)).isEqualTo("Hi");
+  }
+
+  @Test public void cacheFileHoldsCachedBody() throws Exception {
+    server.enqueue(new MockResponse().setBody("Hi").addHeader("Cache-Control", "max-age=60"));
+    okhttp3.Request request = new Request.Builder().url(server.url("/")).build();
+    Response network = downloader.load(request);
+    network.body().string();
+    assertThat(downloader.cacheFile(network)).isNull();
+
+    Response cached = downloader.load(request);
+    File file = downloader.cacheFile(cached);
+    cached.body().close();
+    assertThat(file).isNotNull();
+    assertThat(Okio.buffer(Okio.source(file)).readUtf8()).isEqualTo("Hi");
+  }
+
+  /** Pins the OkHttp cache layout {@link OkHttp3Downloader#cacheFile} depends on. */
+  @Test public void cacheFileIsBodyFileOfCacheEntry() throws Exception {
+    server.enqueue(new MockResponse().setBody("Hello").addHeader("Cache-Control", "max-age=60"));
+    okhttp3.Request request = new Request.Builder().url(server.url("/image.png")).build();
+    downloader.load(request).body().string();
+
+    Response cached = downloader.load(request);
+    File file = downloader.cacheFile(cached);
+    long contentLength = cached.body().contentLength();
+    cached.body().close();
+    String key = okhttp3.Cache.key(request.url());
+    assertThat(file).isEqualTo(new File(temporaryFolder.getRoot(), key + ".1"));
+    assertThat(file.length()).isEqualTo(contentLength);
+  }
+
+  @Test public void noCacheFileForCompressedBody() throws Exception {
+    Buffer gzipped = new Buffer();
+    BufferedSink sink = Okio.buffer(new GzipSink(gzipped));
+    sink.writeUtf8("Hi").close();
+    server.enqueue(new MockResponse().setBody(gzipped)
+        .addHeader("Content-Encoding", "gzip")
+        .addHeader("Cache-Control", "max-age=60"));
+    okhttp3.Request request = new Request.Builder().url(server.url("/")).build();
+    downloader.load(request).body().string();
+
+    Response cached = downloader.load(request);
+    assertThat(cached.body().string()).isEqualTo("Hi");
+    assertThat(downloader.cacheFile(cached)).isNull();
+  }
+
   @Test public void shutdownClosesCacheIfNotShared() throws Exception {
     OkHttp3Downloader downloader = new OkHttp3Downloader(temporaryFolder.getRoot());
     okhttp3.Cache cache = ((OkHttpClient) downloader.client).cache();
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import okhttp3.Response;
+import okio.Buffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static okhttp3.Protocol.HTTP_1_1;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class PartialDownloadsTest {
+  @Test public void evictsOldestWhenOverMaxSize() {
+    PartialDownloads partials = new PartialDownloads(10);
+    partials.put("a", partial("012345"));
+    partials.put("b", partial("0123"));
+    assertThat(partials.size()).isEqualTo(10);
+    partials.put("c", partial("01"));
+    assertThat(partials.size()).isEqualTo(6);
+    assertThat(partials.take("a")).isNull();
+    assertThat(partials.take("b")).isNotNull();
+    assertThat(partials.size()).isEqualTo(2);
+  }
+
+  @Test public void takeRemoves() {
+    PartialDownloads partials = new PartialDownloads(10);
+    partials.put("a", partial("0123"));
+    assertThat(partials.take("a").body.readUtf8()).isEqualTo("0123");
+    assertThat(partials.take("a")).isNull();
+    assertThat(partials.size()).isZero();
+  }
+
+  @Test public void validatorPrefersStrongEtag() {
+    assertThat(PartialDownloads.validator(response()
+        .header("ETag", "\"v1\"")
+        .header("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT")
+        .build())).isEqualTo("\"v1\"");
+    assertThat(PartialDownloads.validator(response()
+        .header("ETag", "W/\"v1\"")
+        .header("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT")
+        .build())).isEqualTo("Wed, 21 Oct 2015 07:28:00 GMT");
+    assertThat(PartialDownloads.validator(response().build())).isNull();
+  }
+
+  @Test public void noValidatorForEncodedOrUnrangeableResponses() {
+    assertThat(PartialDownloads.validator(response()
+        .header("ETag", "\"v1\"")
+        .header("Content-Encoding", "gzip")
+        .build())).isNull();
+    assertThat(PartialDownloads.validator(response()
+        .header("ETag", "\"v1\"")
+        .header("Accept-Ranges", "none")
+        .build())).isNull();
+    assertThat(PartialDownloads.validator(response()
+        .header("ETag", "\"v1\"")
+        .code(203)
+        .build())).isNull();
+  }
+
+  @Test public void resumeRequestsRemainder() {
+    okhttp3.Request request = new okhttp3.Request.Builder().url("http://example.com").build();
+    okhttp3.Request resumed = PartialDownloads.resume(request, partial("0123"));
+    assertThat(resumed.header("Range")).isEqualTo("bytes=4-");
+    assertThat(resumed.header("If-Range")).isEqualTo("\"v1\"");
+  }
+
+  private static PartialDownloads.Partial partial(String body) {
+    return new PartialDownloads.Partial("\"v1\"", new Buffer().writeUtf8(body));
+  }
+
+  private static Response.Builder response() {
+    return new Response.Builder()
+        .code(200)
+        .protocol(HTTP_1_1)
+        .request(new okhttp3.Request.Builder().url("http://example.com").build());
+  }
+}
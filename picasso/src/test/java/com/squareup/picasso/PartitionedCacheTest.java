@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static android.graphics.Bitmap.Config.ALPHA_8;
+import static com.squareup.picasso.PartitionedCache.DEFAULT_PARTITION;
+import static com.squareup.picasso.TestUtils.mockAction;
+import static com.squareup.picasso.TestUtils.mockPicasso;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class PartitionedCacheTest {
+  // The use of ALPHA_8 simplifies the size math in tests since only one byte is used per-pixel.
+  private final Bitmap A = Bitmap.createBitmap(1, 1, ALPHA_8);
+  private final Bitmap B = Bitmap.createBitmap(1, 1, ALPHA_8);
+  private final Bitmap C = Bitmap.createBitmap(1, 1, ALPHA_8);
+  private final Bitmap D = Bitmap.createBitmap(1, 1, ALPHA_8);
+
+  @Test public void partitionsEvictIndependently() {
+    PartitionedCache cache = new PartitionedCache.Builder(2).addPartition("hero", 1).build();
+
+    cache.set(key("a"), A);
+    cache.set(key("b"), B);
+    cache.set(key("c"), C, origin("c", "hero"));
+    cache.set(key("d"), D, origin("d", "hero"));
+
+    assertThat(cache.get(key("a"))).isSameAs(A);
+    assertThat(cache.get(key("b"))).isSameAs(B);
+    assertThat(cache.get(key("c"))).isNull();
+    assertThat(cache.get(key("d"))).isSameAs(D);
+    assertThat(cache.size()).isEqualTo(3);
+    assertThat(cache.maxSize()).isEqualTo(3);
+
+    Map<String, StatsSnapshot.CachePartition> snapshot = cache.snapshot();
+    assertThat(snapshot.keySet()).containsExactly(DEFAULT_PARTITION, "hero");
+    assertPartition(snapshot.get(DEFAULT_PARTITION), 2, 2, 2, 0);
+    assertPartition(snapshot.get("hero"), 1, 1, 2, 1);
+  }
+
+  @Test public void onlyFoundImagesCountAsHits() {
+    PartitionedCache cache = new PartitionedCache.Builder(2).addPartition("hero", 1).build();
+
+    cache.set(key("a"), A, origin("a", "hero"));
+    cache.set(key("a"), B, origin("a", "hero"));
+    cache.get(key("a"));
+    cache.get(key("a"));
+    cache.get(key("b"));
+    cache.get("http://example.com/b");
+
+    assertPartition(cache.snapshot().get("hero"), 1, 2, 1, 0);
+    assertPartition(cache.snapshot().get(DEFAULT_PARTITION), 0, 0, 0, 0);
+  }
+
+  @Test public void borrowingUsesUnusedRoomUntilNeeded() {
+    PartitionedCache cache =
+        new PartitionedCache.Builder(2).addPartition("hero", 1).borrowing(true).build();
+
+    cache.set(key("a"), A, origin("a", "hero"));
+    cache.set(key("b"), B, origin("b", "hero"));
+    cache.set(key("c"), C, origin("c", "hero"));
+    assertThat(cache.get(key("a"))).isSameAs(A);
+    assertThat(cache.size()).isEqualTo(3);
+
+    // The default partition takes its room back from the least recently used hero image.
+    cache.set(key("d"), D);
+    assertThat(cache.get(key("b"))).isNull();
+    assertThat(cache.get(key("a"))).isSameAs(A);
+    assertThat(cache.get(key("c"))).isSameAs(C);
+    assertThat(cache.get(key("d"))).isSameAs(D);
+    assertThat(cache.snapshot().get("hero").size).isEqualTo(2);
+  }
+
+  @Test public void borrowingNeverEvictsPartitionWithinItsSize() {
+    PartitionedCache cache =
+        new PartitionedCache.Builder(1).addPartition("hero", 2).borrowing(true).build();
+
+    cache.set(key("a"), A);
+    cache.set(key("b"), B);
+    cache.set(key("c"), C, origin("c", "hero"));
+    cache.set(key("d"), D, origin("d", "hero"));
+
+    assertThat(cache.get(key("a"))).isNull();
+    assertThat(cache.get(key("b"))).isSameAs(B);
+    assertThat(cache.get(key("c"))).isSameAs(C);
+    assertThat(cache.get(key("d"))).isSameAs(D);
+  }
+
+  @Test public void settingKeyAgainMovesItBetweenPartitions() {
+    PartitionedCache cache = new PartitionedCache.Builder(2).addPartition("hero", 2).build();
+
+    cache.set(key("a"), A);
+    cache.set(key("a"), B, origin("a", "hero"));
+
+    assertThat(cache.get(key("a"))).isSameAs(B);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.snapshot().get(DEFAULT_PARTITION).size).isEqualTo(0);
+    assertThat(cache.snapshot().get("hero").insertCount).isEqualTo(0);
+  }
+
+  @Test public void explicitPartitionComesFirst() {
+    PartitionedCache cache = new PartitionedCache.Builder(1)
+        .addPartition("hero", 1)
+        .addPartition("avatars", 1)
+        .partitionTag("feed", "avatars")
+        .partitionRequestHandler(RequestHandler.class, "avatars")
+        .build();
+
+    assertThat(cache.getPartition(hunter("a", "hero", "feed"))).isEqualTo("hero");
+    assertThat(cache.getPartition(hunter("a", null, "feed"))).isEqualTo("avatars");
+    assertThat(cache.getPartition(hunter("a", "unknown", "feed"))).isEqualTo(DEFAULT_PARTITION);
+  }
+
+  @Test public void tagComesBeforeRequestHandler() {
+    PartitionedCache cache = new PartitionedCache.Builder(1)
+        .addPartition("hero", 1)
+        .addPartition("avatars", 1)
+        .partitionTag("feed", "hero")
+        .partitionRequestHandler(RequestHandler.class, "avatars")
+        .build();
+
+    assertThat(cache.getPartition(hunter("a", null, "feed"))).isEqualTo("hero");
+    assertThat(cache.getPartition(hunter("a", null, "other"))).isEqualTo("avatars");
+  }
+
+  @Test public void unassignedRequestsUseDefaultPartition() {
+    PartitionedCache cache = new PartitionedCache.Builder(1)
+        .addPartition("avatars", 1)
+        .partitionRequestHandler(NetworkRequestHandler.class, "avatars")
+        .build();
+
+    assertThat(cache.getPartition(hunter("a", null, "feed"))).isEqualTo(DEFAULT_PARTITION);
+  }
+
+  @Test public void clearKeyUriRemovesFromEveryPartition() {
+    PartitionedCache cache = new PartitionedCache.Builder(2).addPartition("hero", 2).build();
+    cache.set("http://example.com/a\nresize:10x10", A);
+    cache.set(key("a"), B, origin("a", "hero"));
+    cache.set(key("b"), C, origin("b", "hero"));
+
+    cache.clearKeyUri("http://example.com/a");
+
+    assertThat(cache.get("http://example.com/a\nresize:10x10")).isNull();
+    assertThat(cache.get(key("a"))).isNull();
+    assertThat(cache.get(key("b"))).isSameAs(C);
+    assertThat(cache.size()).isEqualTo(1);
+
+    cache.clear();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.get(key("b"))).isNull();
+  }
+
+  @Test public void invalidBuilder() {
+    try {
+      new PartitionedCache.Builder(0);
+      fail("Zero size should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new PartitionedCache.Builder(1).addPartition(DEFAULT_PARTITION, 1);
+      fail("Adding partition twice should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      new PartitionedCache.Builder(1).partitionTag("feed", "hero").build();
+      fail("Assigning unknown partition should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  private static CacheKey key(String name) {
+    return CacheKey.create(new Request.Builder(uri(name)).build());
+  }
+
+  private static Uri uri(String name) {
+    return Uri.parse("http://example.com/" + name);
+  }
+
+  private static KeyedCache.Origin origin(String name, String partition) {
+    return new KeyedCache.Origin(hunter(name, partition, null));
+  }
+
+  private static BitmapHunter hunter(String name, String partition, String tag) {
+    Request.Builder request = new Request.Builder(uri(name));
+    if (partition != null) {
+      request.memoryCachePartition(partition);
+    }
+    Action action = mockAction(name, request.build(), null, null, tag);
+    return BitmapHunter.forRequest(mockPicasso(mock(RequestHandler.class)),
+        mock(Dispatcher.class), mock(Cache.class), mock(Stats.class), action);
+  }
+
+  private static void assertPartition(StatsSnapshot.CachePartition partition, int size,
+      long hitCount, long insertCount, long evictionCount) {
+    assertThat(partition.size).isEqualTo(size);
+    assertThat(partition.hitCount).isEqualTo(hitCount);
+    assertThat(partition.insertCount).isEqualTo(insertCount);
+    assertThat(partition.evictionCount).isEqualTo(evictionCount);
+  }
+}
@@ -19,6 +19,7 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.widget.ImageView;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricGradleTestRunner;
@@ -56,4 +57,19 @@ public class PicassoDrawableTest {
     assertThat(pd.placeholder).isNull();
     assertThat(pd.animating).isFalse();
   }
+
+  @Test public void setBitmapKeepsDrawableAlreadyShowingBitmap() {
+    ImageView target = new ImageView(context);
+    PicassoDrawable.setBitmap(target, context, bitmap, MEMORY, false, false);
+    Drawable drawable = target.getDrawable();
+    PicassoDrawable.setBitmap(target, context, bitmap, MEMORY, false, false);
+    assertThat(target.getDrawable()).isSameAs(drawable);
+
+    PicassoDrawable.setBitmap(target, context, makeBitmap(), MEMORY, false, false);
+    assertThat(target.getDrawable()).isNotSameAs(drawable);
+    drawable = target.getDrawable();
+    PicassoDrawable.setBitmap(target, context, ((PicassoDrawable) drawable).getBitmap(), MEMORY,
+        false, true);
+    assertThat(target.getDrawable()).isNotSameAs(drawable);
+  }
 }
@@ -21,6 +21,7 @@ import android.net.Uri;
 import android.widget.ImageView;
 import android.widget.RemoteViews;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.ExecutorService;
@@ -31,14 +32,21 @@ import org.mockito.Mock;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
 
 import static android.graphics.Bitmap.Config.ARGB_8888;
 import static com.squareup.picasso.Picasso.Listener;
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
 import static com.squareup.picasso.RemoteViewsAction.RemoteViewsTarget;
+import static com.squareup.picasso.TestUtils.CACHE_KEY_1;
 import static com.squareup.picasso.TestUtils.URI_1;
+import static com.squareup.picasso.TestUtils.URI_2;
 import static com.squareup.picasso.TestUtils.URI_KEY_1;
+import static com.squareup.picasso.TestUtils.URI_KEY_2;
 import static com.squareup.picasso.TestUtils.makeBitmap;
+import static com.squareup.picasso.TestUtils.mockCallback;
 import static com.squareup.picasso.TestUtils.mockAction;
 import static com.squareup.picasso.TestUtils.mockCanceledAction;
 import static com.squareup.picasso.TestUtils.mockDeferredRequestCreator;
@@ -67,6 +75,7 @@ public class PicassoTest {
   @Mock Picasso.RequestTransformer transformer;
   @Mock RequestHandler requestHandler;
   @Mock Cache cache;
+  @Mock Cache transformationCache;
   @Mock Listener listener;
   @Mock Stats stats;
 
@@ -75,8 +84,8 @@ public class PicassoTest {
 
   @Before public void setUp() {
     initMocks(this);
-    picasso = new Picasso(context, dispatcher, cache, listener, transformer, null, stats, ARGB_8888,
-        false, false);
+    picasso = new Picasso(context, dispatcher, cache, transformationCache, listener, transformer,
+        null, stats, ContentNegotiation.NONE, null, ARGB_8888, false, false);
   }
 
   @Test public void submitWithNullTargetInvokesDispatcher() {
@@ -94,6 +103,44 @@ public class PicassoTest {
     verify(dispatcher).dispatchSubmit(action);
   }
 
+  @Test public void submitsInSameMessageAreBatched() {
+    Action action1 = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    Action action2 = mockAction(URI_KEY_2, URI_2, mockImageViewTarget());
+    ShadowLooper.pauseMainLooper();
+    picasso.enqueueAndSubmit(action1);
+    picasso.enqueueAndSubmit(action2);
+    verifyZeroInteractions(dispatcher);
+    ShadowLooper.unPauseMainLooper();
+    verify(dispatcher).dispatchSubmit(Arrays.asList(action1, action2));
+    assertThat(picasso.pendingSubmits).isEmpty();
+  }
+
+  @Test public void submitFromBackgroundThreadIsNotBatched() throws Exception {
+    final Action action = mockAction(URI_KEY_1, URI_1);
+    ShadowLooper.pauseMainLooper();
+    Thread thread = new Thread(new Runnable() {
+      @Override public void run() {
+        picasso.submit(action);
+      }
+    });
+    thread.start();
+    thread.join();
+    verify(dispatcher).dispatchSubmit(action);
+    assertThat(picasso.pendingSubmits).isEmpty();
+    ShadowLooper.unPauseMainLooper();
+  }
+
+  @Test public void canceledPendingSubmitIsDropped() {
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    Action action2 = mockCanceledAction();
+    ShadowLooper.pauseMainLooper();
+    picasso.enqueueAndSubmit(action1);
+    picasso.enqueueAndSubmit(action2);
+    ShadowLooper.unPauseMainLooper();
+    verify(dispatcher).dispatchSubmit(action1);
+    verifyNoMoreInteractions(dispatcher);
+  }
+
   @Test public void submitWithSameActionDoesNotCancel() {
     Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
     picasso.enqueueAndSubmit(action);
@@ -151,6 +198,71 @@ public class PicassoTest {
     verify(action).complete(bitmap, MEMORY);
   }
 
+  @Test public void completeActivatesBitmapShownByTarget() {
+    ImageView target = mockImageViewTarget();
+    Action action = mockAction(URI_KEY_1, URI_1, target);
+    when(action.showsResult()).thenReturn(true);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, bitmap, false);
+    when(hunter.getLoadedFrom()).thenReturn(NETWORK);
+    when(hunter.getAction()).thenReturn(action);
+    picasso.complete(hunter);
+
+    // Found even though the mock cache has nothing.
+    assertThat(picasso.quickMemoryCacheCheck(CACHE_KEY_1)).isSameAs(bitmap);
+    verify(stats).dispatchActiveHit();
+    verify(stats, never()).dispatchCacheHit();
+
+    picasso.cancelRequest(target);
+    assertThat(picasso.quickMemoryCacheCheck(CACHE_KEY_1)).isNull();
+  }
+
+  @Test public void completeDoesNotActivateWithoutStoringInMemory() {
+    ImageView target = mockImageViewTarget();
+    Action action = mockAction(URI_KEY_1, URI_1, target);
+    when(action.showsResult()).thenReturn(true);
+    when(action.getMemoryPolicy()).thenReturn(MemoryPolicy.NO_STORE.index);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, bitmap, false);
+    when(hunter.getLoadedFrom()).thenReturn(NETWORK);
+    when(hunter.getAction()).thenReturn(action);
+    picasso.complete(hunter);
+
+    assertThat(picasso.activeResources.size()).isEqualTo(0);
+  }
+
+  @Test public void memoryHitKeepsTargetActiveUntilReplaced() {
+    ImageView target = mockImageViewTarget();
+    picasso.activateResource(target, CACHE_KEY_1, bitmap, 0);
+
+    picasso.cancelExistingRequest(target, false);
+    assertThat(picasso.activeResources.get(CACHE_KEY_1)).isSameAs(bitmap);
+
+    picasso.activateResource(target, CACHE_KEY_1, bitmap, MemoryPolicy.NO_STORE.index);
+    assertThat(picasso.activeResources.size()).isEqualTo(0);
+  }
+
+  @Test public void completeDeliversPrefetchWithoutBitmap() {
+    Callback callback = mockCallback();
+    Request request = new Request.Builder(URI_1).build();
+    Action action = new PrefetchAction(picasso, request, 0, null, URI_KEY_1, callback);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, null, true, action);
+    when(hunter.getLoadedFrom()).thenReturn(NETWORK);
+    picasso.complete(hunter);
+    verify(callback).onSuccess();
+    verify(callback, never()).onError(any(Exception.class));
+  }
+
+  @Test public void completeDeliversFailedPrefetch() {
+    Callback callback = mockCallback();
+    Request request = new Request.Builder(URI_1).build();
+    Action action = new PrefetchAction(picasso, request, 0, null, URI_KEY_1, callback);
+    Exception exception = new IOException("Offline");
+    BitmapHunter hunter = mockHunter(URI_KEY_1, null, true, action);
+    when(hunter.getException()).thenReturn(exception);
+    picasso.complete(hunter);
+    verify(callback).onError(exception);
+    verify(callback, never()).onSuccess();
+  }
+
   @Test public void completeWithReplayDoesNotRemove() {
     Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
     when(action.willReplay()).thenReturn(true);
@@ -164,6 +276,43 @@ public class PicassoTest {
     verify(action).complete(bitmap, MEMORY);
   }
 
+  @Test public void completeWithStaleResultKeepsActionForRevalidation() {
+    Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    when(action.willRevalidate()).thenReturn(true);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, bitmap, false);
+    when(hunter.getLoadedFrom()).thenReturn(DISK);
+    when(hunter.getAction()).thenReturn(action);
+    picasso.enqueueAndSubmit(action);
+    picasso.complete(hunter);
+    assertThat(picasso.targetToAction).hasSize(1);
+    verify(action).complete(bitmap, DISK);
+  }
+
+  @Test public void completeUnchangedRevalidationDeliversNothing() {
+    Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    BitmapHunter hunter = mockHunter(URI_KEY_1, null, false);
+    hunter.revalidation = true;
+    when(hunter.getAction()).thenReturn(action);
+    picasso.enqueueAndSubmit(action);
+    picasso.complete(hunter);
+    assertThat(picasso.targetToAction).isEmpty();
+    verify(action, never()).complete(any(Bitmap.class), any(Picasso.LoadedFrom.class));
+    verify(action, never()).error(any(Exception.class));
+    verifyZeroInteractions(listener);
+  }
+
+  @Test public void completeChangedRevalidationDeliversAgain() {
+    Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    BitmapHunter hunter = mockHunter(URI_KEY_1, bitmap, false);
+    hunter.revalidation = true;
+    when(hunter.getLoadedFrom()).thenReturn(NETWORK);
+    when(hunter.getAction()).thenReturn(action);
+    picasso.enqueueAndSubmit(action);
+    picasso.complete(hunter);
+    assertThat(picasso.targetToAction).isEmpty();
+    verify(action).complete(bitmap, NETWORK);
+  }
+
   @Test public void completeDeliversToSingleAndMultiple() {
     Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
     Action action2 = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
@@ -335,11 +484,20 @@ public class PicassoTest {
   @Test public void shutdown() {
     picasso.shutdown();
     verify(cache).clear();
+    verify(transformationCache).clear();
     verify(stats).shutdown();
     verify(dispatcher).shutdown();
     assertThat(picasso.shutdown).isTrue();
   }
 
+  @Test public void shutdownShutsDownRequestHandlers() {
+    Picasso picasso = new Picasso(context, dispatcher, cache, transformationCache, listener,
+        transformer, Collections.singletonList(requestHandler), stats, ContentNegotiation.NONE,
+        null, ARGB_8888, false, false);
+    picasso.shutdown();
+    verify(requestHandler).shutdown();
+  }
+
   @Test public void shutdownTwice() {
     picasso.shutdown();
     picasso.shutdown();
@@ -491,6 +649,84 @@ public class PicassoTest {
     }
   }
 
+  @Test public void builderAsyncDownloadsWithBlockingDownloaderThrows() {
+    try {
+      new Picasso.Builder(context).downloader(downloader).asyncDownloads(true).build();
+      fail("Asynchronous downloads with a blocking Downloader should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void builderInvalidRetryPolicy() {
+    try {
+      new Picasso.Builder(context).retryPolicy(null);
+      fail("Null RetryPolicy should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new Picasso.Builder(context).retryPolicy(RetryPolicy.DEFAULT)
+          .retryPolicy(RetryPolicy.DEFAULT);
+      fail("Setting RetryPolicy twice should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void builderInvalidConcurrencyLimits() {
+    try {
+      new Picasso.Builder(context).maxRequestsPerHost(0);
+      fail("Zero max requests per host should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new Picasso.Builder(context).maxRequestsPerRequestHandler(-1);
+      fail("Negative max requests per request handler should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new Picasso.Builder(context).maxConcurrentPrefetches(0);
+      fail("Zero max concurrent prefetches should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void builderInvalidAssetBundle() {
+    try {
+      new Picasso.Builder(context).addAssetBundle(null);
+      fail("Null asset bundle should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new Picasso.Builder(context).addAssetBundle("images.picb").addAssetBundle("images.picb");
+      fail("Adding asset bundle twice should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void builderInvalidClientHints() {
+    try {
+      new Picasso.Builder(context).clientHints(null);
+      fail("Null client hints should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new Picasso.Builder(context).clientHints(null, ClientHints.NONE);
+      fail("Null host should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new Picasso.Builder(context).clientHints(ClientHints.NONE).clientHints(ClientHints.NONE);
+      fail("Setting client hints twice should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      new Picasso.Builder(context)
+          .clientHints("example.com", ClientHints.NONE)
+          .clientHints("example.com", ClientHints.NONE);
+      fail("Setting client hints twice for a host should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
   @Test public void builderInvalidExecutor() {
     try {
       new Picasso.Builder(context).executor(null);
@@ -505,6 +741,19 @@ public class PicassoTest {
     }
   }
 
+  @Test public void builderInvalidTransformationCache() {
+    try {
+      new Picasso.Builder(context).transformationCache(null);
+      fail("Null Cache should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new Picasso.Builder(context).transformationCache(cache).transformationCache(cache);
+      fail("Setting Cache twice should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
   @Test public void builderInvalidCache() {
     try {
       new Picasso.Builder(context).memoryCache(null);
@@ -582,5 +831,6 @@ public class PicassoTest {
   @Test public void invalidateUri() {
     picasso.invalidate(Uri.parse("mock://12345"));
     verify(cache).clearKeyUri("mock://12345");
+    verify(transformationCache).clearKeyUri("mock://12345");
   }
 }
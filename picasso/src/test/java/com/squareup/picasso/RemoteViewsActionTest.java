@@ -95,8 +95,9 @@ import static org.mockito.Mockito.when;
   }
 
   private Picasso createPicasso() {
-    return new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE, null,
-        IDENTITY, null, mock(Stats.class), ARGB_8888, false, false);
+    return new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE,
+        Cache.NONE, null, IDENTITY, null, mock(Stats.class), ContentNegotiation.NONE, null,
+        ARGB_8888, false, false);
   }
 
   static class TestableRemoteViewsAction extends RemoteViewsAction {
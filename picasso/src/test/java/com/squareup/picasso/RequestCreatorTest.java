@@ -21,6 +21,7 @@ import android.graphics.drawable.Drawable;
 import android.widget.ImageView;
 import android.widget.RemoteViews;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -34,6 +35,7 @@ import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
 import static android.graphics.Bitmap.Config.ARGB_8888;
+import static com.squareup.picasso.MemoryPolicy.shouldWriteToMemoryCache;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
 import static com.squareup.picasso.Picasso.Priority.HIGH;
 import static com.squareup.picasso.Picasso.Priority.LOW;
@@ -41,6 +43,7 @@ import static com.squareup.picasso.Picasso.Priority.NORMAL;
 import static com.squareup.picasso.Picasso.RequestTransformer.IDENTITY;
 import static com.squareup.picasso.RemoteViewsAction.AppWidgetAction;
 import static com.squareup.picasso.RemoteViewsAction.NotificationAction;
+import static com.squareup.picasso.TestUtils.CACHE_KEY_1;
 import static com.squareup.picasso.TestUtils.STABLE_1;
 import static com.squareup.picasso.TestUtils.STABLE_URI_KEY_1;
 import static com.squareup.picasso.TestUtils.TRANSFORM_REQUEST_ANSWER;
@@ -55,14 +58,16 @@ import static com.squareup.picasso.TestUtils.mockRemoteViews;
 import static com.squareup.picasso.TestUtils.mockTarget;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -148,15 +153,46 @@ public class RequestCreatorTest {
     assertThat(actionCaptor.getValue().getPriority()).isEqualTo(HIGH);
   }
 
+  @Test public void fetchWithMemoryCachePartition() {
+    new RequestCreator(picasso, URI_1, 0).memoryCachePartition("thumbnails").fetch();
+    verify(picasso).submit(actionCaptor.capture());
+    assertThat(actionCaptor.getValue().getRequest().memoryCachePartition).isEqualTo("thumbnails");
+  }
+
   @Test public void fetchWithCache() {
-    when(picasso.quickMemoryCacheCheck(URI_KEY_1)).thenReturn(bitmap);
+    when(picasso.quickMemoryCacheCheck(CACHE_KEY_1)).thenReturn(bitmap);
     new RequestCreator(picasso, URI_1, 0).memoryPolicy(MemoryPolicy.NO_CACHE).fetch();
     verify(picasso, never()).enqueueAndSubmit(any(Action.class));
   }
 
+  @Test public void prefetchSubmitsPrefetchRequest() {
+    new RequestCreator(picasso, URI_1, 0).prefetch();
+    verify(picasso).submit(actionCaptor.capture());
+    Action action = actionCaptor.getValue();
+    assertThat(action).isInstanceOf(PrefetchAction.class);
+    assertThat(action.getPriority()).isEqualTo(LOW);
+    assertThat(action.getKey()).isNotEqualTo(URI_KEY_1);
+    assertThat(shouldWriteToMemoryCache(action.getMemoryPolicy())).isFalse();
+  }
+
+  @Test public void prefetchDoesNotCheckMemoryCache() {
+    when(picasso.quickMemoryCacheCheck(CACHE_KEY_1)).thenReturn(bitmap);
+    new RequestCreator(picasso, URI_1, 0).prefetch();
+    verify(picasso, never()).quickMemoryCacheCheck(CACHE_KEY_1);
+    verify(picasso).submit(any(PrefetchAction.class));
+  }
+
+  @Test public void prefetchWithFitThrows() {
+    try {
+      new RequestCreator(picasso, URI_1, 0).fit().prefetch();
+      fail("Calling prefetch() with fit() should throw an exception");
+    } catch (IllegalStateException ignored) {
+    }
+  }
+
   @Test public void fetchWithMemoryPolicyNoCache() {
     new RequestCreator(picasso, URI_1, 0).memoryPolicy(MemoryPolicy.NO_CACHE).fetch();
-    verify(picasso, never()).quickMemoryCacheCheck(URI_KEY_1);
+    verify(picasso, never()).quickMemoryCacheCheck(CACHE_KEY_1);
     verify(picasso).submit(actionCaptor.capture());
   }
 
@@ -197,11 +233,12 @@ public class RequestCreatorTest {
 
   @Test
   public void intoTargetWithQuickMemoryCacheCheckDoesNotSubmit() {
-    when(picasso.quickMemoryCacheCheck(URI_KEY_1)).thenReturn(bitmap);
+    when(picasso.quickMemoryCacheCheck(CACHE_KEY_1)).thenReturn(bitmap);
     Target target = mockTarget();
     new RequestCreator(picasso, URI_1, 0).into(target);
     verify(target).onBitmapLoaded(bitmap, MEMORY);
-    verify(picasso).cancelRequest(target);
+    verify(picasso).cancelExistingRequest(target, false);
+    verify(picasso).activateResource(target, CACHE_KEY_1, bitmap, 0);
     verify(picasso, never()).enqueueAndSubmit(any(Action.class));
   }
 
@@ -209,7 +246,7 @@ public class RequestCreatorTest {
   public void intoTargetWithSkipMemoryPolicy() {
     Target target = mockTarget();
     new RequestCreator(picasso, URI_1, 0).memoryPolicy(MemoryPolicy.NO_CACHE).into(target);
-    verify(picasso, never()).quickMemoryCacheCheck(URI_KEY_1);
+    verify(picasso, never()).quickMemoryCacheCheck(CACHE_KEY_1);
   }
 
   @Test
@@ -260,30 +297,95 @@ public class RequestCreatorTest {
     ImageView target = mockImageViewTarget();
     new RequestCreator(picasso, null, 0).into(target);
     verify(picasso).cancelRequest(target);
-    verify(picasso, never()).quickMemoryCacheCheck(anyString());
+    verify(picasso, never()).quickMemoryCacheCheck(any(CacheKey.class));
     verify(picasso, never()).enqueueAndSubmit(any(Action.class));
   }
 
   @Test
   public void intoImageViewWithQuickMemoryCacheCheckDoesNotSubmit() {
     Picasso picasso =
-        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE, null,
-            IDENTITY, null, mock(Stats.class), ARGB_8888, false, false));
-    doReturn(bitmap).when(picasso).quickMemoryCacheCheck(URI_KEY_1);
+        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE,
+            Cache.NONE, null, IDENTITY, null, mock(Stats.class), ContentNegotiation.NONE, null,
+            ARGB_8888, false, false));
+    doReturn(bitmap).when(picasso).quickMemoryCacheCheck(CACHE_KEY_1);
     ImageView target = mockImageViewTarget();
     Callback callback = mockCallback();
     new RequestCreator(picasso, URI_1, 0).into(target, callback);
     verify(target).setImageDrawable(any(PicassoDrawable.class));
     verify(callback).onSuccess();
-    verify(picasso).cancelRequest(target);
+    verify(picasso).cancelExistingRequest(target, false);
+    assertThat(picasso.activeResources.get(CACHE_KEY_1)).isSameAs(bitmap);
     verify(picasso, never()).enqueueAndSubmit(any(Action.class));
   }
 
+  @Test
+  public void intoImageViewRepeatedMemoryHitsReuseKeyAndDrawable() {
+    Picasso picasso =
+        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE,
+            Cache.NONE, null, IDENTITY, null, mock(Stats.class), ContentNegotiation.NONE, null,
+            ARGB_8888, false, false));
+    doReturn(bitmap).when(picasso).quickMemoryCacheCheck(CACHE_KEY_1);
+    ImageView target = new ImageView(RuntimeEnvironment.application);
+    new RequestCreator(picasso, URI_1, 0).into(target);
+    Drawable drawable = target.getDrawable();
+    assertThat(drawable).isInstanceOf(PicassoDrawable.class);
+    new RequestCreator(picasso, URI_1, 0).into(target);
+    assertThat(target.getDrawable()).isSameAs(drawable);
+
+    ArgumentCaptor<CacheKey> keys = ArgumentCaptor.forClass(CacheKey.class);
+    verify(picasso, times(2)).quickMemoryCacheCheck(keys.capture());
+    assertThat(keys.getAllValues().get(1)).isSameAs(keys.getAllValues().get(0));
+    verify(picasso, never()).enqueueAndSubmit(any(Action.class));
+  }
+
+  @Test
+  public void intoImageViewRepeatedMemoryHitDoesNotAllocate() {
+    LruCache cache = new LruCache(1024);
+    Bitmap cached = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+    cache.set(CACHE_KEY_1, cached);
+    // Mocks record their calls, so only real objects are used on the hit path.
+    Stats stats = new Stats(cache, Cache.NONE, new HostHealthTracker(RetryPolicy.DEFAULT));
+    Picasso picasso = new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), cache,
+        Cache.NONE, null, IDENTITY, null, stats, ContentNegotiation.NONE, null,
+        ARGB_8888, false, false);
+    ImageView target = new ImageView(RuntimeEnvironment.application);
+    RequestCreator creator = new RequestCreator(picasso, URI_1, 0).noFade();
+    creator.into(target);
+    creator.into(target);
+
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < 1000; i++) {
+      creator.into(target);
+    }
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+    stats.shutdown();
+    // Reading the counter itself allocates a little, but far less than a byte per call.
+    assertThat(allocated).isLessThan(1000);
+  }
+
+  @Test
+  public void intoImageViewMemoryMissSubmitsImmutableKey() {
+    Picasso picasso =
+        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE,
+            Cache.NONE, null, IDENTITY, null, mock(Stats.class), ContentNegotiation.NONE, null,
+            ARGB_8888, false, false));
+    doNothing().when(picasso).enqueueAndSubmit(any(Action.class));
+    ImageView target = mockImageViewTarget();
+    new RequestCreator(picasso, URI_1, 0).into(target);
+    verify(picasso).enqueueAndSubmit(actionCaptor.capture());
+    assertThat(actionCaptor.getValue().getKey()).isEqualTo(URI_KEY_1);
+  }
+
   @Test
   public void intoImageViewSetsPlaceholderDrawable() {
     Picasso picasso =
-        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE, null,
-            IDENTITY, null, mock(Stats.class), ARGB_8888, false, false));
+        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE,
+            Cache.NONE, null, IDENTITY, null, mock(Stats.class), ContentNegotiation.NONE, null,
+            ARGB_8888, false, false));
     ImageView target = mockImageViewTarget();
     Drawable placeHolderDrawable = mock(Drawable.class);
     new RequestCreator(picasso, URI_1, 0).placeholder(placeHolderDrawable).into(target);
@@ -295,8 +397,9 @@ public class RequestCreatorTest {
   @Test
   public void intoImageViewNoPlaceholderDrawable() {
     Picasso picasso =
-        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE, null, IDENTITY,
-            null, mock(Stats.class), ARGB_8888, false, false));
+        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE,
+            Cache.NONE, null, IDENTITY, null, mock(Stats.class), ContentNegotiation.NONE, null,
+            ARGB_8888, false, false));
     ImageView target = mockImageViewTarget();
     new RequestCreator(picasso, URI_1, 0).noPlaceholder().into(target);
     verifyNoMoreInteractions(target);
@@ -307,8 +410,9 @@ public class RequestCreatorTest {
   @Test
   public void intoImageViewSetsPlaceholderWithResourceId() {
     Picasso picasso =
-        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE, null, IDENTITY,
-            null, mock(Stats.class), ARGB_8888, false, false));
+        spy(new Picasso(RuntimeEnvironment.application, mock(Dispatcher.class), Cache.NONE,
+            Cache.NONE, null, IDENTITY, null, mock(Stats.class), ContentNegotiation.NONE, null,
+            ARGB_8888, false, false));
     ImageView target = mockImageViewTarget();
     new RequestCreator(picasso, URI_1, 0).placeholder(android.R.drawable.picture_frame).into(target);
     ArgumentCaptor<Drawable> drawableCaptor = ArgumentCaptor.forClass(Drawable.class);
@@ -398,7 +502,7 @@ public class RequestCreatorTest {
   public void intoImageViewWithSkipMemoryCachePolicy() {
     ImageView target = mockImageViewTarget();
     new RequestCreator(picasso, URI_1, 0).memoryPolicy(MemoryPolicy.NO_CACHE).into(target);
-    verify(picasso, never()).quickMemoryCacheCheck(URI_KEY_1);
+    verify(picasso, never()).quickMemoryCacheCheck(CACHE_KEY_1);
   }
 
   @Test
@@ -675,6 +779,14 @@ public class RequestCreatorTest {
     }
   }
 
+  @Test public void invalidMemoryCachePartition() {
+    try {
+      new RequestCreator().memoryCachePartition(null);
+      fail("Null partition should throw exception.");
+    } catch (IllegalArgumentException ignored) {
+    }
+  }
+
   @Test public void invalidCenterCrop() {
     try {
       new RequestCreator().resize(10, 10).centerInside().centerCrop();
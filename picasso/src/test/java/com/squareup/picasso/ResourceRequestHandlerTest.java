@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class ResourceRequestHandlerTest {
+  private static final Uri OTHER_URI = Uri.parse("android.resource://com.other/drawable/icon");
+
+  @Mock Context context;
+  @Mock PackageManager packageManager;
+  Resources otherResources;
+  ResourceRequestHandler requestHandler;
+
+  @Before public void setUp() throws Exception {
+    initMocks(this);
+    when(context.getPackageName()).thenReturn("com.example");
+    when(context.getPackageManager()).thenReturn(packageManager);
+    otherResources = mockResources(makePng(4, 4));
+    when(packageManager.getResourcesForApplication("com.other")).thenReturn(otherResources);
+    when(otherResources.getIdentifier("icon", "drawable", "com.other")).thenReturn(42);
+    requestHandler = new ResourceRequestHandler(context);
+  }
+
+  @Test public void resolvesUriOnce() throws Exception {
+    Request request = new Request.Builder(OTHER_URI).build();
+
+    assertThat(requestHandler.load(request, 0).getBitmap()).isNotNull();
+    assertThat(requestHandler.load(request, 0).getBitmap()).isNotNull();
+
+    verify(packageManager, times(1)).getResourcesForApplication("com.other");
+    verify(otherResources, times(1)).getIdentifier("icon", "drawable", "com.other");
+    verify(otherResources, times(2)).openRawResource(eq(42), any(TypedValue.class));
+  }
+
+  @Test public void ownPackageUsesContextResources() throws Exception {
+    Resources resources = mockResources(makePng(4, 4));
+    when(resources.getIdentifier("icon", "drawable", "com.example")).thenReturn(7);
+    when(context.getResources()).thenReturn(resources);
+    Uri uri = Uri.parse("android.resource://com.example/drawable/icon");
+
+    assertThat(requestHandler.load(new Request.Builder(uri).build(), 0).getBitmap()).isNotNull();
+
+    verify(packageManager, times(0)).getResourcesForApplication("com.example");
+  }
+
+  @Test public void missingResourceIsResolvedAgain() throws Exception {
+    Request request = new Request.Builder(OTHER_URI).build();
+    requestHandler.load(request, 0);
+    doThrow(new Resources.NotFoundException()).when(otherResources)
+        .openRawResource(eq(42), any(TypedValue.class));
+
+    try {
+      requestHandler.load(request, 0);
+      fail("Expected FileNotFoundException.");
+    } catch (FileNotFoundException expected) {
+    }
+    try {
+      requestHandler.load(request, 0);
+      fail("Expected FileNotFoundException.");
+    } catch (FileNotFoundException expected) {
+    }
+
+    verify(packageManager, times(2)).getResourcesForApplication("com.other");
+  }
+
+  @Test public void readsPngSizeFromHeader() throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+
+    assertThat(ResourceRequestHandler.readPngSize(
+        new ByteArrayInputStream(makePng(30, 20)), options)).isTrue();
+    assertThat(options.outWidth).isEqualTo(30);
+    assertThat(options.outHeight).isEqualTo(20);
+  }
+
+  @Test public void readPngSizeRejectsOtherFormats() throws IOException {
+    byte[] jpeg = TestUtils.makeJpeg(0).readByteArray();
+
+    assertThat(ResourceRequestHandler.readPngSize(
+        new ByteArrayInputStream(jpeg), new BitmapFactory.Options())).isFalse();
+    assertThat(ResourceRequestHandler.readPngSize(
+        new ByteArrayInputStream(new byte[4]), new BitmapFactory.Options())).isFalse();
+  }
+
+  @Test public void scalesTargetDensityToExactSize() {
+    // A 200px xhdpi icon is 300px on an xxhdpi screen, or 150px sampled by 2 for a 120px target.
+    Request data = new Request.Builder(OTHER_URI).resize(120, 120).centerCrop().build();
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inDensity = DisplayMetrics.DENSITY_XHIGH;
+    options.inTargetDensity = DisplayMetrics.DENSITY_XXHIGH;
+    RequestHandler.calculateInSampleSize(120, 120, 300, 300, options, data);
+    assertThat(options.inSampleSize).isEqualTo(2);
+
+    ResourceRequestHandler.scaleTargetDensity(data, 300, 300, options);
+
+    assertThat(options.inTargetDensity).isEqualTo(384);
+    assertThat(200 / options.inSampleSize * options.inTargetDensity / options.inDensity)
+        .isEqualTo(120);
+  }
+
+  @Test public void scaleTargetDensityNeverScalesUp() {
+    Request data = new Request.Builder(OTHER_URI).resize(400, 0).build();
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inDensity = DisplayMetrics.DENSITY_XHIGH;
+    options.inTargetDensity = DisplayMetrics.DENSITY_XXHIGH;
+    options.inSampleSize = 1;
+
+    ResourceRequestHandler.scaleTargetDensity(data, 300, 300, options);
+
+    assertThat(options.inTargetDensity).isEqualTo(DisplayMetrics.DENSITY_XXHIGH);
+  }
+
+  @Test public void bitmapDecodedAtLowerDensityHasScreenDensity() throws Exception {
+    Request request = new Request.Builder(OTHER_URI).resize(3, 3).build();
+
+    Bitmap bitmap = requestHandler.load(request, 0).getBitmap();
+
+    assertThat(bitmap.getDensity()).isEqualTo(DisplayMetrics.DENSITY_XHIGH);
+  }
+
+  private static Resources mockResources(final byte[] image) {
+    Resources resources = mock(Resources.class);
+    DisplayMetrics metrics = new DisplayMetrics();
+    metrics.densityDpi = DisplayMetrics.DENSITY_XHIGH;
+    when(resources.getDisplayMetrics()).thenReturn(metrics);
+    when(resources.openRawResource(anyInt(), any(TypedValue.class)))
+        .thenAnswer(new Answer<Object>() {
+          @Override public Object answer(InvocationOnMock invocation) {
+            ((TypedValue) invocation.getArguments()[1]).density = TypedValue.DENSITY_DEFAULT;
+            return new ByteArrayInputStream(image);
+          }
+        });
+    return resources;
+  }
+
+  private static byte[] makePng(int width, int height) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class StatsSnapshotTest {
+  @Test public void publicConstructorLeavesNewerStatisticsEmpty() {
+    StatsSnapshot snapshot =
+        new StatsSnapshot(100, 50, 3, 4, 1000, 2000, 3000, 100, 200, 300, 10, 10, 10, 123L);
+
+    assertThat(snapshot.maxSize).isEqualTo(100);
+    assertThat(snapshot.cacheHits).isEqualTo(3);
+    assertThat(snapshot.cacheMisses).isEqualTo(4);
+    assertThat(snapshot.totalDownloadSize).isEqualTo(1000);
+    assertThat(snapshot.downloadCount).isEqualTo(10);
+    assertThat(snapshot.timeStamp).isEqualTo(123L);
+    assertThat(snapshot.activeHits).isZero();
+    assertThat(snapshot.transformationCacheHits).isZero();
+    assertThat(snapshot.negotiatedDownloadCount).isZero();
+    assertThat(snapshot.negotiationSavings).isZero();
+    assertThat(snapshot.hostHealth).isEmpty();
+    assertThat(snapshot.cachePartitions).isEmpty();
+
+    StringWriter dump = new StringWriter();
+    snapshot.dump(new PrintWriter(dump));
+    assertThat(dump.toString()).contains("Cache Hits: 3");
+  }
+}
@@ -73,8 +73,8 @@ public class TargetActionTest {
     Target target = mockTarget();
     Context context = mock(Context.class);
     Picasso picasso =
-        new Picasso(context, mock(Dispatcher.class), Cache.NONE, null, IDENTITY, null,
-            mock(Stats.class), ARGB_8888, false, false);
+        new Picasso(context, mock(Dispatcher.class), Cache.NONE, Cache.NONE, null, IDENTITY,
+            null, mock(Stats.class), ContentNegotiation.NONE, null, ARGB_8888, false, false);
     Resources res = mock(Resources.class);
     TargetAction request =
         new TargetAction(picasso, target, null, 0, 0, null, URI_KEY_1, null, RESOURCE_ID_1);
@@ -26,10 +26,14 @@ import android.os.IBinder;
 import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.RemoteViews;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import javax.imageio.ImageIO;
+import okio.Buffer;
+import okio.ByteString;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
@@ -57,6 +61,7 @@ class TestUtils {
   static final String STABLE_1 = "stableExampleKey1";
   static final String URI_KEY_1 = createKey(new Request.Builder(URI_1).build());
   static final String URI_KEY_2 = createKey(new Request.Builder(URI_2).build());
+  static final CacheKey CACHE_KEY_1 = CacheKey.create(new Request.Builder(URI_1).build());
   static final String STABLE_URI_KEY_1 = createKey(new Request.Builder(URI_1).stableKey(STABLE_1).build());
   static final File FILE_1 = new File("C:\\windows\\system32\\logo.exe");
   static final String FILE_KEY_1 = createKey(new Request.Builder(Uri.fromFile(FILE_1)).build());
@@ -270,6 +275,103 @@ class TestUtils {
     return Bitmap.createBitmap(width, height, null);
   }
 
+  /**
+   * The start of a JPEG, up to its image data, whose first IFD holds a resolution tag followed by
+   * the EXIF {@code orientation}.
+   */
+  static Buffer makeJpegHeader(int orientation, boolean bigEndian) {
+    Buffer jpeg = new Buffer()
+        .writeShort(0xFFD8)
+        .writeShort(0xFFE0)
+        .writeShort(16)
+        .writeUtf8("JFIF\u0000")
+        .write(new byte[9]);
+    writeExifSegment(jpeg, orientation, bigEndian);
+    return jpeg.writeShort(0xFFDA).writeShort(2);
+  }
+
+  /** A whole JPEG of a single pixel with the EXIF {@code orientation}. */
+  static Buffer makeJpeg(int orientation) throws IOException {
+    Buffer image = new Buffer();
+    ImageIO.write(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), "jpg",
+        image.outputStream());
+    // Keep the JFIF segment first, and write the EXIF segment right after it.
+    long jfifEnd = 4 + image.getByte(4) * 256 + (image.getByte(5) & 0xFF);
+    Buffer jpeg = new Buffer();
+    image.read(jpeg, jfifEnd);
+    writeExifSegment(jpeg, orientation, true);
+    jpeg.writeAll(image);
+    return jpeg;
+  }
+
+  /** An {@link AssetBundle} of the files in {@code images}, alternating paths and contents. */
+  static Buffer makeAssetBundle(String... images) {
+    Buffer index = new Buffer()
+        .writeInt(AssetBundle.MAGIC)
+        .writeInt(AssetBundle.VERSION)
+        .writeInt(images.length / 2);
+    long indexSize = 12;
+    for (int i = 0; i < images.length; i += 2) {
+      indexSize += 2 + ByteString.encodeUtf8(images[i]).size() + 8;
+    }
+    Buffer data = new Buffer();
+    for (int i = 0; i < images.length; i += 2) {
+      ByteString path = ByteString.encodeUtf8(images[i]);
+      ByteString image = ByteString.encodeUtf8(images[i + 1]);
+      index.writeShort(path.size())
+          .write(path)
+          .writeInt((int) (indexSize + data.size()))
+          .writeInt(image.size());
+      data.write(image);
+    }
+    index.write(data, data.size());
+    return index;
+  }
+
+  private static void writeExifSegment(Buffer jpeg, int orientation, boolean bigEndian) {
+    Buffer tiff = new Buffer()
+        .write(ByteString.encodeUtf8(bigEndian ? "MM" : "II"));
+    writeShort(tiff, 42, bigEndian);
+    writeInt(tiff, 8, bigEndian);
+    writeShort(tiff, 2, bigEndian);
+    // X resolution, a rational stored elsewhere.
+    writeShort(tiff, 0x011A, bigEndian);
+    writeShort(tiff, 5, bigEndian);
+    writeInt(tiff, 1, bigEndian);
+    writeInt(tiff, 38, bigEndian);
+    // Orientation, a short stored in the entry.
+    writeShort(tiff, 0x0112, bigEndian);
+    writeShort(tiff, 3, bigEndian);
+    writeInt(tiff, 1, bigEndian);
+    writeShort(tiff, orientation, bigEndian);
+    writeShort(tiff, 0, bigEndian);
+    // No next IFD.
+    writeInt(tiff, 0, bigEndian);
+    writeInt(tiff, 72, bigEndian);
+    writeInt(tiff, 1, bigEndian);
+
+    jpeg.writeShort(0xFFE1)
+        .writeShort((int) (2 + 6 + tiff.size()))
+        .writeUtf8("Exif\u0000\u0000")
+        .write(tiff, tiff.size());
+  }
+
+  private static void writeShort(Buffer buffer, int value, boolean bigEndian) {
+    if (bigEndian) {
+      buffer.writeShort(value);
+    } else {
+      buffer.writeShortLe(value);
+    }
+  }
+
+  private static void writeInt(Buffer buffer, int value, boolean bigEndian) {
+    if (bigEndian) {
+      buffer.writeInt(value);
+    } else {
+      buffer.writeIntLe(value);
+    }
+  }
+
   private TestUtils() {
   }
 }
@@ -71,6 +71,18 @@ public class UtilsTest {
     assertThat(order1).isNotEqualTo(order2);
   }
 
+  @Test public void partialTransformationKeysArePrefixes() throws Exception {
+    Transformation t1 = new TestTransformation("foo", null);
+    Transformation t2 = new TestTransformation("bar", null);
+    Request plain = new Request.Builder(URI_1).resize(10, 10).build();
+    Request single = new Request.Builder(URI_1).resize(10, 10).transform(t1).build();
+    Request request = new Request.Builder(URI_1).resize(10, 10).transform(t1).transform(t2).build();
+
+    assertThat(createKey(request, new StringBuilder(), 0)).isEqualTo(createKey(plain));
+    assertThat(createKey(request, new StringBuilder(), 1)).isEqualTo(createKey(single));
+    assertThat(createKey(request, new StringBuilder(), 2)).isEqualTo(createKey(request));
+  }
+
   @Test public void detectedWebPFile() throws Exception {
     assertThat(isWebPFile(new Buffer().writeUtf8("RIFFxxxxWEBP"))).isTrue();
     assertThat(isWebPFile(new Buffer().writeUtf8("RIFFxxxxxWEBP"))).isFalse();